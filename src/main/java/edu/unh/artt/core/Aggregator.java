@@ -1,22 +1,46 @@
 package edu.unh.artt.core;
 
+import edu.unh.artt.core.error_sample.processing.OutboundFrameRing;
 import edu.unh.artt.core.error_sample.processing.SampleProcessor;
 import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
 import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.OutlierSummary;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
 import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import edu.unh.artt.core.history.HistoryStore;
+import edu.unh.artt.core.history.ModelSnapshot;
 import edu.unh.artt.core.models.ErrorModel;
+import edu.unh.artt.core.models.GaussianMixtureModel;
 import edu.unh.artt.core.outlier.OutlierDetector;
-import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Implements the AMTLV Combination algorithm. The algorithm computes the time error of a node's direct link partners,
@@ -32,10 +56,32 @@ import java.util.stream.Collectors;
 public class Aggregator<Sample extends TimeErrorSample> {
     final static Logger logger = LoggerFactory.getLogger(Aggregator.class);
 
-    /* Model used to represent the distribution of the visible network */
-    public final ErrorModel<Sample> network_model;
-    /* Outlier detection methodology used for constructing the outlier list */
-    private final OutlierDetector<Sample> network_outlier_detector;
+    /* Model used to represent the distribution of the visible network, and the outlier detection methodology used for
+     * constructing the outlier list. Swapped together, see {@link #swapModel(ErrorModel, Function)} */
+    private final AtomicReference<ModelState<Sample>> model_state = new AtomicReference<>();
+
+    private static class ModelState<Sample extends TimeErrorSample> {
+        final ErrorModel<Sample> model;
+        final OutlierDetector<Sample> detector;
+
+        ModelState(ErrorModel<Sample> networkModel, OutlierDetector<Sample> networkDetector) {
+            model = networkModel;
+            detector = networkDetector;
+        }
+    }
+
+    /* Samples added while a replacement model is being built, replayed into it before it is swapped in. Null unless a
+     * swap is in progress */
+    private volatile ConcurrentLinkedQueue<Sample> swap_backlog;
+    private final AtomicBoolean swap_in_progress = new AtomicBoolean(false);
+    /* Models whose window has already been scaled by the number of monitoring ports, so a model swapped back in after
+     * an earlier swap returned it is not scaled twice */
+    private final Set<ErrorModel<Sample>> prepared_models = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /* Set once the start-up warm-up has finished, see {@link #warmUp(TimeErrorSample, int, int)} */
+    private volatile boolean ready = false;
+    private volatile long startup_nanos = 0;
     /* Core processing unit of the information received on both monitoring and observation ports */
     private final AtomicReference<SampleProcessor<Sample>> sample_processor = new AtomicReference<>();
 
@@ -44,13 +90,119 @@ public class Aggregator<Sample extends TimeErrorSample> {
 
     /* Buffer with the most recently received outliers */
     private final AtomicReference<ArrayList<Sample>> outlier_buffer;
+    /* Outliers received since the last AMTLV summarized by clock handle, used in place of the outlier buffer */
+    private final AtomicReference<ConcurrentHashMap<Integer, OutlierSummary<Sample>>> outlier_summaries =
+            new AtomicReference<>(new ConcurrentHashMap<>());
+    private volatile boolean summarize_outliers = false;
     /* Most recently transmitted AMTLV */
     private final AtomicReference<AMTLVData<Sample>> prev_tx_amtlv = new AtomicReference<>();
 
+    /* Maximum number of frames encoded ahead of the Sync transmit slots */
+    private static final int OUTBOUND_RING_CAPACITY = 4;
+    /* Frames waiting for a Sync transmit slot, filled from frame_encoder. Also guards frame_encoder */
+    private final OutboundFrameRing outbound_frames = new OutboundFrameRing(OUTBOUND_RING_CAPACITY);
+    /* Lazy encoder of the AMTLV currently being transmitted one frame at a time */
+    private Iterator<byte[]> frame_encoder;
+
+    /* Producer that keeps the next AMTLV packaged and encoded ahead of the transmit path. Null unless enabled */
+    private volatile ExecutorService precompute_executor;
+    /* Data field size the producer encodes frames for */
+    private volatile int precompute_field_size;
+    /* Next AMTLV to transmit, swapped out by the transmit path and refilled by the producer */
+    private final AtomicReference<PreparedAMTLV<Sample>> staged_amtlv = new AtomicReference<>();
+    /* Held while an AMTLV is taken from the staged slot or packaged, so AMTLVs are staged and sent in the order they
+       were packaged (a delta could otherwise be sent after a newer base). Only packaging is done under it; the model is
+       re-sampled and frames are encoded outside of it. Taken after outbound_frames when both are needed */
+    private final Object staging_lock = new Object();
+    /* Incremented under staging_lock when the aggregator is cleared, so model data taken before is not packaged */
+    private long staging_epoch = 0;
+    /* Set while a refresh is waiting on the producer, so a burst of changes only queues one */
+    private final AtomicBoolean precompute_queued = new AtomicBoolean(false);
+    private final Consumer<ErrorModel<Sample>> refit_trigger = model -> requestPrecompute();
+
+    private static class PreparedAMTLV<Sample extends TimeErrorSample> {
+        final AMTLVData<Sample> amtlv;
+        /* Null until the producer has encoded it, or if encoding failed. The transmit path then encodes (and reports
+           any failure) itself */
+        final List<byte[]> frames;
+        final int field_size;
+
+        PreparedAMTLV(AMTLVData<Sample> data, List<byte[]> encoded, int fieldSize) {
+            amtlv = data;
+            frames = encoded;
+            field_size = fieldSize;
+        }
+    }
+
+    /* Model content taken for an AMTLV before it is packaged */
+    private static class ModelData {
+        static final ModelData NONE = new ModelData(null, null);
+        final GaussianMixture mixture;
+        /* Re-sampled set, sorted by the first dimension */
+        final double[][] samples;
+
+        ModelData(GaussianMixture parameters, double[][] resampled) {
+            mixture = parameters;
+            samples = resampled;
+        }
+    }
+
+    /* Number of consecutive deltas sent before a complete sample set is sent again, so partners that missed a delta
+     * can recover */
+    public static final int DELTA_REFRESH_INTERVAL = 8;
+    /* Change (in standard deviations of the model) below which a sample is not replaced. 0 disables delta encoding */
+    private volatile double delta_tolerance = 0;
+    /* Largest fraction of the sample set that can be replaced before a complete set is sent instead */
+    private volatile double max_delta_fraction = 0;
+    /* Sample set as it is known upstream, in the order the receiver holds it: sorted by the first dimension when sent
+       in full, with replacements placed at the index of the sample they replace. Replaced as a whole, never modified.
+       Guarded by itself */
+    private final TransmittedSet tx_sample_set = new TransmittedSet();
+
+    private static class TransmittedSet {
+        double[][] samples;
+        int sequence_id, deltas_since_full;
+    }
+
+    /* Sheds model work when overloaded. Null when disabled */
+    private volatile OverloadController overload_controller;
+    private final Consumer<ErrorModel<Sample>> refit_monitor = model -> {
+        OverloadController ctl = overload_controller;
+        if(ctl != null)
+            ctl.recordRefit(model.getLastRefitNanos());
+    };
+
+    /* Store recording outliers and model snapshots for later analysis. Null when disabled */
+    private volatile HistoryStore history_store;
+    /* Minimum time between model snapshots, in the time base of the samples */
+    private volatile long snapshot_interval;
+    private volatile long latest_sample_timestamp;
+    private final AtomicLong last_snapshot_timestamp = new AtomicLong(Long.MIN_VALUE);
+    private final Consumer<ErrorModel<Sample>> snapshot_recorder = model -> {
+        HistoryStore store = history_store;
+        long ts = latest_sample_timestamp, prev = last_snapshot_timestamp.get();
+        if(store != null && model.hasReachedMinSampleWindow()
+                && (prev == Long.MIN_VALUE || ts - prev >= snapshot_interval)
+                && last_snapshot_timestamp.compareAndSet(prev, ts))
+            store.recordSnapshot(ModelSnapshot.of(ts, model));
+    };
+
     /* Callback run when a new outlier has been detected */
     private final Vector<Consumer<Sample>> outlier_receipt_callbacks = new Vector<>();
+    /* Callback run with each per-clock outlier summary as it is closed for transmission */
+    private final Vector<Consumer<OutlierSummary<Sample>>> outlier_summary_callbacks = new Vector<>();
     private final Vector<Consumer<Sample>> new_samplereceipt_callbacks = new Vector<>();
 
+    /* Default per subscriber buffering of the publishers. Subscribers can choose their own when subscribing */
+    public static final int PUBLISHER_BUFFER_CAPACITY = 4096, PUBLISHER_BATCH_SIZE = 256;
+    /* Asynchronous alternatives to the callbacks, which cannot stall the threads adding samples */
+    private final BatchPublisher<Sample> sample_publisher = new BatchPublisher<>(PUBLISHER_BUFFER_CAPACITY,
+            PUBLISHER_BATCH_SIZE, BatchPublisher.OverflowPolicy.DROP_OLDEST);
+    private final BatchPublisher<Sample> outlier_publisher = new BatchPublisher<>(PUBLISHER_BUFFER_CAPACITY,
+            PUBLISHER_BATCH_SIZE, BatchPublisher.OverflowPolicy.DROP_OLDEST);
+    private final BatchPublisher<AMTLVData<Sample>> amtlv_publisher = new BatchPublisher<>(PUBLISHER_BUFFER_CAPACITY,
+            PUBLISHER_BATCH_SIZE, BatchPublisher.OverflowPolicy.DROP_OLDEST);
+
     /**
      * @param processor Instance used to process information received on both observation and monitoring ports
      * @param networkModel Method used to develop the network model
@@ -60,18 +212,96 @@ public class Aggregator<Sample extends TimeErrorSample> {
      */
     public Aggregator(SampleProcessor<Sample> processor, ErrorModel<Sample> networkModel,
                       OutlierDetector<Sample> networkDetector, int numMonPorts, int networkWindowSize) {
-        network_model = networkModel;
         network_window_size = networkWindowSize;
         num_monitoring_ports = numMonPorts;
 
-        int windowSize = network_model.getLocalWindowSize()*numMonPorts;
-        network_model.modifyWindowSize(windowSize);
-        outlier_buffer = new AtomicReference<>(new ArrayList<>(windowSize));
+        prepareModel(networkModel);
+        outlier_buffer = new AtomicReference<>(new ArrayList<>(networkModel.getLocalWindowSize()));
 
-        network_outlier_detector = networkDetector;
+        model_state.set(new ModelState<>(networkModel, networkDetector));
         setSampleProcessor(processor);
     }
 
+    private void prepareModel(ErrorModel<Sample> model) {
+        if(!prepared_models.add(model)) {
+            //Used by this aggregator before, only its window is out of date
+            model.clearData();
+            return;
+        }
+        model.modifyWindowSize(model.getLocalWindowSize() * num_monitoring_ports);
+        //Each monitoring port contributes the samples of one direct link partner to the local window
+        if(model instanceof GaussianMixtureModel)
+            ((GaussianMixtureModel<Sample>) model).setLocalWeight(num_monitoring_ports);
+    }
+
+    /**
+     * Start-up phase, run before any Syncs or AMTLVs are processed. Initializes the model backend (e.g. the python
+     * interpreter of a KDE) and runs the fit, estimate, outlier detection, and AMTLV encode and decode paths over a
+     * synthetic standard normal window, so the first real window neither waits on the backend nor runs cold code. The
+     * model is cleared afterwards. If samples were already received, only the backend is initialized.
+     * @param prototype Any sample of the aggregated type, used to build the synthetic samples
+     * @param maxDataFieldSize Data field size to encode AMTLV frames for
+     * @param rounds Number of times to run each path
+     * @return Time taken by the warm-up, in ns
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized long warmUp(Sample prototype, int maxDataFieldSize, int rounds) {
+        long start = System.nanoTime();
+        ModelState<Sample> state = model_state.get();
+        int size = state.model.getLocalWindowSize(), numDim = prototype.getNumDimensions();
+        Random rand = new Random(size);
+        List<double[]> draws = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            double[] point = new double[numDim];
+            for(int dim = 0; dim < numDim; dim++)
+                point[dim] = rand.nextGaussian();
+            draws.add(point);
+        }
+        List<Sample> synthetic = (List<Sample>) prototype.parseSamples(draws);
+
+        if(state.model.getSamples().isEmpty())
+            state.model.warmUp(synthetic, rounds, state.detector::isOutlier);
+        else {
+            logger.warn("Samples were received before the warm-up, only the model backend is initialized.");
+            state.model.initializeBackend();
+        }
+        sample_processor.get().warmUp(synthetic.subList(0, Math.min(size, network_window_size)), maxDataFieldSize,
+                rounds);
+
+        startup_nanos = System.nanoTime() - start;
+        ready = true;
+        logger.info("Warm-up finished in {} ms, ready to aggregate.", startup_nanos / 1000000);
+        return startup_nanos;
+    }
+
+    /**
+     * @return Whether or not the start-up warm-up has finished
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return Time taken by the start-up warm-up, in ns. 0 until it has finished.
+     */
+    public long getStartupNanos() {
+        return startup_nanos;
+    }
+
+    /**
+     * @return Model currently used to represent the distribution of the visible network
+     */
+    public ErrorModel<Sample> getNetworkModel() {
+        return model_state.get().model;
+    }
+
+    /**
+     * @return Outlier detector currently used, which is built on the current network model
+     */
+    public OutlierDetector<Sample> getOutlierDetector() {
+        return model_state.get().detector;
+    }
+
     /**
      * @return The information parsing methodology used for the combination algorithm.
      */
@@ -87,53 +317,651 @@ public class Aggregator<Sample extends TimeErrorSample> {
 
         //Process the results of the comparison between the observer port and monitor ports.
         proc.registerErrorComputeAction((sample -> {
-            if(network_model.hasReachedMinSampleWindow() && network_outlier_detector.isOutlier(sample)) {
-                outlier_receipt_callbacks.forEach(c -> c.accept(sample));
-                outlier_buffer.get().add(sample);
+            OverloadController ctl = overload_controller;
+            if(ctl != null) {
+                ctl.reportQueueDepth(proc.getPendingSampleCount());
+                ctl.enter();
             }
+            try {
+                latest_sample_timestamp = sample.getTimestamp();
+                //Every sample is still checked, only the model work is shed
+                ModelState<Sample> state = model_state.get();
+                if(state.model.hasReachedMinSampleWindow() && state.detector.isOutlier(sample)) {
+                    bufferOutlier(sample);
+                    requestPrecompute();
+                }
 
-            network_model.addSample(sample);
-            new_samplereceipt_callbacks.forEach(c->c.accept(sample));
+                Sample admitted = (ctl == null) ? sample : ctl.admit(sample);
+                if(admitted != null) {
+                    state.model.addSample(admitted);
+                    ConcurrentLinkedQueue<Sample> backlog = swap_backlog;
+                    if(backlog != null)
+                        backlog.add(admitted);
+                }
+                new_samplereceipt_callbacks.forEach(c->c.accept(sample));
+                sample_publisher.submit(sample);
+            } finally {
+                if(ctl != null)
+                    ctl.exit();
+            }
         }));
 
         //Process the AMTLVs received on any monitoring port
         proc.onAMTLVReceipt((amtlv) -> {
-            List<Sample> newSamps = amtlv.subnetwork_samples;
-            newSamps.forEach(s -> new_samplereceipt_callbacks.forEach(c -> c.accept(s)));
-            network_model.addSamples(newSamps);
-            logger.info("Received {} samples from AMTLV with clockId {}", newSamps.size(), Hex.encodeHex(amtlv.clock_id));
-            if(network_model.hasReachedMinSampleWindow()) {
-                AtomicLong outlSize = new AtomicLong(amtlv.subnetwork_outliers.size());
-                amtlv.subnetwork_outliers.stream().filter(network_outlier_detector::isOutlier).forEach((smp) -> {
-                    outlier_receipt_callbacks.forEach(c -> c.accept(smp));
-                    outlier_buffer.get().add(smp);
-                    outlSize.decrementAndGet();
-                });
-                logger.info("Observed {} reported outliers, {} were found to no longer be outliers relative to the" +
-                                " current model.", amtlv.subnetwork_outliers.size(), outlSize.get());
+            OverloadController ctl = overload_controller;
+            if(ctl != null) {
+                ctl.reportQueueDepth(proc.getPendingSampleCount());
+                ctl.enter();
+            }
+            try {
+                processAMTLV(proc, amtlv, ctl);
+            } finally {
+                if(ctl != null)
+                    ctl.exit();
             }
         });
+        //Mixture parameters of a partner that has left the network no longer describe any part of it
+        proc.getLinkPartners().onExpiry(partner -> model_state.get().model.removeParameters(partner.clock_handle));
         sample_processor.set(proc);
     }
 
+    /**
+     * Merges a received AMTLV into the network model and re-checks the outliers it reports. A delta AMTLV contributes
+     * the complete sample set of the sender with the replacements applied, like a complete set would, rather than only
+     * the samples that changed.
+     * @param proc Processor that received the AMTLV
+     * @param ctl Overload controller in effect when the AMTLV was received, or null
+     */
+    private void processAMTLV(SampleProcessor<Sample> proc, AMTLVData<Sample> amtlv, OverloadController ctl) {
+        ModelState<Sample> state = model_state.get();
+        //AMTLVs of a partner are delivered one at a time, so the cached set is the one this delta was applied to
+        List<Sample> newSamps = (amtlv.sample_delta == null) ? amtlv.subnetwork_samples
+                : proc.getPartnerSampleSets().getSampleSet(amtlv.clock_handle);
+        //Received samples may be decoded on each access, so skip the iteration when nobody is listening
+        if(!new_samplereceipt_callbacks.isEmpty())
+            newSamps.forEach(s -> new_samplereceipt_callbacks.forEach(c -> c.accept(s)));
+        sample_publisher.submitAll(newSamps);
+        amtlv_publisher.submit(amtlv);
+        if(!newSamps.isEmpty()) {
+            List<Sample> admitted = (ctl == null) ? newSamps : ctl.reservoir(newSamps);
+            state.model.addSamples(admitted);
+            ConcurrentLinkedQueue<Sample> backlog = swap_backlog;
+            if(backlog != null)
+                backlog.addAll(admitted);
+        }
+        if(amtlv.subnetwork_mixture != null && !state.model.mergeParameters(amtlv.clock_handle,
+                amtlv.subnetwork_mixture, amtlv.weight)) {
+            logger.warn("Received mixture parameters from clockId {}, but the network model cannot merge them.",
+                    ClockIdentityRegistry.shared().toHexString(amtlv.clock_handle));
+        }
+        if(logger.isDebugEnabled()) {
+            logger.debug("Received {} samples from AMTLV with clockId {}", newSamps.size(),
+                    ClockIdentityRegistry.shared().toHexString(amtlv.clock_handle));
+        }
+        if(state.model.hasReachedMinSampleWindow()) {
+            AtomicLong outlSize = new AtomicLong(amtlv.subnetwork_outliers.size());
+            amtlv.subnetwork_outliers.stream().filter(state.detector::isOutlier).forEach((smp) -> {
+                bufferOutlier(smp);
+                outlSize.decrementAndGet();
+            });
+            if(outlSize.get() < amtlv.subnetwork_outliers.size())
+                requestPrecompute();
+            logger.info("Observed {} reported outliers, {} were found to no longer be outliers relative to the" +
+                            " current model.", amtlv.subnetwork_outliers.size(), outlSize.get());
+
+            //A summary is kept if any of its reported outliers is still an outlier
+            int kept = 0;
+            for(OutlierSummary<Sample> summary : amtlv.subnetwork_outlier_summaries) {
+                if(state.detector.isOutlier(summary.min) || state.detector.isOutlier(summary.max)
+                        || state.detector.isOutlier(summary.last)) {
+                    if(bufferOutlierSummary(summary))
+                        notifyOutlier(summary.last);
+                    HistoryStore store = history_store;
+                    if(store != null)
+                        store.recordOutlier(summary.last);
+                    kept++;
+                }
+            }
+            if(kept > 0)
+                requestPrecompute();
+            if(!amtlv.subnetwork_outlier_summaries.isEmpty()) {
+                logger.info("Observed outlier summaries for {} clocks, {} were found to no longer be outliers " +
+                        "relative to the current model.", amtlv.subnetwork_outlier_summaries.size(),
+                        amtlv.subnetwork_outlier_summaries.size() - kept);
+            }
+        }
+    }
+
+    /**
+     * Places an outlier into the next AMTLV and notifies listeners. When outliers are summarized, listeners are only
+     * notified of the first outlier of each clock in an AMTLV interval.
+     */
+    private void bufferOutlier(Sample smp) {
+        HistoryStore store = history_store;
+        if(store != null)
+            store.recordOutlier(smp);
+        if(summarize_outliers) {
+            if(bufferOutlierSummary(OutlierSummary.of(smp)))
+                notifyOutlier(smp);
+        }
+        else {
+            notifyOutlier(smp);
+            outlier_buffer.get().add(smp);
+        }
+    }
+
+    private void notifyOutlier(Sample smp) {
+        outlier_receipt_callbacks.forEach(c -> c.accept(smp));
+        outlier_publisher.submit(smp);
+    }
+
+    /**
+     * @return True if this is the first summary of its clock since the summaries were last drained
+     */
+    private boolean bufferOutlierSummary(OutlierSummary<Sample> summary) {
+        AtomicBoolean first = new AtomicBoolean(false);
+        outlier_summaries.get().compute(summary.clock_handle, (handle, cur) -> {
+            first.set(cur == null);
+            return (cur == null) ? summary : cur.combine(summary);
+        });
+        return first.get();
+    }
+
+    /**
+     * Drains the buffered outlier summaries, notifying the summary callbacks of each.
+     */
+    private List<OutlierSummary<Sample>> drainOutlierSummaries() {
+        ConcurrentHashMap<Integer, OutlierSummary<Sample>> drained = outlier_summaries.getAndSet(new ConcurrentHashMap<>());
+        if(drained.isEmpty())
+            return List.of();
+        List<OutlierSummary<Sample>> summaries = new ArrayList<>(drained.values());
+        summaries.forEach(s -> outlier_summary_callbacks.forEach(c -> c.accept(s)));
+        return summaries;
+    }
+
     /**
      * Generates a new AMTLV to be transmitted upstream. The current outlier buffer will always be cleared out, with
      * every outlier being placed into the AMTLV. If the supplied error model deems itself to be significantly different
-     * from the previously transmitted model then the model will be resampled and inserted into the AMTLV.
+     * from the previously transmitted model then the model will be resampled and inserted into the AMTLV. If
+     * {@link #enablePrecompute(int) precompute} is enabled, the AMTLV staged by the background producer is returned, or
+     * if none is staged yet, an AMTLV holding only the buffered outliers.
      * @param maxDataFieldSize The maximum allowed size of the data field for an AMTLV.
      *                         See the javadoc for {@link SampleProcessor#amtlvToBytes(AMTLVData, int)} and associated
      *                         child classes.
      * @return List of newly generated AMTLVs.
      */
     public List<byte []> retrieveNewData(int maxDataFieldSize) {
+        PreparedAMTLV<Sample> prepared;
+        AMTLVData<Sample> packaged = null;
+        synchronized (staging_lock) {
+            prepared = staged_amtlv.getAndSet(null);
+            if(prepared == null) //Precompute is disabled, or the producer has not caught up
+                packaged = packageWithoutProducer();
+        }
+        if(prepared == null)
+            return sample_processor.get().amtlvToBytes(packaged, maxDataFieldSize);
+
+        requestPrecompute();
+        if(prepared.frames != null && prepared.field_size == maxDataFieldSize)
+            return prepared.frames;
+        return sample_processor.get().amtlvToBytes(prepared.amtlv, maxDataFieldSize);
+    }
+
+    /**
+     * Streaming alternative to {@link Aggregator#retrieveNewData(int)}, meant to be called once per Sync transmit
+     * slot. Frames of the current AMTLV are encoded lazily into an outbound ring as they are requested, and a new AMTLV
+     * is only generated once every frame of the previous one has been handed out.
+     * @param maxDataFieldSize The maximum allowed size of the data field for an AMTLV. Only applied when a new AMTLV is
+     *                         generated.
+     * @return The next AMTLV data field to transmit
+     */
+    public byte [] nextTransmitFrame(int maxDataFieldSize) {
+        synchronized (outbound_frames) {
+            byte[] frame = outbound_frames.poll();
+            if(frame != null)
+                return frame;
+
+            if(frame_encoder == null || !frame_encoder.hasNext()) {
+                PreparedAMTLV<Sample> prepared;
+                AMTLVData<Sample> amtlv;
+                synchronized (staging_lock) {
+                    prepared = staged_amtlv.getAndSet(null);
+                    amtlv = (prepared == null) ? packageWithoutProducer() : prepared.amtlv;
+                }
+                if(prepared != null)
+                    requestPrecompute();
+                frame_encoder = sample_processor.get().amtlvFrames(amtlv, maxDataFieldSize);
+            }
+            outbound_frames.refill(frame_encoder);
+            return outbound_frames.poll();
+        }
+    }
+
+    /**
+     * Starts a background producer that keeps the next AMTLV packaged and encoded, so that
+     * {@link #retrieveNewData(int)} only has to swap it out rather than drain outliers, re-sample the model, and encode
+     * frames on the transmit path. The staged AMTLV is rebuilt each time the model is re-fit or a new outlier is
+     * buffered, and after each one is taken. The transmit path never waits on the producer: if nothing is staged when
+     * data is requested, e.g. because the producer is still re-sampling the model, an AMTLV holding only the buffered
+     * outliers is sent, and the model goes out with the next staged AMTLV.
+     * @param maxDataFieldSize Data field size to encode frames for. Frames are re-encoded on the transmit path if a
+     *                         different size is requested.
+     */
+    public synchronized void enablePrecompute(int maxDataFieldSize) {
+        precompute_field_size = maxDataFieldSize;
+        if(precompute_executor == null) {
+            precompute_executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "amtlv-precompute");
+                t.setDaemon(true);
+                return t;
+            });
+            getNetworkModel().registerRefitCallback(refit_trigger);
+        }
+        requestPrecompute();
+    }
+
+    /**
+     * Stops the background producer. An AMTLV that was already staged is still sent by the next request.
+     */
+    public synchronized void disablePrecompute() {
+        if(precompute_executor == null)
+            return;
+        getNetworkModel().unregisterRefitCallback(refit_trigger);
+        precompute_executor.shutdown();
+        precompute_executor = null;
+    }
+
+    private void requestPrecompute() {
+        ExecutorService executor = precompute_executor;
+        if(executor != null && precompute_queued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::precompute);
+            } catch (RuntimeException e) { //Raced with disablePrecompute
+                precompute_queued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the staged AMTLV. A staged AMTLV that already carries the model is kept and only has the outliers
+     * buffered since appended, since re-sampling again would be wasted work. Otherwise a new AMTLV is packaged, keeping
+     * any outliers the staged one held. The model is re-sampled before, and the frames encoded after, staging_lock is
+     * held, so the transmit path is only ever held up by packaging.
+     */
+    private void precompute() {
+        precompute_queued.set(false);
+        long epoch;
+        synchronized (staging_lock) {
+            epoch = staging_epoch;
+        }
+        PreparedAMTLV<Sample> staged = staged_amtlv.get();
+        ModelData data = (staged != null && carriesModel(staged.amtlv)) ? ModelData.NONE : takeModelData();
+
+        PreparedAMTLV<Sample> prepared;
+        synchronized (staging_lock) {
+            if(epoch != staging_epoch) //Cleared while re-sampling, the data is from before
+                return;
+            PreparedAMTLV<Sample> prev = staged_amtlv.getAndSet(null);
+            AMTLVData<Sample> amtlv;
+            if(prev != null && carriesModel(prev.amtlv)) {
+                ArrayList<Sample> outliers = outlier_buffer.getAndSet(new ArrayList<>());
+                List<OutlierSummary<Sample>> summaries = drainOutlierSummaries();
+                if(outliers.isEmpty() && summaries.isEmpty() && prev.field_size == precompute_field_size) {
+                    staged_amtlv.set(prev);
+                    return;
+                }
+                amtlv = withOutliers(prev.amtlv, prev.amtlv, outliers, summaries);
+            }
+            else {
+                //If the transmit path took a staged AMTLV carrying the model meanwhile, data is empty and the model
+                //is still due, so the next refresh picks it up
+                amtlv = packageNewData(data);
+                if(prev != null && (!prev.amtlv.subnetwork_outliers.isEmpty()
+                        || !prev.amtlv.subnetwork_outlier_summaries.isEmpty())) {
+                    amtlv = withOutliers(amtlv, prev.amtlv, amtlv.subnetwork_outliers,
+                            amtlv.subnetwork_outlier_summaries);
+                }
+            }
+            prepared = new PreparedAMTLV<>(amtlv, null, precompute_field_size);
+            staged_amtlv.set(prepared);
+        }
+
+        List<byte[]> frames;
+        try {
+            frames = sample_processor.get().amtlvToBytes(prepared.amtlv, prepared.field_size);
+        } catch (RuntimeException e) {
+            logger.error("Failed to encode the staged AMTLV, it will be encoded on the transmit path.", e);
+            return;
+        }
+        //Discarded if the transmit path has taken the AMTLV in the meantime, it encodes the frames itself
+        staged_amtlv.compareAndSet(prepared, new PreparedAMTLV<>(prepared.amtlv, frames, prepared.field_size));
+    }
+
+    private static boolean carriesModel(AMTLVData<?> amtlv) {
+        return !amtlv.subnetwork_samples.isEmpty() || amtlv.subnetwork_mixture != null;
+    }
+
+    /**
+     * @param amtlv AMTLV to copy
+     * @param earlier AMTLV holding the outliers to place first
+     * @param outliers Outliers to place after those of the earlier AMTLV
+     * @param summaries Outlier summaries to merge after those of the earlier AMTLV
+     * @return Copy of the AMTLV holding the outliers of both, in order. If either holds summaries, every outlier is
+     * folded into a single summary per clock, since an AMTLV cannot carry both.
+     */
+    private AMTLVData<Sample> withOutliers(AMTLVData<Sample> amtlv, AMTLVData<Sample> earlier, List<Sample> outliers,
+                                           List<OutlierSummary<Sample>> summaries) {
+        List<Sample> allOutliers = List.of();
+        List<OutlierSummary<Sample>> allSummaries = List.of();
+        if(earlier.subnetwork_outlier_summaries.isEmpty() && summaries.isEmpty()) {
+            ArrayList<Sample> joined = new ArrayList<>(earlier.subnetwork_outliers.size() + outliers.size());
+            joined.addAll(earlier.subnetwork_outliers);
+            joined.addAll(outliers);
+            allOutliers = joined;
+        }
+        else {
+            LinkedHashMap<Integer, OutlierSummary<Sample>> merged = new LinkedHashMap<>();
+            earlier.subnetwork_outlier_summaries.forEach(s -> merged.merge(s.clock_handle, s, OutlierSummary::combine));
+            earlier.subnetwork_outliers.forEach(s -> merged.merge(s.getClockHandle(), OutlierSummary.of(s),
+                    OutlierSummary::combine));
+            summaries.forEach(s -> merged.merge(s.clock_handle, s, OutlierSummary::combine));
+            outliers.forEach(s -> merged.merge(s.getClockHandle(), OutlierSummary.of(s), OutlierSummary::combine));
+            allSummaries = new ArrayList<>(merged.values());
+        }
+        return new AMTLVData<>(amtlv.timestamp, amtlv.weight, amtlv.clock_id, amtlv.subnetwork_samples, allOutliers,
+                allSummaries, amtlv.subnetwork_mixture, amtlv.sample_delta, amtlv.sequence_id, amtlv.fragment_index,
+                amtlv.final_fragment);
+    }
+
+    /**
+     * Enables sending only the samples that changed since the previously transmitted sample set. Each new re-sampled
+     * set is sorted and compared rank by rank with the set known upstream; samples that moved by more than the
+     * tolerance are sent as replacements, tagged with the sequence number of the set they apply to. A complete set is
+     * still sent if too many samples changed, the window size changed, or after {@link #DELTA_REFRESH_INTERVAL}
+     * consecutive deltas.
+     * @param tolerance Change, in standard deviations of the model, under which a sample is left as is
+     * @param maxChangedFraction Largest fraction of the set that can be replaced by a delta (0, 1]
+     */
+    public void enableDeltaEncoding(double tolerance, double maxChangedFraction) {
+        if(!(tolerance > 0) || !(maxChangedFraction > 0) || maxChangedFraction > 1)
+            throw new IllegalArgumentException("Delta tolerance must be greater than 0 and the changed fraction must be " +
+                    "in (0, 1].");
+        max_delta_fraction = maxChangedFraction;
+        delta_tolerance = tolerance;
+    }
+
+    /**
+     * Reverts to sending a complete sample set each time the model is re-sampled.
+     */
+    public void disableDeltaEncoding() {
+        delta_tolerance = 0;
+    }
+
+    /**
+     * Reports outliers as one summary per clock identity and AMTLV interval rather than one entry per outlier, so a
+     * faulty node that keeps producing outliers costs one summary record per AMTLV instead of one record per Sync.
+     * Outlier callbacks and the outlier publisher are then only notified of the first outlier of each clock in an
+     * interval; the complete summaries are passed to the summary callbacks. Summaries received from downstream are
+     * merged regardless of this setting.
+     */
+    public void enableOutlierSummaries() {
+        summarize_outliers = true;
+    }
+
+    /**
+     * Reverts to reporting every outlier. Outliers already summarized are still sent as summaries.
+     */
+    public void disableOutlierSummaries() {
+        summarize_outliers = false;
+    }
+
+    /**
+     * Replaces the network model and outlier detector without pausing ingestion or outlier detection, e.g. to switch to
+     * a cheaper model or change the window size. The new model is built on a background thread: it is seeded from the
+     * window of the current model (see {@link ErrorModel#seedFrom(ErrorModel)}), then the samples added in the
+     * meantime are replayed into it, and the model and detector are swapped with a single reference update. Until the
+     * swap, the current model keeps being updated and used. Samples in flight during the swap itself may only reach
+     * the old model. Refit callbacks registered by this aggregator are moved to the new model.
+     * @param newModel Model to switch to. Its window size is scaled by the number of monitoring ports, as in the
+     *                 constructor. A model this aggregator used before (e.g. one returned by an earlier swap) keeps its
+     *                 scaled window size, but its samples are cleared before it is seeded.
+     * @param detectorFactory Builds the outlier detector for the new model
+     * @return Completes with the replaced model once the swap is done, leaving it to the caller to shut it down. Completes
+     * exceptionally, keeping the current model, if the new model could not be built.
+     */
+    public CompletableFuture<ErrorModel<Sample>> swapModel(ErrorModel<Sample> newModel,
+                                                           Function<ErrorModel<Sample>, OutlierDetector<Sample>> detectorFactory) {
+        if(newModel == null || detectorFactory == null)
+            throw new IllegalArgumentException("A model and outlier detector factory must be provided.");
+        if(newModel == getNetworkModel())
+            throw new IllegalArgumentException("The model is already the network model.");
+        if(!swap_in_progress.compareAndSet(false, true))
+            throw new IllegalStateException("A model swap is already in progress.");
+
+        ConcurrentLinkedQueue<Sample> backlog = new ConcurrentLinkedQueue<>();
+        swap_backlog = backlog;
+        CompletableFuture<ErrorModel<Sample>> replaced = new CompletableFuture<>();
+        Thread builder = new Thread(() -> {
+            try {
+                replaced.complete(buildAndSwap(newModel, detectorFactory, backlog));
+            } catch (RuntimeException e) {
+                logger.error("Failed to build the replacement network model, keeping the current model.", e);
+                replaced.completeExceptionally(e);
+            } finally {
+                swap_backlog = null;
+                swap_in_progress.set(false);
+            }
+        }, "model-swap");
+        builder.setDaemon(true);
+        builder.start();
+        return replaced;
+    }
+
+    private ErrorModel<Sample> buildAndSwap(ErrorModel<Sample> newModel,
+                                            Function<ErrorModel<Sample>, OutlierDetector<Sample>> detectorFactory,
+                                            ConcurrentLinkedQueue<Sample> backlog) {
+        long start = System.nanoTime();
+        prepareModel(newModel);
+        //The window may already hold samples that were also placed in the backlog
+        Set<Sample> seeded = Collections.newSetFromMap(new IdentityHashMap<>());
+        seeded.addAll(newModel.seedFrom(getNetworkModel()));
+        OutlierDetector<Sample> detector = detectorFactory.apply(newModel);
+        replay(newModel, backlog, seeded);
+
+        ModelState<Sample> prev;
+        synchronized (this) { //Keeps the callbacks from being registered on the old model in the meantime
+            replay(newModel, backlog, seeded);
+            prev = model_state.getAndSet(new ModelState<>(newModel, detector));
+            if(precompute_executor != null)
+                moveRefitCallback(prev.model, newModel, refit_trigger);
+            if(overload_controller != null)
+                moveRefitCallback(prev.model, newModel, refit_monitor);
+            if(history_store != null)
+                moveRefitCallback(prev.model, newModel, snapshot_recorder);
+        }
+        swap_backlog = null;
+        replay(newModel, backlog, seeded);
+        logger.info("Swapped the network model for a {} in {} ms.", newModel.getClass().getSimpleName(),
+                (System.nanoTime() - start) / 1000000);
+        requestPrecompute();
+        return prev.model;
+    }
+
+    private static <S extends TimeErrorSample> void moveRefitCallback(ErrorModel<S> from, ErrorModel<S> to,
+                                                                      Consumer<ErrorModel<S>> callback) {
+        from.unregisterRefitCallback(callback);
+        to.registerRefitCallback(callback);
+    }
+
+    private static <S extends TimeErrorSample> void replay(ErrorModel<S> model, ConcurrentLinkedQueue<S> backlog,
+                                                           Set<S> seeded) {
+        List<S> batch = new ArrayList<>();
+        for(S sample = backlog.poll(); sample != null; sample = backlog.poll()) {
+            if(!seeded.contains(sample))
+                batch.add(sample);
+        }
+        if(!batch.isEmpty())
+            model.addSamples(batch);
+    }
+
+    /**
+     * Starts shedding model work according to the given controller. Outlier detection still runs on every sample; only
+     * the samples added to the network model are subsampled while the controller reports an overload. The controller
+     * is given the refit time of the model and the number of samples pending in the sample processor.
+     * @param controller Controller measuring the load of this aggregator. Should not be shared between aggregators.
+     */
+    public synchronized void enableLoadShedding(OverloadController controller) {
+        if(controller == null)
+            throw new IllegalArgumentException("An overload controller must be provided.");
+        if(overload_controller == null)
+            getNetworkModel().registerRefitCallback(refit_monitor);
+        overload_controller = controller;
+    }
+
+    public synchronized void disableLoadShedding() {
+        if(overload_controller != null)
+            getNetworkModel().unregisterRefitCallback(refit_monitor);
+        overload_controller = null;
+    }
+
+    /**
+     * @return Controller used to shed model work, including its shedding rate, or null if load shedding is disabled
+     */
+    public OverloadController getOverloadController() {
+        return overload_controller;
+    }
+
+    /**
+     * Records every outlier placed into an AMTLV, and a snapshot of the model statistics after re-fits at most once per
+     * interval, to the given store. Received outlier summaries are recorded by their most recent outlier. Recording is
+     * asynchronous and never blocks the thread adding samples.
+     * @param store Store to record to. Remains owned by the caller, who is responsible for closing it.
+     * @param snapshotInterval Minimum time between model snapshots, in the time base of the sample timestamps
+     */
+    public synchronized void enableHistory(HistoryStore store, long snapshotInterval) {
+        if(store == null || snapshotInterval < 0)
+            throw new IllegalArgumentException("A history store and non-negative snapshot interval must be provided.");
+        if(history_store == null)
+            getNetworkModel().registerRefitCallback(snapshot_recorder);
+        snapshot_interval = snapshotInterval;
+        history_store = store;
+    }
+
+    public synchronized void disableHistory() {
+        if(history_store != null)
+            getNetworkModel().unregisterRefitCallback(snapshot_recorder);
+        history_store = null;
+    }
+
+    /**
+     * @return Store outliers and model snapshots are recorded to, or null if history is disabled
+     */
+    public HistoryStore getHistoryStore() {
+        return history_store;
+    }
+
+    /**
+     * Packages a new re-sampled set, either in full or as replacements for the set most recently sent.
+     * @param samples Re-sampled set, sorted by the first dimension
+     */
+    private AMTLVData<Sample> packageSamples(SampleProcessor<Sample> proc, long totalWeight, List<Sample> outliers,
+                                             double[][] samples) {
+        double tolerance = delta_tolerance;
+
+        synchronized (tx_sample_set) {
+            double[][] base = tx_sample_set.samples;
+            if(tolerance > 0 && base != null && base.length == samples.length
+                    && tx_sample_set.deltas_since_full < DELTA_REFRESH_INTERVAL) {
+                double[] stdevs = getNetworkModel().getStandardDeviation();
+                //Replacements leave the base in the order the receiver holds it, so it is compared rank by rank
+                int[] order = IntStream.range(0, base.length).boxed()
+                        .sorted(Comparator.comparingDouble(i -> base[i][0])).mapToInt(Integer::intValue).toArray();
+                int[] changed = new int[samples.length];
+                int numChanged = 0;
+                for(int r = 0; r < samples.length; r++) {
+                    for(int dim = 0; dim < samples[r].length; dim++) {
+                        if(Math.abs(samples[r][dim] - base[order[r]][dim]) > tolerance * stdevs[dim]) {
+                            changed[numChanged++] = r;
+                            break;
+                        }
+                    }
+                }
+
+                if(numChanged == 0) //Nothing upstream needs to change
+                    return proc.packageAMTLVData(totalWeight, outliers, new double[0][]);
+                if(numChanged <= max_delta_fraction * samples.length) {
+                    int[] indices = new int[numChanged];
+                    double[][] replacements = new double[numChanged][];
+                    double[][] updated = base.clone();
+                    for(int i = 0; i < numChanged; i++) {
+                        indices[i] = order[changed[i]];
+                        replacements[i] = updated[indices[i]] = samples[changed[i]];
+                    }
+                    AMTLVData<Sample> amtlv = proc.packageAMTLVData(totalWeight, outliers,
+                            new SampleDelta(tx_sample_set.sequence_id, base.length, indices), replacements);
+                    tx_sample_set.samples = updated;
+                    tx_sample_set.sequence_id = amtlv.sequence_id;
+                    tx_sample_set.deltas_since_full++;
+                    return amtlv;
+                }
+            }
+
+            AMTLVData<Sample> amtlv = proc.packageAMTLVData(totalWeight, outliers, samples);
+            tx_sample_set.samples = samples;
+            tx_sample_set.sequence_id = amtlv.sequence_id;
+            tx_sample_set.deltas_since_full = 0;
+            return amtlv;
+        }
+    }
+
+    /**
+     * Packages an AMTLV on the transmit path. If the producer is enabled it re-samples the model, so only the buffered
+     * outliers are packaged here. Must be called while holding staging_lock.
+     */
+    private AMTLVData<Sample> packageWithoutProducer() {
+        return packageNewData((precompute_executor == null) ? takeModelData() : ModelData.NONE);
+    }
+
+    /**
+     * Re-samples the model, or exports its parameters, if it has changed enough since the previous AMTLV. Parametric
+     * models send their mixture parameters rather than a re-sampled data set.
+     * @return Model content for the next AMTLV
+     */
+    private ModelData takeModelData() {
+        ErrorModel<Sample> model = getNetworkModel();
+        AMTLVData<Sample> prev = prev_tx_amtlv.get();
+        if(prev == null || !model.shouldResample(prev))
+            return ModelData.NONE;
+        GaussianMixture mixture = model.exportParameters();
+        if(mixture != null)
+            return new ModelData(mixture, null);
+        double[][] samples = model.resample(network_window_size);
+        Arrays.sort(samples, Comparator.comparingDouble(smp -> smp[0]));
+        return new ModelData(null, samples);
+    }
+
+    /**
+     * Drains the outlier buffer and packages it along with the given model content. Must be called while holding
+     * staging_lock.
+     * @return A new AMTLV to be transmitted upstream
+     */
+    private AMTLVData<Sample> packageNewData(ModelData data) {
+        SampleProcessor<Sample> proc = sample_processor.get();
         ArrayList<Sample> outliers = outlier_buffer.getAndSet(new ArrayList<>());
-        double[][] samples = (prev_tx_amtlv.get() != null && network_model.shouldResample(prev_tx_amtlv.get()))
-                ? network_model.resample(network_window_size)
-                : new double[0][];
-        long totalWeight = num_monitoring_ports + sample_processor.get().getNetworkRepresentation();
-        AMTLVData<Sample> amtlvData = sample_processor.get().packageAMTLVData(totalWeight, outliers, samples);
+        List<OutlierSummary<Sample>> summaries = drainOutlierSummaries();
+        long totalWeight = num_monitoring_ports + proc.getNetworkRepresentation();
+
+        AMTLVData<Sample> amtlvData;
+        if(data.mixture != null)
+            amtlvData = proc.packageAMTLVData(totalWeight, outliers, data.mixture);
+        else if(data.samples != null)
+            amtlvData = packageSamples(proc, totalWeight, outliers, data.samples);
+        else
+            amtlvData = proc.packageAMTLVData(totalWeight, outliers, new double[0][]);
+        if(!summaries.isEmpty())
+            amtlvData = withOutliers(amtlvData, amtlvData, List.of(), summaries);
         prev_tx_amtlv.set(amtlvData);
-        return sample_processor.get().amtlvToBytes(amtlvData, maxDataFieldSize);
+        return amtlvData;
     }
 
     public void registerOutlierReceiptCallback(Consumer<Sample> callback) {
@@ -144,6 +972,14 @@ public class Aggregator<Sample extends TimeErrorSample> {
         outlier_receipt_callbacks.remove(callback);
     }
 
+    public void registerOutlierSummaryCallback(Consumer<OutlierSummary<Sample>> callback) {
+        outlier_summary_callbacks.add(callback);
+    }
+
+    public void unregisterOutlierSummaryCallback(Consumer<OutlierSummary<Sample>> callback) {
+        outlier_summary_callbacks.remove(callback);
+    }
+
     public void registeNewSampleReceiptCallback(Consumer<Sample> callback) {
         new_samplereceipt_callbacks.add(callback);
     }
@@ -152,14 +988,54 @@ public class Aggregator<Sample extends TimeErrorSample> {
         new_samplereceipt_callbacks.remove(callback);
     }
 
+    /**
+     * @return Publisher of every sample added to the network model, both computed locally and received in AMTLVs
+     */
+    public BatchPublisher<Sample> getSamplePublisher() {
+        return sample_publisher;
+    }
+
+    /**
+     * @return Publisher of every outlier placed in the outlier buffer
+     */
+    public BatchPublisher<Sample> getOutlierPublisher() {
+        return outlier_publisher;
+    }
+
+    /**
+     * @return Publisher of every AMTLV received on a monitoring port
+     */
+    public BatchPublisher<AMTLVData<Sample>> getAMTLVPublisher() {
+        return amtlv_publisher;
+    }
+
     public void clearData() {
         outlier_buffer.get().clear();
-        network_model.clearData();
+        outlier_summaries.get().clear();
+        getNetworkModel().clearData();
+        synchronized (tx_sample_set) {
+            tx_sample_set.samples = null;
+        }
+        synchronized (outbound_frames) {
+            outbound_frames.clear();
+            frame_encoder = null;
+        }
+        synchronized (staging_lock) {
+            staging_epoch++;
+            staged_amtlv.set(null);
+        }
+        requestPrecompute();
     }
 
     public void stopAggregation() {
-        network_model.shutdown();
+        disablePrecompute();
+        disableHistory();
+        getNetworkModel().shutdown();
         sample_processor.get().stopProcessing();
         outlier_receipt_callbacks.clear();
+        outlier_summary_callbacks.clear();
+        sample_publisher.close();
+        outlier_publisher.close();
+        amtlv_publisher.close();
     }
 }
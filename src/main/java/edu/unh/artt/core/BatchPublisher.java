@@ -0,0 +1,292 @@
+package edu.unh.artt.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes items to any number of subscribers in batches, without ever blocking the thread submitting them. Each
+ * subscriber has its own bounded buffer, and each unit of demand (see {@link Flow.Subscription#request(long)}) is
+ * answered with a list of up to the maximum batch size of the oldest buffered items. Delivery runs on the given
+ * executor, so a slow subscriber only fills its own buffer; once full, the overflow policy decides which items are
+ * discarded.
+ * @param <T> Item type
+ */
+public class BatchPublisher<T> implements Flow.Publisher<List<T>> {
+    private final static Logger logger = LoggerFactory.getLogger(BatchPublisher.class);
+
+    /* Default delivery threads, shared by all publishers. Kept apart from the common fork join pool, which runs the
+       sample consumers and parallel model work that a slow subscriber would otherwise hold up. Idle threads exit */
+    private static final AtomicInteger delivery_thread_count = new AtomicInteger(0);
+    private static final ExecutorService default_executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "batch-publisher-" + delivery_thread_count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * What to do with a new item when a subscriber's buffer is full
+     */
+    public enum OverflowPolicy {
+        /* Discard the oldest buffered item to make room */
+        DROP_OLDEST,
+        /* Discard the new item */
+        DROP_NEWEST,
+        /* Keep only the most recent item. The subscriber always sees the latest state, but never a backlog */
+        CONFLATE
+    }
+
+    private final int default_capacity, max_batch_size;
+    private final OverflowPolicy default_policy;
+    private final Executor executor;
+
+    private final CopyOnWriteArrayList<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong(0);
+    private volatile boolean closed = false;
+
+    /**
+     * Delivers using daemon threads dedicated to publishers.
+     * @see BatchPublisher#BatchPublisher(int, int, OverflowPolicy, Executor)
+     */
+    public BatchPublisher(int bufferCapacity, int maxBatchSize, OverflowPolicy policy) {
+        this(bufferCapacity, maxBatchSize, policy, default_executor);
+    }
+
+    /**
+     * @param bufferCapacity Default number of items buffered per subscriber
+     * @param maxBatchSize Maximum number of items delivered per unit of demand
+     * @param policy Default overflow policy
+     * @param deliveryExecutor Executor on which subscribers are signalled
+     */
+    public BatchPublisher(int bufferCapacity, int maxBatchSize, OverflowPolicy policy, Executor deliveryExecutor) {
+        if(bufferCapacity < 1 || maxBatchSize < 1)
+            throw new IllegalArgumentException("Buffer capacity and batch size must be at least 1.");
+        if(policy == null || deliveryExecutor == null)
+            throw new IllegalArgumentException("An overflow policy and executor must be provided.");
+        default_capacity = bufferCapacity;
+        max_batch_size = maxBatchSize;
+        default_policy = policy;
+        executor = deliveryExecutor;
+    }
+
+    /**
+     * Subscribes with the default buffer capacity and overflow policy.
+     * @see Flow.Publisher#subscribe(Flow.Subscriber)
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+        subscribe(subscriber, default_capacity, default_policy);
+    }
+
+    /**
+     * @param subscriber Subscriber to add
+     * @param bufferCapacity Number of items buffered for the subscriber
+     * @param policy What to do with new items while the buffer is full
+     */
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber, int bufferCapacity, OverflowPolicy policy) {
+        if(subscriber == null)
+            throw new NullPointerException("Subscriber cannot be null.");
+        if(bufferCapacity < 1 || policy == null)
+            throw new IllegalArgumentException("Buffer capacity must be at least 1, and an overflow policy must be given.");
+        BufferedSubscription sub = new BufferedSubscription(subscriber, bufferCapacity, policy);
+        for(BufferedSubscription existing : subscriptions) {
+            if(existing.subscriber == subscriber) {
+                sub.fail(new IllegalStateException("Already subscribed."));
+                return;
+            }
+        }
+        subscriptions.add(sub);
+        if(closed)
+            sub.complete();
+        sub.schedule();
+    }
+
+    /**
+     * Buffers an item for every subscriber. Never blocks.
+     * @param item Item to publish
+     */
+    public void submit(T item) {
+        if(closed)
+            return;
+        for(BufferedSubscription sub : subscriptions)
+            sub.offer(List.of(item));
+    }
+
+    /**
+     * Buffers several items for every subscriber. Never blocks.
+     * @param items Items to publish, in order
+     */
+    public void submitAll(List<T> items) {
+        if(closed || items.isEmpty())
+            return;
+        for(BufferedSubscription sub : subscriptions)
+            sub.offer(items);
+    }
+
+    /**
+     * Completes every subscriber once its buffer has been delivered. Later items are ignored.
+     */
+    public void close() {
+        closed = true;
+        for(BufferedSubscription sub : subscriptions)
+            sub.complete();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getNumberOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return Number of items discarded across all subscribers because a buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private final class BufferedSubscription implements Flow.Subscription {
+        final Flow.Subscriber<? super List<T>> subscriber;
+        final int capacity;
+        final OverflowPolicy policy;
+
+        /* Guarded by the subscription */
+        final ArrayDeque<T> buffer;
+        final AtomicLong demand = new AtomicLong(0);
+        /* Serializes signals: only the thread that raised it from 0 drains */
+        final AtomicInteger wip = new AtomicInteger(0);
+        volatile boolean subscribed = false, completed = false, cancelled = false;
+        volatile Throwable error;
+
+        BufferedSubscription(Flow.Subscriber<? super List<T>> sub, int cap, OverflowPolicy pol) {
+            subscriber = sub;
+            capacity = (pol == OverflowPolicy.CONFLATE) ? 1 : cap;
+            policy = pol;
+            buffer = new ArrayDeque<>(Math.min(capacity, 1024));
+        }
+
+        void offer(List<T> items) {
+            if(cancelled)
+                return;
+            long numDropped = 0;
+            synchronized (this) {
+                for(T item : items) {
+                    if(buffer.size() < capacity)
+                        buffer.addLast(item);
+                    else if(policy == OverflowPolicy.DROP_NEWEST)
+                        numDropped++;
+                    else {
+                        buffer.pollFirst();
+                        buffer.addLast(item);
+                        numDropped++;
+                    }
+                }
+            }
+            if(numDropped > 0)
+                dropped.addAndGet(numDropped);
+            if(demand.get() > 0)
+                schedule();
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        void fail(Throwable t) {
+            error = t;
+            schedule();
+        }
+
+        void schedule() {
+            if(wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    logger.error("Unable to deliver to a subscriber, cancelling it.", e);
+                    cancel();
+                    wip.set(0);
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if(!subscribed) {
+                    subscribed = true;
+                    try {
+                        subscriber.onSubscribe(this);
+                    } catch (Throwable t) {
+                        logger.error("Subscriber threw from onSubscribe, cancelling it.", t);
+                        cancel();
+                    }
+                }
+                if(!cancelled && error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                }
+
+                while(!cancelled && demand.get() > 0) {
+                    List<T> batch;
+                    synchronized (this) {
+                        if(buffer.isEmpty())
+                            break;
+                        batch = new ArrayList<>(Math.min(buffer.size(), max_batch_size));
+                        while(batch.size() < max_batch_size && !buffer.isEmpty())
+                            batch.add(buffer.pollFirst());
+                    }
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(batch);
+                    } catch (Throwable t) {
+                        logger.error("Subscriber threw from onNext, cancelling it.", t);
+                        cancel();
+                    }
+                }
+
+                boolean empty;
+                synchronized (this) {
+                    empty = buffer.isEmpty();
+                }
+                if(!cancelled && completed && empty) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+            } while((missed = wip.addAndGet(-missed)) != 0);
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " batches, must be greater than 0."));
+                return;
+            }
+            //Saturate rather than overflow, Long.MAX_VALUE is effectively unbounded
+            demand.getAndUpdate(d -> (d + n < 0) ? Long.MAX_VALUE : d + n);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                buffer.clear();
+            }
+        }
+    }
+}
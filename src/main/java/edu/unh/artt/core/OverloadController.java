@@ -0,0 +1,294 @@
+package edu.unh.artt.core;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Sheds model work when samples arrive faster than they can be processed, e.g. when many monitoring ports come up at
+ * once. Load is measured from two sources:
+ * <ul>
+ *     <li>Ingestion backlog: the number of calls currently being processed, or the number of samples waiting to be
+ *     processed as reported by the owner through {@link OverloadController#reportQueueDepth(int)}, whichever is
+ *     larger. The {@link Aggregator} reports the samples its {@link
+ *     edu.unh.artt.core.error_sample.processing.SampleProcessor} has accepted but not yet delivered.</li>
+ *     <li>Model utilization: the moving average of the time the model takes to re-compute its distribution, divided
+ *     by the moving average of the time between arrivals. Above 1 the model is offered more refits than it can run,
+ *     regardless of how long a single refit takes. Arrivals are counted before any are shed, so shedding does not
+ *     hide the load it is responding to.</li>
+ * </ul>
+ * Each is divided by its threshold, and once the larger of the two exceeds 1 only that fraction of the samples is
+ * passed on to the model (never less than the minimum keep fraction). Shedding then continues, at the last fraction,
+ * until the load falls below {@link OverloadController#RESUME_LOAD}, so a load hovering around the threshold does not
+ * toggle it on every sample. Local samples are kept independently with that
+ * probability ({@link OverloadController#admit(TimeErrorSample)}), and received sample sets are reduced with
+ * reservoir sampling ({@link OverloadController#reservoir(List)}). In both cases the weight of each kept sample is
+ * scaled by the inverse of its probability of being kept, so the expected network representation that reaches the
+ * model is unchanged. Weights are integers, so the scaled weight is rounded up or down at random in proportion to its
+ * fractional part. Sample types that cannot be copied with a new weight (see {@link TimeErrorSample#withWeight(long)})
+ * are never shed.
+ */
+public class OverloadController {
+    private final static Logger logger = LoggerFactory.getLogger(OverloadController.class);
+
+    /* Smoothing factor of the refit latency and arrival interval moving averages */
+    private static final double LATENCY_SMOOTHING = 0.25;
+    /* Load below which shedding stops once started */
+    public static final double RESUME_LOAD = 0.8;
+
+    private final int max_queue_depth;
+    private final double max_utilization;
+    private final double min_keep_fraction;
+    private final LongSupplier nano_clock;
+
+    private final AtomicInteger in_flight = new AtomicInteger(0);
+    private volatile int reported_depth = 0;
+    private volatile double refit_latency = 0;
+    /* Time of the most recent arrival, and the moving average of the time between arrivals. 0 until measured */
+    private final AtomicLong last_arrival = new AtomicLong(0);
+    private volatile double arrival_interval = 0;
+
+    /* Fraction of the samples currently passed on to the model */
+    private volatile double keep_fraction = 1;
+    private final LongAdder offered = new LongAdder(), shed = new LongAdder();
+    /* Set once a sample type without support for re-weighting is seen, which disables shedding */
+    private volatile boolean reweighting_unsupported = false;
+
+    /**
+     * @param maxQueueDepth Ingestion backlog above which samples are shed
+     * @param maxUtilization Model utilization (refit time over time between arrivals) above which samples are shed,
+     *                       e.g. 1 to shed once the model cannot keep up
+     * @param minKeepFraction Smallest fraction of the samples passed on to the model, in (0, 1]
+     */
+    public OverloadController(int maxQueueDepth, double maxUtilization, double minKeepFraction) {
+        this(maxQueueDepth, maxUtilization, minKeepFraction, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock Source of the arrival times, in ns
+     * @see OverloadController#OverloadController(int, double, double)
+     */
+    OverloadController(int maxQueueDepth, double maxUtilization, double minKeepFraction, LongSupplier nanoClock) {
+        if(maxQueueDepth < 1 || !(maxUtilization > 0) || !(minKeepFraction > 0 && minKeepFraction <= 1))
+            throw new IllegalArgumentException("Thresholds must be greater than 0 and the minimum keep fraction must " +
+                    "be in (0, 1].");
+        max_queue_depth = maxQueueDepth;
+        max_utilization = maxUtilization;
+        min_keep_fraction = minKeepFraction;
+        nano_clock = nanoClock;
+    }
+
+    /**
+     * @param depth Number of samples waiting to be processed by the owner, e.g. in its receive queue
+     */
+    public void reportQueueDepth(int depth) {
+        if(depth < 0)
+            throw new IllegalArgumentException("Queue depth cannot be negative.");
+        reported_depth = depth;
+        updateKeepFraction();
+    }
+
+    /**
+     * @param nanos Time taken by the most recent re-fit of the model
+     */
+    public void recordRefit(long nanos) {
+        double prev = refit_latency;
+        refit_latency = (prev == 0) ? nanos : prev + LATENCY_SMOOTHING * (nanos - prev);
+        updateKeepFraction();
+    }
+
+    /**
+     * Marks the arrival and start of processing of a sample or sample set. Must be paired with
+     * {@link OverloadController#exit()}.
+     */
+    public void enter() {
+        long now = nano_clock.getAsLong(), prev = last_arrival.getAndSet(now);
+        if(prev != 0) {
+            double interval = Math.max(now - prev, 0), avg = arrival_interval;
+            arrival_interval = (avg == 0) ? interval : avg + LATENCY_SMOOTHING * (interval - avg);
+        }
+        in_flight.incrementAndGet();
+        updateKeepFraction();
+    }
+
+    /**
+     * Marks the end of processing started by {@link OverloadController#enter()}.
+     */
+    public void exit() {
+        in_flight.decrementAndGet();
+    }
+
+    private void updateKeepFraction() {
+        double load = Math.max((double) Math.max(in_flight.get(), reported_depth) / max_queue_depth,
+                getUtilization() / max_utilization);
+        double prev = keep_fraction, keep;
+        if(load > 1)
+            keep = Math.max(min_keep_fraction, 1 / load);
+        else
+            keep = (prev < 1 && load >= RESUME_LOAD) ? prev : 1;
+        keep_fraction = keep;
+        if(prev == 1 && keep < 1)
+            logger.info("Overloaded, passing {}% of samples on to the model.", Math.round(keep * 100));
+        else if(prev < 1 && keep == 1)
+            logger.info("No longer overloaded, passing every sample on to the model.");
+    }
+
+    /**
+     * Weighted subsampling of a single sample.
+     * @param sample Sample about to be added to the model
+     * @return The sample with its weight scaled by the inverse of the keep fraction, or null if it should be shed.
+     * The sample itself is returned when nothing is being shed.
+     */
+    public <S extends TimeErrorSample> S admit(S sample) {
+        offered.increment();
+        double keep = keep_fraction;
+        if(keep >= 1 || reweighting_unsupported)
+            return sample;
+        Random rand = ThreadLocalRandom.current();
+        if(rand.nextDouble() >= keep) {
+            shed.increment();
+            return null;
+        }
+        return reweigh(sample, scaleWeight(sample.getWeight(), 1 / keep, rand));
+    }
+
+    /**
+     * Reservoir sampling of a received sample set. Keeps ceil(keep fraction * size) samples, each sample having the
+     * same chance of being kept, and scales the weight of each by size / kept.
+     * @param samples Sample set about to be added to the model. Only read, so lazily decoded sets stay lazy for the
+     *                samples that are skipped.
+     * @return The kept samples in the order they were received, or the given list when nothing is being shed
+     */
+    public <S extends TimeErrorSample> List<S> reservoir(List<S> samples) {
+        int n = samples.size();
+        offered.add(n);
+        double keep = keep_fraction;
+        int k = (int) Math.ceil(keep * n);
+        if(keep >= 1 || k >= n || reweighting_unsupported)
+            return samples;
+
+        //Algorithm R over the indices, so skipped samples are never accessed
+        Random rand = ThreadLocalRandom.current();
+        int[] chosen = new int[k];
+        for(int i = 0; i < n; i++) {
+            if(i < k)
+                chosen[i] = i;
+            else {
+                int j = rand.nextInt(i + 1);
+                if(j < k)
+                    chosen[j] = i;
+            }
+        }
+        Arrays.sort(chosen);
+
+        double scale = (double) n / k;
+        List<S> kept = new ArrayList<>(k);
+        for(int idx : chosen) {
+            S s = samples.get(idx);
+            kept.add(reweigh(s, scaleWeight(s.getWeight(), scale, rand)));
+        }
+        if(reweighting_unsupported)
+            return samples;
+        shed.add(n - k);
+        return kept;
+    }
+
+    /**
+     * @return Copy of the sample with the given weight. The sample itself if its type does not support copying, in
+     * which case shedding is disabled from then on.
+     * @throws IllegalStateException If the copy is not of the same class as the sample
+     */
+    private <S extends TimeErrorSample> S reweigh(S sample, long weight) {
+        TimeErrorSample copy;
+        try {
+            copy = sample.withWeight(weight);
+        } catch (UnsupportedOperationException e) {
+            if(!reweighting_unsupported) {
+                reweighting_unsupported = true;
+                logger.warn("Samples cannot be re-weighted, model work will not be shed. {}", e.getMessage());
+            }
+            return sample;
+        }
+        if(copy == null || copy.getClass() != sample.getClass())
+            throw new IllegalStateException(sample.getClass().getName() + ".withWeight must return a copy of the " +
+                    "same class.");
+        //Checked above
+        @SuppressWarnings("unchecked")
+        S typed = (S) copy;
+        return typed;
+    }
+
+    private static long scaleWeight(long weight, double scale, Random rand) {
+        double scaled = weight * scale;
+        long base = (long) Math.floor(scaled);
+        return base + ((rand.nextDouble() < scaled - base) ? 1 : 0);
+    }
+
+    /**
+     * @return Fraction of the samples currently passed on to the model
+     */
+    public double getKeepFraction() {
+        return keep_fraction;
+    }
+
+    /**
+     * @return Fraction of the samples currently being shed, 0 when not overloaded
+     */
+    public double getSheddingRate() {
+        return 1 - keep_fraction;
+    }
+
+    /**
+     * @return Whether or not samples are currently being shed
+     */
+    public boolean isShedding() {
+        return keep_fraction < 1;
+    }
+
+    /**
+     * @return Moving average of the refit latency, in ns
+     */
+    public double getRefitLatency() {
+        return refit_latency;
+    }
+
+    /**
+     * @return Moving average of the refit latency over the moving average of the time between arrivals. 0 until both
+     * have been measured.
+     */
+    public double getUtilization() {
+        double interval = arrival_interval;
+        return (interval > 0) ? refit_latency / interval : 0;
+    }
+
+    /**
+     * @return Larger of the number of samples being processed and the last reported queue depth
+     */
+    public int getQueueDepth() {
+        return Math.max(in_flight.get(), reported_depth);
+    }
+
+    /**
+     * @return Number of samples offered to the controller
+     */
+    public long getOfferedCount() {
+        return offered.sum();
+    }
+
+    /**
+     * @return Number of samples that were not passed on to the model
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,123 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the fixed header at the start of each AMTLV data field. All fields are unsigned and big endian.
+ * Reads and writes use absolute positions on the given buffer, so nothing is allocated and the buffer position is left
+ * untouched. Writes are range checked so a value can never silently wrap on the wire.
+ *
+ * <table style="width:100%">
+ *     <tr><th>offset</th><th>length</th><th>name</th></tr>
+ *     <tr><td>0</td><td>4</td><td>Weight (# of devices represented)</td></tr>
+ *     <tr><td>4</td><td>2</td><td>Length of sample data (# of bytes)</td></tr>
+ *     <tr><td>6</td><td>2</td><td>Length of outlier data (# of bytes)</td></tr>
+ *     <tr><td>8</td><td>2</td><td>Sequence number of the logical AMTLV</td></tr>
+ *     <tr><td>10</td><td>2</td><td>Fragment index (12 bits). The most significant bit is set on the final fragment,
+ *     the next bit is set when the sample data holds mixture parameters rather than samples, the bit after that is
+ *     set when the sample data holds replacements for a previously sent sample set, and the next is set when the
+ *     outlier data holds per-clock outlier summaries rather than individual outliers</td></tr>
+ * </table>
+ */
+public final class AMTLVHeader {
+    public static final int SIZE = 12;
+
+    public static final long MAX_WEIGHT = 0xffffffffL;
+    public static final int MAX_LENGTH = 0xffff;
+    public static final int MAX_SEQUENCE_ID = 0xffff;
+    public static final int MAX_FRAGMENT_INDEX = 0x0fff;
+    private static final int FINAL_FRAGMENT_FLAG = 0x8000;
+    /* Flags describing the contents of the sample data, see {@link AMTLVHeader#write} */
+    public static final int PARAMETRIC_FLAG = 0x4000, DELTA_FLAG = 0x2000;
+    /* Flag describing the contents of the outlier data. May be combined with either of the sample data flags */
+    public static final int OUTLIER_SUMMARY_FLAG = 0x1000;
+
+    private static final int WEIGHT_OFFSET = 0, SAMPLE_LENGTH_OFFSET = 4, OUTLIER_LENGTH_OFFSET = 6,
+                             SEQUENCE_OFFSET = 8, FRAGMENT_OFFSET = 10;
+
+    private AMTLVHeader() {}
+
+    /**
+     * @param unit Size of a single record
+     * @return The largest length that fits in a length field and holds a whole number of records
+     */
+    public static int maxLength(int unit) {
+        return MAX_LENGTH - (MAX_LENGTH % unit);
+    }
+
+    /**
+     * Writes the header of a frame whose sample data holds samples.
+     * @see AMTLVHeader#write(ByteBuffer, int, long, int, int, int, int, boolean, boolean)
+     */
+    public static void write(ByteBuffer buf, int pos, long weight, int sampleLen, int outlierLen, int sequenceId,
+                             int fragmentIndex, boolean finalFragment) {
+        write(buf, pos, weight, sampleLen, outlierLen, sequenceId, fragmentIndex, finalFragment, 0);
+    }
+
+    /**
+     * Writes the header at the given position of the buffer.
+     * @param contentFlags Either 0, {@link AMTLVHeader#PARAMETRIC_FLAG}, or {@link AMTLVHeader#DELTA_FLAG}, optionally
+     *                     combined with {@link AMTLVHeader#OUTLIER_SUMMARY_FLAG}
+     * @throws IllegalArgumentException If any of the values do not fit in their field
+     */
+    public static void write(ByteBuffer buf, int pos, long weight, int sampleLen, int outlierLen, int sequenceId,
+                             int fragmentIndex, boolean finalFragment, int contentFlags) {
+        int sampleFlags = contentFlags & ~OUTLIER_SUMMARY_FLAG;
+        if(sampleFlags != 0 && sampleFlags != PARAMETRIC_FLAG && sampleFlags != DELTA_FLAG)
+            throw new IllegalArgumentException("Invalid AMTLV content flags " + Integer.toHexString(contentFlags));
+        checkRange("weight", weight, MAX_WEIGHT);
+        checkRange("sample length", sampleLen, MAX_LENGTH);
+        checkRange("outlier length", outlierLen, MAX_LENGTH);
+        checkRange("sequence id", sequenceId, MAX_SEQUENCE_ID);
+        checkRange("fragment index", fragmentIndex, MAX_FRAGMENT_INDEX);
+
+        buf.putInt(pos + WEIGHT_OFFSET, (int) weight);
+        buf.putShort(pos + SAMPLE_LENGTH_OFFSET, (short) sampleLen);
+        buf.putShort(pos + OUTLIER_LENGTH_OFFSET, (short) outlierLen);
+        buf.putShort(pos + SEQUENCE_OFFSET, (short) sequenceId);
+        buf.putShort(pos + FRAGMENT_OFFSET, (short) (fragmentIndex | (finalFragment ? FINAL_FRAGMENT_FLAG : 0)
+                | contentFlags));
+    }
+
+    private static void checkRange(String field, long value, long max) {
+        if(value < 0 || value > max)
+            throw new IllegalArgumentException("AMTLV " + field + " of " + value + " does not fit in the range [0, " +
+                    max + "].");
+    }
+
+    public static long readWeight(ByteBuffer buf, int pos) {
+        return Integer.toUnsignedLong(buf.getInt(pos + WEIGHT_OFFSET));
+    }
+
+    public static int readSampleLength(ByteBuffer buf, int pos) {
+        return Short.toUnsignedInt(buf.getShort(pos + SAMPLE_LENGTH_OFFSET));
+    }
+
+    public static int readOutlierLength(ByteBuffer buf, int pos) {
+        return Short.toUnsignedInt(buf.getShort(pos + OUTLIER_LENGTH_OFFSET));
+    }
+
+    public static int readSequenceId(ByteBuffer buf, int pos) {
+        return Short.toUnsignedInt(buf.getShort(pos + SEQUENCE_OFFSET));
+    }
+
+    public static int readFragmentIndex(ByteBuffer buf, int pos) {
+        return Short.toUnsignedInt(buf.getShort(pos + FRAGMENT_OFFSET)) & MAX_FRAGMENT_INDEX;
+    }
+
+    public static boolean readFinalFragment(ByteBuffer buf, int pos) {
+        return (buf.getShort(pos + FRAGMENT_OFFSET) & FINAL_FRAGMENT_FLAG) != 0;
+    }
+
+    public static boolean readParametric(ByteBuffer buf, int pos) {
+        return (buf.getShort(pos + FRAGMENT_OFFSET) & PARAMETRIC_FLAG) != 0;
+    }
+
+    public static boolean readDelta(ByteBuffer buf, int pos) {
+        return (buf.getShort(pos + FRAGMENT_OFFSET) & DELTA_FLAG) != 0;
+    }
+
+    public static boolean readOutlierSummary(ByteBuffer buf, int pos) {
+        return (buf.getShort(pos + FRAGMENT_OFFSET) & OUTLIER_SUMMARY_FLAG) != 0;
+    }
+}
@@ -0,0 +1,109 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ConcatenatedList;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
+import edu.unh.artt.core.error_sample.representation.OutlierSummary;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Collects the fragments of a logical AMTLV so that the combined sample set is handed to the model at once. Fragments
+ * are keyed on the clockId of the sender plus the sequence number of the logical AMTLV. Only one logical AMTLV is
+ * tracked per sender; if a fragment with a new sequence number arrives then any incomplete set from that sender is
+ * discarded, since it has been superseded.
+ * @param <Sample> Sample type to reassemble
+ */
+public class AMTLVReassembler<Sample extends TimeErrorSample> {
+    private final static Logger logger = LoggerFactory.getLogger(AMTLVReassembler.class);
+
+    /* Incomplete AMTLVs, indexed by the clock handle of the sender */
+    private final HashMap<Integer, PartialAMTLV> partial_amtlvs = new HashMap<>();
+
+    private class PartialAMTLV {
+        final int sequence_id;
+        final TreeMap<Integer, AMTLVData<Sample>> fragments = new TreeMap<>();
+        int last_index = -1;
+
+        PartialAMTLV(int seqId) {
+            sequence_id = seqId;
+        }
+    }
+
+    /**
+     * @param fragment Newly received fragment
+     * @return The reassembled AMTLV if the given fragment completed it, otherwise null
+     */
+    public synchronized AMTLVData<Sample> accept(AMTLVData<Sample> fragment) {
+        int key = fragment.clock_handle;
+        PartialAMTLV partial = partial_amtlvs.get(key);
+
+        //Fast path for an AMTLV that fit in a single frame
+        if(partial == null && fragment.fragment_index == 0 && fragment.final_fragment)
+            return fragment;
+
+        if(partial == null || partial.sequence_id != fragment.sequence_id) {
+            if(partial != null) {
+                logger.debug("Discarding incomplete AMTLV {} ({} fragments) after receiving AMTLV {}.",
+                        partial.sequence_id, partial.fragments.size(), fragment.sequence_id);
+            }
+            partial = new PartialAMTLV(fragment.sequence_id);
+            partial_amtlvs.put(key, partial);
+        }
+
+        partial.fragments.put(fragment.fragment_index, fragment);
+        if(fragment.final_fragment)
+            partial.last_index = fragment.fragment_index;
+
+        if(partial.last_index < 0 || partial.fragments.size() != partial.last_index + 1)
+            return null;
+
+        partial_amtlvs.remove(key);
+        //Sections are joined rather than copied, so lazily decoded fragments are not decoded here
+        List<List<Sample>> samples = new ArrayList<>();
+        List<List<Sample>> outliers = new ArrayList<>();
+        List<List<OutlierSummary<Sample>>> summaries = new ArrayList<>();
+        GaussianMixture mixture = null;
+        SampleDelta delta = null;
+        int [] indices = new int[0];
+        for(AMTLVData<Sample> frag : partial.fragments.values()) {
+            samples.add(frag.subnetwork_samples);
+            outliers.add(frag.subnetwork_outliers);
+            summaries.add(frag.subnetwork_outlier_summaries);
+            if(frag.subnetwork_mixture != null)
+                mixture = frag.subnetwork_mixture;
+            if(frag.sample_delta != null) { //Every fragment of a delta describes the same base
+                delta = frag.sample_delta;
+                int prev = indices.length;
+                indices = Arrays.copyOf(indices, prev + delta.indices.length);
+                System.arraycopy(delta.indices, 0, indices, prev, delta.indices.length);
+            }
+        }
+        List<Sample> allSamples = new ConcatenatedList<>(samples);
+        if(delta != null && indices.length != allSamples.size()) {
+            logger.error("Discarding AMTLV {} since it mixes replacement samples with a complete sample set.",
+                    fragment.sequence_id);
+            return null;
+        }
+        if(delta != null)
+            delta = new SampleDelta(delta.base_sequence, delta.set_size, indices);
+        return new AMTLVData<>(fragment.timestamp, fragment.weight, fragment.clock_id, allSamples,
+                new ConcatenatedList<>(outliers), new ConcatenatedList<>(summaries), mixture,
+                delta, fragment.sequence_id, 0, true);
+    }
+
+    /**
+     * Discards all incomplete AMTLVs
+     */
+    public synchronized void clear() {
+        partial_amtlvs.clear();
+    }
+}
@@ -0,0 +1,250 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the direct link partners that have sent AMTLVs to this node. Each partner records when it was last heard
+ * from, the network representation (weight) it last reported, and how many AMTLVs it has sent. The sum of the weights
+ * of all active partners is maintained as a running total, so it can be read in constant time. Partners that have not
+ * been heard from within the expiry period are removed from the total on a timer, so the weight reported upstream does
+ * not include nodes that have left the network.
+ *
+ * Partners are indexed by their clock handle (see {@link ClockIdentityRegistry}), and lookups are lock-free.
+ */
+public class LinkPartnerTable {
+    private final static Logger logger = LoggerFactory.getLogger(LinkPartnerTable.class);
+
+    /* Shared by all tables, expiry checks are short */
+    private static final ScheduledExecutorService expiry_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "link-partner-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /* Number of AMTLV fingerprints initially remembered per partner for duplicate suppression. The memo grows to hold
+       every fragment of the largest logical AMTLV the partner has sent */
+    private static final int FINGERPRINT_MEMO_SIZE = 8;
+
+    public static class LinkPartner {
+        public final int clock_handle;
+        /* Wall clock time (ms) of the most recent AMTLV */
+        private volatile long last_seen;
+        private volatile long weight;
+        private volatile boolean active = false;
+        private final AtomicLong amtlv_count = new AtomicLong(0), duplicate_count = new AtomicLong(0);
+
+        /* Ring of the fingerprints of the most recently received AMTLV frames, oldest replaced first, and the same
+           fingerprints hashed so a lookup does not scan the ring. Guarded by the partner */
+        private long[] recent_fingerprints = new long[FINGERPRINT_MEMO_SIZE];
+        private final HashSet<Long> fingerprint_index = new HashSet<>();
+        private int memo_size = 0, memo_next = 0;
+
+        LinkPartner(int handle) {
+            clock_handle = handle;
+        }
+
+        /**
+         * @return Wall clock time (ms) at which the partner last sent an AMTLV
+         */
+        public long getLastSeen() {
+            return last_seen;
+        }
+
+        /**
+         * @return Most recently reported network representation
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return Whether or not the partner is counted in the total weight (i.e. it has not expired)
+         */
+        public boolean isActive() {
+            return active;
+        }
+
+        /**
+         * @return Number of AMTLVs received from the partner
+         */
+        public long getAMTLVCount() {
+            return amtlv_count.get();
+        }
+
+        /**
+         * @return Number of AMTLVs that were skipped because they repeated a recently received payload
+         */
+        public long getDuplicateCount() {
+            return duplicate_count.get();
+        }
+    }
+
+    /* Indexed by clock handle. Only grows, and is replaced as a whole so lookups can skip the lock */
+    private volatile LinkPartner[] partners = new LinkPartner[0];
+    private final AtomicLong total_weight = new AtomicLong(0);
+
+    private final long expiry_ms;
+    private final ScheduledFuture<?> expiry_task;
+    /* Callbacks run with each partner that expires, after its weight has been removed */
+    private final Vector<Consumer<LinkPartner>> expiry_callbacks = new Vector<>();
+
+    /**
+     * @param expiry Period after which a partner that has not sent an AMTLV is removed from the total
+     * @param unit Unit of the expiry period
+     */
+    public LinkPartnerTable(long expiry, TimeUnit unit) {
+        expiry_ms = unit.toMillis(expiry);
+        if(expiry_ms < 1)
+            throw new IllegalArgumentException("Link partner expiry must be at least 1ms.");
+
+        long period = Math.max(1, expiry_ms / 4);
+        expiry_task = expiry_timer.scheduleAtFixedRate(() -> expire(System.currentTimeMillis()), period, period,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private LinkPartner getOrCreate(int handle) {
+        LinkPartner[] parts = partners;
+        if(handle < parts.length && parts[handle] != null)
+            return parts[handle];
+
+        synchronized (this) {
+            parts = partners;
+            if(handle >= parts.length)
+                parts = Arrays.copyOf(parts, Math.max(handle + 1, ClockIdentityRegistry.shared().size()));
+            if(parts[handle] == null)
+                parts[handle] = new LinkPartner(handle);
+            partners = parts;
+            return parts[handle];
+        }
+    }
+
+    /**
+     * Records an AMTLV received from a link partner, replacing the weight it previously reported.
+     * @param clockHandle Handle of the partner's clock identity
+     * @param weight Network representation reported in the AMTLV
+     * @param now Wall clock time (ms) of receipt
+     */
+    public void report(int clockHandle, long weight, long now) {
+        LinkPartner partner = getOrCreate(clockHandle);
+        partner.amtlv_count.incrementAndGet();
+        synchronized (partner) {
+            long prev = partner.active ? partner.weight : 0;
+            partner.weight = weight;
+            partner.last_seen = now;
+            partner.active = true;
+            total_weight.addAndGet(weight - prev);
+        }
+    }
+
+    /**
+     * Checks the fingerprint of a received AMTLV frame against the partner's recently received frames. A repeated frame
+     * still counts as hearing from the partner, so it keeps the partner from expiring. Enough fingerprints are kept to
+     * recognize every fragment of a repeated logical AMTLV, so large AMTLVs do not evict their own fingerprints.
+     * @param clockHandle Handle of the partner's clock identity
+     * @param fingerprint Fingerprint of the raw AMTLV data field
+     * @param fragmentIndex Index of the frame within its logical AMTLV
+     * @param now Wall clock time (ms) of receipt
+     * @return True if the frame has not been seen recently and should be processed, false if it is a duplicate
+     */
+    public boolean observe(int clockHandle, long fingerprint, int fragmentIndex, long now) {
+        if(fragmentIndex < 0 || fragmentIndex > AMTLVHeader.MAX_FRAGMENT_INDEX)
+            throw new IllegalArgumentException("Invalid AMTLV fragment index " + fragmentIndex);
+        LinkPartner partner = getOrCreate(clockHandle);
+        synchronized (partner) {
+            if(partner.fingerprint_index.contains(fingerprint)) {
+                partner.duplicate_count.incrementAndGet();
+                if(partner.active)
+                    partner.last_seen = Math.max(partner.last_seen, now);
+                return false;
+            }
+            long[] memo = partner.recent_fingerprints;
+            if(fragmentIndex >= memo.length) { //Grow, keeping the fingerprints oldest first
+                long[] grown = new long[Math.min(Math.max(fragmentIndex + 1, memo.length * 2),
+                        AMTLVHeader.MAX_FRAGMENT_INDEX + 1)];
+                for(int i = 0; i < partner.memo_size; i++)
+                    grown[i] = memo[(partner.memo_next - partner.memo_size + i + memo.length) % memo.length];
+                partner.memo_next = partner.memo_size;
+                partner.recent_fingerprints = memo = grown;
+            }
+            if(partner.memo_size == memo.length) //Replaces the oldest fingerprint
+                partner.fingerprint_index.remove(memo[partner.memo_next]);
+            memo[partner.memo_next] = fingerprint;
+            partner.fingerprint_index.add(fingerprint);
+            partner.memo_next = (partner.memo_next + 1) % memo.length;
+            partner.memo_size = Math.min(partner.memo_size + 1, memo.length);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the weight of any partner that has not been heard from within the expiry period.
+     * @param now Current wall clock time (ms)
+     * @return Number of partners that were expired
+     */
+    public int expire(long now) {
+        int expired = 0;
+        for(LinkPartner partner : partners) {
+            if(partner == null || !partner.active || now - partner.last_seen <= expiry_ms)
+                continue;
+            boolean removed = false;
+            synchronized (partner) {
+                if(partner.active && now - partner.last_seen > expiry_ms) {
+                    partner.active = false;
+                    total_weight.addAndGet(-partner.weight);
+                    expired++;
+                    logger.info("Link partner {} has not sent an AMTLV in {}ms, removing its weight of {}.",
+                            ClockIdentityRegistry.shared().toHexString(partner.clock_handle), now - partner.last_seen,
+                            partner.weight);
+                    removed = true;
+                }
+            }
+            if(removed)
+                expiry_callbacks.forEach(c -> c.accept(partner));
+        }
+        return expired;
+    }
+
+    /**
+     * Registers an action to be run each time a partner expires, e.g. to drop data received from it. Actions are run on
+     * the thread checking for expired partners, outside of any lock on the partner.
+     * @param callback Callback action, which is given the expired partner
+     */
+    public void onExpiry(Consumer<LinkPartner> callback) {
+        expiry_callbacks.add(callback);
+    }
+
+    /**
+     * @param clockHandle Handle of the partner's clock identity
+     * @return The partner, or null if it has never sent an AMTLV
+     */
+    public LinkPartner get(int clockHandle) {
+        LinkPartner[] parts = partners;
+        return (clockHandle >= 0 && clockHandle < parts.length) ? parts[clockHandle] : null;
+    }
+
+    /**
+     * @return Sum of the weights reported by all active partners
+     */
+    public long getTotalWeight() {
+        return total_weight.get();
+    }
+
+    /**
+     * Stops the expiry timer.
+     */
+    public void close() {
+        expiry_task.cancel(false);
+    }
+}
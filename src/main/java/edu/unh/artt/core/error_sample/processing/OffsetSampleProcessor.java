@@ -1,10 +1,14 @@
 package edu.unh.artt.core.error_sample.processing;
 
 import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
 import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.OffsetRecordList;
+import edu.unh.artt.core.error_sample.representation.OutlierSummary;
 import edu.unh.artt.core.error_sample.representation.PTPTimestamp;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
 import edu.unh.artt.core.error_sample.representation.SyncData;
-import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,8 +24,26 @@ import java.util.stream.Collectors;
 public class OffsetSampleProcessor extends SampleProcessor<OffsetGmSample> {
     private final static Logger logger = LoggerFactory.getLogger(OffsetSampleProcessor.class);
 
-    /* Record of the network representation values reported by direct link partners (indexed by clockId) */
-    private final HashMap<String, Long> network_rep = new HashMap<>();
+    /* Size of the weight, length, sequence, and fragment fields at the start of each AMTLV data field */
+    public static final int HEADER_SIZE = AMTLVHeader.SIZE;
+    /* Largest sample and outlier sections that fit in the header length fields */
+    private static final int MAX_SAMPLE_LENGTH = AMTLVHeader.maxLength(8), MAX_OUTLIER_LENGTH = AMTLVHeader.maxLength(16);
+    /* Size of an outlier summary: clockId, count (4 bytes), then the min, max, last, mean, and deviation (scaled ns) */
+    public static final int OUTLIER_SUMMARY_RECORD_SIZE = 52;
+    private static final int MAX_SUMMARY_LENGTH = AMTLVHeader.maxLength(OUTLIER_SUMMARY_RECORD_SIZE);
+    /* Size of a mixture component: weight, mean, and variance */
+    public static final int MIXTURE_RECORD_SIZE = 24;
+    /* Size of the base sequence and set size at the start of delta sample data, and of each (index, offset) record */
+    public static final int DELTA_HEADER_SIZE = 8, DELTA_RECORD_SIZE = 12;
+
+    public OffsetSampleProcessor() {}
+
+    /**
+     * @see SampleProcessor#SampleProcessor(long)
+     */
+    public OffsetSampleProcessor(long partnerExpiryMs) {
+        super(partnerExpiryMs);
+    }
 
     /**
      * Computes the offsetFromGm measurement of the downstream link partner with respect to the grandmaster.
@@ -57,78 +79,183 @@ public class OffsetSampleProcessor extends SampleProcessor<OffsetGmSample> {
      *     <tr>
      *         <td>0</td>
      *         <td>4</td>
-     *         <td>Weight (# of devices represented)</td>
+     *         <td>Weight (# of devices represented, unsigned)</td>
      *     </tr>
      *     <tr>
      *         <td>4</td>
      *         <td>2</td>
-     *         <td>Length of sample data (# of bytes, must be divisible by 8)</td>
+     *         <td>Length of sample data (# of bytes, must be divisible by 8, unsigned)</td>
      *     </tr>
      *     <tr>
      *         <td>6</td>
      *         <td>2</td>
-     *         <td>Length of outlier data (# of bytes, must be divisible by 16)</td>
+     *         <td>Length of outlier data (# of bytes, must be divisible by 16, or by 52 for summaries, unsigned)</td>
      *     </tr>
      *     <tr>
      *         <td>8</td>
+     *         <td>2</td>
+     *         <td>Sequence number of the logical AMTLV the frame belongs to</td>
+     *     </tr>
+     *     <tr>
+     *         <td>10</td>
+     *         <td>2</td>
+     *         <td>Fragment index within the logical AMTLV. The most significant bit is set on the final fragment, the
+     *         next bit is set if the sample data holds mixture parameters, the bit after that is set if the sample
+     *         data holds replacements for a previously sent sample set, and the next is set if the outlier data holds
+     *         per-clock summaries</td>
+     *     </tr>
+     *     <tr>
+     *         <td>12</td>
      *         <td>Sample data length</td>
-     *         <td>Sample data points</td>
+     *         <td>Sample data points, or mixture components when the parametric bit is set. Each component is the
+     *         weight (double), mean (scaled ns), and variance (double, ns^2). When the delta bit is set, the base
+     *         sequence number (2 bytes, followed by 2 reserved bytes) and size (4 bytes) of the sample set being
+     *         updated, followed by records of the replaced index (4 bytes) and new offset (scaled ns)</td>
      *     </tr>
      *     <tr>
-     *         <td>Sample data length + 8</td>
+     *         <td>Sample data length + 12</td>
      *         <td>Outlier data length</td>
-     *         <td>Outlier data points</td>
+     *         <td>Outlier data points, each the offset (scaled ns) and clockId. When the summary bit is set, one record
+     *         per clockId instead: the clockId, the number of outliers (4 bytes), and the minimum, maximum, most recent,
+     *         mean, and standard deviation of their offsets (scaled ns)</td>
      *     </tr>
      * </table>
      *
-     * @see SampleProcessor#processAMTLVData(long, byte[], byte[])
+     * @see SampleProcessor#decodeAMTLVData(long, byte[], byte[])
      * @return Representation of the AMTLV data field with OffsetFromGm samples
      */
     @Override
-    protected AMTLVData<OffsetGmSample> processAMTLVData(long rxTimestamp, byte [] rxClockId, byte[] amtlv) {
-        long weight = new BigInteger(Arrays.copyOfRange(amtlv, 0, 4)).longValue(); //Want unsigned
-        int sampleLen = 0xffff & new BigInteger(Arrays.copyOfRange(amtlv, 4, 6)).intValue();
-        int outlierLen = 0xffff & new BigInteger(Arrays.copyOfRange(amtlv, 6, 8)).intValue();
+    protected AMTLVData<OffsetGmSample> decodeAMTLVData(long rxTimestamp, byte [] rxClockId, byte[] amtlv) {
+        if(amtlv.length < HEADER_SIZE) {
+            logger.error("Failed to process offsetFromGm AMTLV data field because it was shorter than the header.");
+            return null;
+        }
 
-        if((amtlv.length-8) != outlierLen + sampleLen || amtlv.length % 8 != 0) {
+        //Samples and outliers are decoded from the data field on access, so it is copied in case the caller reuses it
+        ByteBuffer buf = ByteBuffer.wrap(amtlv.clone()).asReadOnlyBuffer();
+        long weight = AMTLVHeader.readWeight(buf, 0);
+        int sampleLen = AMTLVHeader.readSampleLength(buf, 0);
+        int outlierLen = AMTLVHeader.readOutlierLength(buf, 0);
+
+        boolean parametric = AMTLVHeader.readParametric(buf, 0), delta = AMTLVHeader.readDelta(buf, 0);
+        int recordLen = delta ? DELTA_RECORD_SIZE : 8;
+        int sectionLen = sampleLen - (delta ? DELTA_HEADER_SIZE : 0);
+        if((amtlv.length-HEADER_SIZE) != outlierLen + sampleLen || sectionLen < 0 || sectionLen % recordLen != 0) {
             logger.error("Failed to process offsetFromGm AMTLV data field because it was incorrectly formatted. The " +
                     "AMTLV data field length values did not match the true size of the field or the field was not " +
-                    "populated in segments of 8 bytes.");
+                    "populated in segments of " + recordLen + " bytes.");
             return null;
         }
 
-        if(outlierLen % 16 != 0) {
+        boolean summarized = AMTLVHeader.readOutlierSummary(buf, 0);
+        if(!summarized && outlierLen % 16 != 0) {
             logger.error("Failed to process offsetFromGm AMTLV data field because it was incorrectly formatted. The " +
                     "outlier list portion of the AMTLV data field must be populated in segments of 16 bytes (offset + " +
                     "clockId)");
             return null;
         }
+        if(summarized && outlierLen % OUTLIER_SUMMARY_RECORD_SIZE != 0) {
+            logger.error("Failed to process offsetFromGm AMTLV data field because it was incorrectly formatted. The " +
+                    "outlier summaries must be populated in segments of " + OUTLIER_SUMMARY_RECORD_SIZE + " bytes.");
+            return null;
+        }
 
-        //Keep track of the network representation reported by downstream partners
-        network_rep.put(Hex.encodeHexString(rxClockId), weight);
-
-        List<OffsetGmSample> samples = new LinkedList<>();
-        List<OffsetGmSample> outliers = new LinkedList<>();
-        for(int i = 8; i < amtlv.length; i += 8) {
-            double offset = PTPTimestamp.fromScaledNs(new BigInteger(Arrays.copyOfRange(amtlv, i, i+8)).longValue());
-            if(i >= (sampleLen+8)) { //Parse outliers
-                i += 8;
-                byte [] clockId = Arrays.copyOfRange(amtlv, i, i+8);
-                outliers.add(new OffsetGmSample(rxTimestamp, weight, offset, clockId));
-            } else { //Parse samples
-                samples.add(new OffsetGmSample(rxTimestamp, weight, offset, rxClockId));
+        if(parametric && (sampleLen == 0 || sampleLen % MIXTURE_RECORD_SIZE != 0)) {
+            logger.error("Failed to process offsetFromGm AMTLV data field because it was incorrectly formatted. The " +
+                    "mixture parameters must be populated in segments of " + MIXTURE_RECORD_SIZE + " bytes (weight + " +
+                    "mean + variance).");
+            return null;
+        }
+
+        GaussianMixture mixture = null;
+        if(parametric) {
+            int numComp = sampleLen / MIXTURE_RECORD_SIZE;
+            double[] weights = new double[numComp];
+            double[][] means = new double[numComp][1], variances = new double[numComp][1];
+            for(int k = 0, i = HEADER_SIZE; k < numComp; k++, i += MIXTURE_RECORD_SIZE) {
+                weights[k] = buf.getDouble(i);
+                means[k][0] = PTPTimestamp.fromScaledNs(buf.getLong(i + 8));
+                variances[k][0] = buf.getDouble(i + 16);
+            }
+            try {
+                mixture = new GaussianMixture(weights, means, variances);
+            } catch (IllegalArgumentException e) {
+                logger.error("Failed to process offsetFromGm AMTLV data field because the mixture parameters were " +
+                        "invalid: {}", e.getMessage());
+                return null;
             }
         }
 
-        return new AMTLVData<>(rxTimestamp, weight, rxClockId, samples, outliers);
-    }
+        int rxHandle;
+        try {
+            rxHandle = ClockIdentityRegistry.shared().intern(rxClockId);
+        } catch (IllegalStateException e) {
+            logger.error("Failed to process offsetFromGm AMTLV data field from a new clock: {}", e.getMessage());
+            return null;
+        }
 
-    /**
-     * @return The summed value of the representation values reported by downstream nodes
-     */
-    @Override
-    public long getNetworkRepresentation() {
-        return network_rep.values().stream().mapToLong(Long::longValue).sum(); //Sum of all reported representations
+        List<OffsetGmSample> samples = List.of();
+        SampleDelta sampleDelta = null;
+        if(delta) {
+            int numRecords = sectionLen / DELTA_RECORD_SIZE;
+            int [] indices = new int[numRecords];
+            for(int r = 0, i = HEADER_SIZE + DELTA_HEADER_SIZE; r < numRecords; r++, i += DELTA_RECORD_SIZE)
+                indices[r] = buf.getInt(i);
+            samples = OffsetRecordList.of(buf, HEADER_SIZE + DELTA_HEADER_SIZE, numRecords, DELTA_RECORD_SIZE, 4,
+                    rxHandle, rxTimestamp, weight);
+            try {
+                sampleDelta = new SampleDelta(Short.toUnsignedInt(buf.getShort(HEADER_SIZE)),
+                        buf.getInt(HEADER_SIZE + 4), indices);
+            } catch (IllegalArgumentException e) {
+                logger.error("Failed to process offsetFromGm AMTLV data field because the sample replacements were " +
+                        "invalid: {}", e.getMessage());
+                return null;
+            }
+        }
+
+        else if(!parametric)
+            samples = OffsetRecordList.of(buf, HEADER_SIZE, sampleLen / 8, 8, 0, rxHandle, rxTimestamp, weight);
+        List<OffsetGmSample> outliers = List.of();
+        List<OutlierSummary<OffsetGmSample>> summaries = List.of();
+        if(summarized) {
+            //Only one record per faulty clock, so summaries are decoded up front
+            summaries = new ArrayList<>(outlierLen / OUTLIER_SUMMARY_RECORD_SIZE);
+            for(int i = HEADER_SIZE + sampleLen; i < amtlv.length; i += OUTLIER_SUMMARY_RECORD_SIZE) {
+                long count = Integer.toUnsignedLong(buf.getInt(i + 8));
+                try {
+                    int handle = ClockIdentityRegistry.shared().intern(buf.getLong(i));
+                    OffsetGmSample[] extremes = new OffsetGmSample[3];
+                    for(int e = 0; e < extremes.length; e++) {
+                        extremes[e] = new OffsetGmSample(rxTimestamp, weight,
+                                PTPTimestamp.fromScaledNs(buf.getLong(i + 12 + e * 8)), handle);
+                    }
+                    summaries.add(OutlierSummary.of(handle, count, extremes[0], extremes[1], extremes[2],
+                            PTPTimestamp.fromScaledNs(buf.getLong(i + 36)),
+                            PTPTimestamp.fromScaledNs(buf.getLong(i + 44))));
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    logger.error("Failed to process offsetFromGm AMTLV data field because an outlier summary was " +
+                            "invalid: {}", e.getMessage());
+                    return null;
+                }
+            }
+        } else {
+            OffsetRecordList records = OffsetRecordList.ofOutliers(buf, HEADER_SIZE + sampleLen,
+                    outlierLen / OffsetRecordList.OUTLIER_RECORD_SIZE, rxTimestamp, weight);
+            //Registered up front so an AMTLV naming more clocks than the registry can hold is rejected as a whole
+            try {
+                for(int i = 0; i < records.size(); i++)
+                    records.getClockHandle(i);
+            } catch (IllegalStateException e) {
+                logger.error("Failed to process offsetFromGm AMTLV data field because of an outlier from a new " +
+                        "clock: {}", e.getMessage());
+                return null;
+            }
+            outliers = records;
+        }
+
+        return new AMTLVData<>(rxTimestamp, weight, rxClockId, samples, outliers, summaries, mixture, sampleDelta,
+                AMTLVHeader.readSequenceId(buf, 0), AMTLVHeader.readFragmentIndex(buf, 0),
+                AMTLVHeader.readFinalFragment(buf, 0));
     }
 
     /**
@@ -139,80 +266,194 @@ public class OffsetSampleProcessor extends SampleProcessor<OffsetGmSample> {
     @Override
     public AMTLVData<OffsetGmSample> packageAMTLVData(long networkRep, List<OffsetGmSample> outliers, double[][] resampledData) {
         List<OffsetGmSample> samples = Arrays.stream(resampledData).map(
-                samp -> new OffsetGmSample(0, networkRep, samp[0], new byte[8])).collect(Collectors.toList());
+                samp -> new OffsetGmSample(0, networkRep, samp[0])).collect(Collectors.toList());
 
-        return new AMTLVData<>(0, networkRep, new byte[8], samples,outliers);
+        return new AMTLVData<>(0, networkRep, new byte[8], samples, outliers, nextSequenceId(), 0, true);
+    }
+
+    /**
+     * Packages the mixture parameters, outliers, and network representation into an AMTLV. The mixture must be one
+     * dimensional.
+     * @see SampleProcessor#packageAMTLVData(long, List, GaussianMixture)
+     */
+    @Override
+    public AMTLVData<OffsetGmSample> packageAMTLVData(long networkRep, List<OffsetGmSample> outliers, GaussianMixture mixture) {
+        if(mixture.getNumDimensions() != 1)
+            throw new IllegalArgumentException("OffsetFromGm mixtures must be one dimensional.");
+        return new AMTLVData<>(0, networkRep, new byte[8], List.of(), outliers, mixture, nextSequenceId(), 0, true);
+    }
+
+    /**
+     * Packages replacements for part of the previously sent sample set into an AMTLV.
+     * @see SampleProcessor#packageAMTLVData(long, List, SampleDelta, double[][])
+     */
+    @Override
+    public AMTLVData<OffsetGmSample> packageAMTLVData(long networkRep, List<OffsetGmSample> outliers, SampleDelta delta,
+                                                      double[][] replacements) {
+        List<OffsetGmSample> samples = Arrays.stream(replacements).map(
+                samp -> new OffsetGmSample(0, networkRep, samp[0])).collect(Collectors.toList());
+        return new AMTLVData<>(0, networkRep, new byte[8], samples, outliers, null, delta, nextSequenceId(), 0, true);
     }
 
     /**
      * Packages the given AMTLV data into something that can be transmitted on the wire. If the total amount of data
      * being packaged is greater than the maximum frame size then the data is segmented into multiple TLVs. Since
      * samples and outliers are processed per-sample by the upstream node then any number of TLVs can be used. Each
-     * byte array returned will have the first 8 bytes as the weight and length fields which will correspond to the
-     * data filled into the remainder of the byte array.
+     * byte array returned will have the first 12 bytes as the weight, length, sequence, and fragment fields which will
+     * correspond to the data filled into the remainder of the byte array.
      * @see SampleProcessor#amtlvToBytes(AMTLVData, int)
      */
     @Override
     public List<byte[]> amtlvToBytes(AMTLVData<OffsetGmSample> amtlv, int maxDataFieldSize) {
-        int remainingSampleLength = amtlv.subnetwork_samples.size() * 8; //offset
-        int remainingOutlierLength = amtlv.subnetwork_outliers.size() * 16; //offset + clockId
-        int headerSize = 8;
+        List<byte[]> tlvData = new LinkedList<>();
+        amtlvFrames(amtlv, maxDataFieldSize).forEachRemaining(tlvData::add);
+        return tlvData;
+    }
 
+    /**
+     * Encodes one frame at a time, so that only the frames which are actually transmitted are encoded.
+     * @see OffsetSampleProcessor#amtlvToBytes(AMTLVData, int)
+     */
+    @Override
+    public Iterator<byte[]> amtlvFrames(AMTLVData<OffsetGmSample> amtlv, int maxDataFieldSize) {
         //Make sure we can at least put one sample in
-        if(remainingOutlierLength > 0 && maxDataFieldSize < headerSize + 16 )
-            throw new IllegalArgumentException("Max frame size must be at least 24 bytes.");
-        else if(maxDataFieldSize < headerSize + 8)
-            throw new IllegalArgumentException("Max frame size must be at least 16 bytes.");
+        if(!amtlv.subnetwork_outliers.isEmpty() && maxDataFieldSize < HEADER_SIZE + 16)
+            throw new IllegalArgumentException("Max frame size must be at least " + (HEADER_SIZE + 16) + " bytes.");
+        else if(!amtlv.subnetwork_outlier_summaries.isEmpty()
+                && maxDataFieldSize < HEADER_SIZE + OUTLIER_SUMMARY_RECORD_SIZE)
+            throw new IllegalArgumentException("Max frame size must be at least " +
+                    (HEADER_SIZE + OUTLIER_SUMMARY_RECORD_SIZE) + " bytes to hold outlier summaries.");
+        else if(maxDataFieldSize < HEADER_SIZE + 8)
+            throw new IllegalArgumentException("Max frame size must be at least " + (HEADER_SIZE + 8) + " bytes.");
+        if(amtlv.weight < 0 || amtlv.weight > AMTLVHeader.MAX_WEIGHT)
+            throw new IllegalArgumentException("AMTLV weight of " + amtlv.weight + " cannot be represented.");
+        if(amtlv.sample_delta != null && maxDataFieldSize < HEADER_SIZE + DELTA_HEADER_SIZE + DELTA_RECORD_SIZE)
+            throw new IllegalArgumentException("Max frame size must be at least " +
+                    (HEADER_SIZE + DELTA_HEADER_SIZE + DELTA_RECORD_SIZE) + " bytes to hold sample replacements.");
+        if(amtlv.subnetwork_mixture != null) {
+            //Mixtures are never fragmented, so they must fit in the first frame
+            int mixtureLen = amtlv.subnetwork_mixture.getNumComponents() * MIXTURE_RECORD_SIZE;
+            if(!amtlv.subnetwork_samples.isEmpty())
+                throw new IllegalArgumentException("An AMTLV cannot hold both samples and mixture parameters.");
+            if(mixtureLen > Math.min(maxDataFieldSize - HEADER_SIZE, AMTLVHeader.MAX_LENGTH))
+                throw new IllegalArgumentException("Mixture of " + amtlv.subnetwork_mixture.getNumComponents() +
+                        " components does not fit in a " + maxDataFieldSize + " byte frame.");
+        }
 
-        List<byte[]> tlvData = new LinkedList<>();
-        do { //Compute the size of each TLV and fill in the headers
-            int sampLen = 0, outLen = 0;
-            if(remainingSampleLength > 0) { //Compute length of sample data, which has priority
-                sampLen = Math.min(remainingSampleLength, maxDataFieldSize - (maxDataFieldSize % 8) - headerSize);
-                remainingSampleLength -= sampLen;
+        return new FrameEncoder(amtlv, maxDataFieldSize);
+    }
+
+    private static class FrameEncoder implements Iterator<byte[]> {
+        private final AMTLVData<OffsetGmSample> amtlv;
+        private final int max_data_field_size;
+        private final Iterator<OffsetGmSample> sample_iterator, outlier_iterator;
+        private final Iterator<OutlierSummary<OffsetGmSample>> summary_iterator;
+
+        /* Size of each sample record, and of the data preceding the records in each frame */
+        private final int record_size, section_header_size;
+        /* Size of each outlier record, the largest outlier section, and the flag describing the section */
+        private final int outlier_record_size, max_outlier_length, outlier_flag;
+
+        private int remaining_sample_length, remaining_outlier_length, fragment_index = 0, delta_position = 0;
+        private boolean finished = false, mixture_pending;
+
+        FrameEncoder(AMTLVData<OffsetGmSample> amtlv, int maxDataFieldSize) {
+            this.amtlv = amtlv;
+            max_data_field_size = maxDataFieldSize;
+            record_size = (amtlv.sample_delta != null) ? DELTA_RECORD_SIZE : 8; //(index +) offset
+            section_header_size = (amtlv.sample_delta != null) ? DELTA_HEADER_SIZE : 0;
+            remaining_sample_length = amtlv.subnetwork_samples.size() * record_size;
+            boolean summarized = !amtlv.subnetwork_outlier_summaries.isEmpty();
+            outlier_record_size = summarized ? OUTLIER_SUMMARY_RECORD_SIZE : 16; //offset + clockId
+            max_outlier_length = summarized ? MAX_SUMMARY_LENGTH : MAX_OUTLIER_LENGTH;
+            outlier_flag = summarized ? AMTLVHeader.OUTLIER_SUMMARY_FLAG : 0;
+            remaining_outlier_length = (summarized ? amtlv.subnetwork_outlier_summaries.size()
+                    : amtlv.subnetwork_outliers.size()) * outlier_record_size;
+            mixture_pending = amtlv.subnetwork_mixture != null;
+            sample_iterator = amtlv.subnetwork_samples.iterator();
+            outlier_iterator = amtlv.subnetwork_outliers.iterator();
+            summary_iterator = amtlv.subnetwork_outlier_summaries.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !finished; //Always produces at least one frame, even if only the weight is being reported
+        }
+
+        @Override
+        public byte[] next() {
+            if(finished)
+                throw new NoSuchElementException();
+
+            int sampLen = 0, outLen = 0, contentFlags = 0;
+            if(mixture_pending) { //Checked to fit when the encoder was created
+                sampLen = amtlv.subnetwork_mixture.getNumComponents() * MIXTURE_RECORD_SIZE;
+                contentFlags = AMTLVHeader.PARAMETRIC_FLAG;
+                mixture_pending = false;
+            } else if(remaining_sample_length > 0) { //Compute length of sample data, which has priority
+                int space = Math.min(max_data_field_size - HEADER_SIZE, MAX_SAMPLE_LENGTH) - section_header_size;
+                int recordLen = Math.min(remaining_sample_length, space - (space % record_size));
+                remaining_sample_length -= recordLen;
+                sampLen = section_header_size + recordLen;
+                contentFlags = (amtlv.sample_delta != null) ? AMTLVHeader.DELTA_FLAG : 0;
             }
 
             //Compute length of outlier data if there is room left in this TLV
-            if(sampLen + headerSize < maxDataFieldSize && remainingOutlierLength > 0) {
-                int extSpace =  maxDataFieldSize - sampLen - headerSize;
-                outLen = Math.min(remainingOutlierLength, extSpace - (extSpace % 16));
-                remainingOutlierLength -= outLen;
+            if(sampLen + HEADER_SIZE < max_data_field_size && remaining_outlier_length > 0) {
+                int extSpace = Math.min(max_data_field_size - sampLen - HEADER_SIZE, max_outlier_length);
+                outLen = Math.min(remaining_outlier_length, extSpace - (extSpace % outlier_record_size));
+                remaining_outlier_length -= outLen;
             }
+            finished = remaining_sample_length + remaining_outlier_length == 0;
 
             //Initialize and fill in the header info
-            byte [] data = new byte[sampLen + outLen + headerSize];
-            System.arraycopy(ByteBuffer.allocate(4).putInt((int)amtlv.weight).array(), 0, data, 0, 4);
-            System.arraycopy(ByteBuffer.allocate(2).putShort((short)sampLen).array(), 0, data, 4, 2);
-            System.arraycopy(ByteBuffer.allocate(2).putShort((short)outLen).array(), 0, data, 6, 2);
-            tlvData.add(data);
-        } while(remainingSampleLength + remainingOutlierLength > 0);
-
-        Iterator<OffsetGmSample> sampleIterator = amtlv.subnetwork_samples.iterator();
-        Iterator<OffsetGmSample> outlierIterator = amtlv.subnetwork_outliers.iterator();
-        for(byte [] data : tlvData) {
-            int idx = 8; //Start after the header
-
-            //Start by filling samples first
-            while(sampleIterator.hasNext() && (idx+8) <= data.length) {
-                OffsetGmSample smpl = sampleIterator.next();
-                long offsetScaled = PTPTimestamp.toScaledNs(smpl.getSample()[0]);
-                System.arraycopy(ByteBuffer.allocate(8).putLong((offsetScaled)).array(), 0, data, idx, 8);
-                idx+=8;
+            byte [] data = new byte[sampLen + outLen + HEADER_SIZE];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            AMTLVHeader.write(buf, 0, amtlv.weight, sampLen, outLen, amtlv.sequence_id, fragment_index++, finished,
+                    contentFlags | outlier_flag);
+            buf.position(HEADER_SIZE);
+
+            //Start by filling samples (or the mixture) first
+            if(contentFlags == AMTLVHeader.DELTA_FLAG) {
+                SampleDelta delta = amtlv.sample_delta;
+                buf.putShort((short) delta.base_sequence);
+                buf.putShort((short) 0);
+                buf.putInt(delta.set_size);
+                for(int i = section_header_size; i < sampLen; i += record_size) {
+                    buf.putInt(delta.indices[delta_position++]);
+                    buf.putLong(PTPTimestamp.toScaledNs(sample_iterator.next().getSample(0)));
+                }
+            } else if(contentFlags == AMTLVHeader.PARAMETRIC_FLAG) {
+                GaussianMixture mixture = amtlv.subnetwork_mixture;
+                for(int k = 0; k < mixture.getNumComponents(); k++) {
+                    buf.putDouble(mixture.getWeight(k));
+                    buf.putLong(PTPTimestamp.toScaledNs(mixture.getMean(k, 0)));
+                    buf.putDouble(mixture.getVariance(k, 0));
+                }
+            } else {
+                for(int i = 0; i < sampLen; i += 8)
+                    buf.putLong(PTPTimestamp.toScaledNs(sample_iterator.next().getSample(0)));
             }
 
             //Fill the remainder with the outliers
-            while(outlierIterator.hasNext() && (idx+16) <= data.length) {
-                OffsetGmSample smpl = outlierIterator.next();
-                long offsetScaled = PTPTimestamp.toScaledNs(smpl.getSample()[0]);
-                System.arraycopy(ByteBuffer.allocate(8).putLong((offsetScaled)).array(), 0, data, idx, 8);
-                idx+=8;
-
-                System.arraycopy(smpl.getClockIdentity(), 0, data, idx, 8);
-                idx+=8;
+            for(int i = 0; i < outLen; i += outlier_record_size) {
+                if(outlier_flag != 0) {
+                    OutlierSummary<OffsetGmSample> summary = summary_iterator.next();
+                    buf.putLong(ClockIdentityRegistry.shared().getIdentity(summary.clock_handle));
+                    buf.putInt((int) Math.min(summary.count, 0xffffffffL));
+                    buf.putLong(PTPTimestamp.toScaledNs(summary.min.getSample(0)));
+                    buf.putLong(PTPTimestamp.toScaledNs(summary.max.getSample(0)));
+                    buf.putLong(PTPTimestamp.toScaledNs(summary.last.getSample(0)));
+                    buf.putLong(PTPTimestamp.toScaledNs(summary.getMean()));
+                    buf.putLong(PTPTimestamp.toScaledNs(summary.getDeviation()));
+                } else {
+                    OffsetGmSample smpl = outlier_iterator.next();
+                    buf.putLong(PTPTimestamp.toScaledNs(smpl.getSample(0)));
+                    buf.putLong(ClockIdentityRegistry.shared().getIdentity(smpl.getClockHandle()));
+                }
             }
+            return data;
         }
-
-        return tlvData;
     }
 
     @Override
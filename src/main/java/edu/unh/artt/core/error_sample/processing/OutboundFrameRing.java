@@ -0,0 +1,61 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import java.util.Iterator;
+
+/**
+ * Fixed capacity ring of encoded AMTLV frames waiting for a Sync transmit slot. Frames are pulled from a lazy encoder
+ * only when there is room in the ring, so an AMTLV is encoded incrementally as transmit slots open up rather than all
+ * at once.
+ */
+public class OutboundFrameRing {
+    private final byte[][] frames;
+    private int head = 0, count = 0;
+
+    /**
+     * @param capacity Maximum number of encoded frames held at once
+     */
+    public OutboundFrameRing(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Ring capacity must be at least 1.");
+        frames = new byte[capacity][];
+    }
+
+    /**
+     * Encodes frames from the given source until either the ring is full or the source is exhausted.
+     * @param source Lazy frame encoder
+     * @return Number of frames added
+     */
+    public synchronized int refill(Iterator<byte[]> source) {
+        int added = 0;
+        while(count < frames.length && source.hasNext()) {
+            frames[(head + count++) % frames.length] = source.next();
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * @return The oldest frame in the ring, or null if it is empty
+     */
+    public synchronized byte[] poll() {
+        if(count == 0)
+            return null;
+        byte[] frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+        return frame;
+    }
+
+    /**
+     * @return Number of frames in the ring
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        while(count > 0)
+            poll();
+    }
+}
@@ -1,17 +1,27 @@
 package edu.unh.artt.core.error_sample.processing;
 
 import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
 import edu.unh.artt.core.error_sample.representation.PTPTimestamp;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
 import edu.unh.artt.core.error_sample.representation.SyncData;
 import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -35,6 +45,20 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
     /* List of callbacks to run when a new AMTLV is parsed */
     private final Vector<Consumer<AMTLVData<Sample>>> amtlv_consumers = new Vector<>();
 
+    /* Combines AMTLV fragments so consumers only see complete AMTLVs */
+    private final AMTLVReassembler<Sample> reassembler = new AMTLVReassembler<>();
+    /* Most recent sample set of each link partner, used to apply delta AMTLVs */
+    private final SampleSetCache<Sample> sample_sets = new SampleSetCache<>();
+    /* Computed and received samples handed to the consumers that they have not returned from yet */
+    private final AtomicInteger pending_samples = new AtomicInteger(0);
+    /* Sequence number of the most recently packaged AMTLV */
+    private final AtomicInteger tx_sequence = new AtomicInteger(0);
+
+    /* Default period after which a silent link partner no longer counts towards the network representation */
+    public static final long DEFAULT_PARTNER_EXPIRY_MS = 10_000;
+    /* Direct link partners that have sent AMTLVs, along with the network representation they reported */
+    protected final LinkPartnerTable link_partners;
+
     /* Represents the sync message received most recently from the grandmaster. */
     //Initialized with values of 0. If the device operating is the grandmaster, only reverse Syncs are needed.
     private final AtomicReference<GmData> most_recent_meas = new AtomicReference<>(
@@ -52,12 +76,49 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
         }
     }
 
+    public SampleProcessor() {
+        this(DEFAULT_PARTNER_EXPIRY_MS);
+    }
+
+    /**
+     * @param partnerExpiryMs Period (ms) after which a link partner that has not sent an AMTLV no longer counts towards
+     *                        the network representation
+     */
+    public SampleProcessor(long partnerExpiryMs) {
+        link_partners = new LinkPartnerTable(partnerExpiryMs, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Unregisters all processing actions.
      */
     public final void stopProcessing() {
         sample_consumers.clear();
         amtlv_consumers.clear();
+        reassembler.clear();
+        sample_sets.clear();
+        link_partners.close();
+    }
+
+    /**
+     * @return Direct link partners that have sent AMTLVs
+     */
+    public LinkPartnerTable getLinkPartners() {
+        return link_partners;
+    }
+
+    /**
+     * @return Number of samples, computed or received in AMTLVs, currently being processed by the registered consumers.
+     * Grows when Syncs arrive on more threads than the consumers keep up with.
+     */
+    public int getPendingSampleCount() {
+        return pending_samples.get();
+    }
+
+    /**
+     * @return Most recent sample set received from each link partner
+     */
+    public SampleSetCache<Sample> getPartnerSampleSets() {
+        return sample_sets;
     }
 
     /**
@@ -85,27 +146,109 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
         GmData gmData = most_recent_meas.get();
         if(gmData != null) {
             Sample sample = computeTimeError(gmData.sync_data, gmData.mean_path_delay, revSyncData, peerMeanPathDelay);
-            if(addSample)
-                sample_consumers.parallelStream().forEach(action->action.accept(sample));
-            amtlv_consumers.parallelStream().forEach(action->action.accept(
-                    processAMTLVData(revSyncData.sync_receipt.getTimestamp(), revSyncData.clock_identity, revSyncData.amtlv)));
+            if(addSample) {
+                pending_samples.incrementAndGet();
+                try {
+                    sample_consumers.parallelStream().forEach(action->action.accept(sample));
+                } finally {
+                    pending_samples.decrementAndGet();
+                }
+            }
+            if(revSyncData.amtlv == null)
+                return;
+
+            //Downstream nodes may repeat an AMTLV until they have new data, which should only be ingested once
+            int clockHandle;
+            try {
+                clockHandle = ClockIdentityRegistry.shared().intern(revSyncData.clock_identity);
+            } catch (IllegalStateException e) {
+                logger.error("Dropping AMTLV from a new link partner: {}", e.getMessage());
+                return;
+            }
+            int fragmentIndex = (revSyncData.amtlv.length < AMTLVHeader.SIZE) ? 0
+                    : AMTLVHeader.readFragmentIndex(ByteBuffer.wrap(revSyncData.amtlv), 0);
+            if(!link_partners.observe(clockHandle, fingerprint(revSyncData.amtlv), fragmentIndex,
+                    System.currentTimeMillis()))
+                return;
+
+            AMTLVData<Sample> fragment = processAMTLVData(revSyncData.sync_receipt.getTimestamp(),
+                    revSyncData.clock_identity, revSyncData.amtlv);
+            AMTLVData<Sample> reassembled = (fragment == null) ? null : reassembler.accept(fragment);
+            AMTLVData<Sample> amtlv = (reassembled == null) ? null : sample_sets.accept(reassembled);
+            if(amtlv != null) {
+                int size = amtlv.subnetwork_samples.size();
+                pending_samples.addAndGet(size);
+                try {
+                    amtlv_consumers.parallelStream().forEach(action->action.accept(amtlv));
+                } finally {
+                    pending_samples.addAndGet(-size);
+                }
+            }
         }
     }
 
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Fast, non-cryptographic 64-bit hash of an AMTLV data field. Used to recognize AMTLVs that have already been
+     * ingested without decoding them.
+     * @param data Raw AMTLV data field
+     * @return Fingerprint of the data
+     */
+    static long fingerprint(byte [] data) {
+        long h = 0x9E3779B97F4A7C15L ^ data.length;
+        int i = 0;
+        for(; i + 8 <= data.length; i += 8) {
+            h ^= (long) LONG_VIEW.get(data, i) * 0xC2B2AE3D27D4EB4FL;
+            h = Long.rotateLeft(h, 31) * 0x9E3779B97F4A7C15L;
+        }
+        for(; i < data.length; i++)
+            h = (h ^ (data[i] & 0xff)) * 0x100000001B3L;
+
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return A new sequence number to identify a logical AMTLV, which may span multiple frames
+     */
+    protected final int nextSequenceId() {
+        return tx_sequence.incrementAndGet() & 0xffff;
+    }
+
     /**
      * @return The number of nodes represented by the downstream network. These are parsed from received TLVs and
-     * summed together.
+     * summed together. Partners that have stopped sending AMTLVs are not included.
      */
-    public abstract long getNetworkRepresentation();
+    public long getNetworkRepresentation() {
+        return link_partners.getTotalWeight();
+    }
 
     /**
-     * Processes the data field of a received AMTLV.
+     * Processes the data field of a received AMTLV, and records the network representation it reports for the sending
+     * link partner. The AMTLV may be one fragment of a larger logical AMTLV, in which case the returned data is
+     * combined with the remaining fragments before being passed on.
      * @param timestamp Timestamp of when the data was received
      * @param clockId Clock id of the device sending the AMTLV
      * @param AMTLV Data field of the AMTLV
-     * @return A parsed representation of the information contained within the AMTLV
+     * @return A parsed representation of the information contained within the AMTLV, or null if it was malformed
+     */
+    protected final AMTLVData<Sample> processAMTLVData(long timestamp, byte[] clockId, byte [] AMTLV) {
+        AMTLVData<Sample> amtlv = decodeAMTLVData(timestamp, clockId, AMTLV);
+        //Keep track of the network representation reported by downstream partners
+        if(amtlv != null)
+            link_partners.report(amtlv.clock_handle, amtlv.weight, System.currentTimeMillis());
+        return amtlv;
+    }
+
+    /**
+     * Parses the data field of an AMTLV without touching any partner state.
+     * @see SampleProcessor#processAMTLVData(long, byte[], byte[])
+     * @return A parsed representation of the information contained within the AMTLV, or null if it was malformed
      */
-    protected abstract AMTLVData<Sample> processAMTLVData(long timestamp, byte[] clockId, byte [] AMTLV);
+    protected abstract AMTLVData<Sample> decodeAMTLVData(long timestamp, byte[] clockId, byte [] AMTLV);
 
     /**
      * Packages newly computed data into an AMTLV to be transmitted upstream
@@ -116,6 +259,27 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
      */
     public abstract AMTLVData<Sample> packageAMTLVData(long networkRep, List<Sample> outliers, double [][] resampledData);
 
+    /**
+     * Packages the parameters of a parametric model into an AMTLV to be transmitted upstream, in place of re-sampled
+     * data.
+     * @param networkRep Number of nodes represented by the total network
+     * @param outliers Contents of the outlier buffer
+     * @param mixture Mixture parameters of the time error model
+     * @return AMTLV Java representation
+     */
+    public abstract AMTLVData<Sample> packageAMTLVData(long networkRep, List<Sample> outliers, GaussianMixture mixture);
+
+    /**
+     * Packages replacements for part of a previously transmitted sample set into an AMTLV to be transmitted upstream.
+     * @param networkRep Number of nodes represented by the total network
+     * @param outliers Contents of the outlier buffer
+     * @param delta Base set the replacements apply to, along with the index replaced by each sample
+     * @param replacements New value of each replaced sample
+     * @return AMTLV Java representation
+     */
+    public abstract AMTLVData<Sample> packageAMTLVData(long networkRep, List<Sample> outliers, SampleDelta delta,
+                                                       double [][] replacements);
+
     /**
      * Converts an AMTLV class to a byte representation for network transmission. If the data in the AMTLV is larger
      * than the max frame size then it is segmented into multiple TLVs.
@@ -125,6 +289,42 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
      */
     public abstract List<byte []> amtlvToBytes(AMTLVData<Sample> amtlv, int maxDataFieldSize);
 
+    /**
+     * Lazy version of {@link SampleProcessor#amtlvToBytes(AMTLVData, int)}, where each frame is only encoded when it
+     * is requested. The default implementation encodes every frame up front.
+     * @param amtlv AMTLV data
+     * @param maxDataFieldSize Maximum allowed size for the AMTLV data field
+     * @return Iterator over byte arrays which are less than or equal to the maximum frame size.
+     */
+    public Iterator<byte []> amtlvFrames(AMTLVData<Sample> amtlv, int maxDataFieldSize) {
+        return amtlvToBytes(amtlv, maxDataFieldSize).iterator();
+    }
+
+    /**
+     * Runs the AMTLV encode and decode paths over the given samples so they are compiled before the first real AMTLV
+     * is sent or received. No sequence number is used, and no partner or reassembly state is touched.
+     * @param samples Synthetic samples, sent as both the sample set and the outliers
+     * @param maxDataFieldSize Data field size to encode frames for
+     * @param rounds Number of times to encode and decode the AMTLV
+     * @return Checksum of the decoded values, so the work cannot be optimized away
+     */
+    public final double warmUp(List<Sample> samples, int maxDataFieldSize, int rounds) {
+        AMTLVData<Sample> amtlv = new AMTLVData<>(0, 1, new byte[8], samples, samples);
+        double checksum = 0;
+        for(int r = 0; r < rounds; r++) {
+            for(byte[] frame : amtlvToBytes(amtlv, maxDataFieldSize)) {
+                AMTLVData<Sample> decoded = decodeAMTLVData(0, amtlv.clock_id, frame);
+                if(decoded == null)
+                    continue;
+                for(Sample s : decoded.subnetwork_samples)
+                    checksum += s.getSample(0);
+                for(Sample s : decoded.subnetwork_outliers)
+                    checksum += s.getSample(0);
+            }
+        }
+        return checksum;
+    }
+
     /**
      * The core method of the SampleProcessor, where information from the grandmaster is compared with the information
      * from a reverse sync message to compute the associated time error.
@@ -165,6 +365,6 @@ public abstract class SampleProcessor<Sample extends TimeErrorSample> {
      * @param amtlvConsumer Callback action
      */
     public final void unregisterAMTLVReceiptAction(Consumer<AMTLVData<Sample>> amtlvConsumer) {
-        amtlv_consumers.add(amtlvConsumer);
+        amtlv_consumers.remove(amtlvConsumer);
     }
 }
@@ -0,0 +1,98 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the most recent sample set received from each link partner, so that AMTLVs holding only replacements for part
+ * of a set (see {@link SampleDelta}) can be applied. A delta is only applied if it was computed against the version of
+ * the set held here; otherwise its samples are dropped until the partner sends a complete set again. Outliers are
+ * unaffected either way.
+ * @param <Sample> Sample type to cache
+ */
+public class SampleSetCache<Sample extends TimeErrorSample> {
+    private final static Logger logger = LoggerFactory.getLogger(SampleSetCache.class);
+
+    private class SampleSet {
+        /* Received list until the first delta is applied, which copies it */
+        List<Sample> samples;
+        int sequence_id;
+
+        SampleSet(List<Sample> smpls, int seqId) {
+            samples = smpls;
+            sequence_id = seqId;
+        }
+    }
+
+    /* Most recent set received from each partner, indexed by clock handle */
+    private final HashMap<Integer, SampleSet> sample_sets = new HashMap<>();
+    private long applied_deltas = 0, dropped_deltas = 0;
+
+    /**
+     * Records a complete sample set, or applies a delta to the cached set of the sender.
+     * @param amtlv Reassembled AMTLV
+     * @return The AMTLV to pass on. If a delta could not be applied, a copy of the AMTLV without its samples.
+     */
+    public synchronized AMTLVData<Sample> accept(AMTLVData<Sample> amtlv) {
+        SampleDelta delta = amtlv.sample_delta;
+        if(delta == null) {
+            //AMTLVs with only outliers do not change the set
+            if(!amtlv.subnetwork_samples.isEmpty())
+                sample_sets.put(amtlv.clock_handle, new SampleSet(amtlv.subnetwork_samples, amtlv.sequence_id));
+            return amtlv;
+        }
+
+        SampleSet set = sample_sets.get(amtlv.clock_handle);
+        if(set == null || set.sequence_id != delta.base_sequence || set.samples.size() != delta.set_size) {
+            dropped_deltas++;
+            logger.debug("Dropping samples of AMTLV {} since its base {} is not the cached sample set {}.",
+                    amtlv.sequence_id, delta.base_sequence, (set == null) ? "(none)" : set.sequence_id);
+            return new AMTLVData<>(amtlv.timestamp, amtlv.weight, amtlv.clock_id, List.of(), amtlv.subnetwork_outliers,
+                    amtlv.subnetwork_outlier_summaries, amtlv.subnetwork_mixture, null, amtlv.sequence_id,
+                    amtlv.fragment_index, amtlv.final_fragment);
+        }
+
+        if(!(set.samples instanceof ArrayList))
+            set.samples = new ArrayList<>(set.samples);
+        for(int i = 0; i < delta.indices.length; i++)
+            set.samples.set(delta.indices[i], amtlv.subnetwork_samples.get(i));
+        set.sequence_id = amtlv.sequence_id;
+        applied_deltas++;
+        return amtlv;
+    }
+
+    /**
+     * @param clockHandle Handle of the partner's clock identity
+     * @return Current sample set of the partner, with every delta applied. Empty if none has been received.
+     */
+    public synchronized List<Sample> getSampleSet(int clockHandle) {
+        SampleSet set = sample_sets.get(clockHandle);
+        return (set == null) ? List.of() : Collections.unmodifiableList(new ArrayList<>(set.samples));
+    }
+
+    /**
+     * @return Number of deltas applied to a cached set
+     */
+    public synchronized long getAppliedDeltaCount() {
+        return applied_deltas;
+    }
+
+    /**
+     * @return Number of deltas whose samples were dropped because the base set was missing or out of date
+     */
+    public synchronized long getDroppedDeltaCount() {
+        return dropped_deltas;
+    }
+
+    public synchronized void clear() {
+        sample_sets.clear();
+    }
+}
@@ -13,19 +13,84 @@ public class AMTLVData<Sample extends TimeErrorSample> {
     public final long weight;
     /* Clock ID of the device generating the AMTLV. */
     public final byte [] clock_id;
+    /* Interned handle of clock_id */
+    public final int clock_handle;
     /* Timestamp of when the TLV was received */
     public final long timestamp;
 
+    /* Identifies the logical AMTLV that a fragment belongs to. Wraps at 16 bits */
+    public final int sequence_id;
+    /* Position of this fragment within the logical AMTLV, and whether or not it is the final fragment. An AMTLV that
+     * was not fragmented (or has been reassembled) is fragment 0 and the final fragment. */
+    public final int fragment_index;
+    public final boolean final_fragment;
+
     /* List of samples represented by the AMTLV. Size should match the network sample size */
     public final List<Sample> subnetwork_samples;
     /* List of outliers represented by the AMTLV. Can be any size */
     public final List<Sample> subnetwork_outliers;
+    /* Outliers summarized per clock identity, sent in place of the individual outliers. Can be any size */
+    public final List<OutlierSummary<Sample>> subnetwork_outlier_summaries;
+    /* Mixture parameters sent in place of samples by parametric models. Null if the AMTLV holds samples */
+    public final GaussianMixture subnetwork_mixture;
+    /* Set if the samples replace part of a previously sent sample set. Null if the samples are a complete set */
+    public final SampleDelta sample_delta;
 
     public AMTLVData(long timestamp, long weight, byte [] clockId, List<Sample> samples, List<Sample> outliers) {
+        this(timestamp, weight, clockId, samples, outliers, 0, 0, true);
+    }
+
+    /**
+     * @param sequenceId Identifies the logical AMTLV that the data belongs to
+     * @param fragmentIndex Position of the data within the logical AMTLV
+     * @param finalFragment Whether or not this is the last fragment of the logical AMTLV
+     */
+    public AMTLVData(long timestamp, long weight, byte [] clockId, List<Sample> samples, List<Sample> outliers,
+                     int sequenceId, int fragmentIndex, boolean finalFragment) {
+        this(timestamp, weight, clockId, samples, outliers, null, sequenceId, fragmentIndex, finalFragment);
+    }
+
+    /**
+     * @param mixture Mixture parameters representing the subnetwork. May be null.
+     * @see AMTLVData#AMTLVData(long, long, byte[], List, List, int, int, boolean)
+     */
+    public AMTLVData(long timestamp, long weight, byte [] clockId, List<Sample> samples, List<Sample> outliers,
+                     GaussianMixture mixture, int sequenceId, int fragmentIndex, boolean finalFragment) {
+        this(timestamp, weight, clockId, samples, outliers, mixture, null, sequenceId, fragmentIndex, finalFragment);
+    }
+
+    /**
+     * @param delta Indices replaced by the samples, if the samples are not a complete set. May be null.
+     * @see AMTLVData#AMTLVData(long, long, byte[], List, List, GaussianMixture, int, int, boolean)
+     */
+    public AMTLVData(long timestamp, long weight, byte [] clockId, List<Sample> samples, List<Sample> outliers,
+                     GaussianMixture mixture, SampleDelta delta, int sequenceId, int fragmentIndex, boolean finalFragment) {
+        this(timestamp, weight, clockId, samples, outliers, List.of(), mixture, delta, sequenceId, fragmentIndex,
+                finalFragment);
+    }
+
+    /**
+     * @param summaries Outliers summarized per clock identity. An AMTLV holds either individual outliers or summaries.
+     * @see AMTLVData#AMTLVData(long, long, byte[], List, List, GaussianMixture, SampleDelta, int, int, boolean)
+     */
+    public AMTLVData(long timestamp, long weight, byte [] clockId, List<Sample> samples, List<Sample> outliers,
+                     List<OutlierSummary<Sample>> summaries, GaussianMixture mixture, SampleDelta delta, int sequenceId,
+                     int fragmentIndex, boolean finalFragment) {
+        if(!outliers.isEmpty() && !summaries.isEmpty())
+            throw new IllegalArgumentException("An AMTLV cannot hold both outliers and outlier summaries.");
+        if(delta != null && delta.indices.length != samples.size())
+            throw new IllegalArgumentException("A replacement index must be provided for each sample.");
+        subnetwork_mixture = mixture;
+        sample_delta = delta;
+        sequence_id = sequenceId;
+        fragment_index = fragmentIndex;
+        final_fragment = finalFragment;
         this.weight = weight;
         clock_id = clockId;
+        clock_handle = ClockIdentityRegistry.shared().intern(clockId);
         subnetwork_samples = Collections.unmodifiableList(samples);
         subnetwork_outliers = Collections.unmodifiableList(outliers);
+        subnetwork_outlier_summaries = Collections.unmodifiableList(summaries);
         this.timestamp = timestamp;
     }
 }
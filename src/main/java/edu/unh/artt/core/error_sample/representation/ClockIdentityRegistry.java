@@ -0,0 +1,206 @@
+package edu.unh.artt.core.error_sample.representation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interns 64-bit clock identities into dense integer handles, so that samples and per-node tables can refer to a node
+ * with an int rather than a byte[8] or a hex String. Handles are assigned in order starting at 0, which makes them
+ * suitable as array indices. Handle 0 is always the empty (all zero) clock identity used by re-sampled data.
+ *
+ * Lookups are lock-free. New identities are added to the lookup table in place, and the table is only copied when it
+ * grows. Handles are never released, so since identities are read off the wire each registry is bounded to a fixed
+ * number of identities. Once the bound is reached new identities are rejected with an {@link IllegalStateException},
+ * rather than being mapped to an existing handle, so the data of distinct clocks is never merged. Handles are shared by
+ * every sample and table in the process through {@link ClockIdentityRegistry#shared()}, whose bound may be set with the
+ * {@value MAX_IDENTITIES_PROPERTY} system property.
+ */
+public final class ClockIdentityRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ClockIdentityRegistry.class);
+
+    public static final int EMPTY_HANDLE = 0;
+    /* Default bound on the number of registered identities */
+    public static final int DEFAULT_MAX_IDENTITIES = 1 << 16;
+    /* System property used to bound the shared registry */
+    public static final String MAX_IDENTITIES_PROPERTY = "artt.clock.max_identities";
+
+    private static final ClockIdentityRegistry shared_registry =
+            new ClockIdentityRegistry(Integer.getInteger(MAX_IDENTITIES_PROPERTY, DEFAULT_MAX_IDENTITIES));
+
+    /* Open addressing table from identity to handle + 1 (0 marks an empty slot), and the identity of each handle. A key
+       and its identity are written before the handle is published, and the table holds room for half as many
+       identities as it has slots */
+    private static final class Table {
+        final long[] keys;
+        final AtomicIntegerArray handles;
+        final long[] identities;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            handles = new AtomicIntegerArray(capacity);
+            identities = new long[capacity / 2];
+        }
+    }
+
+    private volatile Table table = new Table(64);
+    /* Number of registered identities. Written after the identity is added to the table */
+    private volatile int size = 0;
+    /* Maximum number of identities, including the empty identity */
+    private final int max_identities;
+    private final AtomicLong rejected_count = new AtomicLong(0);
+
+    /**
+     * @return The registry whose handles are used by samples, AMTLVs, and the tables built on them
+     */
+    public static ClockIdentityRegistry shared() {
+        return shared_registry;
+    }
+
+    /**
+     * @param maxIdentities Maximum number of identities, including the empty identity. Since handles are never
+     *                      released, this bounds the memory held by the registry when identities are read from
+     *                      untrusted input.
+     */
+    public ClockIdentityRegistry(int maxIdentities) {
+        if(maxIdentities < 1)
+            throw new IllegalArgumentException("The registry must hold at least the empty identity.");
+        max_identities = maxIdentities;
+        register(0);
+    }
+
+    private static int slot(long identity, int mask) {
+        long h = identity * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @param identity Clock identity as a big endian long
+     * @return The handle associated with the identity, registering it if needed
+     * @throws IllegalStateException If the identity is new and the bound on the number of identities has been reached
+     */
+    public int intern(long identity) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        int handle;
+        for(int i = slot(identity, mask); (handle = t.handles.get(i)) != 0; i = (i + 1) & mask) {
+            if(t.keys[i] == identity)
+                return handle - 1;
+        }
+        return register(identity);
+    }
+
+    /**
+     * @param clockId 8 byte clock identity
+     * @return The handle associated with the identity, registering it if needed
+     * @see ClockIdentityRegistry#intern(long)
+     */
+    public int intern(byte[] clockId) {
+        if(clockId.length != 8)
+            throw new IllegalArgumentException("Clock identities must be 8 bytes.");
+        return intern(ByteBuffer.wrap(clockId).getLong());
+    }
+
+    private synchronized int register(long identity) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        int i = slot(identity, mask);
+        for(int handle; (handle = t.handles.get(i)) != 0; i = (i + 1) & mask) {
+            if(t.keys[i] == identity) //Registered by another thread in the meantime
+                return handle - 1;
+        }
+
+        int handle = size;
+        if(handle >= max_identities) {
+            if(rejected_count.getAndIncrement() == 0)
+                logger.error("Registered the maximum of {} clock identities. New identities are rejected.",
+                        max_identities);
+            throw new IllegalStateException("Cannot register clock identity " + hex(identity) + ", the maximum of " +
+                    max_identities + " identities has been reached.");
+        }
+        if(handle == t.identities.length) {
+            table = grow(t, identity);
+        } else {
+            t.identities[handle] = identity;
+            t.keys[i] = identity;
+            t.handles.set(i, handle + 1);
+        }
+        size = handle + 1;
+        return handle;
+    }
+
+    /**
+     * @return A copy of the given full table with twice the capacity, holding the given identity as well
+     */
+    private static Table grow(Table t, long identity) {
+        Table grown = new Table(t.keys.length * 2);
+        System.arraycopy(t.identities, 0, grown.identities, 0, t.identities.length);
+        grown.identities[t.identities.length] = identity;
+
+        int mask = grown.keys.length - 1;
+        for(int h = 0; h <= t.identities.length; h++) {
+            int i = slot(grown.identities[h], mask);
+            while(grown.handles.get(i) != 0)
+                i = (i + 1) & mask;
+            grown.keys[i] = grown.identities[h];
+            grown.handles.set(i, h + 1);
+        }
+        return grown;
+    }
+
+    /**
+     * @return Maximum number of identities, including the empty identity
+     */
+    public int getMaxIdentities() {
+        return max_identities;
+    }
+
+    /**
+     * @return Number of new identities rejected because the registry was full
+     */
+    public long getRejectedCount() {
+        return rejected_count.get();
+    }
+
+    /**
+     * @param handle Previously interned handle
+     * @return The clock identity as a big endian long
+     */
+    public long getIdentity(int handle) {
+        //Size is read first, so the table read after it holds the identity
+        if(handle < 0 || handle >= size)
+            throw new IllegalArgumentException("Unknown clock identity handle " + handle);
+        return table.identities[handle];
+    }
+
+    /**
+     * @param handle Previously interned handle
+     * @return A new 8 byte array holding the clock identity
+     */
+    public byte[] toBytes(int handle) {
+        return ByteBuffer.allocate(8).putLong(getIdentity(handle)).array();
+    }
+
+    /**
+     * @param handle Previously interned handle
+     * @return The clock identity as a 16 character hex string
+     */
+    public String toHexString(int handle) {
+        return hex(getIdentity(handle));
+    }
+
+    private static String hex(long identity) {
+        String hex = Long.toHexString(identity);
+        return "0".repeat(16 - hex.length()) + hex;
+    }
+
+    /**
+     * @return Number of registered identities. Every handle is less than this value.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,50 @@
+package edu.unh.artt.core.error_sample.representation;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Read-only view of several lists one after another. Used to join the sections of a fragmented AMTLV without decoding
+ * them, so lazily decoded fragments stay lazy once reassembled.
+ * @param <E> Element type
+ */
+public class ConcatenatedList<E> extends AbstractList<E> implements RandomAccess {
+    private final List<? extends E>[] parts;
+    /* Index of the first element of each part */
+    private final int[] offsets;
+    private final int size;
+
+    /**
+     * @param lists Lists to join, in order. Should not be modified while the view is in use.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcatenatedList(List<? extends List<? extends E>> lists) {
+        parts = (List<? extends E>[]) lists.toArray(new List<?>[0]);
+        offsets = new int[parts.length];
+        int total = 0;
+        for(int p = 0; p < parts.length; p++) {
+            offsets[p] = total;
+            total += parts[p].size();
+        }
+        size = total;
+    }
+
+    @Override
+    public E get(int index) {
+        Objects.checkIndex(index, size);
+        int part = Arrays.binarySearch(offsets, index);
+        if(part < 0)
+            part = -part - 2;
+        while(parts[part].isEmpty()) //Empty parts share an offset with the next part
+            part++;
+        return parts[part].get(index - offsets[part]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
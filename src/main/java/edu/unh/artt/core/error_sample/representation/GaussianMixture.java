@@ -0,0 +1,232 @@
+package edu.unh.artt.core.error_sample.representation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Immutable set of Gaussian mixture parameters with a diagonal covariance for each component. This is the parametric
+ * alternative to a re-sampled data set: rather than transmitting thousands of points drawn from a distribution, a node
+ * can transmit the weight, mean, and variance of a handful of components. Mixtures from several nodes are combined by
+ * weighting each one by its network representation, then merging the closest components until the component count is
+ * within bounds.
+ */
+public class GaussianMixture {
+    private static final double LOG_SQRT_2PI = 0.5 * Math.log(2 * Math.PI);
+
+    /* Weight of each component, normalized so the weights sum to 1 */
+    private final double[] weights;
+    /* Mean and variance of each component, indexed by [component][dimension] */
+    private final double[][] means, variances;
+
+    /**
+     * @param compWeights Relative weight of each component. Normalized so they sum to 1.
+     * @param compMeans Mean of each dimension of each component
+     * @param compVariances Variance of each dimension of each component
+     */
+    public GaussianMixture(double[] compWeights, double[][] compMeans, double[][] compVariances) {
+        int numComp = compWeights.length;
+        if(numComp < 1 || compMeans.length != numComp || compVariances.length != numComp)
+            throw new IllegalArgumentException("A weight, mean, and variance must be provided for at least 1 component.");
+
+        int numDim = compMeans[0].length;
+        double total = 0;
+        weights = new double[numComp];
+        means = new double[numComp][];
+        variances = new double[numComp][];
+        for(int k = 0; k < numComp; k++) {
+            if(compMeans[k].length != numDim || compVariances[k].length != numDim)
+                throw new IllegalArgumentException("Every component must have the same number of dimensions.");
+            if(!(compWeights[k] >= 0) || Double.isInfinite(compWeights[k]))
+                throw new IllegalArgumentException("Component weights must be finite and not negative.");
+            for(int dim = 0; dim < numDim; dim++) {
+                if(!Double.isFinite(compMeans[k][dim]) || !(compVariances[k][dim] > 0) || Double.isInfinite(compVariances[k][dim]))
+                    throw new IllegalArgumentException("Component means must be finite and variances must be positive.");
+            }
+            weights[k] = compWeights[k];
+            means[k] = Arrays.copyOf(compMeans[k], numDim);
+            variances[k] = Arrays.copyOf(compVariances[k], numDim);
+            total += compWeights[k];
+        }
+        if(!(total > 0))
+            throw new IllegalArgumentException("At least one component must have a weight greater than 0.");
+        for(int k = 0; k < numComp; k++)
+            weights[k] /= total;
+    }
+
+    public int getNumComponents() {
+        return weights.length;
+    }
+
+    public int getNumDimensions() {
+        return means[0].length;
+    }
+
+    /**
+     * @param comp Component index
+     * @return Normalized weight of the component
+     */
+    public double getWeight(int comp) {
+        return weights[comp];
+    }
+
+    public double getMean(int comp, int dim) {
+        return means[comp][dim];
+    }
+
+    public double getVariance(int comp, int dim) {
+        return variances[comp][dim];
+    }
+
+    /**
+     * @param comp Component index
+     * @param point Point to evaluate
+     * @return Natural log of the density of the component at the point, not including the component weight
+     */
+    public double logComponentDensity(int comp, double[] point) {
+        double logDens = 0;
+        for(int dim = 0; dim < point.length; dim++) {
+            double diff = point[dim] - means[comp][dim];
+            logDens -= 0.5 * diff * diff / variances[comp][dim] + 0.5 * Math.log(variances[comp][dim]) + LOG_SQRT_2PI;
+        }
+        return logDens;
+    }
+
+    /**
+     * @param point Point to estimate
+     * @return Probability density of the mixture at the given point
+     */
+    public double density(double[] point) {
+        if(point.length != getNumDimensions())
+            throw new IllegalArgumentException("Dimensionality of the point does not match the mixture.");
+        double dens = 0;
+        for(int k = 0; k < weights.length; k++) {
+            if(weights[k] > 0)
+                dens += weights[k] * Math.exp(logComponentDensity(k, point));
+        }
+        return dens;
+    }
+
+    /**
+     * @return Mean of each dimension of the mixture
+     */
+    public double[] getMean() {
+        double[] mean = new double[getNumDimensions()];
+        for(int k = 0; k < weights.length; k++) {
+            for(int dim = 0; dim < mean.length; dim++)
+                mean[dim] += weights[k] * means[k][dim];
+        }
+        return mean;
+    }
+
+    /**
+     * @return Variance of each dimension of the mixture, including the spread between component means
+     */
+    public double[] getVariance() {
+        double[] mean = getMean();
+        double[] var = new double[mean.length];
+        for(int k = 0; k < weights.length; k++) {
+            for(int dim = 0; dim < mean.length; dim++) {
+                double diff = means[k][dim] - mean[dim];
+                var[dim] += weights[k] * (variances[k][dim] + diff * diff);
+            }
+        }
+        return var;
+    }
+
+    /**
+     * Draws a data set from the mixture.
+     * @param size Number of points to draw
+     * @param rand Source of randomness
+     * @return Points indexed by [sample][dimension]
+     */
+    public double[][] sample(int size, Random rand) {
+        double[][] points = new double[size][getNumDimensions()];
+        for(int i = 0; i < size; i++) {
+            double u = rand.nextDouble();
+            int k = 0;
+            while(k < weights.length - 1 && (u -= weights[k]) > 0)
+                k++;
+            for(int dim = 0; dim < points[i].length; dim++)
+                points[i][dim] = means[k][dim] + Math.sqrt(variances[k][dim]) * rand.nextGaussian();
+        }
+        return points;
+    }
+
+    /**
+     * Combines several mixtures into one. Each mixture is scaled by the given weight (e.g. the number of nodes it
+     * represents), then the pair of components that are closest relative to their spread are merged until no more than
+     * the given number of components remain. Merging preserves the weight, mean, and variance of the pair, so the mean
+     * and variance of the combined mixture are exact regardless of how many components are merged.
+     * @param mixtures Mixtures to combine, all with the same number of dimensions
+     * @param mixtureWeights Relative weight of each mixture
+     * @param maxComponents Maximum number of components of the combined mixture
+     * @return The combined mixture
+     */
+    public static GaussianMixture combine(List<GaussianMixture> mixtures, double[] mixtureWeights, int maxComponents) {
+        if(mixtures.isEmpty() || mixtures.size() != mixtureWeights.length)
+            throw new IllegalArgumentException("A weight must be provided for each of at least 1 mixture.");
+        if(maxComponents < 1)
+            throw new IllegalArgumentException("The combined mixture must be allowed at least 1 component.");
+
+        int numDim = mixtures.get(0).getNumDimensions();
+        List<double[]> wts = new ArrayList<>();
+        List<double[]> mus = new ArrayList<>(), vars = new ArrayList<>();
+        for(int m = 0; m < mixtures.size(); m++) {
+            GaussianMixture mix = mixtures.get(m);
+            if(mix.getNumDimensions() != numDim)
+                throw new IllegalArgumentException("Cannot combine mixtures with differing dimensionality.");
+            for(int k = 0; k < mix.weights.length; k++) {
+                double w = mixtureWeights[m] * mix.weights[k];
+                if(w > 0) {
+                    wts.add(new double[] {w});
+                    mus.add(Arrays.copyOf(mix.means[k], numDim));
+                    vars.add(Arrays.copyOf(mix.variances[k], numDim));
+                }
+            }
+        }
+        if(wts.isEmpty())
+            throw new IllegalArgumentException("At least one mixture must have a weight greater than 0.");
+
+        while(wts.size() > maxComponents) {
+            int bestI = 0, bestJ = 1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < wts.size(); i++) {
+                for(int j = i + 1; j < wts.size(); j++) {
+                    double wi = wts.get(i)[0], wj = wts.get(j)[0];
+                    double dist = 0;
+                    for(int dim = 0; dim < numDim; dim++) {
+                        double diff = mus.get(i)[dim] - mus.get(j)[dim];
+                        dist += diff * diff / (vars.get(i)[dim] + vars.get(j)[dim]);
+                    }
+                    double cost = wi * wj / (wi + wj) * dist;
+                    if(cost < bestCost) {
+                        bestCost = cost;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+
+            //Moment preserving merge of component j into component i
+            double wi = wts.get(bestI)[0], wj = wts.get(bestJ)[0], w = wi + wj;
+            double[] mi = mus.get(bestI), mj = mus.get(bestJ), vi = vars.get(bestI), vj = vars.get(bestJ);
+            for(int dim = 0; dim < numDim; dim++) {
+                double mean = (wi * mi[dim] + wj * mj[dim]) / w;
+                double second = (wi * (vi[dim] + mi[dim] * mi[dim]) + wj * (vj[dim] + mj[dim] * mj[dim])) / w;
+                mi[dim] = mean;
+                vi[dim] = Math.max(second - mean * mean, Math.min(vi[dim], vj[dim]));
+            }
+            wts.get(bestI)[0] = w;
+            wts.remove(bestJ);
+            mus.remove(bestJ);
+            vars.remove(bestJ);
+        }
+
+        double[] outWeights = new double[wts.size()];
+        for(int k = 0; k < outWeights.length; k++)
+            outWeights[k] = wts.get(k)[0];
+        return new GaussianMixture(outWeights, mus.toArray(new double[0][]), vars.toArray(new double[0][]));
+    }
+}
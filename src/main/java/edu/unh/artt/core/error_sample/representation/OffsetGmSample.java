@@ -1,7 +1,5 @@
 package edu.unh.artt.core.error_sample.representation;
 
-import org.apache.commons.codec.binary.Hex;
-
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -13,9 +11,10 @@ public class OffsetGmSample implements TimeErrorSample {
     /* The computed offsetFromGm time error metric */
     final double offset_from_gm;
 
-    /* ID of the node this metric was generated for. Note that this will be 'empty' for re-sampled data since the
-    * clockId of a sample is not a computed metric. This field is only useful for outliers. */
-    final byte [] clock_identity;
+    /* Handle of the ID of the node this metric was generated for. Note that this will be 'empty' for re-sampled data
+    * since the clockId of a sample is not a computed metric. This field is only useful for outliers.
+    * @see ClockIdentityRegistry */
+    final int clock_handle;
 
     /* Network representation of this sample */
     final long weight;
@@ -27,7 +26,7 @@ public class OffsetGmSample implements TimeErrorSample {
      * @see OffsetGmSample#OffsetGmSample(long, long, double, byte[] empty)
      */
     public OffsetGmSample(long timestamp, long weight, double offsetFromGmScaled) {
-        this(timestamp, weight, offsetFromGmScaled, new byte[8]);
+        this(timestamp, weight, offsetFromGmScaled, ClockIdentityRegistry.EMPTY_HANDLE);
     }
 
     /**
@@ -36,8 +35,17 @@ public class OffsetGmSample implements TimeErrorSample {
      * @param clockId clock identity that the sample is associated with
      */
     public OffsetGmSample(long timestamp, long weight, double offsetFromGmScaled, byte [] clockId) {
+        this(timestamp, weight, offsetFromGmScaled, ClockIdentityRegistry.shared().intern(clockId));
+    }
+
+    /**
+     * @param weight Network representation of the sample
+     * @param offsetFromGmScaled Computed offset metric
+     * @param clockHandle Interned handle of the clock identity that the sample is associated with
+     */
+    public OffsetGmSample(long timestamp, long weight, double offsetFromGmScaled, int clockHandle) {
         offset_from_gm = offsetFromGmScaled;
-        clock_identity = clockId;
+        clock_handle = clockHandle;
         this.timestamp = timestamp;
         this.weight = weight;
     }
@@ -55,6 +63,24 @@ public class OffsetGmSample implements TimeErrorSample {
         return new double[] {offset_from_gm};
     }
 
+    /**
+     * @see TimeErrorSample#getSample(int)
+     */
+    @Override
+    public double getSample(int dim) {
+        if(dim != 0)
+            throw new IndexOutOfBoundsException("OffsetFromGm samples only have 1 dimension.");
+        return offset_from_gm;
+    }
+
+    /**
+     * @see TimeErrorSample#writeSample(double[], int)
+     */
+    @Override
+    public void writeSample(double[] dst, int offset) {
+        dst[offset] = offset_from_gm;
+    }
+
     /**
      * @return Network representation of the sample
      */
@@ -63,6 +89,14 @@ public class OffsetGmSample implements TimeErrorSample {
         return weight;
     }
 
+    /**
+     * @see TimeErrorSample#withWeight(long)
+     */
+    @Override
+    public OffsetGmSample withWeight(long weight) {
+        return new OffsetGmSample(timestamp, weight, offset_from_gm, clock_handle);
+    }
+
     /**
      * @see TimeErrorSample#getTimestamp()
      */
@@ -76,14 +110,24 @@ public class OffsetGmSample implements TimeErrorSample {
      */
     @Override
     public String getIdentifier() {
-        return Hex.encodeHexString(clock_identity) + "; " + offset_from_gm +"ns; " + weight + "nodes;";
+        return ClockIdentityRegistry.shared().toHexString(clock_handle) + "; " + offset_from_gm +"ns; " + weight +
+                "nodes;";
     }
 
     /**
-     * @return Clock identity associated with this
+     * @return Clock identity associated with this. A new array is allocated on each call, see
+     * {@link OffsetGmSample#getClockHandle()}
      */
     public byte [] getClockIdentity() {
-        return clock_identity;
+        return ClockIdentityRegistry.shared().toBytes(clock_handle);
+    }
+
+    /**
+     * @return Interned handle of the clock identity associated with this
+     */
+    @Override
+    public int getClockHandle() {
+        return clock_handle;
     }
 
     /**
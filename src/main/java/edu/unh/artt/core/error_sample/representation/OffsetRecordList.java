@@ -0,0 +1,94 @@
+package edu.unh.artt.core.error_sample.representation;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Read-only view of the offsetFromGm records in a received AMTLV data field. Records are decoded only when they are
+ * accessed, so a section that is never used (e.g. outliers received before the model has reached its minimum window)
+ * costs nothing beyond validating its length. {@link OffsetRecordList#get(int)} allocates a new sample on each call;
+ * {@link OffsetRecordList#getOffset(int)} and {@link OffsetRecordList#getClockHandle(int)} read the fields without
+ * allocating.
+ */
+public class OffsetRecordList extends AbstractList<OffsetGmSample> implements RandomAccess {
+    /* Record layout of the outlier section: offset (scaled ns) followed by the clock identity */
+    public static final int OUTLIER_RECORD_SIZE = 16;
+
+    private final ByteBuffer data;
+    private final int start, count, stride, value_offset;
+    /* Position of the clock identity within a record, or -1 if every record belongs to fixed_handle */
+    private final int clock_offset, fixed_handle;
+    private final long timestamp, weight;
+
+    private OffsetRecordList(ByteBuffer buf, int startPos, int numRecords, int recordSize, int valueOffset,
+                             int clockOffset, int clockHandle, long rxTimestamp, long wt) {
+        if(startPos < 0 || numRecords < 0 || (long) startPos + (long) numRecords * recordSize > buf.limit())
+            throw new IllegalArgumentException("Records extend past the end of the data field.");
+        data = buf;
+        start = startPos;
+        count = numRecords;
+        stride = recordSize;
+        value_offset = valueOffset;
+        clock_offset = clockOffset;
+        fixed_handle = clockHandle;
+        timestamp = rxTimestamp;
+        weight = wt;
+    }
+
+    /**
+     * View of records that all belong to the same clock, such as the sample set sent by a link partner.
+     * @param buf Data field. Must not be modified while the view is in use.
+     * @param startPos Position of the first record
+     * @param numRecords Number of records
+     * @param recordSize Size of each record
+     * @param valueOffset Position of the offset (scaled ns) within a record
+     * @param clockHandle Handle of the clock every record belongs to
+     * @param rxTimestamp Receipt timestamp given to each sample
+     * @param wt Network representation given to each sample
+     */
+    public static OffsetRecordList of(ByteBuffer buf, int startPos, int numRecords, int recordSize, int valueOffset,
+                                      int clockHandle, long rxTimestamp, long wt) {
+        return new OffsetRecordList(buf, startPos, numRecords, recordSize, valueOffset, -1, clockHandle, rxTimestamp, wt);
+    }
+
+    /**
+     * View of outlier records, each carrying the clock identity it was measured from.
+     * @see OffsetRecordList#of(ByteBuffer, int, int, int, int, int, long, long)
+     */
+    public static OffsetRecordList ofOutliers(ByteBuffer buf, int startPos, int numRecords, long rxTimestamp, long wt) {
+        return new OffsetRecordList(buf, startPos, numRecords, OUTLIER_RECORD_SIZE, 0, 8,
+                ClockIdentityRegistry.EMPTY_HANDLE, rxTimestamp, wt);
+    }
+
+    /**
+     * @param index Record index
+     * @return offsetFromGm of the record, in ns
+     */
+    public double getOffset(int index) {
+        Objects.checkIndex(index, count);
+        return PTPTimestamp.fromScaledNs(data.getLong(start + index * stride + value_offset));
+    }
+
+    /**
+     * @param index Record index
+     * @return Handle of the clock identity the record belongs to
+     */
+    public int getClockHandle(int index) {
+        Objects.checkIndex(index, count);
+        if(clock_offset < 0)
+            return fixed_handle;
+        return ClockIdentityRegistry.shared().intern(data.getLong(start + index * stride + clock_offset));
+    }
+
+    @Override
+    public OffsetGmSample get(int index) {
+        return new OffsetGmSample(timestamp, weight, getOffset(index), getClockHandle(index));
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+}
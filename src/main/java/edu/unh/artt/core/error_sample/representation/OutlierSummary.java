@@ -0,0 +1,90 @@
+package edu.unh.artt.core.error_sample.representation;
+
+/**
+ * Summary of the outliers measured from a single clock identity over an AMTLV interval. A node that stays faulty
+ * produces one summary per interval rather than one outlier per Sync. Outliers are ordered by their first dimension,
+ * which is the offset for offsetFromGm samples.
+ *
+ * Besides the count and the minimum, maximum, and most recent outlier, the mean and standard deviation of the outlying
+ * values are kept, so the upstream node can tell a persistent offset from a node that is wandering.
+ * @param <Sample> Sample type summarized
+ */
+public class OutlierSummary<Sample extends TimeErrorSample> {
+    /* Handle of the clock identity the outliers were measured from */
+    public final int clock_handle;
+    /* Number of outliers summarized */
+    public final long count;
+    /* Outliers with the smallest and largest value, and the most recently added outlier */
+    public final Sample min, max, last;
+    /* Mean and sum of squared deviations of the first dimension */
+    private final double mean, sum_sq_dev;
+
+    private OutlierSummary(int clockHandle, long cnt, Sample minimum, Sample maximum, Sample latest, double avg,
+                           double sumSqDev) {
+        clock_handle = clockHandle;
+        count = cnt;
+        min = minimum;
+        max = maximum;
+        last = latest;
+        mean = avg;
+        sum_sq_dev = sumSqDev;
+    }
+
+    /**
+     * Rebuilds a summary from its reported statistics, e.g. when received in an AMTLV.
+     * @param clockHandle Handle of the clock identity the outliers were measured from
+     * @param cnt Number of outliers summarized, at least 1
+     * @param minimum Outlier with the smallest value
+     * @param maximum Outlier with the largest value
+     * @param latest Most recently added outlier
+     * @param avg Mean value of the outliers
+     * @param deviation Standard deviation of the values of the outliers
+     */
+    public static <S extends TimeErrorSample> OutlierSummary<S> of(int clockHandle, long cnt, S minimum, S maximum,
+                                                                 S latest, double avg, double deviation) {
+        if(cnt < 1 || !(deviation >= 0))
+            throw new IllegalArgumentException("A summary must hold at least 1 outlier and have a non-negative " +
+                    "deviation.");
+        return new OutlierSummary<>(clockHandle, cnt, minimum, maximum, latest, avg,
+                (cnt > 1) ? deviation * deviation * (cnt - 1) : 0);
+    }
+
+    /**
+     * @param outlier Single outlier
+     * @return Summary holding only the given outlier
+     */
+    public static <S extends TimeErrorSample> OutlierSummary<S> of(S outlier) {
+        return new OutlierSummary<>(outlier.getClockHandle(), 1, outlier, outlier, outlier, outlier.getSample(0), 0);
+    }
+
+    /**
+     * Merges the summaries of two sets of outliers from the same clock.
+     * @param newer Summary of outliers measured after the outliers of this summary
+     * @return Summary of both sets, whose most recent outlier is that of the newer summary
+     */
+    public OutlierSummary<Sample> combine(OutlierSummary<Sample> newer) {
+        if(newer.clock_handle != clock_handle)
+            throw new IllegalArgumentException("Cannot combine the outlier summaries of different clocks.");
+        long total = count + newer.count;
+        double delta = newer.mean - mean;
+        return new OutlierSummary<>(clock_handle, total,
+                (newer.min.getSample(0) < min.getSample(0)) ? newer.min : min,
+                (newer.max.getSample(0) > max.getSample(0)) ? newer.max : max,
+                newer.last, mean + delta * newer.count / total,
+                sum_sq_dev + newer.sum_sq_dev + delta * delta * ((double) count * newer.count / total));
+    }
+
+    /**
+     * @return Mean value of the outliers
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return Bias corrected standard deviation of the values of the outliers, or 0 for a single outlier
+     */
+    public double getDeviation() {
+        return (count > 1) ? Math.sqrt(sum_sq_dev / (count - 1)) : 0;
+    }
+}
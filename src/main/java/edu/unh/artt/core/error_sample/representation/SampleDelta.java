@@ -0,0 +1,24 @@
+package edu.unh.artt.core.error_sample.representation;
+
+/**
+ * Describes an AMTLV whose samples are replacements for part of a sample set that was transmitted earlier, rather than
+ * a complete sample set. The i-th sample of the AMTLV replaces the sample at indices[i] of the base set.
+ */
+public class SampleDelta {
+    /* Sequence number of the AMTLV that established the base set (or the most recent delta applied to it) */
+    public final int base_sequence;
+    /* Number of samples in the complete set */
+    public final int set_size;
+    /* Index within the complete set replaced by each sample of the AMTLV */
+    public final int [] indices;
+
+    public SampleDelta(int baseSequence, int setSize, int [] indices) {
+        for(int idx : indices) {
+            if(idx < 0 || idx >= setSize)
+                throw new IllegalArgumentException("Replacement index " + idx + " is outside of a set of " + setSize + ".");
+        }
+        base_sequence = baseSequence;
+        set_size = setSize;
+        this.indices = indices;
+    }
+}
@@ -11,11 +11,51 @@ public interface TimeErrorSample {
      */
     double [] getSample();
 
+    /**
+     * Allocation-free access to a single dimension of the sample. Implementations should override this when
+     * {@link TimeErrorSample#getSample()} allocates.
+     * @param dim Dimension to retrieve
+     * @return Value of the given dimension
+     */
+    default double getSample(int dim) {
+        return getSample()[dim];
+    }
+
+    /**
+     * Copies every dimension of the sample into the given array without allocating.
+     * @param dst Destination array
+     * @param offset Index of the destination array to write the first dimension to
+     */
+    default void writeSample(double [] dst, int offset) {
+        for(int dim = 0; dim < getNumDimensions(); dim++)
+            dst[offset + dim] = getSample(dim);
+    }
+
     /**
      * @return Network representation of the given sample
      */
     long getWeight();
 
+    /**
+     * Copies the sample with a different network representation, e.g. after subsampling. Implementations should
+     * override this, returning a copy of the same class, so their model work can be shed under overload.
+     * @param weight Network representation of the copy
+     * @return A copy of the sample with the given network representation
+     * @throws UnsupportedOperationException If the sample type cannot be copied, which is the default
+     */
+    default TimeErrorSample withWeight(long weight) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support copying a sample with a " +
+                "new weight.");
+    }
+
+    /**
+     * @return Interned handle of the clock identity the sample was measured from, or
+     * {@link ClockIdentityRegistry#EMPTY_HANDLE} if the sample type does not track it
+     */
+    default int getClockHandle() {
+        return ClockIdentityRegistry.EMPTY_HANDLE;
+    }
+
     /**
      * @return A timestamp of when the data was received or computed
      */
@@ -0,0 +1,233 @@
+package edu.unh.artt.core.history;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Fixed size, memory-mapped file holding rows of 8 byte cells in column-major order, so a scan over one column reads
+ * contiguous memory. Rows are only ever appended, by a single writer. Appended rows become visible to readers once
+ * committed, which also publishes the row count in the file header so a segment can be re-opened after a restart.
+ *
+ * Column 0 always holds the row timestamp. Segments track the range of their timestamps, and whether they were
+ * appended in order, in which case time ranges are found with a binary search rather than a scan. A key column may be
+ * given, whose values are indexed to the rows holding them.
+ *
+ * <table style="width:100%">
+ *     <tr><th>offset</th><th>length</th><th>name</th></tr>
+ *     <tr><td>0</td><td>4</td><td>Magic number</td></tr>
+ *     <tr><td>4</td><td>4</td><td>Number of columns</td></tr>
+ *     <tr><td>8</td><td>4</td><td>Capacity (# of rows)</td></tr>
+ *     <tr><td>12</td><td>4</td><td>Number of committed rows</td></tr>
+ *     <tr><td>16</td><td>8 * columns * capacity</td><td>Columns, one after another</td></tr>
+ * </table>
+ */
+final class ColumnarSegment {
+    static final int HEADER_SIZE = 16, CELL_SIZE = 8;
+    private static final int MAGIC = 0x41525448; //"ARTH"
+    private static final int COLUMNS_OFFSET = 4, CAPACITY_OFFSET = 8, COUNT_OFFSET = 12;
+
+    final Path path;
+    private final MappedByteBuffer buffer;
+    private final int num_columns, capacity, key_column;
+
+    /* Rows written by the writer, and rows visible to readers */
+    private int appended;
+    private volatile int committed;
+
+    /* Time index. Guarded by this instance */
+    private long min_timestamp = Long.MAX_VALUE, max_timestamp = Long.MIN_VALUE;
+    private boolean ordered = true;
+    /* Rows holding each value of the key column. Guarded by this instance */
+    private final HashMap<Long, Postings> key_index = new HashMap<>();
+
+    private static class Postings {
+        int[] rows = new int[4];
+        int size = 0;
+
+        void add(int row) {
+            if(size == rows.length)
+                rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = row;
+        }
+    }
+
+    private ColumnarSegment(Path file, MappedByteBuffer buf, int numColumns, int cap, int keyColumn) {
+        path = file;
+        buffer = buf;
+        num_columns = numColumns;
+        capacity = cap;
+        key_column = keyColumn;
+    }
+
+    /**
+     * @param numColumns Number of columns, including the timestamp column
+     * @param segmentBytes Size of the file. Determines the number of rows it can hold.
+     * @return Number of rows a segment of the given size holds
+     */
+    static int capacityFor(int numColumns, long segmentBytes) {
+        long cap = (segmentBytes - HEADER_SIZE) / ((long) CELL_SIZE * numColumns);
+        if(cap < 1)
+            throw new IllegalArgumentException("A segment of " + segmentBytes + " bytes cannot hold a single row.");
+        return (int) Math.min(cap, (Integer.MAX_VALUE - HEADER_SIZE) / ((long) CELL_SIZE * numColumns));
+    }
+
+    /**
+     * Creates a new, empty segment.
+     * @param keyColumn Column whose values are indexed, or -1 for none
+     */
+    static ColumnarSegment create(Path file, int numColumns, int cap, int keyColumn) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) CELL_SIZE * numColumns * cap);
+            buf.putInt(0, MAGIC);
+            buf.putInt(COLUMNS_OFFSET, numColumns);
+            buf.putInt(CAPACITY_OFFSET, cap);
+            buf.putInt(COUNT_OFFSET, 0);
+            return new ColumnarSegment(file, buf, numColumns, cap, keyColumn);
+        }
+    }
+
+    /**
+     * Maps an existing segment and rebuilds its indices from the committed rows. Rows written but never committed are
+     * discarded.
+     * @param keyColumn Column whose values are indexed, or -1 for none
+     */
+    static ColumnarSegment open(Path file, int numColumns, int keyColumn) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if(channel.size() < HEADER_SIZE)
+                throw new IOException("Segment " + file + " is truncated.");
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int cap = buf.getInt(CAPACITY_OFFSET), count = buf.getInt(COUNT_OFFSET);
+            if(buf.getInt(0) != MAGIC || buf.getInt(COLUMNS_OFFSET) != numColumns || cap < 1 || count < 0
+                    || count > cap || channel.size() < HEADER_SIZE + (long) CELL_SIZE * numColumns * cap)
+                throw new IOException("Segment " + file + " is not a history segment with " + numColumns + " columns.");
+
+            ColumnarSegment seg = new ColumnarSegment(file, buf, numColumns, cap, keyColumn);
+            synchronized (seg) {
+                for(int row = 0; row < count; row++)
+                    seg.index(row);
+                seg.appended = seg.committed = count;
+            }
+            return seg;
+        }
+    }
+
+    private int position(int column, int row) {
+        return HEADER_SIZE + CELL_SIZE * (column * capacity + row);
+    }
+
+    private void index(int row) {
+        long ts = getLong(0, row);
+        ordered &= ts >= max_timestamp;
+        min_timestamp = Math.min(min_timestamp, ts);
+        max_timestamp = Math.max(max_timestamp, ts);
+        if(key_column >= 0)
+            key_index.computeIfAbsent(getLong(key_column, row), k -> new Postings()).add(row);
+    }
+
+    /**
+     * Writes a row, which is not visible to readers until committed. Must only be called by the writer.
+     * @param cells Value of each column
+     * @return False if the segment is full
+     */
+    boolean append(long[] cells) {
+        if(cells.length != num_columns)
+            throw new IllegalArgumentException("Expected " + num_columns + " columns, but got " + cells.length);
+        if(appended == capacity)
+            return false;
+        for(int col = 0; col < num_columns; col++)
+            buffer.putLong(position(col, appended), cells[col]);
+        appended++;
+        return true;
+    }
+
+    /**
+     * Indexes the appended rows and makes them visible to readers. Must only be called by the writer.
+     */
+    synchronized void commit() {
+        for(int row = committed; row < appended; row++)
+            index(row);
+        buffer.putInt(COUNT_OFFSET, appended);
+        committed = appended;
+    }
+
+    /**
+     * Writes the mapped contents back to the file.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    long getLong(int column, int row) {
+        return buffer.getLong(position(column, row));
+    }
+
+    double getDouble(int column, int row) {
+        return Double.longBitsToDouble(getLong(column, row));
+    }
+
+    /**
+     * @return Number of rows visible to readers
+     */
+    int size() {
+        return committed;
+    }
+
+    boolean isFull() {
+        return appended == capacity;
+    }
+
+    /**
+     * Passes the committed rows with a timestamp in [from, to] to the consumer, in the order they were appended.
+     */
+    synchronized void scan(long from, long to, IntConsumer rows) {
+        if(committed == 0 || from > max_timestamp || to < min_timestamp)
+            return;
+        int start = 0, end = committed;
+        if(ordered) {
+            start = lowerBound(from, 0, committed);
+            if(to < Long.MAX_VALUE)
+                end = lowerBound(to + 1, start, committed);
+        }
+        for(int row = start; row < end; row++) {
+            long ts = getLong(0, row);
+            if(ts >= from && ts <= to)
+                rows.accept(row);
+        }
+    }
+
+    /**
+     * Passes the committed rows holding the given key with a timestamp in [from, to] to the consumer, in the order
+     * they were appended.
+     */
+    synchronized void scan(long key, long from, long to, IntConsumer rows) {
+        if(key_column < 0)
+            throw new IllegalStateException("Segment " + path + " does not index a key column.");
+        Postings postings = key_index.get(key);
+        if(postings == null || from > max_timestamp || to < min_timestamp)
+            return;
+        for(int i = 0; i < postings.size; i++) {
+            long ts = getLong(0, postings.rows[i]);
+            if(ts >= from && ts <= to)
+                rows.accept(postings.rows[i]);
+        }
+    }
+
+    private int lowerBound(long ts, int lo, int hi) {
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(getLong(0, mid) < ts)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
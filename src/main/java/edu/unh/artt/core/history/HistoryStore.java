@@ -0,0 +1,383 @@
+package edu.unh.artt.core.history;
+
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded, append-only store of the outliers seen by an aggregator and periodic snapshots of its model statistics,
+ * kept for analysis after the fact. Outliers and snapshots are each written to a series of memory-mapped columnar
+ * segments (see {@link ColumnarSegment}) in the store directory; once the active segment is full it is flushed to
+ * disk and a new one is started. Segments left by a previous run are re-opened, so history survives restarts.
+ *
+ * Records are handed to a single background writer through a bounded queue, so recording never blocks the thread
+ * adding samples. If the writer falls behind and the queue is full, new records are dropped and counted.
+ *
+ * Outliers are stored as (timestamp, clock identity, offset, weight), i.e. the first dimension of the sample, and are
+ * read back as {@link OutlierRecord}s. Both record types can be queried by time range, and outliers by the clock
+ * identity they were measured from. Records become visible to queries once the writer has committed them.
+ */
+public class HistoryStore implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(HistoryStore.class);
+
+    /* Largest number of records written between commits */
+    private static final int WRITE_BATCH_SIZE = 1024;
+    /* How often a thread waiting on the writer checks that it is still running */
+    private static final long WRITER_CHECK_MS = 100;
+    private static final String OUTLIER_PREFIX = "outliers-", SNAPSHOT_PREFIX = "snapshots-", SEGMENT_SUFFIX = ".seg";
+
+    /* Outlier columns */
+    static final int TIMESTAMP_COLUMN = 0, CLOCK_COLUMN = 1, OFFSET_COLUMN = 2, WEIGHT_COLUMN = 3, OUTLIER_COLUMNS = 4;
+    /* Snapshot columns, followed by the mean, variance, median, and median absolute deviation of each dimension */
+    static final int VERSION_COLUMN = 1, SNAPSHOT_STATS_COLUMN = 2;
+
+    private final Path directory;
+    private final int num_dimensions, snapshot_columns, outlier_capacity, snapshot_capacity;
+
+    /* Segments in the order they were written. Only the writer adds segments, and only to the end */
+    private final CopyOnWriteArrayList<ColumnarSegment> outlier_segments = new CopyOnWriteArrayList<>(),
+                                                        snapshot_segments = new CopyOnWriteArrayList<>();
+    private int next_outlier_segment = 0, next_snapshot_segment = 0;
+
+    private enum RecordType { OUTLIER, SNAPSHOT, FLUSH, CLOSE }
+
+    private static class PendingRecord {
+        final RecordType type;
+        final long[] cells;
+        final CountDownLatch done;
+
+        PendingRecord(RecordType recordType, long[] row, CountDownLatch latch) {
+            type = recordType;
+            cells = row;
+            done = latch;
+        }
+    }
+
+    private final ArrayBlockingQueue<PendingRecord> pending;
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     * @param dir Directory holding the segment files
+     * @param numDim Number of dimensions of the model snapshots. Must match the segments already in the directory.
+     * @param segmentBytes Size of each segment file
+     * @param queueCapacity Number of records that can be waiting on the writer before new records are dropped
+     * @throws IOException If the directory or its segments cannot be opened
+     */
+    public HistoryStore(Path dir, int numDim, long segmentBytes, int queueCapacity) throws IOException {
+        this(dir, numDim, segmentBytes, queueCapacity, task -> {
+            Thread thread = new Thread(task, "history-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param writerFactory Creates the writer thread, e.g. so tests can stop it
+     * @see HistoryStore#HistoryStore(Path, int, long, int)
+     */
+    HistoryStore(Path dir, int numDim, long segmentBytes, int queueCapacity, ThreadFactory writerFactory)
+            throws IOException {
+        if(numDim < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("The number of dimensions and queue capacity must be at least 1.");
+        directory = dir;
+        num_dimensions = numDim;
+        snapshot_columns = SNAPSHOT_STATS_COLUMN + 4 * numDim;
+        outlier_capacity = ColumnarSegment.capacityFor(OUTLIER_COLUMNS, segmentBytes);
+        snapshot_capacity = ColumnarSegment.capacityFor(snapshot_columns, segmentBytes);
+
+        Files.createDirectories(dir);
+        next_outlier_segment = openSegments(OUTLIER_PREFIX, OUTLIER_COLUMNS, CLOCK_COLUMN, outlier_segments);
+        next_snapshot_segment = openSegments(SNAPSHOT_PREFIX, snapshot_columns, -1, snapshot_segments);
+
+        pending = new ArrayBlockingQueue<>(queueCapacity);
+        writer = writerFactory.newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * Re-opens the segments of one record type left in the directory.
+     * @return Index to give the next segment of that type
+     */
+    private int openSegments(String prefix, int numColumns, int keyColumn, List<ColumnarSegment> segments)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null); //Indices are zero padded, so names sort in the order written
+
+        int next = 0;
+        for(Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                next = Math.max(next, Integer.parseInt(name.substring(prefix.length(),
+                        name.length() - SEGMENT_SUFFIX.length())) + 1);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring unexpected file {} in the history directory.", file);
+                continue;
+            }
+            segments.add(ColumnarSegment.open(file, numColumns, keyColumn));
+        }
+        if(!segments.isEmpty()) {
+            logger.info("Re-opened {} {}* segments holding {} records.", segments.size(), prefix,
+                    segments.stream().mapToLong(ColumnarSegment::size).sum());
+        }
+        return next;
+    }
+
+    /**
+     * Queues an outlier to be written. Never blocks.
+     * @return False if the outlier was dropped because the writer is behind or the store is closed
+     */
+    public boolean recordOutlier(TimeErrorSample outlier) {
+        return offer(new PendingRecord(RecordType.OUTLIER, new long[]{outlier.getTimestamp(),
+                ClockIdentityRegistry.shared().getIdentity(outlier.getClockHandle()),
+                Double.doubleToLongBits(outlier.getSample(0)), outlier.getWeight()}, null));
+    }
+
+    /**
+     * Queues a model snapshot to be written. Never blocks.
+     * @return False if the snapshot was dropped because the writer is behind or the store is closed
+     */
+    public boolean recordSnapshot(ModelSnapshot snapshot) {
+        if(snapshot.getNumDimensions() != num_dimensions)
+            throw new IllegalArgumentException("Expected a snapshot with " + num_dimensions + " dimensions, but got "
+                    + snapshot.getNumDimensions());
+        long[] cells = new long[snapshot_columns];
+        cells[TIMESTAMP_COLUMN] = snapshot.timestamp;
+        cells[VERSION_COLUMN] = snapshot.model_version;
+        double[][] stats = {snapshot.mean, snapshot.variance, snapshot.median, snapshot.median_abs_deviation};
+        for(int s = 0; s < stats.length; s++) {
+            for(int dim = 0; dim < num_dimensions; dim++)
+                cells[SNAPSHOT_STATS_COLUMN + s * num_dimensions + dim] = Double.doubleToLongBits(stats[s][dim]);
+        }
+        return offer(new PendingRecord(RecordType.SNAPSHOT, cells, null));
+    }
+
+    private boolean offer(PendingRecord record) {
+        if(closed || !pending.offer(record)) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every record queued before the call is committed and written back to disk. Returns early if the
+     * writer has stopped.
+     */
+    public void flush() throws InterruptedException {
+        if(closed)
+            return;
+        if(!handOff(RecordType.FLUSH))
+            logger.warn("History writer is not running, {} queued records were not flushed.", pending.size());
+    }
+
+    /**
+     * Writes any queued records and stops the writer. The segments remain readable by queries. If the calling thread
+     * is interrupted while waiting, the writer is left to finish on its own and the interrupt status is restored.
+     */
+    @Override
+    public void close() {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            if(!handOff(RecordType.CLOSE))
+                logger.warn("History writer is not running, {} queued records were not written.", pending.size());
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a flush or close behind the pending records and waits for the writer to reach it, giving up if the
+     * writer stops first.
+     * @return False if the writer stopped before it handled the record
+     */
+    private boolean handOff(RecordType type) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        PendingRecord record = new PendingRecord(type, null, latch);
+        while(!pending.offer(record, WRITER_CHECK_MS, TimeUnit.MILLISECONDS)) {
+            if(!writer.isAlive())
+                return false;
+        }
+        while(!latch.await(WRITER_CHECK_MS, TimeUnit.MILLISECONDS)) {
+            if(!writer.isAlive())
+                return latch.getCount() == 0;
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        while(true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                logger.warn("History writer interrupted, {} queued records were not written.", pending.size());
+                return;
+            }
+            pending.drainTo(batch, WRITE_BATCH_SIZE - 1);
+            boolean stop = false;
+            for(PendingRecord record : batch) {
+                switch (record.type) {
+                    case OUTLIER:
+                        append(record.cells, outlier_segments, OUTLIER_PREFIX);
+                        break;
+                    case SNAPSHOT:
+                        append(record.cells, snapshot_segments, SNAPSHOT_PREFIX);
+                        break;
+                    case FLUSH:
+                    case CLOSE:
+                        stop |= record.type == RecordType.CLOSE;
+                        commit(true);
+                        record.done.countDown();
+                        break;
+                }
+            }
+            batch.clear();
+            commit(false);
+            if(stop)
+                return;
+        }
+    }
+
+    private void append(long[] cells, List<ColumnarSegment> segments, String prefix) {
+        ColumnarSegment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        try {
+            if(active == null || active.isFull()) {
+                if(active != null) {
+                    active.commit();
+                    active.force();
+                }
+                active = createSegment(prefix);
+                segments.add(active);
+            }
+            active.append(cells);
+        } catch (IOException e) {
+            dropped.increment();
+            logger.error("Failed to start a new history segment, the record was dropped.", e);
+        }
+    }
+
+    private ColumnarSegment createSegment(String prefix) throws IOException {
+        boolean outliers = prefix.equals(OUTLIER_PREFIX);
+        int index = outliers ? next_outlier_segment++ : next_snapshot_segment++;
+        Path file = directory.resolve(String.format("%s%08d%s", prefix, index, SEGMENT_SUFFIX));
+        return outliers ? ColumnarSegment.create(file, OUTLIER_COLUMNS, outlier_capacity, CLOCK_COLUMN)
+                : ColumnarSegment.create(file, snapshot_columns, snapshot_capacity, -1);
+    }
+
+    private void commit(boolean force) {
+        for(List<ColumnarSegment> segments : List.of(outlier_segments, snapshot_segments)) {
+            if(segments.isEmpty())
+                continue;
+            ColumnarSegment active = segments.get(segments.size() - 1);
+            active.commit();
+            if(force)
+                active.force();
+        }
+    }
+
+    /**
+     * @param from Earliest timestamp, inclusive
+     * @param to Latest timestamp, inclusive
+     * @return Outliers recorded with a timestamp in the range, in the order they were recorded
+     */
+    public List<OutlierRecord> getOutliers(long from, long to) {
+        List<OutlierRecord> outliers = new ArrayList<>();
+        for(ColumnarSegment seg : outlier_segments)
+            seg.scan(from, to, row -> outliers.add(readOutlier(seg, row)));
+        return outliers;
+    }
+
+    /**
+     * @param clockHandle Handle of the clock identity the outliers were measured from
+     * @param from Earliest timestamp, inclusive
+     * @param to Latest timestamp, inclusive
+     * @return Outliers of the clock recorded with a timestamp in the range, in the order they were recorded
+     */
+    public List<OutlierRecord> getOutliers(int clockHandle, long from, long to) {
+        return getOutliers(ClockIdentityRegistry.shared().getIdentity(clockHandle), from, to);
+    }
+
+    /**
+     * @param clockIdentity Clock identity the outliers were measured from, as a big endian long
+     * @param from Earliest timestamp, inclusive
+     * @param to Latest timestamp, inclusive
+     * @return Outliers of the clock recorded with a timestamp in the range, in the order they were recorded
+     */
+    public List<OutlierRecord> getOutliers(long clockIdentity, long from, long to) {
+        List<OutlierRecord> outliers = new ArrayList<>();
+        for(ColumnarSegment seg : outlier_segments)
+            seg.scan(clockIdentity, from, to, row -> outliers.add(readOutlier(seg, row)));
+        return outliers;
+    }
+
+    private static OutlierRecord readOutlier(ColumnarSegment seg, int row) {
+        return new OutlierRecord(seg.getLong(TIMESTAMP_COLUMN, row), seg.getLong(CLOCK_COLUMN, row),
+                seg.getDouble(OFFSET_COLUMN, row), seg.getLong(WEIGHT_COLUMN, row));
+    }
+
+    /**
+     * @param from Earliest timestamp, inclusive
+     * @param to Latest timestamp, inclusive
+     * @return Model snapshots taken with a timestamp in the range, in the order they were recorded
+     */
+    public List<ModelSnapshot> getSnapshots(long from, long to) {
+        List<ModelSnapshot> snapshots = new ArrayList<>();
+        for(ColumnarSegment seg : snapshot_segments) {
+            seg.scan(from, to, row -> {
+                double[][] stats = new double[4][num_dimensions];
+                for(int s = 0; s < stats.length; s++) {
+                    for(int dim = 0; dim < num_dimensions; dim++)
+                        stats[s][dim] = seg.getDouble(SNAPSHOT_STATS_COLUMN + s * num_dimensions + dim, row);
+                }
+                snapshots.add(new ModelSnapshot(seg.getLong(TIMESTAMP_COLUMN, row), seg.getLong(VERSION_COLUMN, row),
+                        stats[0], stats[1], stats[2], stats[3]));
+            });
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return Number of records dropped because the writer was behind, the store was closed, or a segment could not
+     * be created
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Number of records waiting on the writer
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return Number of segment files holding outliers and snapshots
+     */
+    public int getSegmentCount() {
+        return outlier_segments.size() + snapshot_segments.size();
+    }
+}
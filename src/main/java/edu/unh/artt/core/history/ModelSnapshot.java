@@ -0,0 +1,43 @@
+package edu.unh.artt.core.history;
+
+import edu.unh.artt.core.models.ErrorModel;
+
+/**
+ * Statistics of the network model at a point in time, as recorded in a {@link HistoryStore}. Quantiles are those the
+ * model tracks in a streaming fashion, i.e. the median and the median absolute deviation.
+ */
+public class ModelSnapshot {
+    /* Timestamp of the snapshot, in the time base of the samples */
+    public final long timestamp;
+    /* Version of the model fit the snapshot was taken from, see {@link ErrorModel#getModelVersion()} */
+    public final long model_version;
+    /* Statistics of each dimension */
+    public final double[] mean, variance, median, median_abs_deviation;
+
+    public ModelSnapshot(long timestamp, long modelVersion, double[] mean, double[] variance, double[] median,
+                         double[] medianAbsDeviation) {
+        int numDim = mean.length;
+        if(variance.length != numDim || median.length != numDim || medianAbsDeviation.length != numDim)
+            throw new IllegalArgumentException("Each statistic must have a value for every dimension.");
+        this.timestamp = timestamp;
+        model_version = modelVersion;
+        this.mean = mean;
+        this.variance = variance;
+        this.median = median;
+        median_abs_deviation = medianAbsDeviation;
+    }
+
+    /**
+     * @param timestamp Timestamp to record the snapshot under
+     * @param model Model to take the statistics of
+     * @return The current statistics of the model
+     */
+    public static ModelSnapshot of(long timestamp, ErrorModel<?> model) {
+        return new ModelSnapshot(timestamp, model.getModelVersion(), model.getMean(), model.getVariance(),
+                model.getMedian(), model.getMedianAbsoluteDeviation());
+    }
+
+    public int getNumDimensions() {
+        return mean.length;
+    }
+}
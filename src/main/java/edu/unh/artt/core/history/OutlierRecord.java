@@ -0,0 +1,45 @@
+package edu.unh.artt.core.history;
+
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outlier as recorded in a {@link HistoryStore}. The clock identity is kept as read from the store rather than interned,
+ * so querying history does not register the identities of every clock ever recorded (see {@link ClockIdentityRegistry}).
+ */
+public class OutlierRecord {
+    /* Timestamp of the outlier, in the time base of the samples */
+    public final long timestamp;
+    /* Identity of the clock the outlier was measured from, as a big endian long */
+    public final long clock_identity;
+    /* First dimension of the outlier, i.e. the offset from the grandmaster */
+    public final double offset;
+    /* Number of nodes the outlier represents */
+    public final long weight;
+
+    public OutlierRecord(long timestamp, long clockIdentity, double offset, long weight) {
+        this.timestamp = timestamp;
+        clock_identity = clockIdentity;
+        this.offset = offset;
+        this.weight = weight;
+    }
+
+    /**
+     * @return A new 8 byte array holding the clock identity
+     */
+    public byte[] getClockIdentity() {
+        return ByteBuffer.allocate(8).putLong(clock_identity).array();
+    }
+
+    /**
+     * Converts the record back to a sample. Unlike the record itself, this registers the clock identity with the shared
+     * registry.
+     * @return The outlier as a sample
+     * @throws IllegalStateException If the clock identity is new and the shared registry is full
+     */
+    public OffsetGmSample toSample() {
+        return new OffsetGmSample(timestamp, weight, offset, ClockIdentityRegistry.shared().intern(clock_identity));
+    }
+}
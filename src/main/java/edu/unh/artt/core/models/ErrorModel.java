@@ -1,17 +1,22 @@
 package edu.unh.artt.core.models;
 
 import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
 import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Represents the distribution of time error for a given network. Maintains a moving sample window in which old values
@@ -43,6 +48,35 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
     /* Just used for logging purposes. Indicates when the required sample size has been first reached */
     protected final AtomicBoolean windowFlag = new AtomicBoolean(false);
 
+    /* Median and median absolute deviation of each dimension over the window. Null until first computed, then
+       re-computed once 1/ROBUST_REFRESH_DIVISOR of the window has been replaced since. Guarded by sample_window */
+    private double[] window_medians, window_deviations;
+    private int robust_stale_samples = 0;
+    private static final int ROBUST_REFRESH_DIVISOR = 8;
+
+    /* Time taken by the most recent call to computeMetrics, in ns */
+    private volatile long last_refit_nanos = 0;
+
+    /* Callbacks run after the distribution metrics have been re-computed. Not run for warm-up fits */
+    private final Vector<Consumer<ErrorModel<Sample>>> refit_callbacks = new Vector<>();
+    private volatile boolean warming_up = false;
+
+    /* Incremented each time the distribution changes */
+    private final AtomicLong model_version = new AtomicLong(0);
+    /* Version the cached estimates are tagged with. Follows model_version, except that re-fits only advance it once
+       cache_refresh_samples samples have been added since it last advanced. Stale samples are guarded by sample_window */
+    private final AtomicLong cache_version = new AtomicLong(0);
+    private volatile int cache_refresh_samples = 1;
+    private int cache_stale_samples = 0;
+    /* Cache of single point estimates. Null unless enabled */
+    private volatile EstimateCache estimate_cache;
+
+    /* Windows and query batches of at least this size are split across the parallel pool */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+    /* Pool used to fit and estimate in parallel. Null runs everything on the calling thread */
+    private volatile ForkJoinPool parallel_pool;
+    private volatile int parallel_threshold = DEFAULT_PARALLEL_THRESHOLD;
+
     /**
      * @param sampleWindow Size of the window to maintain locally for the computed distribution. This should be greater
      *                     than or equal to the sample size transmitted on the network (generally the more data the better)
@@ -59,6 +93,52 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
      */
     public abstract void shutdown();
 
+    /**
+     * Initializes any 3rd party libraries used for modeling, so the first fit does not pay for it on the thread adding
+     * samples. Models that do not rely on any do nothing.
+     */
+    public void initializeBackend() {}
+
+    /**
+     * @see ErrorModel#warmUp(List, int, Consumer)
+     */
+    public final void warmUp(List<Sample> synthetic, int rounds) {
+        warmUp(synthetic, rounds, this::estimate);
+    }
+
+    /**
+     * Initializes the backend and runs the fit and estimate paths over a synthetic window, so they are compiled before
+     * the first real window fills. The model is cleared afterwards. Refit callbacks are not run for the synthetic fits.
+     * @param synthetic Synthetic window. Should hold at least a window of samples, so each round re-fits the model.
+     * @param rounds Number of times to fit and estimate the synthetic window
+     * @param probe Run on each synthetic sample after each fit, e.g. to warm up an outlier detector built on the model
+     * @throws IllegalStateException If the model already holds samples
+     */
+    public final void warmUp(List<Sample> synthetic, int rounds, Consumer<Sample> probe) {
+        if(rounds < 1 || synthetic.isEmpty())
+            throw new IllegalArgumentException("Warm-up requires at least 1 round and 1 sample.");
+        initializeBackend();
+        double[][] points = new double[synthetic.size()][num_dimensions];
+        for(int i = 0; i < points.length; i++)
+            synthetic.get(i).writeSample(points[i], 0);
+
+        synchronized (sample_window) {
+            if(!sample_window.isEmpty())
+                throw new IllegalStateException("Cannot warm up a model that already holds samples.");
+            warming_up = true;
+        }
+        try {
+            for(int r = 0; r < rounds; r++) {
+                addSamples(synthetic);
+                estimate(points);
+                synthetic.forEach(probe);
+            }
+        } finally {
+            warming_up = false;
+            clearData();
+        }
+    }
+
     /**
      * Adds a new sample to the dataset. If the sample window is >= the max sample size then the oldest value is pushed
      * out of the sample window. The distribution metrics are re-computed when applicable.
@@ -78,26 +158,56 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
             throw new IllegalArgumentException("Must provide at least 1 sample.");
 
         synchronized (sample_window) { //Samples are likely only added via a single thread, but better safe than sorry
-            samples.forEach(sample_window::addFirst);
+            //Every sample that enters the window is seen by onSampleAdded, so each eviction has a matching add
+            for(Sample sample : samples) {
+                sample_window.addFirst(sample);
+                onSampleAdded(sample);
+            }
             samples_since_last_sent.set(samples.size() + samples_since_last_sent.get());
 
             while (sample_window.size() > sample_size)
-                sample_window.removeLast();
+                onSampleEvicted(sample_window.removeLast());
 
             if (samples.get(0).getNumDimensions() != num_dimensions)
                 throw new IllegalArgumentException("Provided sample does not match the dimensionality expected by this " +
                         "model. Cannot add it to the sample dataset.");
 
+            robust_stale_samples += samples.size();
+            cache_stale_samples += samples.size();
+
             if (sample_window.size() == sample_size) {
                 if (!windowFlag.compareAndExchange(false, true))
                     logger.info("Reached moving sample window size ({}). Model estimation has started.", sample_size);
                 resampleFlag.set(samples_since_last_sent.get() >= sample_size);
 
+                long start = System.nanoTime();
                 computeMetrics(sample_window);
+                last_refit_nanos = System.nanoTime() - start;
+                model_version.incrementAndGet();
+                if(cache_stale_samples >= cache_refresh_samples) {
+                    cache_stale_samples = 0;
+                    cache_version.incrementAndGet();
+                }
+                if(!warming_up)
+                    refit_callbacks.forEach(c -> c.accept(this));
             }
         }
     }
 
+    /**
+     * Called for each sample as it enters the window, before any samples are evicted. Allows models to be maintained
+     * incrementally rather than only in {@link ErrorModel#computeMetrics(LinkedList)}. Runs while holding the window
+     * lock.
+     * @param sample Sample added to the window
+     */
+    protected void onSampleAdded(Sample sample) {}
+
+    /**
+     * Called for each sample as it falls out of the window. Runs while holding the window lock.
+     * @param sample Sample removed from the window
+     */
+    protected void onSampleEvicted(Sample sample) {}
+
     /**
      * @return The current sample window
      */
@@ -105,6 +215,77 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
         return Collections.unmodifiableList(sample_window);
     }
 
+    /**
+     * Fills the window of this model from another model, e.g. when replacing a model at runtime, so the new model is
+     * fit right away rather than after a whole window of new samples. The window of the source is copied, oldest
+     * sample first. If it holds fewer samples than this window, the remainder is drawn from the distribution of the
+     * source, without affecting its resampling rate limit.
+     * @param source Model to take the samples from
+     * @return The samples copied from the window of the source, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public List<Sample> seedFrom(ErrorModel<Sample> source) {
+        List<Sample> window;
+        synchronized (source.sample_window) {
+            window = new ArrayList<>(source.sample_window);
+        }
+        Collections.reverse(window);
+        if(window.isEmpty())
+            return window;
+
+        List<Sample> seed = new ArrayList<>(Math.max(sample_size, window.size()));
+        int missing = sample_size - window.size();
+        if(missing > 0 && source.hasReachedMinSampleWindow()) {
+            List<double[]> drawn = Arrays.asList(source.resampleImpl(missing));
+            seed.addAll((List<Sample>) window.get(0).parseSamples(drawn));
+        }
+        seed.addAll(window);
+        addSamples(seed);
+        return window;
+    }
+
+    /**
+     * @return The minimum (index 0) and maximum (index 1) value of each dimension in the current sample window
+     */
+    public double[][] getSampleRange() {
+        double[][] range = new double[2][num_dimensions];
+        Arrays.fill(range[0], Double.POSITIVE_INFINITY);
+        Arrays.fill(range[1], Double.NEGATIVE_INFINITY);
+        synchronized (sample_window) {
+            for(Sample s : sample_window) {
+                for(int i = 0; i < num_dimensions; i++) {
+                    range[0][i] = Math.min(range[0][i], s.getSample(i));
+                    range[1][i] = Math.max(range[1][i], s.getSample(i));
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Registers an action to be run each time the distribution metrics are re-computed. Actions are run on the thread
+     * adding samples, before the new samples are visible to other threads adding samples.
+     * @param callback Callback action, which is given this model
+     */
+    public void registerRefitCallback(Consumer<ErrorModel<Sample>> callback) {
+        refit_callbacks.add(callback);
+    }
+
+    /**
+     * @param callback Previously registered callback action
+     */
+    public void unregisterRefitCallback(Consumer<ErrorModel<Sample>> callback) {
+        refit_callbacks.remove(callback);
+    }
+
+    /**
+     * @return Time taken to re-compute the distribution metrics the last time the model was re-fit, in ns. 0 if the
+     * model has not been fit yet.
+     */
+    public long getLastRefitNanos() {
+        return last_refit_nanos;
+    }
+
     /**
      * @return The number of samples maintained for the associated distribution (i.e. size of the moving window)
      */
@@ -128,10 +309,16 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
     public abstract void computeMetrics(LinkedList<Sample> sampleIterator);
 
     public void clearData() {
+        invalidateEstimates();
         samples_since_last_sent.set(0);
         windowFlag.set(false);
         resampleFlag.set(false);
-        sample_window.clear();
+        synchronized (sample_window) {
+            sample_window.clear();
+            window_medians = window_deviations = null;
+            robust_stale_samples = 0;
+            cache_stale_samples = 0;
+        }
     }
 
     /**
@@ -150,6 +337,47 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
     }
     protected abstract double[][] resampleImpl(int newWindow);
 
+    /**
+     * Parametric alternative to {@link ErrorModel#resample(int)}. Provides the current mixture parameters to be sent
+     * upstream, and resets the resampling rate limit in the same way.
+     * @return Mixture parameters of the model, or null if the model is not parametric
+     */
+    public final GaussianMixture exportParameters() {
+        resampleFlag.set(false);
+        samples_since_last_sent.set(0);
+        return getParameters();
+    }
+
+    /**
+     * @return The distribution as a set of Gaussian mixture parameters, or null if the model cannot be described
+     * parametrically. Non-parametric models always return null.
+     */
+    public GaussianMixture getParameters() {
+        return null;
+    }
+
+    /**
+     * Merges a mixture received from a downstream node into the model, replacing any mixture previously received from
+     * the same node. Non-parametric models do not support merging.
+     * @param sourceHandle Clock handle of the node that sent the mixture
+     * @param mixture Mixture parameters
+     * @param weight Number of nodes represented by the mixture
+     * @return Whether or not the mixture was merged
+     */
+    public boolean mergeParameters(int sourceHandle, GaussianMixture mixture, long weight) {
+        return false;
+    }
+
+    /**
+     * Drops the mixture received from the given node, e.g. once the node has left the network, so it no longer
+     * contributes to the model.
+     * @param sourceHandle Clock handle of the node that sent the mixture
+     * @return Whether or not a mixture from the node was dropped
+     */
+    public boolean removeParameters(int sourceHandle) {
+        return false;
+    }
+
     /**
      * Used to limit the rate at which new models are transmitted upstream. Default implementation just waits until
      * the sample window has completely refreshed since last resample.
@@ -167,13 +395,101 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
      * @param point Sample
      * @return Likelihood of the sample
      */
-    @SuppressWarnings("unchecked") //Want the array for 1->1 sample mapping to probabilities
     public double estimate(Sample point) {
-        Sample [] smp = (Sample[]) Array.newInstance(point.getClass(), 1);
-        smp[0] = point;
+        double [][] smp = new double[1][num_dimensions];
+        point.writeSample(smp[0], 0);
+        EstimateCache cache = estimate_cache;
+        if(cache != null)
+            return cache.estimate(smp[0], cache_version.get(), p -> this.estimate(new double[][] {p})[0]);
         return this.estimate(smp)[0];
     }
 
+    /**
+     * @see ErrorModel#enableEstimateCache(double[], int, int)
+     */
+    public EstimateCache enableEstimateCache(double[] quantizationUnit, int capacity) {
+        return enableEstimateCache(quantizationUnit, capacity, Math.max(1, sample_size / 8));
+    }
+
+    /**
+     * Caches the estimates of single samples (see {@link ErrorModel#estimate(TimeErrorSample)}). Samples are rounded to
+     * the given unit, so nearby samples share an estimate. Since the model is re-fit on every sample once the window is
+     * full, discarding the cache on each re-fit would leave it almost always empty. Instead, cached estimates are kept
+     * across re-fits until the given number of samples have been added, so an estimate may lag the model by up to that
+     * many samples. Changes made outside of re-fits (e.g. merging a remote model) discard them right away.
+     * @param quantizationUnit Unit each dimension is rounded to, such as the base unit of the outlier detector
+     * @param capacity Maximum number of cached estimates
+     * @param refreshSamples Number of samples added before the cached estimates are discarded. Defaults to an eighth of
+     *                       the sample window; 1 discards them on every re-fit.
+     * @return The new cache, which provides hit rate metrics
+     */
+    public EstimateCache enableEstimateCache(double[] quantizationUnit, int capacity, int refreshSamples) {
+        if(quantizationUnit.length != num_dimensions)
+            throw new IllegalArgumentException("A quantization unit must be given for each dimension.");
+        if(refreshSamples < 1)
+            throw new IllegalArgumentException("Cached estimates must be refreshed after at least 1 sample.");
+        EstimateCache cache = new EstimateCache(quantizationUnit, capacity);
+        cache_refresh_samples = refreshSamples;
+        cache_version.incrementAndGet();
+        estimate_cache = cache;
+        return cache;
+    }
+
+    public void disableEstimateCache() {
+        estimate_cache = null;
+    }
+
+    /**
+     * @return The estimate cache, or null if it is not enabled
+     */
+    public EstimateCache getEstimateCache() {
+        return estimate_cache;
+    }
+
+    /**
+     * Allows models that support it to split large sample windows (when re-fitting) and large batches of points (when
+     * estimating) across the given pool, combining the partial results. Work below the threshold stays on the calling
+     * thread, where splitting would cost more than it saves.
+     * @param pool Pool to run on, e.g. {@link ForkJoinPool#commonPool()}
+     * @param threshold Smallest window or batch that is split
+     */
+    public void enableParallelism(ForkJoinPool pool, int threshold) {
+        if(pool == null || threshold < 1)
+            throw new IllegalArgumentException("A pool and a threshold of at least 1 must be provided.");
+        parallel_threshold = threshold;
+        parallel_pool = pool;
+    }
+
+    public void disableParallelism() {
+        parallel_pool = null;
+    }
+
+    /**
+     * @param size Size of the window or batch about to be processed
+     * @return The pool to split the work across, or null if it should run on the calling thread
+     */
+    protected final ForkJoinPool parallelPool(int size) {
+        ForkJoinPool pool = parallel_pool;
+        return (pool != null && size >= parallel_threshold) ? pool : null;
+    }
+
+    /**
+     * @return Version of the distribution, incremented each time it changes
+     */
+    public long getModelVersion() {
+        return model_version.get();
+    }
+
+    /**
+     * Marks the distribution as changed and discards cached estimates. Re-fits are accounted for by
+     * {@link ErrorModel#addSamples(List)}; models whose distribution also changes outside of
+     * {@link ErrorModel#computeMetrics(LinkedList)} must call this themselves.
+     */
+    protected final void invalidateEstimates() {
+        model_version.incrementAndGet();
+        cache_version.incrementAndGet();
+    }
+
     /**
      * Uses the computed probability density function to estimate the likelihood of each given point.
      * @param pointWindow Sample set
@@ -182,11 +498,108 @@ public abstract class ErrorModel<Sample extends TimeErrorSample> {
     public abstract double [] estimate(double[][] pointWindow);
 
     public double [] estimate(Sample[] pointWindow) {
-        return estimate(Arrays.stream(pointWindow).map(Sample::getSample).toArray(double[][]::new));
+        double [][] points = new double[pointWindow.length][num_dimensions];
+        for(int i = 0; i < pointWindow.length; i++)
+            pointWindow[i].writeSample(points[i], 0);
+        return estimate(points);
     }
 
     public abstract double [] getMean();
 
+    /**
+     * Median of each dimension over the sample window. Computed in linear time, and only re-computed once an eighth of
+     * the window has been replaced since, so calling this for each new sample costs amortized constant time. The
+     * result may therefore lag the newest samples by up to an eighth of the window.
+     * @return Median of each dimension
+     */
+    public double [] getMedian() {
+        synchronized (sample_window) {
+            computeRobustStatistics();
+            return Arrays.copyOf(window_medians, num_dimensions);
+        }
+    }
+
+    /**
+     * Median absolute deviation (from the median) of each dimension over the current sample window.
+     * @see ErrorModel#getMedian()
+     * @return Median absolute deviation of each dimension
+     */
+    public double [] getMedianAbsoluteDeviation() {
+        synchronized (sample_window) {
+            computeRobustStatistics();
+            return Arrays.copyOf(window_deviations, num_dimensions);
+        }
+    }
+
+    /**
+     * Re-computes the window median and MAD if enough of the window has been replaced. Must be called while holding the
+     * window lock.
+     */
+    private void computeRobustStatistics() {
+        if(window_medians != null && robust_stale_samples < Math.max(1, sample_window.size() / ROBUST_REFRESH_DIVISOR))
+            return;
+        robust_stale_samples = 0;
+        double [] medians = new double[num_dimensions], deviations = new double[num_dimensions];
+        double [] values = new double[sample_window.size()];
+        for(int i = 0; i < num_dimensions; i++) {
+            int j = 0;
+            for(Sample s : sample_window)
+                values[j++] = s.getSample(i);
+            medians[i] = median(values);
+            for(j = 0; j < values.length; j++)
+                values[j] = Math.abs(values[j] - medians[i]);
+            deviations[i] = median(values);
+        }
+        window_medians = medians;
+        window_deviations = deviations;
+    }
+
+    /**
+     * Selects the median in expected linear time. The array is reordered.
+     * @param values Values to take the median of
+     * @return Median of the values, NaN if there are none
+     */
+    private static double median(double[] values) {
+        if(values.length == 0)
+            return Double.NaN;
+        int mid = values.length / 2;
+        double upper = select(values, mid);
+        if(values.length % 2 == 1)
+            return upper;
+        //Everything below the middle index is at most the upper middle value, the lower middle is the largest of them
+        double lower = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < mid; i++)
+            lower = Math.max(lower, values[i]);
+        return (lower + upper) / 2;
+    }
+
+    /**
+     * Partially sorts the values so the k-th smallest value is at index k, with smaller values before it
+     */
+    private static double select(double[] values, int k) {
+        int lo = 0, hi = values.length - 1;
+        while(lo < hi) {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while(i <= j) {
+                while(values[i] < pivot) i++;
+                while(values[j] > pivot) j--;
+                if(i <= j) {
+                    double tmp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = tmp;
+                }
+            }
+            if(k <= j)
+                hi = j;
+            else if(k >= i)
+                lo = i;
+            else
+                break;
+        }
+        return values[k];
+    }
+
     public abstract double [] getVariance();
 
     public abstract double [] getStandardDeviation();
@@ -0,0 +1,146 @@
+package edu.unh.artt.core.models;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Bounded cache of density estimates. Points are quantized to a fixed unit per dimension (e.g. the base unit of an
+ * outlier detector), and the estimate of the quantized point is shared by every point that rounds to it. Each entry is
+ * tagged with the version of the model it was computed from, so a change to the model invalidates every entry at once
+ * without touching them.
+ *
+ * The cache is two-way set associative. Lookups are lock-free reads of immutable entries; a hit only marks its entry as
+ * recently used. On a miss, a stale or empty way is replaced first, then one that has not been used since the set was
+ * last filled, approximating LRU.
+ */
+public class EstimateCache {
+    private static final class Entry {
+        final long version;
+        final long[] key;
+        final double value;
+        /* Set on each hit, cleared when the other way of the set is replaced */
+        volatile boolean referenced = false;
+
+        Entry(long ver, long[] k, double val) {
+            version = ver;
+            key = k;
+            value = val;
+        }
+    }
+
+    private final double[] quantum;
+    private final AtomicReferenceArray<Entry> slots;
+    /* Mask selecting a set, which is a pair of adjacent slots */
+    private final int set_mask;
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    /**
+     * @param quantizationUnit Unit each dimension of a point is rounded to
+     * @param capacity Maximum number of entries. Rounded up to a power of 2.
+     */
+    public EstimateCache(double[] quantizationUnit, int capacity) {
+        if(quantizationUnit.length < 1 || Arrays.stream(quantizationUnit).anyMatch(u -> !(u > 0) || Double.isInfinite(u)))
+            throw new IllegalArgumentException("Quantization units must be finite and greater than 0.");
+        if(capacity < 2 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Cache capacity must be between 2 and 2^30.");
+        quantum = Arrays.copyOf(quantizationUnit, quantizationUnit.length);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        set_mask = size / 2 - 1;
+    }
+
+    /**
+     * @param point Point to estimate
+     * @param version Version of the model. Must be read before the estimator is run, so an estimate from an older
+     *                model is never tagged with a newer version.
+     * @param estimator Computes the estimate of a point on a miss
+     * @return Estimate of the point, rounded to the quantization unit
+     */
+    public double estimate(double[] point, long version, ToDoubleFunction<double[]> estimator) {
+        if(point.length != quantum.length)
+            throw new IllegalArgumentException("Dimensionality of the point does not match the cache.");
+        long[] key = new long[point.length];
+        for(int dim = 0; dim < point.length; dim++) {
+            if(!Double.isFinite(point[dim])) //Not worth caching, and would collide with the extremes
+                return estimator.applyAsDouble(point);
+            key[dim] = Math.round(point[dim] / quantum[dim]);
+        }
+
+        int set = (mix(Arrays.hashCode(key)) & set_mask) << 1;
+        Entry first = slots.get(set), second = slots.get(set + 1);
+        Entry hit = matches(first, key, version) ? first : matches(second, key, version) ? second : null;
+        if(hit != null) {
+            if(!hit.referenced)
+                hit.referenced = true;
+            hits.increment();
+            return hit.value;
+        }
+        misses.increment();
+
+        double[] center = new double[key.length];
+        for(int dim = 0; dim < key.length; dim++)
+            center[dim] = key[dim] * quantum[dim];
+        double value = estimator.applyAsDouble(center);
+
+        //Prefer a way that is empty or from an older model, then one that was not used recently
+        int victim;
+        if(first == null || first.version != version)
+            victim = set;
+        else if(second == null || second.version != version)
+            victim = set + 1;
+        else {
+            victim = (first.referenced && !second.referenced) ? set + 1 : set;
+            evictions.increment();
+        }
+        Entry other = slots.get(victim ^ 1);
+        if(other != null)
+            other.referenced = false;
+        slots.set(victim, new Entry(version, key, value));
+        return value;
+    }
+
+    private static boolean matches(Entry entry, long[] key, long version) {
+        return entry != null && entry.version == version && Arrays.equals(entry.key, key);
+    }
+
+    /* Spreads the hash so neighbouring points land in different sets */
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    public void clear() {
+        for(int i = 0; i < slots.length(); i++)
+            slots.set(i, null);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Number of current entries replaced to make room for another
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return Fraction of lookups answered from the cache, or 0 if there have been none
+     */
+    public double getHitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return (total == 0) ? 0 : (double) h / total;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,518 @@
+package edu.unh.artt.core.models;
+
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Models a time error distribution as a mixture of a bounded number of Gaussian components with diagonal covariance.
+ * Unlike the kernel density estimator, the distribution is fully described by a few parameters per component, so it can
+ * be transmitted upstream as parameters rather than as a re-sampled data set (see
+ * {@link ErrorModel#exportParameters()}).
+ *
+ * The local sample window is fit with incremental expectation maximization. The responsibility of each component for
+ * each sample in the window is kept along with their responsibility weighted sums, so each new sample only costs an E
+ * step for that sample, and each re-fit an M step over the sums. Since the responsibilities of older samples were
+ * computed under older fits, the whole window is re-fit in batch once every window of new samples, warm started from the
+ * previous fit so only a few iterations are needed. Mixtures received from downstream nodes are not re-fit; they are
+ * kept per sender, weighted by the number of nodes each one represents, and reduced together back to the component
+ * bound whenever one of them changes. The local fit is combined with that reduced mixture by concatenating their
+ * components, which is O(components) and only done when the combined mixture is next used after a re-fit; the reduction
+ * back to the component bound is left until the parameters are exported. Mixtures of senders that have left the network
+ * are dropped with {@link GaussianMixtureModel#removeParameters(int)}.
+ * @see GaussianMixture#combine(List, double[], int)
+ */
+public class GaussianMixtureModel<Sample extends TimeErrorSample> extends ErrorModel<Sample> {
+    private static final Logger logger = LoggerFactory.getLogger(GaussianMixtureModel.class);
+
+    /* Iterations allowed when fitting from scratch, and when warm starting from the previous fit */
+    private static final int COLD_ITERATIONS = 50, WARM_ITERATIONS = 5;
+    /* Stop iterating once the mean log likelihood improves by less than this */
+    private static final double CONVERGENCE_TOLERANCE = 1e-6;
+    /* Smallest component variance, relative to the variance of the window */
+    private static final double RELATIVE_VARIANCE_FLOOR = 1e-4, MIN_VARIANCE = 1e-6;
+
+    /* Maximum number of components of both the local fit and the combined mixture */
+    private final int max_components;
+    /* Number of nodes represented by the local sample window */
+    private volatile long local_weight = 1;
+
+    /* Most recent fit of the local sample window. Guarded by sample_window */
+    private GaussianMixture local_fit;
+    /* Responsibilities of each sample in the window, in window order, and their sums. Only maintained once the window
+       has been fit. Guarded by sample_window */
+    private final ArrayDeque<double[]> window_resp = new ArrayDeque<>();
+    private ExpectationSums window_sums;
+    /* Smallest component variance allowed by the most recent batch fit, and the number of samples added since */
+    private double[] variance_floor;
+    private int added_since_batch = 0;
+
+    private static class RemoteMixture {
+        final GaussianMixture mixture;
+        final long weight;
+
+        RemoteMixture(GaussianMixture mix, long wt) {
+            mixture = mix;
+            weight = wt;
+        }
+    }
+
+    /* Most recent mixture received from each downstream node, indexed by clock handle */
+    private final ConcurrentHashMap<Integer, RemoteMixture> remote_mixtures = new ConcurrentHashMap<>();
+
+    /* Remote mixtures reduced to the component bound, weighted by the total number of nodes they represent. Only
+       written holding the remote_mixtures lock */
+    private volatile RemoteMixture remote_reduced;
+
+    /* Local fit concatenated with the reduced remote mixture. Null until there is something to combine. Rebuilt from
+       the latest of each on first use after combined_stale is set */
+    private volatile GaussianMixture combined_mixture;
+    private volatile boolean combined_stale = false;
+
+    private final Random random = new Random();
+
+    /**
+     * @param maxComponents Maximum number of mixture components
+     * @see ErrorModel#ErrorModel(int, int)
+     */
+    public GaussianMixtureModel(int sampleWindow, int numDim, int maxComponents) {
+        super(sampleWindow, numDim);
+        if(maxComponents < 1)
+            throw new IllegalArgumentException("Mixture must have at least 1 component.");
+        max_components = maxComponents;
+    }
+
+    /**
+     * @param weight Number of nodes represented by the local sample window, used to weight the local fit against the
+     *               mixtures received from downstream nodes
+     */
+    public void setLocalWeight(long weight) {
+        if(weight < 1)
+            throw new IllegalArgumentException("Local weight must be at least 1.");
+        local_weight = weight;
+        combined_stale = true;
+        invalidateEstimates();
+    }
+
+    /**
+     * Keeps the responsibility sums of the window up to date with the incoming sample.
+     * @see ErrorModel#onSampleAdded(TimeErrorSample)
+     */
+    @Override
+    protected void onSampleAdded(Sample sample) {
+        added_since_batch++;
+        if(window_sums == null)
+            return;
+        double[] point = new double[num_dimensions];
+        sample.writeSample(point, 0);
+        double[] resp = new double[local_fit.getNumComponents()];
+        responsibilities(local_fit, point, resp);
+        window_sums.add(resp, point, 1);
+        window_resp.addFirst(resp);
+    }
+
+    /**
+     * Removes the evicted sample from the responsibility sums, using the responsibilities it was added with.
+     * @see ErrorModel#onSampleEvicted(TimeErrorSample)
+     */
+    @Override
+    protected void onSampleEvicted(Sample sample) {
+        if(window_sums == null)
+            return;
+        double[] point = new double[num_dimensions];
+        sample.writeSample(point, 0);
+        window_sums.add(window_resp.removeLast(), point, -1);
+    }
+
+    /**
+     * Re-fits the mixture with an M step over the responsibility sums of the window, or with batch expectation
+     * maximization over the whole window if a window of samples has been added since the last batch fit.
+     * @see ErrorModel#computeMetrics(LinkedList)
+     */
+    @Override
+    public void computeMetrics(LinkedList<Sample> smpls) {
+        if(window_sums == null || added_since_batch >= smpls.size() || window_resp.size() != smpls.size())
+            batchFit(smpls);
+        else
+            local_fit = maximization(local_fit, window_sums, variance_floor, smpls.size(), false);
+        combined_stale = true;
+    }
+
+    /**
+     * Fits the mixture to the sample window using expectation maximization, and re-computes the responsibilities of
+     * every sample in the window under the new fit.
+     */
+    private void batchFit(LinkedList<Sample> smpls) {
+        int n = smpls.size();
+        double[][] points = new double[n][num_dimensions];
+        int idx = 0;
+        for(Sample s : smpls)
+            s.writeSample(points[idx++], 0);
+
+        double[] windowMean = new double[num_dimensions], windowVar = new double[num_dimensions];
+        for(double[] p : points) {
+            for(int dim = 0; dim < num_dimensions; dim++)
+                windowMean[dim] += p[dim] / n;
+        }
+        for(double[] p : points) {
+            for(int dim = 0; dim < num_dimensions; dim++)
+                windowVar[dim] += (p[dim] - windowMean[dim]) * (p[dim] - windowMean[dim]) / n;
+        }
+        double[] varFloor = new double[num_dimensions];
+        for(int dim = 0; dim < num_dimensions; dim++)
+            varFloor[dim] = Math.max(MIN_VARIANCE, windowVar[dim] * RELATIVE_VARIANCE_FLOOR);
+
+        GaussianMixture fit = local_fit;
+        int iterations = WARM_ITERATIONS;
+        if(fit == null) {
+            fit = initialFit(points, windowVar, varFloor);
+            iterations = COLD_ITERATIONS;
+        }
+
+        double prevLikelihood = Double.NEGATIVE_INFINITY;
+        for(int it = 0; it < iterations; it++) {
+            GaussianMixture cur = fit;
+            ExpectationSums sums = ParallelRange.reduce(parallelPool(n), n, ParallelRange.DEFAULT_GRAIN,
+                    (from, to) -> expectation(cur, points, from, to, null), ExpectationSums::combine);
+            fit = maximization(cur, sums, varFloor, n, true);
+            if(sums.log_likelihood / n - prevLikelihood < CONVERGENCE_TOLERANCE)
+                break;
+            prevLikelihood = sums.log_likelihood / n;
+        }
+
+        //Responsibilities under the final fit seed the incremental updates
+        GaussianMixture last = fit;
+        double[][] resp = new double[n][];
+        window_sums = ParallelRange.reduce(parallelPool(n), n, ParallelRange.DEFAULT_GRAIN,
+                (from, to) -> expectation(last, points, from, to, resp), ExpectationSums::combine);
+        window_resp.clear();
+        window_resp.addAll(Arrays.asList(resp));
+        variance_floor = varFloor;
+        added_since_batch = 0;
+        local_fit = fit;
+    }
+
+    /**
+     * Spreads the components evenly over the quantiles of the first dimension.
+     */
+    private GaussianMixture initialFit(double[][] points, double[] windowVar, double[] varFloor) {
+        int numComp = Math.min(max_components, points.length);
+        double[][] sorted = Arrays.copyOf(points, points.length);
+        Arrays.sort(sorted, (a, b) -> Double.compare(a[0], b[0]));
+
+        double[] weights = new double[numComp];
+        double[][] means = new double[numComp][], variances = new double[numComp][num_dimensions];
+        for(int k = 0; k < numComp; k++) {
+            weights[k] = 1;
+            means[k] = Arrays.copyOf(sorted[(int) ((k + 0.5) * sorted.length / numComp)], num_dimensions);
+            for(int dim = 0; dim < num_dimensions; dim++)
+                variances[k][dim] = Math.max(varFloor[dim], windowVar[dim] / (numComp * numComp));
+        }
+        return new GaussianMixture(weights, means, variances);
+    }
+
+    /**
+     * Runs the M step of expectation maximization.
+     * @param fit Mixture the responsibilities were computed under
+     * @param sums Responsibility weighted sums of the window
+     * @param n Number of samples in the window
+     * @param prune Whether or not to drop components without any responsibility. Must be false while the
+     *              responsibilities of the window are kept, so the components stay aligned with them.
+     * @return The updated mixture
+     */
+    private GaussianMixture maximization(GaussianMixture fit, ExpectationSums sums, double[] varFloor, int n,
+                                         boolean prune) {
+        int numComp = fit.getNumComponents();
+        double[] respSum = sums.resp_sum;
+        double[][] sum = sums.sum, sumSq = sums.sum_sq;
+
+        List<Integer> kept = new ArrayList<>(numComp);
+        for(int k = 0; k < numComp; k++) {
+            if(!prune || respSum[k] > 1e-9 * n)
+                kept.add(k);
+        }
+        double[] weights = new double[kept.size()];
+        double[][] means = new double[kept.size()][num_dimensions], variances = new double[kept.size()][num_dimensions];
+        for(int c = 0; c < kept.size(); c++) {
+            int k = kept.get(c);
+            if(respSum[k] <= 1e-9 * n) { //Component without responsibility keeps its place, but no weight
+                for(int dim = 0; dim < num_dimensions; dim++) {
+                    means[c][dim] = fit.getMean(k, dim);
+                    variances[c][dim] = fit.getVariance(k, dim);
+                }
+                continue;
+            }
+            weights[c] = respSum[k];
+            for(int dim = 0; dim < num_dimensions; dim++) {
+                means[c][dim] = sum[k][dim] / respSum[k];
+                variances[c][dim] = Math.max(varFloor[dim], sumSq[k][dim] / respSum[k] - means[c][dim] * means[c][dim]);
+            }
+        }
+        return new GaussianMixture(weights, means, variances);
+    }
+
+    /**
+     * Responsibility weighted sums of a range of points under the current mixture
+     */
+    private static class ExpectationSums {
+        final double[] resp_sum;
+        final double[][] sum, sum_sq;
+        double log_likelihood = 0;
+
+        ExpectationSums(int numComp, int numDim) {
+            resp_sum = new double[numComp];
+            sum = new double[numComp][numDim];
+            sum_sq = new double[numComp][numDim];
+        }
+
+        /**
+         * Adds (sign 1) or removes (sign -1) a single point with the given responsibilities
+         */
+        void add(double[] resp, double[] p, int sign) {
+            for(int k = 0; k < resp_sum.length; k++) {
+                double r = sign * resp[k];
+                resp_sum[k] += r;
+                for(int dim = 0; dim < p.length; dim++) {
+                    sum[k][dim] += r * p[dim];
+                    sum_sq[k][dim] += r * p[dim] * p[dim];
+                }
+            }
+        }
+
+        ExpectationSums combine(ExpectationSums other) {
+            for(int k = 0; k < resp_sum.length; k++) {
+                resp_sum[k] += other.resp_sum[k];
+                for(int dim = 0; dim < sum[k].length; dim++) {
+                    sum[k][dim] += other.sum[k][dim];
+                    sum_sq[k][dim] += other.sum_sq[k][dim];
+                }
+            }
+            log_likelihood += other.log_likelihood;
+            return this;
+        }
+    }
+
+    /**
+     * Computes the E step sums over the points [from, to).
+     * @param respOut If not null, set to the responsibilities of each point
+     */
+    private ExpectationSums expectation(GaussianMixture fit, double[][] points, int from, int to, double[][] respOut) {
+        int numComp = fit.getNumComponents();
+        ExpectationSums sums = new ExpectationSums(numComp, num_dimensions);
+        for(int i = from; i < to; i++) {
+            double[] resp = new double[numComp];
+            sums.log_likelihood += responsibilities(fit, points[i], resp);
+            sums.add(resp, points[i], 1);
+            if(respOut != null)
+                respOut[i] = resp;
+        }
+        return sums;
+    }
+
+    /**
+     * @param resp Set to the normalized responsibility of each component for the point
+     * @return Log likelihood of the point under the mixture
+     */
+    private static double responsibilities(GaussianMixture fit, double[] p, double[] resp) {
+        int numComp = fit.getNumComponents();
+        //Responsibilities are normalized in log space so distant points do not underflow
+        double max = Double.NEGATIVE_INFINITY;
+        for(int k = 0; k < numComp; k++) {
+            resp[k] = (fit.getWeight(k) > 0) ? Math.log(fit.getWeight(k)) + fit.logComponentDensity(k, p)
+                    : Double.NEGATIVE_INFINITY;
+            max = Math.max(max, resp[k]);
+        }
+        double norm = 0;
+        for(int k = 0; k < numComp; k++)
+            norm += (resp[k] = Math.exp(resp[k] - max));
+        for(int k = 0; k < numComp; k++)
+            resp[k] /= norm;
+        return max + Math.log(norm);
+    }
+
+    /**
+     * Replaces the mixture previously received from the given node and re-computes the reduced remote mixture. Only a
+     * node that was not already represented flags the model for resampling; updates from known nodes are carried
+     * upstream with the next resample triggered by the local window.
+     * @see ErrorModel#mergeParameters(int, GaussianMixture, long)
+     */
+    @Override
+    public boolean mergeParameters(int sourceHandle, GaussianMixture mixture, long weight) {
+        if(mixture.getNumDimensions() != num_dimensions)
+            throw new IllegalArgumentException("Dimensionality of the mixture does not match the model.");
+        if(weight < 1) {
+            logger.warn("Ignoring mixture with a network representation of {}.", weight);
+            return true;
+        }
+        boolean added;
+        synchronized (remote_mixtures) {
+            added = remote_mixtures.put(sourceHandle, new RemoteMixture(mixture, weight)) == null;
+            reduceRemotes();
+        }
+        if(added)
+            resampleFlag.set(true);
+        return true;
+    }
+
+    /**
+     * Drops the mixture received from the given node and re-computes the reduced remote mixture.
+     * @see ErrorModel#removeParameters(int)
+     */
+    @Override
+    public boolean removeParameters(int sourceHandle) {
+        synchronized (remote_mixtures) {
+            if(remote_mixtures.remove(sourceHandle) == null)
+                return false;
+            reduceRemotes();
+        }
+        resampleFlag.set(true);
+        return true;
+    }
+
+    /**
+     * Reduces the remote mixtures to the component bound. Must be called holding the remote_mixtures lock.
+     */
+    private void reduceRemotes() {
+        List<GaussianMixture> mixtures = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        for(RemoteMixture remote : remote_mixtures.values()) {
+            mixtures.add(remote.mixture);
+            weights.add(remote.weight);
+        }
+        remote_reduced = mixtures.isEmpty() ? null : new RemoteMixture(GaussianMixture.combine(mixtures,
+                weights.stream().mapToDouble(Long::doubleValue).toArray(), max_components),
+                weights.stream().mapToLong(Long::longValue).sum());
+        combined_stale = true;
+        invalidateEstimates();
+    }
+
+    /**
+     * @return The local fit concatenated with the reduced remote mixture, rebuilt if either has changed since it was
+     * last built. At most twice the component bound
+     */
+    private GaussianMixture combined() {
+        if(!combined_stale)
+            return combined_mixture;
+        synchronized (sample_window) {
+            //Cleared before reading so a change made while building is picked up by the next call
+            if(combined_stale) {
+                combined_stale = false;
+                List<GaussianMixture> mixtures = new ArrayList<>();
+                List<Double> weights = new ArrayList<>();
+                if(local_fit != null) {
+                    mixtures.add(local_fit);
+                    weights.add((double) local_weight);
+                }
+                RemoteMixture remote = remote_reduced;
+                if(remote != null) {
+                    mixtures.add(remote.mixture);
+                    weights.add((double) remote.weight);
+                }
+                combined_mixture = mixtures.isEmpty() ? null : GaussianMixture.combine(mixtures,
+                        weights.stream().mapToDouble(Double::doubleValue).toArray(), Integer.MAX_VALUE);
+            }
+            return combined_mixture;
+        }
+    }
+
+    /**
+     * @return The local fit combined with the mixtures received from downstream nodes, reduced to the component bound
+     */
+    @Override
+    public GaussianMixture getParameters() {
+        GaussianMixture mixture = combined();
+        return (mixture == null || mixture.getNumComponents() <= max_components) ? mixture
+                : GaussianMixture.combine(List.of(mixture), new double[] {1}, max_components);
+    }
+
+    /**
+     * Draws a new data set from the combined mixture.
+     * @see ErrorModel#resampleImpl(int)
+     */
+    @Override
+    protected double[][] resampleImpl(int newWindow) {
+        GaussianMixture mixture = combined();
+        return (mixture == null) ? new double[0][] : mixture.sample(newWindow, random);
+    }
+
+    /**
+     * @see ErrorModel#estimate(double[][])
+     */
+    @Override
+    public double[] estimate(double[][] pointWindow) {
+        GaussianMixture mixture = combined();
+        double[] res = new double[pointWindow.length];
+        if(mixture != null) {
+            ParallelRange.forEach(parallelPool(pointWindow.length), pointWindow.length, ParallelRange.DEFAULT_GRAIN,
+                    (from, to) -> {
+                for(int i = from; i < to; i++)
+                    res[i] = mixture.density(pointWindow[i]);
+            });
+        }
+        return res;
+    }
+
+    /**
+     * @see ErrorModel#getMean()
+     */
+    @Override
+    public double[] getMean() {
+        GaussianMixture mixture = combined();
+        return (mixture == null) ? new double[num_dimensions] : mixture.getMean();
+    }
+
+    /**
+     * @see ErrorModel#getVariance()
+     */
+    @Override
+    public double[] getVariance() {
+        GaussianMixture mixture = combined();
+        return (mixture == null) ? new double[num_dimensions] : mixture.getVariance();
+    }
+
+    /**
+     * @see ErrorModel#getStandardDeviation()
+     */
+    @Override
+    public double[] getStandardDeviation() {
+        double [] stdevs = getVariance();
+        for(int i = 0; i < stdevs.length; i++)
+            stdevs[i] = Math.sqrt(stdevs[i]);
+        return stdevs;
+    }
+
+    @Override
+    public void clearData() {
+        super.clearData();
+        synchronized (remote_mixtures) {
+            remote_mixtures.clear();
+            remote_reduced = null;
+        }
+        synchronized (sample_window) {
+            local_fit = null;
+            window_sums = null;
+            window_resp.clear();
+            variance_floor = null;
+            added_since_batch = 0;
+            //Rebuilt from whatever was merged since the remotes were cleared
+            combined_mixture = null;
+            combined_stale = true;
+        }
+        invalidateEstimates();
+    }
+
+    /**
+     * No 3rd party libraries are used
+     */
+    @Override
+    public void shutdown() {}
+}
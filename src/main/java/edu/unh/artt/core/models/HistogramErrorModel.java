@@ -0,0 +1,302 @@
+package edu.unh.artt.core.models;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Models a one dimensional time error distribution with a weighted histogram of a fixed bin width. Each sample adds its
+ * weight to a single bin as it enters the window and removes it as it is evicted, so ingestion is constant time and
+ * independent of the window size. The pdf is treated as uniform within each bin; estimates and re-sampling are served
+ * directly from the bins, and the moments from running sums of the bin centers.
+ *
+ * Bins are aligned to multiples of the bin width (bin i covers [i * width, (i + 1) * width)), and the histogram widens
+ * to fit extreme values as they arrive. If the range would need more than the maximum number of bins, adjacent bins are
+ * merged and the width is doubled. Since bins stay aligned a sample always maps to the bin it was added to, so memory is
+ * bounded regardless of the values seen. A natural bin width is the base unit given to
+ * {@link edu.unh.artt.core.outlier.DistanceOutlierDetector}.
+ * @param <Sample> Sample type to build the distribution over. Must be one dimensional.
+ */
+public class HistogramErrorModel<Sample extends TimeErrorSample> extends ErrorModel<Sample> {
+    private static final Logger logger = LoggerFactory.getLogger(HistogramErrorModel.class);
+
+    /* Upper bound on the number of bins, after which the resolution is halved */
+    public static final int DEFAULT_MAX_BINS = 1 << 16;
+    private static final int INITIAL_BINS = 64;
+
+    private final int max_bins;
+    /* Current width of each bin. Only grows, unless the data is cleared */
+    private final double initial_bin_width;
+    private double bin_width;
+
+    /* Weight accumulated in each bin. counts[0] is bin number origin_bin. Guarded by sample_window */
+    private double[] counts = new double[0];
+    private long origin_bin;
+    private double total_weight = 0;
+    /* Weighted sum and sum of squares of the bin center of each sample, in bins relative to reference_bin, so the
+       moments are constant time. Relative centers keep the sums exact for windows far from 0. Guarded by sample_window */
+    private long reference_bin;
+    private double center_sum = 0, center_sum_sq = 0;
+
+    private final Random random = new Random();
+
+    /**
+     * @param sampleWindow Size of the moving window
+     * @param binWidth Width of each bin, in the units of the samples (e.g. ns for offsetFromGm)
+     */
+    public HistogramErrorModel(int sampleWindow, double binWidth) {
+        this(sampleWindow, binWidth, DEFAULT_MAX_BINS);
+    }
+
+    /**
+     * @param sampleWindow Size of the moving window
+     * @param binWidth Width of each bin, in the units of the samples (e.g. ns for offsetFromGm)
+     * @param maxBins Maximum number of bins before the resolution is reduced
+     */
+    public HistogramErrorModel(int sampleWindow, double binWidth, int maxBins) {
+        super(sampleWindow, 1);
+        if(!(binWidth > 0) || Double.isInfinite(binWidth))
+            throw new IllegalArgumentException("Bin width must be a finite value greater than 0.");
+        if(maxBins < 2)
+            throw new IllegalArgumentException("Histogram must be allowed at least 2 bins.");
+        initial_bin_width = bin_width = binWidth;
+        max_bins = maxBins;
+    }
+
+    private long binOf(double value) {
+        return (long) Math.floor(value / bin_width);
+    }
+
+    /**
+     * @see ErrorModel#onSampleAdded(TimeErrorSample)
+     */
+    @Override
+    protected void onSampleAdded(Sample sample) {
+        double value = sample.getSample(0);
+        if(!Double.isFinite(value)) {
+            logger.warn("Ignoring non-finite sample {}.", sample.getIdentifier());
+            return;
+        }
+
+        long bin = binOf(value);
+        if(counts.length == 0) {
+            counts = new double[INITIAL_BINS];
+            origin_bin = bin - INITIAL_BINS / 2;
+            reference_bin = bin;
+        }
+        while(bin < origin_bin || bin >= origin_bin + counts.length) {
+            widen(bin);
+            bin = binOf(value);
+        }
+        counts[(int) (bin - origin_bin)] += sample.getWeight();
+        total_weight += sample.getWeight();
+        double center = bin - reference_bin + 0.5;
+        center_sum += sample.getWeight() * center;
+        center_sum_sq += sample.getWeight() * center * center;
+    }
+
+    /**
+     * @see ErrorModel#onSampleEvicted(TimeErrorSample)
+     */
+    @Override
+    protected void onSampleEvicted(Sample sample) {
+        double value = sample.getSample(0);
+        if(!Double.isFinite(value))
+            return;
+        long bin = binOf(value), idx = bin - origin_bin;
+        if(idx < 0 || idx >= counts.length) //Only possible for a weightless sample whose bin was released
+            return;
+        //Floating point error should not leave small negative weights behind
+        counts[(int) idx] = Math.max(0, counts[(int) idx] - sample.getWeight());
+        total_weight = Math.max(0, total_weight - sample.getWeight());
+        double center = bin - reference_bin + 0.5;
+        center_sum -= sample.getWeight() * center;
+        center_sum_sq -= sample.getWeight() * center * center;
+    }
+
+    /**
+     * Grows the bin array (doubling it so growth is amortized) to fit the given bin. If the array would exceed the
+     * maximum size, the resolution is halved instead.
+     */
+    private void widen(long bin) {
+        long lo = Math.min(origin_bin, bin), hi = Math.max(origin_bin + counts.length - 1, bin);
+        long span = hi - lo + 1;
+        if(span > max_bins) {
+            coarsen();
+            return;
+        }
+
+        int len = (int) Math.min(max_bins, Math.max(span, 2L * counts.length));
+        long newOrigin = (bin < origin_bin) ? hi - len + 1 : lo;
+        double[] grown = new double[len];
+        System.arraycopy(counts, 0, grown, (int) (origin_bin - newOrigin), counts.length);
+        counts = grown;
+        origin_bin = newOrigin;
+    }
+
+    /**
+     * Merges each pair of aligned bins, doubling the bin width.
+     */
+    private void coarsen() {
+        long newOrigin = Math.floorDiv(origin_bin, 2);
+        double[] merged = new double[(int) (Math.floorDiv(origin_bin + counts.length - 1, 2) - newOrigin + 1)];
+        for(int i = 0; i < counts.length; i++)
+            merged[(int) (Math.floorDiv(origin_bin + i, 2) - newOrigin)] += counts[i];
+        counts = merged;
+        origin_bin = newOrigin;
+        bin_width *= 2;
+
+        //Bin centers move when bins are merged, so the sums are re-computed at the new resolution
+        reference_bin = Math.floorDiv(reference_bin, 2);
+        center_sum = center_sum_sq = 0;
+        for(int i = 0; i < counts.length; i++) {
+            double center = origin_bin + i - reference_bin + 0.5;
+            center_sum += counts[i] * center;
+            center_sum_sq += counts[i] * center * center;
+        }
+        logger.info("Histogram range exceeded {} bins, bin width is now {}.", max_bins, bin_width);
+    }
+
+    /**
+     * The histogram is maintained as samples are added, so only empty bins at the edges of the range are released.
+     * @see ErrorModel#computeMetrics(LinkedList)
+     */
+    @Override
+    public void computeMetrics(LinkedList<Sample> sampleIterator) {
+        int lo = 0, hi = counts.length - 1;
+        while(lo < hi && counts[lo] == 0) lo++;
+        while(hi > lo && counts[hi] == 0) hi--;
+
+        //Keep some slack so values near the edge do not cause the array to be re-allocated on each refit
+        int span = hi - lo + 1;
+        if(counts.length > INITIAL_BINS && span * 4 < counts.length) {
+            int len = Math.max(INITIAL_BINS, span * 2);
+            int start = Math.max(0, lo - (len - span) / 2);
+            start = Math.min(start, counts.length - len);
+            counts = Arrays.copyOfRange(counts, start, start + len);
+            origin_bin += start;
+        }
+    }
+
+    /**
+     * @return Current width of each bin
+     */
+    public double getBinWidth() {
+        synchronized (sample_window) {
+            return bin_width;
+        }
+    }
+
+    /**
+     * Draws each point by picking a bin in proportion to its weight, then a uniform position within it.
+     * @see ErrorModel#resampleImpl(int)
+     */
+    @Override
+    protected double[][] resampleImpl(int newWindow) {
+        double[] cumulative;
+        long origin;
+        double width;
+        synchronized (sample_window) {
+            if(!(total_weight > 0))
+                return new double[0][];
+            cumulative = new double[counts.length];
+            double sum = 0;
+            for(int i = 0; i < counts.length; i++)
+                cumulative[i] = (sum += counts[i]);
+            origin = origin_bin;
+            width = bin_width;
+        }
+
+        double total = cumulative[cumulative.length - 1];
+        double[][] samples = new double[newWindow][1];
+        for(int i = 0; i < newWindow; i++) {
+            //First bin whose cumulative weight exceeds the target, which skips empty bins
+            double target = random.nextDouble() * total;
+            int lo = 0, hi = cumulative.length - 1;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(cumulative[mid] > target) hi = mid;
+                else lo = mid + 1;
+            }
+            samples[i][0] = (origin + lo + random.nextDouble()) * width;
+        }
+        return samples;
+    }
+
+    /**
+     * @return Weight of the bin holding each point divided by the total weight and bin width
+     * @see ErrorModel#estimate(double[][])
+     */
+    @Override
+    public double[] estimate(double[][] pointWindow) {
+        double[] res = new double[pointWindow.length];
+        synchronized (sample_window) {
+            if(!(total_weight > 0))
+                return res;
+            for(int i = 0; i < pointWindow.length; i++) {
+                if(!Double.isFinite(pointWindow[i][0]))
+                    continue;
+                long idx = binOf(pointWindow[i][0]) - origin_bin;
+                if(idx >= 0 && idx < counts.length)
+                    res[i] = counts[(int) idx] / (total_weight * bin_width);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @see ErrorModel#getMean()
+     */
+    @Override
+    public double[] getMean() {
+        synchronized (sample_window) {
+            if(!(total_weight > 0))
+                return new double[1];
+            return new double[] {(reference_bin + center_sum / total_weight) * bin_width};
+        }
+    }
+
+    /**
+     * Variance of the bin centers, plus the variance of a uniform distribution over a single bin.
+     * @see ErrorModel#getVariance()
+     */
+    @Override
+    public double[] getVariance() {
+        synchronized (sample_window) {
+            if(!(total_weight > 0))
+                return new double[1];
+            double mean = center_sum / total_weight;
+            double centerVar = Math.max(0, center_sum_sq / total_weight - mean * mean);
+            return new double[] {(centerVar + 1. / 12) * bin_width * bin_width};
+        }
+    }
+
+    /**
+     * @see ErrorModel#getStandardDeviation()
+     */
+    @Override
+    public double[] getStandardDeviation() {
+        return new double[] {Math.sqrt(getVariance()[0])};
+    }
+
+    @Override
+    public void clearData() {
+        synchronized (sample_window) {
+            super.clearData();
+            counts = new double[0];
+            total_weight = 0;
+            center_sum = center_sum_sq = 0;
+            bin_width = initial_bin_width;
+        }
+    }
+
+    /**
+     * No 3rd party libraries are used
+     */
+    @Override
+    public void shutdown() {}
+}
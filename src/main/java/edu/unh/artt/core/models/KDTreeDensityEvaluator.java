@@ -0,0 +1,236 @@
+package edu.unh.artt.core.models;
+
+import java.util.Arrays;
+
+/**
+ * Tree-accelerated evaluation of a kernel density estimate. The window is partitioned into a k-d tree at
+ * construction time, which should only happen when the owning model is re-fit. Queries then only descend into nodes
+ * whose bounding boxes fall within the kernel cutoff radius of the query point. Nodes whose kernel contribution is
+ * nearly constant over their bounding box are approximated in bulk, so a single point estimate costs roughly
+ * O(log window) rather than O(window).
+ *
+ * Two sources of error are introduced relative to the exact sum:
+ * <ul>
+ *     <li>Samples further than the cutoff (measured in bandwidths) from the query are ignored. With the
+ *     {@link Kernel#GAUSSIAN} kernel each ignored sample contributed less than exp(-cutoff^2 / 2) of the kernel peak.
+ *     The other kernels are 0 past the cutoff, so nothing is lost.</li>
+ *     <li>Bulk approximated nodes contribute at most the given relative tolerance of error to the estimate.</li>
+ * </ul>
+ *
+ * The kernel uses a diagonal bandwidth matrix. For one dimensional data the Gaussian kernel is identical to the scipy
+ * gaussian_kde. Compact kernels with a small cutoff only visit the neighbourhood of each query, which for a tight
+ * timing distribution is a small fraction of the window.
+ * Leaf nodes are summed by the {@link KernelEngine} selected for the running JVM, which uses an exponential accurate to
+ * within a relative 1e-13.
+ */
+public class KDTreeDensityEvaluator {
+    /* Maximum number of samples held by a leaf node. Large enough that a leaf spans several full vectors */
+    private static final int LEAF_SIZE = 32;
+
+    private final int num_dimensions, num_samples;
+    /* Sample values ordered by the tree, where the major index is the dimension so leaves can be read as vectors */
+    private final double[][] columns;
+    /* Weight of each sample, ordered the same as the columns */
+    private final double[] weights;
+    private final double[] inv_bandwidths;
+    /* Squared cutoff radius in units of bandwidths */
+    private final double cutoff_sq;
+    private final double relative_tolerance;
+    /* Multiplier that converts a weighted kernel sum into a probability density */
+    private final double normalization;
+    private final Kernel kernel;
+    private final KernelEngine kernel_engine = KernelEngine.getInstance();
+
+    /* Tree nodes are stored in parallel arrays. Children of node n are 2n+1 and 2n+2 */
+    private final int[] node_start, node_end;
+    private final double[] node_min, node_max, node_weight;
+
+    /**
+     * @param samples Sample window, where the major index is the dimension (i.e. samples[dim][sample])
+     * @param sampleWeights Weight of each sample. May be null, in which case each sample is weighted equally.
+     * @param bandwidths Kernel bandwidth (standard deviation) for each dimension
+     * @param cutoff Number of bandwidths after which a sample is considered to have no contribution
+     * @param relTolerance Maximum relative error allowed when approximating a node in bulk. 0 disables the
+     *                     approximation.
+     */
+    public KDTreeDensityEvaluator(double[][] samples, double[] sampleWeights, double[] bandwidths, double cutoff,
+                                  double relTolerance) {
+        this(samples, sampleWeights, bandwidths, Kernel.GAUSSIAN, cutoff, relTolerance);
+    }
+
+    /**
+     * @param kernelType Kernel placed on each sample
+     * @param cutoff Support radius of the kernel, in bandwidths
+     * @see KDTreeDensityEvaluator#KDTreeDensityEvaluator(double[][], double[], double[], double, double)
+     */
+    public KDTreeDensityEvaluator(double[][] samples, double[] sampleWeights, double[] bandwidths, Kernel kernelType,
+                                  double cutoff, double relTolerance) {
+        if(samples.length < 1 || samples[0].length < 1)
+            throw new IllegalArgumentException("Must provide at least 1 sample.");
+        if(bandwidths.length != samples.length)
+            throw new IllegalArgumentException("A bandwidth must be provided for each dimension.");
+        if(cutoff <= 0 || relTolerance < 0)
+            throw new IllegalArgumentException("The kernel cutoff must be greater than 0 and the tolerance must not " +
+                    "be negative.");
+
+        num_dimensions = samples.length;
+        num_samples = samples[0].length;
+        cutoff_sq = cutoff * cutoff;
+        relative_tolerance = relTolerance;
+        kernel = kernelType;
+
+        inv_bandwidths = new double[num_dimensions];
+        double norm = kernel.normalization(num_dimensions, cutoff);
+        for(int dim = 0; dim < num_dimensions; dim++) {
+            //Identical samples produce a bandwidth of 0, which would cause a division by 0
+            double bw = Math.max(bandwidths[dim], Double.MIN_NORMAL);
+            inv_bandwidths[dim] = 1 / bw;
+            norm /= bw;
+        }
+
+        double totalWeight = 0;
+        double[] unordered = new double[num_samples];
+        for(int i = 0; i < num_samples; i++) {
+            unordered[i] = (sampleWeights == null) ? 1 : sampleWeights[i];
+            totalWeight += unordered[i];
+        }
+        normalization = norm / totalWeight;
+
+        int[] order = new int[num_samples];
+        for(int i = 0; i < num_samples; i++)
+            order[i] = i;
+
+        //A complete binary tree over n samples with the given leaf size
+        int leaves = Integer.highestOneBit(Math.max(1, (num_samples - 1) / LEAF_SIZE)) << 1;
+        int numNodes = 2 * leaves - 1;
+        node_start = new int[numNodes];
+        node_end = new int[numNodes];
+        node_min = new double[numNodes * num_dimensions];
+        node_max = new double[numNodes * num_dimensions];
+        node_weight = new double[numNodes];
+        Arrays.fill(node_start, -1);
+
+        build(0, 0, num_samples, order, samples, unordered);
+
+        columns = new double[num_dimensions][num_samples];
+        weights = new double[num_samples];
+        for(int i = 0; i < num_samples; i++) {
+            for(int dim = 0; dim < num_dimensions; dim++)
+                columns[dim][i] = samples[dim][order[i]];
+            weights[i] = unordered[order[i]];
+        }
+    }
+
+    /**
+     * Recursively partitions the given range of samples along the dimension with the widest spread.
+     */
+    private void build(int node, int start, int end, int[] order, double[][] samples, double[] wts) {
+        node_start[node] = start;
+        node_end[node] = end;
+
+        int widestDim = 0;
+        double widest = -1;
+        for(int dim = 0; dim < num_dimensions; dim++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for(int i = start; i < end; i++) {
+                min = Math.min(min, samples[dim][order[i]]);
+                max = Math.max(max, samples[dim][order[i]]);
+            }
+            node_min[node * num_dimensions + dim] = min;
+            node_max[node * num_dimensions + dim] = max;
+            if(max - min > widest) {
+                widest = max - min;
+                widestDim = dim;
+            }
+        }
+        for(int i = start; i < end; i++)
+            node_weight[node] += wts[order[i]];
+
+        int left = 2 * node + 1;
+        if(end - start <= LEAF_SIZE || left + 1 >= node_start.length)
+            return;
+
+        int mid = (start + end) >>> 1;
+        select(order, samples[widestDim], start, end - 1, mid);
+        build(left, start, mid, order, samples, wts);
+        build(left + 1, mid, end, order, samples, wts);
+    }
+
+    /**
+     * Quickselect so that order[k] holds the k-th smallest value, with smaller values to its left.
+     */
+    private static void select(int[] order, double[] values, int lo, int hi, int k) {
+        while(hi > lo) {
+            double pivot = values[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while(i <= j) {
+                while(values[order[i]] < pivot) i++;
+                while(values[order[j]] > pivot) j--;
+                if(i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if(k <= j) hi = j;
+            else if(k >= i) lo = i;
+            else return;
+        }
+    }
+
+    /**
+     * @param point Point to estimate
+     * @return Probability density at the given point
+     */
+    public double estimate(double[] point) {
+        if(point.length != num_dimensions)
+            throw new IllegalArgumentException("Dimensionality of the point does not match the density estimate.");
+        return accumulate(0, point) * normalization;
+    }
+
+    /**
+     * @param pointWindow Points to estimate
+     * @return Probability density at each point, corresponding to the same indices as the given array
+     */
+    public double[] estimate(double[][] pointWindow) {
+        double[] res = new double[pointWindow.length];
+        for(int i = 0; i < pointWindow.length; i++)
+            res[i] = estimate(pointWindow[i]);
+        return res;
+    }
+
+    /**
+     * @return Number of samples the tree was constructed over
+     */
+    public int size() {
+        return num_samples;
+    }
+
+    private double accumulate(int node, double[] point) {
+        //Scaled squared distance from the point to the closest and furthest corners of the bounding box
+        double minDist = 0, maxDist = 0;
+        int base = node * num_dimensions;
+        for(int dim = 0; dim < num_dimensions; dim++) {
+            double lo = (node_min[base + dim] - point[dim]) * inv_bandwidths[dim];
+            double hi = (point[dim] - node_max[base + dim]) * inv_bandwidths[dim];
+            double near = Math.max(0, Math.max(lo, hi));
+            double far = Math.max(Math.abs(lo), Math.abs(hi));
+            minDist += near * near;
+            maxDist += far * far;
+        }
+
+        if(minDist > cutoff_sq)
+            return 0;
+
+        double kMax = kernel.profile(minDist, cutoff_sq);
+        double kMin = kernel.profile(maxDist, cutoff_sq);
+        if(kMax - kMin <= 2 * relative_tolerance * kMin)
+            return node_weight[node] * (kMax + kMin) / 2;
+
+        int left = 2 * node + 1;
+        if(left >= node_start.length || node_start[left] < 0)
+            return kernel.sum(kernel_engine, columns, weights, node_start[node], node_end[node], point,
+                    inv_bandwidths, cutoff_sq);
+        return accumulate(left, point) + accumulate(left + 1, point);
+    }
+}
@@ -0,0 +1,111 @@
+package edu.unh.artt.core.models;
+
+/**
+ * Radially symmetric kernels available to the Java side density evaluator. Each kernel is a function of the squared
+ * distance from the sample, measured in bandwidths, and a support radius (also in bandwidths) past which it is 0.
+ * Evaluation only visits the samples within the support of a query, so compact kernels with a small radius make an
+ * estimate cost proportional to the number of neighbours rather than the window size.
+ * <ul>
+ *     <li>{@link Kernel#GAUSSIAN}: the scipy gaussian_kde kernel. The radius only bounds the approximation error, the
+ *     kernel is not renormalized.</li>
+ *     <li>{@link Kernel#TRUNCATED_GAUSSIAN}: a Gaussian cut off at the radius and renormalized to integrate to 1.</li>
+ *     <li>{@link Kernel#EPANECHNIKOV}: (1 - r^2). A radius of sqrt(d + 4) bandwidths has the same variance as the
+ *     Gaussian in d dimensions (sqrt(5) for a single dimension).</li>
+ *     <li>{@link Kernel#TRIWEIGHT}: (1 - r^2)^3. A radius of sqrt(d + 8) bandwidths has the same variance as the
+ *     Gaussian (3 for a single dimension).</li>
+ * </ul>
+ * Here r is the distance divided by the radius.
+ */
+public enum Kernel {
+    GAUSSIAN(0), TRUNCATED_GAUSSIAN(0), EPANECHNIKOV(1), TRIWEIGHT(3);
+
+    /* Exponent of the (1 - r^2) profile, 0 for the Gaussian kernels */
+    private final int power;
+
+    Kernel(int pwr) {
+        power = pwr;
+    }
+
+    /**
+     * @return True if the kernel is exactly 0 outside of its radius
+     */
+    public boolean isCompact() {
+        return this != GAUSSIAN;
+    }
+
+    /**
+     * @param distSq Squared distance from the sample, in bandwidths
+     * @param radiusSq Squared support radius, in bandwidths
+     * @return Unnormalized kernel value
+     */
+    public double profile(double distSq, double radiusSq) {
+        if(!(distSq <= radiusSq))
+            return 0;
+        if(power == 0)
+            return KernelEngine.fastExp(-0.5 * distSq);
+        double t = 1 - distSq * (1 / radiusSq), val = t;
+        for(int p = 1; p < power; p++)
+            val *= t;
+        return val;
+    }
+
+    /**
+     * Sums the weighted kernel values of a block of samples.
+     * @see KernelEngine#gaussianSum(double[][], double[], int, int, double[], double[], double)
+     */
+    public double sum(KernelEngine engine, double[][] columns, double[] weights, int from, int to, double[] point,
+                      double[] invBandwidths, double radiusSq) {
+        if(power == 0)
+            return engine.gaussianSum(columns, weights, from, to, point, invBandwidths, radiusSq);
+        return engine.polynomialSum(columns, weights, from, to, point, invBandwidths, radiusSq, power);
+    }
+
+    /**
+     * @param numDim Number of dimensions
+     * @param radius Support radius, in bandwidths
+     * @return Multiplier that turns a profile value into a density, for unit bandwidths
+     */
+    public double normalization(int numDim, double radius) {
+        if(numDim < 1 || !(radius > 0))
+            throw new IllegalArgumentException("Must have at least 1 dimension and a radius greater than 0.");
+        double gaussian = Math.pow(2 * Math.PI, -numDim / 2.);
+        switch(this) {
+            case GAUSSIAN:
+                return gaussian;
+            case TRUNCATED_GAUSSIAN:
+                //Fraction of the Gaussian within the radius follows a chi-squared distribution
+                return gaussian / regularizedGammaP(numDim / 2., radius * radius / 2);
+            default:
+                //Integral of (1 - r^2)^p over the unit ball is V_d * p! * Gamma(d/2 + 1) / Gamma(d/2 + p + 1)
+                double integral = unitBallVolume(numDim);
+                for(int p = 1; p <= power; p++)
+                    integral *= p / (numDim / 2. + p);
+                return 1 / (integral * Math.pow(radius, numDim));
+        }
+    }
+
+    private static double unitBallVolume(int numDim) {
+        double vol = (numDim % 2 == 0) ? 1 : 2;
+        for(int d = 2 + numDim % 2; d <= numDim; d += 2)
+            vol *= 2 * Math.PI / d;
+        return vol;
+    }
+
+    /**
+     * Lower regularized gamma function, evaluated with its power series. Only used with half integer a.
+     */
+    static double regularizedGammaP(double a, double x) {
+        if(x <= 0)
+            return 0;
+        if(x > 700)
+            return 1;
+        //ln(Gamma(a + 1)) by recursion down to Gamma(1) = 1 or Gamma(1/2) = sqrt(pi)
+        double logGamma = (a % 1 == 0) ? 0 : 0.5 * Math.log(Math.PI);
+        for(double v = (a % 1 == 0) ? 1 : 0.5; v <= a; v++)
+            logGamma += Math.log(v);
+        double term = 1, sum = 1;
+        for(int n = 1; n < 10000 && term > sum * 1e-17; n++)
+            sum += (term *= x / (a + n));
+        return Math.min(1, Math.exp(a * Math.log(x) - x - logGamma) * sum);
+    }
+}
@@ -0,0 +1,137 @@
+package edu.unh.artt.core.models;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates sums of Gaussian and polynomial {@link Kernel kernels} over a block of samples. This is the inner loop of
+ * every Java side density estimate, so it is provided by the fastest engine the running JVM supports:
+ * <ul>
+ *     <li>A vectorized engine built on the jdk.incubator.vector API. It is compiled separately for Java 17 and
+ *     packaged under META-INF/versions/17 of the multi-release jar, so it only exists on JVMs that can run it. It is
+ *     used when the jdk.incubator.vector module has been resolved (i.e. the JVM was started with
+ *     --add-modules jdk.incubator.vector) and the platform offers more than one double per vector.</li>
+ *     <li>A scalar engine, used everywhere else.</li>
+ * </ul>
+ * The {@value ENGINE_PROPERTY} system property can be set to "scalar" to force the scalar engine.
+ *
+ * The scalar engine uses {@link Math#exp(double)}, which HotSpot replaces with an intrinsic. The vector API has no
+ * lane-wise exponential that is as fast, so the vectorized engine evaluates {@link KernelEngine#fastExp(double)} across
+ * each vector instead. The engines therefore differ by the relative error of fastExp (below 1e-13) and by the order in
+ * which the kernel values are summed.
+ */
+public abstract class KernelEngine {
+    private static final Logger logger = LoggerFactory.getLogger(KernelEngine.class);
+
+    /* System property used to force an engine, either "scalar" or "vector" */
+    public static final String ENGINE_PROPERTY = "artt.kernel.engine";
+    private static final String VECTOR_ENGINE = "edu.unh.artt.core.models.VectorKernelEngine";
+
+    /* Arguments outside of this range underflow to 0 or overflow to infinity */
+    static final double EXP_MIN = -708, EXP_MAX = 709;
+    static final double LOG2E = 1.4426950408889634;
+    /* ln(2) split so that k * LN2_HI is exact for any exponent k in range */
+    static final double LN2_HI = 6.93147180369123816490e-01, LN2_LO = 1.90821492927058770002e-10;
+    /* Adding 1.5 * 2^52 rounds to the nearest integer and leaves that integer in the low bits of the mantissa */
+    static final double SHIFTER = 0x1.8p52;
+    static final long SHIFTER_BITS = Double.doubleToRawLongBits(SHIFTER);
+    /* Taylor coefficients of exp(r) = sum r^n / n!, lowest order first */
+    static final double[] EXP_COEFFS = new double[12];
+    static {
+        double fact = 1;
+        for(int n = 0; n < EXP_COEFFS.length; n++) {
+            fact *= Math.max(1, n);
+            EXP_COEFFS[n] = 1 / fact;
+        }
+    }
+
+    private static final KernelEngine instance = select();
+
+    /**
+     * @return The engine selected for the running JVM
+     */
+    public static KernelEngine getInstance() {
+        return instance;
+    }
+
+    private static KernelEngine select() {
+        String forced = System.getProperty(ENGINE_PROPERTY, "");
+        if(!forced.equals("scalar")) {
+            try {
+                if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                    KernelEngine vec = (KernelEngine) Class.forName(VECTOR_ENGINE).getDeclaredConstructor()
+                            .newInstance();
+                    if(vec.getLaneCount() > 1 || forced.equals("vector")) {
+                        logger.info("Using the {} kernel engine with {} lanes.", vec.getName(), vec.getLaneCount());
+                        return vec;
+                    }
+                }
+            } catch(ReflectiveOperationException | LinkageError e) {
+                logger.debug("Vectorized kernel engine is unavailable.", e);
+            }
+            if(forced.equals("vector"))
+                logger.warn("The vectorized kernel engine was requested but is not available on this JVM.");
+        }
+        return new ScalarKernelEngine();
+    }
+
+    /**
+     * @return Name of the engine, for logging
+     */
+    public abstract String getName();
+
+    /**
+     * @return Number of kernels evaluated at once
+     */
+    public abstract int getLaneCount();
+
+    /**
+     * Computes sum(weights[i] * exp(-dist_i^2 / 2)) over the samples [from, to), where dist_i is the distance from
+     * sample i to the point measured in bandwidths. Samples further than the cutoff contribute nothing.
+     * @param columns Sample values, where the major index is the dimension (i.e. columns[dim][sample])
+     * @param weights Weight of each sample
+     * @param from First sample of the block
+     * @param to Index after the last sample of the block
+     * @param point Point to evaluate the kernels at
+     * @param invBandwidths Inverse of the kernel bandwidth for each dimension
+     * @param cutoffSq Squared cutoff distance, in bandwidths. Positive infinity for no cutoff.
+     * @return Weighted kernel sum
+     */
+    public abstract double gaussianSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                                       double[] invBandwidths, double cutoffSq);
+
+    /**
+     * Computes sum(weights[i] * (1 - dist_i^2 / radiusSq)^power) over the samples [from, to) that are within the
+     * radius, i.e. the Epanechnikov (power 1) and triweight (power 3) kernels.
+     * @param radiusSq Squared support radius, in bandwidths
+     * @param power Exponent of the profile, at least 1
+     * @see KernelEngine#gaussianSum(double[][], double[], int, int, double[], double[], double)
+     */
+    public abstract double polynomialSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                                         double[] invBandwidths, double radiusSq, int power);
+
+    /**
+     * Branch free approximation of exp(x), the scalar reference of the exponential used by the vectorized engine. The argument is reduced to r = x - k*ln(2) with
+     * |r| <= ln(2)/2, exp(r) is approximated with a degree 11 polynomial and the result is scaled by 2^k through its
+     * exponent bits. The truncation error of the polynomial is below 1e-14, so the result is within a few ulps of
+     * {@link Math#exp(double)} (a relative error below 1e-13) over [{@value EXP_MIN}, {@value EXP_MAX}].
+     * Arguments below that range return 0, arguments above return positive infinity.
+     * @param x Exponent
+     * @return Approximation of e^x
+     */
+    public static double fastExp(double x) {
+        if(x != x)
+            return x;
+        if(x < EXP_MIN)
+            return 0;
+        if(x > EXP_MAX)
+            return Double.POSITIVE_INFINITY;
+        double t = x * LOG2E + SHIFTER;
+        double k = t - SHIFTER;
+        double r = x - k * LN2_HI - k * LN2_LO;
+        double p = EXP_COEFFS[EXP_COEFFS.length - 1];
+        for(int c = EXP_COEFFS.length - 2; c >= 0; c--)
+            p = p * r + EXP_COEFFS[c];
+        return p * Double.longBitsToDouble((Double.doubleToRawLongBits(t) - SHIFTER_BITS + 1023) << 52);
+    }
+}
@@ -0,0 +1,73 @@
+package edu.unh.artt.core.models;
+
+import java.util.Arrays;
+
+/**
+ * Count, mean, and sum of squared deviations of each dimension of a set of points. Points are added with Welford's
+ * update, and two sets are merged with the pairwise update of Chan et al., so the moments of a large window can be
+ * computed as partial results over its parts and combined in any grouping without losing precision.
+ */
+public class Moments {
+    private long count = 0;
+    private final double[] mean, sum_sq_dev;
+
+    /**
+     * @param numDim Number of dimensions of each point
+     */
+    public Moments(int numDim) {
+        mean = new double[numDim];
+        sum_sq_dev = new double[numDim];
+    }
+
+    /**
+     * @param point Point to add, with a value for each dimension
+     */
+    public void add(double[] point) {
+        count++;
+        for(int dim = 0; dim < mean.length; dim++) {
+            double delta = point[dim] - mean[dim];
+            mean[dim] += delta / count;
+            sum_sq_dev[dim] += delta * (point[dim] - mean[dim]);
+        }
+    }
+
+    /**
+     * Merges the moments of another set of points into these moments.
+     * @param other Moments of the other set
+     * @return This instance
+     */
+    public Moments combine(Moments other) {
+        if(other.mean.length != mean.length)
+            throw new IllegalArgumentException("Cannot combine moments with differing dimensionality.");
+        if(other.count == 0)
+            return this;
+        long total = count + other.count;
+        for(int dim = 0; dim < mean.length; dim++) {
+            double delta = other.mean[dim] - mean[dim];
+            mean[dim] += delta * other.count / total;
+            sum_sq_dev[dim] += other.sum_sq_dev[dim] + delta * delta * ((double) count * other.count / total);
+        }
+        count = total;
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double[] getMean() {
+        return Arrays.copyOf(mean, mean.length);
+    }
+
+    /**
+     * @return Bias corrected sample variance of each dimension, or 0 if there are fewer than 2 points
+     */
+    public double[] getVariance() {
+        double[] var = new double[mean.length];
+        if(count > 1) {
+            for(int dim = 0; dim < var.length; dim++)
+                var[dim] = sum_sq_dev[dim] / (count - 1);
+        }
+        return var;
+    }
+}
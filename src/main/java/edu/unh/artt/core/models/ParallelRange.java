@@ -0,0 +1,86 @@
+package edu.unh.artt.core.models;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Splits an index range across a fork join pool and combines the partial results. Used by the models to fit large
+ * sample windows and estimate large query batches on every core. Without a pool, or for ranges below the grain size,
+ * the whole range is handled on the calling thread.
+ */
+public final class ParallelRange {
+    /* Smallest range worth splitting further */
+    public static final int DEFAULT_GRAIN = 2048;
+
+    private ParallelRange() {}
+
+    /**
+     * Computes a partial result over the indices [from, to)
+     */
+    @FunctionalInterface
+    public interface RangeFunction<T> {
+        T apply(int from, int to);
+    }
+
+    /**
+     * Runs a body over the indices [from, to). Bodies of different ranges may run concurrently.
+     */
+    @FunctionalInterface
+    public interface RangeBody {
+        void run(int from, int to);
+    }
+
+    private static class ReduceTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        final int from, to, grain;
+        final RangeFunction<T> leaf;
+        final BinaryOperator<T> combine;
+
+        ReduceTask(int lo, int hi, int grn, RangeFunction<T> lf, BinaryOperator<T> cmb) {
+            from = lo;
+            to = hi;
+            grain = grn;
+            leaf = lf;
+            combine = cmb;
+        }
+
+        @Override
+        protected T compute() {
+            if(to - from <= grain)
+                return leaf.apply(from, to);
+            int mid = (from + to) >>> 1;
+            ReduceTask<T> left = new ReduceTask<>(from, mid, grain, leaf, combine);
+            left.fork();
+            T right = new ReduceTask<>(mid, to, grain, leaf, combine).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * @param pool Pool to split the range across. Null to run on the calling thread.
+     * @param size Number of indices, starting at 0
+     * @param grain Largest range handled by a single task
+     * @param leaf Computes the partial result of a range
+     * @param combine Combines the partial results of two adjacent ranges, the lower range first
+     * @return The combined result over the whole range
+     */
+    public static <T> T reduce(ForkJoinPool pool, int size, int grain, RangeFunction<T> leaf, BinaryOperator<T> combine) {
+        if(grain < 1)
+            throw new IllegalArgumentException("Grain size must be at least 1.");
+        if(pool == null || size <= grain)
+            return leaf.apply(0, size);
+        return pool.invoke(new ReduceTask<>(0, size, grain, leaf, combine));
+    }
+
+    /**
+     * @see ParallelRange#reduce(ForkJoinPool, int, int, RangeFunction, BinaryOperator)
+     */
+    public static void forEach(ForkJoinPool pool, int size, int grain, RangeBody body) {
+        reduce(pool, size, grain, (from, to) -> {
+            body.run(from, to);
+            return null;
+        }, (a, b) -> null);
+    }
+}
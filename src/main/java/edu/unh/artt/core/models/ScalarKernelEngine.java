@@ -0,0 +1,70 @@
+package edu.unh.artt.core.models;
+
+/**
+ * Kernel engine that evaluates one sample at a time. Used on JVMs without the vector API, and by the vectorized
+ * engine for the samples left over after the last full vector.
+ */
+final class ScalarKernelEngine extends KernelEngine {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public int getLaneCount() {
+        return 1;
+    }
+
+    /**
+     * @see KernelEngine#gaussianSum(double[][], double[], int, int, double[], double[], double)
+     */
+    @Override
+    public double gaussianSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                              double[] invBandwidths, double cutoffSq) {
+        return sum(columns, weights, from, to, point, invBandwidths, cutoffSq);
+    }
+
+    /**
+     * @see KernelEngine#polynomialSum(double[][], double[], int, int, double[], double[], double, int)
+     */
+    @Override
+    public double polynomialSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                                double[] invBandwidths, double radiusSq, int power) {
+        return sum(columns, weights, from, to, point, invBandwidths, radiusSq, power);
+    }
+
+    static double sum(double[][] columns, double[] weights, int from, int to, double[] point, double[] invBandwidths,
+                      double cutoffSq) {
+        double sum = 0;
+        for(int i = from; i < to; i++) {
+            double dist = 0;
+            for(int dim = 0; dim < columns.length; dim++) {
+                double u = (columns[dim][i] - point[dim]) * invBandwidths[dim];
+                dist += u * u;
+            }
+            if(dist <= cutoffSq)
+                sum += weights[i] * Math.exp(-0.5 * dist);
+        }
+        return sum;
+    }
+
+    static double sum(double[][] columns, double[] weights, int from, int to, double[] point, double[] invBandwidths,
+                      double radiusSq, int power) {
+        double invRadiusSq = 1 / radiusSq, sum = 0;
+        for(int i = from; i < to; i++) {
+            double dist = 0;
+            for(int dim = 0; dim < columns.length; dim++) {
+                double u = (columns[dim][i] - point[dim]) * invBandwidths[dim];
+                dist += u * u;
+            }
+            if(dist <= radiusSq) {
+                double t = 1 - dist * invRadiusSq, val = t;
+                for(int p = 1; p < power; p++)
+                    val *= t;
+                sum += weights[i] * val;
+            }
+        }
+        return sum;
+    }
+}
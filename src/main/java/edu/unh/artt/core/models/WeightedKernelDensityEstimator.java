@@ -4,8 +4,6 @@ import edu.unh.artt.core.error_sample.representation.AMTLVData;
 import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
 import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
 import jep.*;
-import org.apache.commons.math3.stat.descriptive.moment.Mean;
-import org.apache.commons.math3.stat.descriptive.moment.Variance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import smile.math.MathEx;
@@ -46,6 +44,13 @@ public class WeightedKernelDensityEstimator<Sample extends TimeErrorSample> exte
     /* Used to keep track of the statistics most recently computed */
     private final double[] averages, variances;
 
+    /* Java-side evaluator of the pdf, rebuilt on each re-fit. Null when estimates are made by the interpreter */
+    private volatile KDTreeDensityEvaluator density_tree;
+    /* Kernel cutoff (in bandwidths) and relative error bound of the tree evaluator. A cutoff of 0 disables it */
+    private volatile double kernel_cutoff = 0, relative_tolerance = 0;
+    /* Kernel used by the tree evaluator */
+    private volatile Kernel tree_kernel = Kernel.GAUSSIAN;
+
     private final String weightVar = "weights" + getUniqueID(),
                          sampleVar = "samples" + getUniqueID(),
                          pdfVar = "pdf" + getUniqueID(),
@@ -105,27 +110,105 @@ public class WeightedKernelDensityEstimator<Sample extends TimeErrorSample> exte
     }
 
     /**
-     * Computes a new probability density function using the gaussian_kde library.
+     * Creates the shared python interpreter and imports numpy and scipy, which otherwise happens on the first re-fit
+     * and can take several seconds.
+     */
+    @Override
+    public void initializeBackend() {
+        getInterpreterAccess(wrapper -> {});
+    }
+
+    /**
+     * Enables tree-accelerated estimation. Rather than evaluating every sample in the window through the python
+     * interpreter, the window is indexed in a k-d tree each time the pdf is re-computed and estimates are made in Java.
+     * Takes effect the next time the model is re-fit.
+     * @param cutoffBandwidths Number of bandwidths past which a sample is considered to have no contribution
+     * @param relTolerance Maximum relative error allowed when approximating groups of samples in bulk
+     * @see KDTreeDensityEvaluator
+     */
+    public void enableTreeEvaluation(double cutoffBandwidths, double relTolerance) {
+        enableTreeEvaluation(Kernel.GAUSSIAN, cutoffBandwidths, relTolerance);
+    }
+
+    /**
+     * Enables tree-accelerated estimation with the given kernel. Compact kernels with a small radius only visit the
+     * samples near each query, at the cost of no longer matching the interpreter's gaussian_kde (which is still used
+     * to resample the distribution). Takes effect the next time the model is re-fit.
+     * @param kernel Kernel placed on each sample
+     * @param cutoffBandwidths Support radius of the kernel, in bandwidths
+     * @param relTolerance Maximum relative error allowed when approximating groups of samples in bulk
+     * @see Kernel
+     */
+    public void enableTreeEvaluation(Kernel kernel, double cutoffBandwidths, double relTolerance) {
+        if(kernel == null || cutoffBandwidths <= 0 || relTolerance < 0)
+            throw new IllegalArgumentException("A kernel must be provided, the kernel cutoff must be greater than 0 " +
+                    "and the tolerance must not be negative.");
+        relative_tolerance = relTolerance;
+        tree_kernel = kernel;
+        kernel_cutoff = cutoffBandwidths;
+    }
+
+    /**
+     * Reverts to estimating each point using the python interpreter.
+     */
+    public void disableTreeEvaluation() {
+        kernel_cutoff = 0;
+        density_tree = null;
+    }
+
+    /**
+     * Scott's rule, which is the default bandwidth selection method used by gaussian_kde.
+     * @return Bandwidth of each dimension for the current window
+     */
+    private double[] computeBandwidths(int numSamples) {
+        double factor = Math.pow(numSamples, -1. / (num_dimensions + 4));
+        double[] bandwidths = new double[num_dimensions];
+        for(int i = 0; i < num_dimensions; i++)
+            bandwidths[i] = Math.sqrt(variances[i]) * factor;
+        return bandwidths;
+    }
+
+    /**
+     * Computes a new probability density function using the gaussian_kde library. The window is transposed and its
+     * moments computed in parallel when {@link ErrorModel#enableParallelism(ForkJoinPool, int) enabled}.
      * @see ErrorModel#computeMetrics(LinkedList)
      */
     @Override
     public void computeMetrics(LinkedList<Sample> smpls) {
-        double [][] samples = new double[num_dimensions][smpls.size()];
-        long [] weights = new long[smpls.size()];
-        int idx = 0;
+        Object [] window = smpls.toArray();
+        double [][] samples = new double[num_dimensions][window.length];
+        long [] weights = new long[window.length];
 
         //Transpose the sample array so the major index is the dimension
-        for(Sample s : smpls) {
-            for(int dim = 0; dim < num_dimensions; dim++)
-                samples[dim][idx] = s.getSample()[dim];
-            weights[idx++] = s.getWeight();
-        }
+        Moments moments = ParallelRange.reduce(parallelPool(window.length), window.length, ParallelRange.DEFAULT_GRAIN,
+                (from, to) -> {
+            Moments part = new Moments(num_dimensions);
+            double [] point = new double[num_dimensions];
+            for(int idx = from; idx < to; idx++) {
+                @SuppressWarnings("unchecked") Sample s = (Sample) window[idx];
+                s.writeSample(point, 0);
+                for(int dim = 0; dim < num_dimensions; dim++)
+                    samples[dim][idx] = point[dim];
+                weights[idx] = s.getWeight();
+                part.add(point);
+            }
+            return part;
+        }, Moments::combine);
 
         synchronized (averages) {
-            for (int i = 0; i < num_dimensions; i++) {
-                averages[i] =  new Mean().evaluate(samples[i]);
-                variances[i] = new Variance().evaluate(samples[i]);
+            System.arraycopy(moments.getMean(), 0, averages, 0, num_dimensions);
+            System.arraycopy(moments.getVariance(), 0, variances, 0, num_dimensions);
+        }
+
+        double cutoff = kernel_cutoff;
+        if(cutoff > 0) {
+            double[] bandwidths;
+            synchronized (averages) {
+                bandwidths = computeBandwidths(smpls.size());
             }
+            //The interpreter fits the pdf without weights, so the tree does the same to produce matching estimates
+            density_tree = new KDTreeDensityEvaluator(samples, null, bandwidths, tree_kernel, cutoff,
+                    relative_tolerance);
         }
 
         getInterpreterAccess((wrapper) -> {
@@ -191,11 +274,23 @@ public class WeightedKernelDensityEstimator<Sample extends TimeErrorSample> exte
     }
 
     /**
-     * Uses the computed pdf to provide the likelihood of each sample in the given range.
+     * Uses the computed pdf to provide the likelihood of each sample in the given range. When tree evaluation is
+     * enabled the estimate is made in Java using the most recently built tree.
      * @see ErrorModel#estimate(TimeErrorSample[])
      */
     @Override
     public double [] estimate(double[][] pointWindow) {
+        KDTreeDensityEvaluator tree = density_tree;
+        if(tree != null) {
+            //The tree is read only once built, so the batch can be split across threads
+            double [] res = new double[pointWindow.length];
+            ParallelRange.forEach(parallelPool(pointWindow.length), pointWindow.length, ParallelRange.DEFAULT_GRAIN,
+                    (from, to) -> {
+                for(int i = from; i < to; i++)
+                    res[i] = tree.estimate(pointWindow[i]);
+            });
+            return res;
+        }
 
         double [][] samples = new double[num_dimensions][pointWindow.length];
         for(int i = 0; i < pointWindow.length; i++) {
@@ -303,7 +398,12 @@ public class WeightedKernelDensityEstimator<Sample extends TimeErrorSample> exte
             return null;
         }
 
-        Comparator<T> sumComp = Comparator.comparing(s -> Arrays.stream(s.getSample()).sum());
+        Comparator<T> sumComp = Comparator.comparingDouble(s -> {
+            double sum = 0;
+            for(int i = 0; i < numD; i++)
+                sum += s.getSample(i);
+            return sum;
+        });
 
         var max1 = samples1.stream().max(sumComp).get();
         var max2= samples2.stream().max(sumComp).get();
@@ -336,8 +436,8 @@ public class WeightedKernelDensityEstimator<Sample extends TimeErrorSample> exte
         for(int i = 0; i < numD; i++) {
             meanDiff[i] = mean1[i] - mean2[i];
             stdDiff[i] = stdDev1[i] - stdDev2[i];
-            maxDiff[i] = max1.getSample()[i] - max2.getSample()[i];
-            minDiff[i] = min1.getSample()[i] - min2.getSample()[i];
+            maxDiff[i] = max1.getSample(i) - max2.getSample(i);
+            minDiff[i] = min1.getSample(i) - min2.getSample(i);
         }
 
         return new WeightedDistribComp(distance, meanDiff, stdDiff, maxDiff, minDiff, samples, probs1, probs2);
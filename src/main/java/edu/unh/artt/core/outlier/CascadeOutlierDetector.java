@@ -0,0 +1,58 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two stage outlier detection. Every sample is first classified by a cheap screening detector. Samples that are clearly
+ * normal or clearly outlying are settled by the screen, and only borderline samples are escalated to the second stage
+ * (e.g. a {@link DistanceOutlierDetector}), which limits the number of expensive density evaluations.
+ * @param <Sample> Sample type to operate on
+ */
+public class CascadeOutlierDetector<Sample extends TimeErrorSample> extends OutlierDetector<Sample> {
+    /* First stage, run on every sample */
+    private final ScreeningOutlierDetector<Sample> screen;
+    /* Second stage, run only on borderline samples */
+    private final OutlierDetector<Sample> escalation;
+
+    private final AtomicLong screened_count = new AtomicLong(0), escalated_count = new AtomicLong(0);
+
+    /**
+     * @param screen First stage, run on every sample
+     * @param escalation Second stage, run only on samples the screen considers borderline
+     */
+    public CascadeOutlierDetector(ScreeningOutlierDetector<Sample> screen, OutlierDetector<Sample> escalation) {
+        super(screen.reference_model);
+        this.screen = screen;
+        this.escalation = escalation;
+    }
+
+    @Override
+    public boolean isOutlier(Sample sample) {
+        screened_count.incrementAndGet();
+        switch(screen.classify(sample)) {
+            case INLIER:
+                return false;
+            case OUTLIER:
+                return true;
+            default:
+                escalated_count.incrementAndGet();
+                return escalation.isOutlier(sample);
+        }
+    }
+
+    /**
+     * @return Number of samples checked by the cascade
+     */
+    public long getScreenedCount() {
+        return screened_count.get();
+    }
+
+    /**
+     * @return Number of samples passed on to the second stage
+     */
+    public long getEscalatedCount() {
+        return escalated_count.get();
+    }
+}
@@ -3,18 +3,17 @@ package edu.unh.artt.core.outlier;
 import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
 import edu.unh.artt.core.models.ErrorModel;
 
-import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A simple outlier detection mechanism that uses a the probability density function of a computed error model to
  * estimate for a given point the size of the neighborhood surrounding that point. If the number of neighboring nodes is
  * less than a specified threshold then the point is considered to be an outlier.
  *
- * The neighborhood in this case is simply the cumulative likelihood of the sample +/- the standard deviation of the
- * entire window.
+ * The neighborhood was intended to be the cumulative likelihood of the sample +/- the standard deviation of the entire
+ * window, but currently only the likelihood of the sample itself is used. Note that this makes the threshold depend on
+ * the scale of the samples. {@link TailProbabilityOutlierDetector} provides a threshold that is independent of scale.
  * @param <Sample> Sample type to operate on
  */
 public class DistanceOutlierDetector<Sample extends TimeErrorSample> extends OutlierDetector<Sample> {
@@ -50,9 +49,7 @@ public class DistanceOutlierDetector<Sample extends TimeErrorSample> extends Out
      */
     @Override
     public boolean isOutlier(Sample sample) {
-        double [] smp = sample.getSample();
-
-        if(smp.length != increment_amount.length) {
+        if(sample.getNumDimensions() != increment_amount.length) {
             throw new IllegalArgumentException("Dimensionality of the input sample must match the dimensionality " +
                     "of the outlier detector.");
         }
@@ -74,13 +71,9 @@ public class DistanceOutlierDetector<Sample extends TimeErrorSample> extends Out
 //        }
 
         //Generate a set of points in the state space to integrate over using the base unit vector
-        List<double[]> testSamples = List.of(sample.getSample());
 //        ErrorModel.fillMultiDim(0, Arrays.copyOf(range[0], range[0].length), range, testSamples, increment_amount);
 
-        //Generate the likelihoods of each generated sample
-        double[] probs = reference_model.estimate(
-                sample.parseSamples(testSamples).toArray((Sample[]) Array.newInstance(sample.getClass(), 1))
-        );
-        return Arrays.stream(probs).sum() < likelihood_threshold; //Find the cumulative probability
+        //Only the sample itself is estimated, which is served from the model's estimate cache if enabled
+        return reference_model.estimate(sample) < likelihood_threshold;
     }
 }
@@ -0,0 +1,44 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import edu.unh.artt.core.models.ErrorModel;
+
+/**
+ * Scores samples by their Mahalanobis distance from the mean of the reference model. Only the per-dimension variance
+ * is exposed by the model, so the dimensions are treated as uncorrelated. For one dimensional samples this is the
+ * absolute z-score.
+ * @param <Sample> Sample type to operate on
+ */
+public class MahalanobisOutlierDetector<Sample extends TimeErrorSample> extends ScreeningOutlierDetector<Sample> {
+
+    /**
+     * @see ScreeningOutlierDetector#ScreeningOutlierDetector(ErrorModel, double, double)
+     */
+    public MahalanobisOutlierDetector(ErrorModel<Sample> refModel, double inlierThreshold, double outlierThreshold) {
+        super(refModel, inlierThreshold, outlierThreshold);
+    }
+
+    /**
+     * @return Distance of the sample from the model mean, in standard deviations
+     */
+    @Override
+    public double score(Sample sample) {
+        double [] means = reference_model.getMean();
+        double [] variances = reference_model.getVariance();
+
+        if(sample.getNumDimensions() != means.length) {
+            throw new IllegalArgumentException("Dimensionality of the input sample must match the dimensionality " +
+                    "of the outlier detector.");
+        }
+
+        double distSq = 0;
+        for(int i = 0; i < means.length; i++) {
+            double diff = sample.getSample(i) - means[i];
+            if(variances[i] > 0)
+                distSq += diff * diff / variances[i];
+            else if(diff != 0)
+                return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(distSq);
+    }
+}
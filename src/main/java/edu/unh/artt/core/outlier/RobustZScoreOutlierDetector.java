@@ -0,0 +1,49 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import edu.unh.artt.core.models.ErrorModel;
+
+/**
+ * Scores samples by their robust z-score, which replaces the mean and standard deviation of the classic z-score with
+ * the median and the scaled median absolute deviation (MAD). Both are taken over the window of the reference model, and
+ * are re-computed in linear time once an eighth of the window has been replaced (see {@link ErrorModel#getMedian()}),
+ * so scoring each new sample is amortized constant time. The statistics follow drift in the window, up to that lag,
+ * without being skewed by the outliers being detected.
+ *
+ * For multi-dimensional samples the largest z-score of any dimension is used.
+ * @param <Sample> Sample type to operate on
+ */
+public class RobustZScoreOutlierDetector<Sample extends TimeErrorSample> extends ScreeningOutlierDetector<Sample> {
+    /* Scales the MAD to match the standard deviation of normally distributed data */
+    public static final double MAD_SCALE = 1.4826;
+
+    /**
+     * @see ScreeningOutlierDetector#ScreeningOutlierDetector(ErrorModel, double, double)
+     */
+    public RobustZScoreOutlierDetector(ErrorModel<Sample> refModel, double inlierThreshold, double outlierThreshold) {
+        super(refModel, inlierThreshold, outlierThreshold);
+    }
+
+    /**
+     * @return Largest robust z-score of any dimension of the sample
+     */
+    @Override
+    public double score(Sample sample) {
+        double [] medians = reference_model.getMedian();
+        double [] deviations = reference_model.getMedianAbsoluteDeviation();
+
+        if(sample.getNumDimensions() != medians.length) {
+            throw new IllegalArgumentException("Dimensionality of the input sample must match the dimensionality " +
+                    "of the outlier detector.");
+        }
+
+        double score = 0;
+        for(int i = 0; i < medians.length; i++) {
+            double dist = Math.abs(sample.getSample(i) - medians[i]);
+            double scale = MAD_SCALE * deviations[i];
+            //A MAD of 0 means over half of the samples are identical, anything else is infinitely far away
+            score = Math.max(score, (scale > 0) ? dist / scale : ((dist > 0) ? Double.POSITIVE_INFINITY : 0));
+        }
+        return score;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import edu.unh.artt.core.models.ErrorModel;
+
+/**
+ * An outlier detector that scores a sample in constant time using summary statistics of the reference model rather
+ * than a density evaluation. Two thresholds split the score into three verdicts so that a screening detector can
+ * settle the clear cases and leave the borderline ones to a more expensive detector.
+ * @see CascadeOutlierDetector
+ * @param <Sample> Sample type to operate on
+ */
+public abstract class ScreeningOutlierDetector<Sample extends TimeErrorSample> extends OutlierDetector<Sample> {
+    public enum Verdict { INLIER, BORDERLINE, OUTLIER }
+
+    /* Scores at or below this value are considered normal */
+    protected final double inlier_threshold;
+    /* Scores at or above this value are considered outliers */
+    protected final double outlier_threshold;
+
+    /**
+     * @param refModel Model used to characterize normal behavior
+     * @param inlierThreshold Scores at or below this value are considered normal
+     * @param outlierThreshold Scores at or above this value are considered outliers
+     */
+    public ScreeningOutlierDetector(ErrorModel<Sample> refModel, double inlierThreshold, double outlierThreshold) {
+        super(refModel);
+
+        if(inlierThreshold < 0 || outlierThreshold < inlierThreshold)
+            throw new IllegalArgumentException("Thresholds must not be negative and the outlier threshold must not be " +
+                    "less than the inlier threshold.");
+
+        inlier_threshold = inlierThreshold;
+        outlier_threshold = outlierThreshold;
+    }
+
+    /**
+     * @param sample Sample to score
+     * @return Non-negative distance of the sample from the center of the reference model. Larger is more outlying.
+     */
+    public abstract double score(Sample sample);
+
+    /**
+     * @param sample Sample to classify
+     * @return Whether the sample is clearly normal, clearly an outlier, or needs further inspection
+     */
+    public Verdict classify(Sample sample) {
+        double score = score(sample);
+        if(score >= outlier_threshold)
+            return Verdict.OUTLIER;
+        return (score <= inlier_threshold) ? Verdict.INLIER : Verdict.BORDERLINE;
+    }
+
+    /**
+     * When used on its own, borderline samples are not considered outliers.
+     * @see OutlierDetector#isOutlier(TimeErrorSample)
+     */
+    @Override
+    public boolean isOutlier(Sample sample) {
+        return classify(sample) == Verdict.OUTLIER;
+    }
+}
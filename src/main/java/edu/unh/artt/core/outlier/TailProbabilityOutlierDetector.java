@@ -0,0 +1,196 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import edu.unh.artt.core.models.ErrorModel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Detects outliers using the cumulative probability of the reference model rather than the likelihood of a single
+ * point. The pdf is evaluated over a grid spanning the sample window, and the marginal cumulative distribution function
+ * of each dimension is stored in a table. Checking a sample is then an interpolation into that table, which is far
+ * cheaper than a density estimate. The table is rebuilt by the next check once the model has changed a given number of
+ * times since it was built (see {@link ErrorModel#getModelVersion()}), rather than on every re-fit, so building it
+ * neither runs under the lock of the sample window nor on each sample added to the model.
+ *
+ * A sample is considered an outlier if its two-sided tail probability, 2 * min(F(x), 1 - F(x)), is below the
+ * threshold in any dimension. The threshold is divided by the number of dimensions to keep the overall false positive
+ * rate near the threshold. Since the tail probability is normalized by the model, the threshold has the same meaning
+ * regardless of the window size, variance, or units of the samples.
+ * @param <Sample> Sample type to operate on
+ */
+public class TailProbabilityOutlierDetector<Sample extends TimeErrorSample> extends OutlierDetector<Sample> {
+    /* Tail probability under which a sample is considered an outlier */
+    private final double tail_threshold;
+    /* Number of points of the grid in each dimension */
+    private final int grid_points;
+
+    /* Number of model versions a table is used for before it is rebuilt */
+    private final long refresh_interval;
+
+    /* Most recently computed table. Null until the model has reached its sample window */
+    private volatile CdfTable cdf_table;
+    /* Set while a table is being rebuilt, so other checks keep using the previous one rather than building their own */
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private static class CdfTable {
+        /* Version of the model the table was built from */
+        final long model_version;
+        /* Lower bound and distance between grid points of each dimension */
+        final double[] origin, step;
+        /* Cumulative probability at each grid point, indexed by [dimension][point] */
+        final double[][] cdf;
+
+        CdfTable(long modelVersion, double[] origin, double[] step, double[][] cdf) {
+            model_version = modelVersion;
+            this.origin = origin;
+            this.step = step;
+            this.cdf = cdf;
+        }
+    }
+
+    /**
+     * @param refModel Model of the time error distribution to retrieve a pdf from
+     * @param tailThreshold Two-sided tail probability under which a sample is considered an outlier (e.g. 0.001)
+     * @param gridPoints Number of points per dimension used to tabulate the cumulative distribution function. The
+     *                   total number of density evaluations per rebuild is gridPoints^dimensions.
+     */
+    public TailProbabilityOutlierDetector(ErrorModel<Sample> refModel, double tailThreshold, int gridPoints) {
+        this(refModel, tailThreshold, gridPoints, Math.max(1, refModel.getLocalWindowSize() / 8));
+    }
+
+    /**
+     * @param refreshInterval Number of times the model may change (usually once per sample added) before the table is
+     *                        rebuilt. Defaults to an eighth of the sample window.
+     * @see TailProbabilityOutlierDetector#TailProbabilityOutlierDetector(ErrorModel, double, int)
+     */
+    public TailProbabilityOutlierDetector(ErrorModel<Sample> refModel, double tailThreshold, int gridPoints,
+                                          long refreshInterval) {
+        super(refModel);
+
+        if(tailThreshold <= 0 || tailThreshold >= 1)
+            throw new IllegalArgumentException("Tail probability threshold must be between 0 and 1.");
+        if(gridPoints < 2)
+            throw new IllegalArgumentException("At least 2 grid points are required.");
+        if(refreshInterval < 1)
+            throw new IllegalArgumentException("Refresh interval must be at least 1.");
+
+        tail_threshold = tailThreshold;
+        grid_points = gridPoints;
+        refresh_interval = refreshInterval;
+    }
+
+    /**
+     * @return The table to check samples against, rebuilt first if the model has changed enough since the current one
+     * was built. Null if the model has not reached its sample window yet
+     */
+    private CdfTable currentTable() {
+        CdfTable table = cdf_table;
+        //Read before building, so a change made while building is caught by the next check
+        long version = reference_model.getModelVersion();
+        if(table != null && version - table.model_version < refresh_interval)
+            return table;
+        if(!reference_model.hasReachedMinSampleWindow())
+            return null;
+
+        boolean owner = rebuilding.compareAndSet(false, true);
+        if(!owner && table != null)
+            return table;
+        try {
+            return cdf_table = buildTable(reference_model, version);
+        } finally {
+            if(owner)
+                rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Evaluates the pdf over a grid spanning the sample window (padded by a standard deviation on each side) and
+     * integrates the marginal of each dimension using the trapezoid rule.
+     */
+    private CdfTable buildTable(ErrorModel<Sample> model, long version) {
+        double[][] range = model.getSampleRange();
+        double[] stdevs = model.getStandardDeviation();
+        int numDim = range[0].length;
+
+        double[] origin = new double[numDim], step = new double[numDim];
+        int total = 1;
+        for(int i = 0; i < numDim; i++) {
+            //Fall back to a unit pad if the window has no spread
+            double pad = (stdevs[i] > 0) ? stdevs[i] : Math.max(1, Math.abs(range[0][i]) * 1e-9);
+            origin[i] = range[0][i] - pad;
+            step[i] = (range[1][i] + pad - origin[i]) / (grid_points - 1);
+            total = Math.multiplyExact(total, grid_points);
+        }
+
+        double[][] grid = new double[total][numDim];
+        for(int p = 0; p < total; p++) {
+            for(int i = 0, idx = p; i < numDim; i++, idx /= grid_points)
+                grid[p][i] = origin[i] + step[i] * (idx % grid_points);
+        }
+        double[] density = model.estimate(grid);
+
+        double[][] cdf = new double[numDim][grid_points];
+        for(int p = 0; p < total; p++) {
+            for(int i = 0, idx = p; i < numDim; i++, idx /= grid_points)
+                cdf[i][idx % grid_points] += density[p];
+        }
+
+        for(int i = 0; i < numDim; i++) {
+            double[] marginal = cdf[i];
+            double prev = marginal[0];
+            marginal[0] = 0;
+            for(int g = 1; g < grid_points; g++) {
+                double cur = marginal[g];
+                marginal[g] = marginal[g - 1] + (prev + cur) / 2;
+                prev = cur;
+            }
+            double norm = marginal[grid_points - 1];
+            for(int g = 0; g < grid_points; g++)
+                marginal[g] = (norm > 0) ? marginal[g] / norm : 0;
+        }
+        return new CdfTable(version, origin, step, cdf);
+    }
+
+    /**
+     * @param sample Sample to check
+     * @return Smallest two-sided tail probability of any dimension of the sample
+     */
+    public double tailProbability(Sample sample) {
+        CdfTable table = currentTable();
+        if(table == null)
+            return 1; //Nothing to compare against yet
+
+        int numDim = sample.getNumDimensions();
+        if(numDim != table.origin.length) {
+            throw new IllegalArgumentException("Dimensionality of the input sample must match the dimensionality " +
+                    "of the outlier detector.");
+        }
+
+        double minTail = 1;
+        for(int i = 0; i < numDim; i++) {
+            double pos = (sample.getSample(i) - table.origin[i]) / table.step[i];
+            double cumulative;
+            if(!(pos > 0)) //Also catches NaN
+                cumulative = 0;
+            else if(pos >= grid_points - 1)
+                cumulative = 1;
+            else {
+                int g = (int) pos;
+                double frac = pos - g;
+                cumulative = table.cdf[i][g] + frac * (table.cdf[i][g + 1] - table.cdf[i][g]);
+            }
+            minTail = Math.min(minTail, 2 * Math.min(cumulative, 1 - cumulative));
+        }
+        return minTail;
+    }
+
+    /**
+     * @param sample Sample to check
+     * @return Whether or not the tail probability of the sample is below the threshold
+     */
+    @Override
+    public boolean isOutlier(Sample sample) {
+        return tailProbability(sample) < tail_threshold / sample.getNumDimensions();
+    }
+}
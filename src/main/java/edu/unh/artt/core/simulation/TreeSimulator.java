@@ -0,0 +1,316 @@
+package edu.unh.artt.core.simulation;
+
+import edu.unh.artt.core.Aggregator;
+import edu.unh.artt.core.error_sample.processing.OffsetSampleProcessor;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.PTPTimestamp;
+import edu.unh.artt.core.error_sample.representation.SyncData;
+import edu.unh.artt.core.models.HistogramErrorModel;
+import edu.unh.artt.core.outlier.DistanceOutlierDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Simulates a complete ARTT tree in a single process, to measure how aggregation cost and AMTLV volume scale with the
+ * depth and fan out of the network. Every node above the leaves runs its own {@link Aggregator} with an
+ * {@link OffsetSampleProcessor}, and each level is connected to the next by the encoded AMTLV frames, exactly as they
+ * would be carried by reverse Sync messages. Leaves are end stations that send reverse Syncs without an AMTLV.
+ *
+ * Each round is one Sync interval. Every node receives a Sync from the grandmaster and a reverse Sync from each child,
+ * with timestamps chosen so the child's offsetFromGm is Gaussian noise around 0. A frame sent upstream is received in
+ * the next round, so information takes one Sync interval per hop to reach the root. Faulty nodes jump by a fixed offset at
+ * a given round, and the time until the root first reports each of them as an outlier is recorded. The models are
+ * {@link HistogramErrorModel}s so that the simulator does not need the Python interpreter.
+ *
+ * Levels are numbered from the root (0) to the leaves (depth). CPU time is the thread CPU time spent in each level's
+ * receive and transmit paths. Heap is approximated once the run ends, by releasing one level at a time and measuring
+ * the heap after a full collection.
+ */
+public class TreeSimulator {
+    private final static Logger logger = LoggerFactory.getLogger(TreeSimulator.class);
+
+    private static final byte [] GM_IDENTITY = new byte[]{0, 0, 0, (byte) 0xff, (byte) 0xfe, 0, 0, 1};
+
+    /**
+     * Parameters of a simulation. Defaults describe a small tree that fills its windows quickly.
+     */
+    public static class Config {
+        /* Number of levels below the root, and number of children of each node above the leaves */
+        public int depth = 3, fan_out = 4;
+        /* Local window per monitoring port, and number of samples sent upstream per re-sample */
+        public int local_window = 64, network_window = 64;
+        /* Standard deviation of the offsetFromGm of healthy nodes, and the link delay of every link */
+        public double noise_ns = 50, link_delay_ns = 500;
+        /* Histogram bin width (also the outlier detector's base unit), and the outlier likelihood threshold */
+        public double bin_width_ns = 1, outlier_threshold = 1e-5;
+        /* Fraction of non-root nodes that become faulty, how far they jump, and in which round */
+        public double faulty_fraction = 0.02, fault_offset_ns = 5000;
+        public int fault_onset_round = 400;
+        public int rounds = 800;
+        /* Simulated time between Syncs. 125ms is the 802.1AS default */
+        public long sync_interval_ns = 125_000_000;
+        public int max_data_field_size = 1400;
+        /* Capacity of each model's estimate cache, 0 to disable */
+        public int estimate_cache_capacity = 4096;
+        public long seed = 1;
+
+        void validate() {
+            if(depth < 1 || fan_out < 1 || rounds < 1 || local_window < 1 || network_window < 1)
+                throw new IllegalArgumentException("Depth, fan out, rounds, and window sizes must be at least 1.");
+            if(!(noise_ns >= 0) || !(bin_width_ns > 0) || !(sync_interval_ns > 0))
+                throw new IllegalArgumentException("Noise must not be negative; bin width and Sync interval must be positive.");
+            if(faulty_fraction < 0 || faulty_fraction > 1)
+                throw new IllegalArgumentException("Faulty fraction must be in [0, 1].");
+        }
+    }
+
+    /**
+     * Measurements of a single level of the tree
+     */
+    public static class LevelReport {
+        public final int level, num_nodes;
+        /* Thread CPU time spent by the nodes of the level */
+        public long cpu_ns;
+        /* AMTLV data field bytes sent by the nodes of the level */
+        public long bytes_sent;
+        /* Approximate heap retained by the level's aggregators */
+        public long heap_bytes;
+        /* Bytes sent per simulated second */
+        public double bytes_per_second;
+
+        LevelReport(int lvl, int nodes) {
+            level = lvl;
+            num_nodes = nodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("level %d: %d nodes, %.3fms cpu, %d bytes heap, %.1f bytes/s", level, num_nodes,
+                    cpu_ns / 1e6, heap_bytes, bytes_per_second);
+        }
+    }
+
+    /**
+     * Outcome of a simulation
+     */
+    public static class Report {
+        public final List<LevelReport> levels;
+        /* Simulated latency from fault onset to the root's first outlier report, by clock identity of the faulty node.
+         * Faulty nodes that were never reported are absent. */
+        public final Map<String, Long> detection_latency_ns;
+        public final int num_faulty;
+        public final long wall_ns;
+
+        Report(List<LevelReport> lvls, Map<String, Long> latency, int numFaulty, long wall) {
+            levels = Collections.unmodifiableList(lvls);
+            detection_latency_ns = Collections.unmodifiableMap(latency);
+            num_faulty = numFaulty;
+            wall_ns = wall;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder();
+            str.append(String.format("Simulated in %.1fms%n", wall_ns / 1e6));
+            for(LevelReport lvl : levels)
+                str.append(lvl).append(System.lineSeparator());
+            str.append(String.format("Root detected %d of %d faulty nodes", detection_latency_ns.size(), num_faulty));
+            detection_latency_ns.values().stream().mapToLong(Long::longValue).max().ifPresent(max ->
+                    str.append(String.format(", worst case after %.1fms", max / 1e6)));
+            return str.toString();
+        }
+    }
+
+    private static class Node {
+        final int level;
+        final byte [] clock_id;
+        final List<Node> children = new ArrayList<>();
+        /* Null for leaves. Released when measuring heap */
+        Aggregator<OffsetGmSample> aggregator;
+        OffsetSampleProcessor processor;
+        boolean faulty = false;
+        /* Frame to attach to the next reverse Sync sent upstream */
+        byte [] pending_frame;
+
+        Node(int lvl, int index) {
+            level = lvl;
+            clock_id = ByteBuffer.allocate(8).putShort((short) 0xa77).putShort((short) lvl).putInt(index).array();
+        }
+    }
+
+    private final Config config;
+    private final List<List<Node>> levels = new ArrayList<>();
+    private final Random random;
+    private final ThreadMXBean thread_bean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Builds the tree. Nodes are not connected to each other until the simulation is run.
+     * @param cfg Simulation parameters
+     */
+    public TreeSimulator(Config cfg) {
+        cfg.validate();
+        config = cfg;
+        random = new Random(cfg.seed);
+
+        for(int lvl = 0; lvl <= cfg.depth; lvl++) {
+            List<Node> nodes = new ArrayList<>();
+            if(lvl == 0)
+                nodes.add(new Node(0, 0));
+            else {
+                for(Node parent : levels.get(lvl - 1)) {
+                    for(int c = 0; c < cfg.fan_out; c++) {
+                        Node child = new Node(lvl, nodes.size());
+                        parent.children.add(child);
+                        nodes.add(child);
+                    }
+                }
+            }
+            levels.add(nodes);
+        }
+
+        for(List<Node> nodes : levels.subList(0, cfg.depth)) {
+            for(Node node : nodes) {
+                HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(cfg.local_window, cfg.bin_width_ns);
+                if(cfg.estimate_cache_capacity > 0)
+                    model.enableEstimateCache(new double[]{cfg.bin_width_ns}, cfg.estimate_cache_capacity);
+                node.processor = new OffsetSampleProcessor();
+                node.aggregator = new Aggregator<>(node.processor, model, new DistanceOutlierDetector<>(model,
+                        new double[]{cfg.bin_width_ns}, cfg.outlier_threshold), cfg.fan_out, cfg.network_window);
+            }
+        }
+
+        List<Node> candidates = new ArrayList<>();
+        levels.subList(1, levels.size()).forEach(candidates::addAll);
+        Collections.shuffle(candidates, random);
+        int numFaulty = (int) Math.ceil(cfg.faulty_fraction * candidates.size());
+        candidates.subList(0, numFaulty).forEach(n -> n.faulty = true);
+    }
+
+    /**
+     * Runs every round, then releases the tree.
+     * @return Measurements of the run
+     */
+    public Report run() {
+        List<LevelReport> reports = new ArrayList<>();
+        for(int lvl = 0; lvl < levels.size(); lvl++)
+            reports.add(new LevelReport(lvl, levels.get(lvl).size()));
+
+        Map<Integer, Node> faulty = new HashMap<>();
+        levels.forEach(nodes -> nodes.stream().filter(n -> n.faulty)
+                .forEach(n -> faulty.put(ClockIdentityRegistry.shared().intern(n.clock_id), n)));
+        Map<String, Long> latency = Collections.synchronizedMap(new HashMap<>());
+        long[] now = new long[1];
+        long onset = config.fault_onset_round * config.sync_interval_ns;
+        levels.get(0).get(0).aggregator.registerOutlierReceiptCallback(smp -> {
+            Node node = faulty.get(smp.getClockHandle());
+            if(node != null && now[0] >= onset)
+                latency.putIfAbsent(ClockIdentityRegistry.shared().toHexString(smp.getClockHandle()), now[0] - onset);
+        });
+
+        long wallStart = System.nanoTime();
+        for(int round = 0; round < config.rounds; round++) {
+            now[0] = round * config.sync_interval_ns;
+            //Top down, so a frame is received by the parent in the round after it was sent, one hop per Sync interval
+            for(int lvl = 0; lvl < config.depth; lvl++) {
+                LevelReport report = reports.get(lvl);
+                long cpuStart = thread_bean.getCurrentThreadCpuTime();
+                for(Node node : levels.get(lvl))
+                    report.bytes_sent += syncNode(node, now[0]);
+                report.cpu_ns += thread_bean.getCurrentThreadCpuTime() - cpuStart;
+            }
+        }
+        long wall = System.nanoTime() - wallStart;
+
+        double seconds = config.rounds * (double) config.sync_interval_ns / PTPTimestamp.NSEC_PER_SEC;
+        for(LevelReport report : reports)
+            report.bytes_per_second = report.bytes_sent / seconds;
+        measureHeap(reports);
+        return new Report(reports, latency, faulty.size(), wall);
+    }
+
+    /**
+     * Delivers a Sync from the grandmaster and a reverse Sync from each child, then encodes the next frame to send.
+     * @return Number of AMTLV bytes sent upstream
+     */
+    private int syncNode(Node node, long now) {
+        long delay = Math.round(config.link_delay_ns);
+        ByteBuffer zeroCorrection = ByteBuffer.allocate(10);
+        node.processor.receivedGMSync(new SyncData(new PTPTimestamp(now), new PTPTimestamp(now + delay),
+                zeroCorrection.array(), GM_IDENTITY, null), delay, GM_IDENTITY);
+
+        for(Node child : node.children) {
+            //t1 - t2 + the link delay of the child is its offsetFromGm, since the grandmaster's terms cancel out
+            long offset = Math.round(random.nextGaussian() * config.noise_ns);
+            if(child.faulty && now >= config.fault_onset_round * config.sync_interval_ns)
+                offset += Math.round(config.fault_offset_ns);
+            node.processor.receivedReverseSync(new SyncData(new PTPTimestamp(now + offset),
+                    new PTPTimestamp(now + delay), zeroCorrection.array(), child.clock_id, child.pending_frame), delay, true);
+            child.pending_frame = null;
+        }
+
+        node.pending_frame = node.aggregator.nextTransmitFrame(config.max_data_field_size);
+        return node.pending_frame.length;
+    }
+
+    /**
+     * Releases the aggregators one level at a time, starting from the leaves, attributing the heap freed to the level.
+     */
+    private void measureHeap(List<LevelReport> reports) {
+        long used = collectedHeap();
+        for(int lvl = config.depth - 1; lvl >= 0; lvl--) {
+            for(Node node : levels.get(lvl)) {
+                node.aggregator.stopAggregation();
+                node.aggregator = null;
+                node.processor = null;
+                node.pending_frame = null;
+            }
+            long after = collectedHeap();
+            reports.get(lvl).heap_bytes = Math.max(0, used - after);
+            used = after;
+        }
+    }
+
+    /**
+     * @return Heap in use after a few full collections, since a single one may not release everything
+     */
+    private static long collectedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    /**
+     * @param args Optional key=value overrides of the {@link Config} fields, e.g. depth=4 fan_out=8
+     */
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config();
+        for(String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if(kv.length != 2) {
+                logger.error("Usage: [<config field>=<value> ...], e.g. depth=4 fan_out=8 noise_ns=25");
+                return;
+            }
+            var field = Config.class.getField(kv[0]);
+            if(field.getType() == int.class) field.setInt(cfg, Integer.parseInt(kv[1]));
+            else if(field.getType() == long.class) field.setLong(cfg, Long.parseLong(kv[1]));
+            else field.setDouble(cfg, Double.parseDouble(kv[1]));
+        }
+        logger.info("\n{}", new TreeSimulator(cfg).run());
+    }
+}
@@ -0,0 +1,94 @@
+package edu.unh.artt.core.models;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel engine that evaluates a full vector of samples at once using the widest vector shape the platform supports
+ * (e.g. AVX2/AVX-512 on x86, NEON/SVE on ARM). Only compiled for Java 17 and loaded reflectively by
+ * {@link KernelEngine#getInstance()}.
+ */
+final class VectorKernelEngine extends KernelEngine {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public int getLaneCount() {
+        return SPECIES.length();
+    }
+
+    /**
+     * @see KernelEngine#gaussianSum(double[][], double[], int, int, double[], double[], double)
+     */
+    @Override
+    public double gaussianSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                              double[] invBandwidths, double cutoffSq) {
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for(int i = from; i < bound; i += SPECIES.length()) {
+            DoubleVector dist = DoubleVector.zero(SPECIES);
+            for(int dim = 0; dim < columns.length; dim++) {
+                DoubleVector u = DoubleVector.fromArray(SPECIES, columns[dim], i).sub(point[dim])
+                        .mul(invBandwidths[dim]);
+                dist = dist.add(u.mul(u));
+            }
+            VectorMask<Double> inRange = dist.compare(VectorOperators.LE, cutoffSq);
+            if(!inRange.anyTrue())
+                continue;
+            acc = acc.add(DoubleVector.fromArray(SPECIES, weights, i).mul(exp(dist.mul(-0.5))), inRange);
+        }
+        return acc.reduceLanes(VectorOperators.ADD)
+                + ScalarKernelEngine.sum(columns, weights, bound, to, point, invBandwidths, cutoffSq);
+    }
+
+    /**
+     * @see KernelEngine#polynomialSum(double[][], double[], int, int, double[], double[], double, int)
+     */
+    @Override
+    public double polynomialSum(double[][] columns, double[] weights, int from, int to, double[] point,
+                                double[] invBandwidths, double radiusSq, int power) {
+        double invRadiusSq = 1 / radiusSq;
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector acc = DoubleVector.zero(SPECIES), one = DoubleVector.broadcast(SPECIES, 1);
+        for(int i = from; i < bound; i += SPECIES.length()) {
+            DoubleVector dist = DoubleVector.zero(SPECIES);
+            for(int dim = 0; dim < columns.length; dim++) {
+                DoubleVector u = DoubleVector.fromArray(SPECIES, columns[dim], i).sub(point[dim])
+                        .mul(invBandwidths[dim]);
+                dist = dist.add(u.mul(u));
+            }
+            VectorMask<Double> inRange = dist.compare(VectorOperators.LE, radiusSq);
+            if(!inRange.anyTrue())
+                continue;
+            DoubleVector t = one.sub(dist.mul(invRadiusSq)), val = t;
+            for(int p = 1; p < power; p++)
+                val = val.mul(t);
+            acc = acc.add(DoubleVector.fromArray(SPECIES, weights, i).mul(val), inRange);
+        }
+        return acc.reduceLanes(VectorOperators.ADD)
+                + ScalarKernelEngine.sum(columns, weights, bound, to, point, invBandwidths, radiusSq, power);
+    }
+
+    /**
+     * Lane-wise {@link KernelEngine#fastExp(double)} for non-positive arguments
+     */
+    static DoubleVector exp(DoubleVector x) {
+        VectorMask<Double> underflow = x.compare(VectorOperators.LT, EXP_MIN);
+        x = x.max(EXP_MIN);
+        DoubleVector t = x.mul(LOG2E).add(SHIFTER);
+        DoubleVector k = t.sub(SHIFTER);
+        DoubleVector r = x.sub(k.mul(LN2_HI)).sub(k.mul(LN2_LO));
+        DoubleVector p = DoubleVector.broadcast(SPECIES, EXP_COEFFS[EXP_COEFFS.length - 1]);
+        for(int c = EXP_COEFFS.length - 2; c >= 0; c--)
+            p = p.mul(r).add(EXP_COEFFS[c]);
+        DoubleVector scale = t.reinterpretAsLongs().sub(SHIFTER_BITS - 1023).lanewise(VectorOperators.LSHL, 52)
+                .reinterpretAsDoubles();
+        return p.mul(scale).blend(0.0, underflow);
+    }
+}
@@ -0,0 +1,380 @@
+package edu.unh.artt.core;
+
+import edu.unh.artt.core.error_sample.processing.AMTLVHeader;
+import edu.unh.artt.core.error_sample.processing.OffsetSampleProcessor;
+import edu.unh.artt.core.error_sample.processing.SampleSetCache;
+import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.PTPTimestamp;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
+import edu.unh.artt.core.error_sample.representation.SyncData;
+import edu.unh.artt.core.models.ErrorModel;
+import edu.unh.artt.core.models.HistogramErrorModel;
+import edu.unh.artt.core.outlier.OutlierDetector;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class AggregatorTest {
+
+    /**
+     * Records each AMTLV the precompute producer encodes. The AMTLV is already staged by then
+     */
+    private static class RecordingProcessor extends OffsetSampleProcessor {
+        final BlockingQueue<AMTLVData<OffsetGmSample>> encoded = new LinkedBlockingQueue<>();
+
+        @Override
+        public List<byte[]> amtlvToBytes(AMTLVData<OffsetGmSample> amtlv, int maxDataFieldSize) {
+            if(Thread.currentThread().getName().equals("amtlv-precompute"))
+                encoded.add(amtlv);
+            return super.amtlvToBytes(amtlv, maxDataFieldSize);
+        }
+    }
+
+    /**
+     * Blocks the precompute producer while it re-samples, once armed
+     */
+    private static class GatedModel extends HistogramErrorModel<OffsetGmSample> {
+        final CountDownLatch resampling = new CountDownLatch(1), release = new CountDownLatch(1);
+
+        GatedModel(int sampleWindow) {
+            super(sampleWindow, 1);
+        }
+
+        @Override
+        protected double[][] resampleImpl(int newWindow) {
+            if(Thread.currentThread().getName().equals("amtlv-precompute")) {
+                resampling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.resampleImpl(newWindow);
+        }
+    }
+
+    /**
+     * Keeps track of the refit callbacks registered on it
+     */
+    private static class TrackedModel extends HistogramErrorModel<OffsetGmSample> {
+        final Set<Consumer<ErrorModel<OffsetGmSample>>> callbacks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        TrackedModel(int sampleWindow) {
+            super(sampleWindow, 1);
+        }
+
+        @Override
+        public void registerRefitCallback(Consumer<ErrorModel<OffsetGmSample>> callback) {
+            callbacks.add(callback);
+            super.registerRefitCallback(callback);
+        }
+
+        @Override
+        public void unregisterRefitCallback(Consumer<ErrorModel<OffsetGmSample>> callback) {
+            callbacks.remove(callback);
+            super.unregisterRefitCallback(callback);
+        }
+    }
+
+    /**
+     * Takes at least 2 ms to re-fit
+     */
+    private static class SlowModel extends HistogramErrorModel<OffsetGmSample> {
+        SlowModel(int sampleWindow) {
+            super(sampleWindow, 1);
+        }
+
+        @Override
+        public void computeMetrics(LinkedList<OffsetGmSample> sampleIterator) {
+            super.computeMetrics(sampleIterator);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static OutlierDetector<OffsetGmSample> noOutliers(ErrorModel<OffsetGmSample> model) {
+        return new OutlierDetector<>(model) {
+            @Override
+            public boolean isOutlier(OffsetGmSample sample) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Computes a time error sample from a reverse Sync with the given receipt time
+     */
+    private static void ingest(OffsetSampleProcessor proc, byte[] partnerId, long receipt) {
+        proc.receivedReverseSync(new SyncData(new PTPTimestamp(receipt), new PTPTimestamp(0), new byte[10], partnerId,
+                null), 0, true);
+    }
+
+    private static Set<OffsetGmSample> identities(List<OffsetGmSample> samples) {
+        Set<OffsetGmSample> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(samples);
+        return set;
+    }
+
+    private static int sequenceId(List<byte[]> frames) {
+        return AMTLVHeader.readSequenceId(ByteBuffer.wrap(frames.get(0)), 0);
+    }
+
+    /**
+     * @return True if the sequence id follows the previous one, allowing for the 16 bit id to wrap
+     */
+    private static boolean follows(int sequenceId, int prevSequenceId) {
+        int diff = (sequenceId - prevSequenceId) & 0xffff;
+        return diff != 0 && diff < 0x8000;
+    }
+
+    @Test
+    public void precomputeWithoutWaiting() throws Exception {
+        RecordingProcessor proc = new RecordingProcessor();
+        GatedModel model = new GatedModel(100);
+        Aggregator<OffsetGmSample> aggregator = new Aggregator<>(proc, model, noOutliers(model), 1, 50);
+        int prev = sequenceId(aggregator.retrieveNewData(1500));
+        Random r = new Random(7);
+        List<OffsetGmSample> window = new ArrayList<>();
+        for(int i = 0; i < 100; i++)
+            window.add(new OffsetGmSample(0, 1, r.nextGaussian() * 50));
+        model.addSamples(window);
+
+        //Hold the producer while it re-samples the model
+        aggregator.enablePrecompute(1500);
+        assertTrue(model.resampling.await(5, TimeUnit.SECONDS));
+
+        //The transmit path does not wait on it, and sends the outliers alone
+        List<byte[]> frames = CompletableFuture.supplyAsync(() -> aggregator.retrieveNewData(1500))
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(follows(sequenceId(frames), prev));
+        assertEquals(0, AMTLVHeader.readSampleLength(ByteBuffer.wrap(frames.get(0)), 0));
+        prev = sequenceId(frames);
+
+        //The re-sampled model is staged after it, and sent next
+        model.release.countDown();
+        AMTLVData<OffsetGmSample> staged = proc.encoded.poll(5, TimeUnit.SECONDS);
+        assertNotNull(staged);
+        assertEquals(50, staged.subnetwork_samples.size());
+        assertTrue(follows(staged.sequence_id, prev));
+        assertEquals(staged.sequence_id, sequenceId(aggregator.retrieveNewData(1500)));
+
+        prev = staged.sequence_id;
+        for(int i = 0; i < 20; i++) {
+            int next = sequenceId(aggregator.retrieveNewData(1500));
+            assertTrue(follows(next, prev));
+            prev = next;
+        }
+        aggregator.stopAggregation();
+    }
+
+    @Test
+    public void precomputeDeltaEncoding() throws Exception {
+        byte [] senderId = new byte[]{0, 0x0d, 0x0d, 0x0d, 0x0d, 0x0d, 0x0d, 0x0d};
+        OffsetSampleProcessor proc = new OffsetSampleProcessor(), receiver = new OffsetSampleProcessor();
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(100, 1);
+        Aggregator<OffsetGmSample> aggregator = new Aggregator<>(proc, model, noOutliers(model), 1, 50);
+        aggregator.enableDeltaEncoding(0.01, 1);
+        aggregator.enablePrecompute(1500);
+
+        //Each refit restages the next AMTLV on the producer while the transmit path keeps taking them
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread feeder = new Thread(() -> {
+            Random r = new Random(3);
+            while(running.get()) {
+                List<OffsetGmSample> batch = new ArrayList<>();
+                for(int i = 0; i < 10; i++)
+                    batch.add(new OffsetGmSample(0, 1, r.nextGaussian() * 50));
+                model.addSamples(batch);
+            }
+        });
+        feeder.start();
+
+        SampleSetCache<OffsetGmSample> received = receiver.getPartnerSampleSets();
+        List<Integer> sent = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 10_000;
+        try {
+            while(received.getAppliedDeltaCount() < 20 && System.currentTimeMillis() < deadline) {
+                List<byte[]> frames = aggregator.retrieveNewData(1500);
+                sent.add(sequenceId(frames));
+                for(byte[] frame : frames) {
+                    receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10],
+                            senderId, frame), 0, false);
+                }
+            }
+        } finally {
+            running.set(false);
+            feeder.join();
+        }
+
+        //Every delta was computed against the set the receiver holds, and AMTLVs were never sent out of order
+        assertTrue(received.getAppliedDeltaCount() >= 20);
+        assertEquals(0, received.getDroppedDeltaCount());
+        for(int i = 1; i < sent.size(); i++)
+            assertTrue(follows(sent.get(i), sent.get(i - 1)));
+        assertEquals(50, received.getSampleSet(ClockIdentityRegistry.shared().intern(senderId)).size());
+        aggregator.stopAggregation();
+        receiver.stopProcessing();
+    }
+
+    @Test
+    public void deltaFeedsCompleteSet() {
+        byte [] senderId = new byte[]{0, 0x0e, 0x0e, 0x0e, 0x0e, 0x0e, 0x0e, 0x0e};
+        OffsetSampleProcessor sender = new OffsetSampleProcessor(), receiver = new OffsetSampleProcessor();
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(1000, 1);
+        Aggregator<OffsetGmSample> aggregator = new Aggregator<>(receiver, model, noOutliers(model), 1, 50);
+        Consumer<AMTLVData<OffsetGmSample>> send = amtlv -> {
+            for(byte[] frame : sender.amtlvToBytes(amtlv, 1500)) {
+                receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10],
+                        senderId, frame), 0, false);
+            }
+        };
+
+        double[][] set = new double[50][];
+        for(int i = 0; i < set.length; i++)
+            set[i] = new double[]{i};
+        AMTLVData<OffsetGmSample> full = sender.packageAMTLVData(1, List.of(), set);
+        send.accept(full);
+        assertEquals(50, model.getSamples().size());
+
+        //The model receives the whole set with the replacements applied, not just the replacements
+        send.accept(sender.packageAMTLVData(1, List.of(), new SampleDelta(full.sequence_id, 50, new int[]{3, 7}),
+                new double[][]{{-3}, {-7}}));
+        assertEquals(1, receiver.getPartnerSampleSets().getAppliedDeltaCount());
+        List<OffsetGmSample> window = model.getSamples();
+        assertEquals(100, window.size());
+        //The window is newest first
+        for(int i = 0; i < 50; i++)
+            assertEquals((i == 3 || i == 7) ? -i : i, window.get(49 - i).getSample(0), 0);
+        aggregator.stopAggregation();
+    }
+
+    @Test
+    public void loadShedding() {
+        byte [] gmId = new byte[]{0, 1, 1, 1, 1, 1, 1, 3}, partnerId = new byte[]{0, 2, 2, 2, 2, 2, 2, 3};
+        OffsetSampleProcessor proc = new OffsetSampleProcessor();
+        proc.receivedGMSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], gmId, null), 0, gmId);
+        SlowModel model = new SlowModel(10);
+        Aggregator<OffsetGmSample> aggregator = new Aggregator<>(proc, model, noOutliers(model), 1, 5);
+        AtomicLong clock = new AtomicLong(1);
+        OverloadController ctl = new OverloadController(1000, 1, 0.1, clock::get);
+        aggregator.enableLoadShedding(ctl);
+
+        //Syncs every 0.1 ms while each refit takes at least 2 ms
+        for(int i = 0; i < 60; i++) {
+            clock.addAndGet(100_000);
+            ingest(proc, partnerId, i);
+        }
+        assertTrue(ctl.getUtilization() > 1);
+        assertTrue(ctl.isShedding());
+        assertTrue(ctl.getShedCount() > 0);
+        assertEquals(60, ctl.getOfferedCount());
+
+        //The same refits with a Sync every second
+        for(int i = 60; i < 70; i++) {
+            clock.addAndGet(1_000_000_000);
+            ingest(proc, partnerId, i);
+        }
+        assertFalse(ctl.isShedding());
+        long shed = ctl.getShedCount();
+        for(int i = 70; i < 80; i++) {
+            clock.addAndGet(1_000_000_000);
+            ingest(proc, partnerId, i);
+        }
+        assertEquals(shed, ctl.getShedCount());
+        aggregator.stopAggregation();
+    }
+
+    @Test
+    public void swapWhileIngesting() throws Exception {
+        byte [] gmId = new byte[]{0, 1, 1, 1, 1, 1, 1, 1}, partnerId = new byte[]{0, 2, 2, 2, 2, 2, 2, 2};
+        OffsetSampleProcessor proc = new OffsetSampleProcessor();
+        proc.receivedGMSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], gmId, null), 0, gmId);
+        TrackedModel first = new TrackedModel(100), second = new TrackedModel(100);
+        Aggregator<OffsetGmSample> aggregator = new Aggregator<>(proc, first, noOutliers(first), 2, 50);
+        aggregator.enablePrecompute(1500);
+        assertEquals(200, first.getLocalWindowSize());
+        assertEquals(1, first.callbacks.size());
+        for(int i = 0; i < 300; i++)
+            ingest(proc, partnerId, i);
+
+        //Hold the build after the new model was seeded, while samples keep arriving
+        CountDownLatch building = new CountDownLatch(1), release = new CountDownLatch(1);
+        CompletableFuture<ErrorModel<OffsetGmSample>> swap = aggregator.swapModel(second, model -> {
+            building.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return noOutliers(model);
+        });
+        assertTrue(building.await(5, TimeUnit.SECONDS));
+        for(int i = 300; i < 350; i++)
+            ingest(proc, partnerId, i);
+        List<OffsetGmSample> expected = new ArrayList<>(first.getSamples());
+        release.countDown();
+        assertSame(first, swap.get(5, TimeUnit.SECONDS));
+
+        //The backlog reached the new model, once, on top of the seeded window
+        assertSame(second, aggregator.getNetworkModel());
+        assertEquals(200, second.getLocalWindowSize());
+        List<OffsetGmSample> window = new ArrayList<>(second.getSamples());
+        assertEquals(200, window.size());
+        assertEquals(identities(expected), identities(window));
+        assertTrue(first.callbacks.isEmpty());
+        assertEquals(1, second.callbacks.size());
+
+        //Swapping back to the returned model keeps its window size and drops the samples it held
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger next = new AtomicInteger(350);
+        Thread feeder = new Thread(() -> {
+            while(running.get())
+                ingest(proc, partnerId, next.getAndIncrement());
+        });
+        feeder.start();
+        try {
+            assertSame(second, aggregator.swapModel(first, AggregatorTest::noOutliers).get(5, TimeUnit.SECONDS));
+        } finally {
+            running.set(false);
+            feeder.join();
+        }
+        assertSame(first, aggregator.getNetworkModel());
+        assertEquals(200, first.getLocalWindowSize());
+        window = new ArrayList<>(first.getSamples());
+        assertEquals(200, window.size());
+        assertEquals(window.size(), identities(window).size());
+        assertTrue(second.callbacks.isEmpty());
+        assertEquals(1, first.callbacks.size());
+
+        try {
+            aggregator.swapModel(first, AggregatorTest::noOutliers);
+            fail("Swapped in the model already in use");
+        } catch (IllegalArgumentException ignored) {}
+        aggregator.stopAggregation();
+        proc.stopProcessing();
+    }
+}
@@ -0,0 +1,152 @@
+package edu.unh.artt.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class BatchPublisherTest {
+
+    /**
+     * Records each batch, and only requests more when told to
+     */
+    private static class ManualSubscriber implements Flow.Subscriber<List<Integer>> {
+        final List<List<Integer>> batches = new ArrayList<>();
+        Flow.Subscription subscription;
+        boolean complete = false;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription sub) {
+            subscription = sub;
+        }
+
+        @Override
+        public void onNext(List<Integer> item) {
+            batches.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    public void batching() {
+        //Delivering on the submitting thread keeps the test deterministic
+        BatchPublisher<Integer> publisher = new BatchPublisher<>(100, 4, BatchPublisher.OverflowPolicy.DROP_NEWEST, Runnable::run);
+        ManualSubscriber sub = new ManualSubscriber();
+        publisher.subscribe(sub);
+        assertNotNull(sub.subscription);
+
+        publisher.submitAll(range(0, 10));
+        assertTrue(sub.batches.isEmpty());
+        sub.subscription.request(2);
+        assertEquals(List.of(range(0, 4), range(4, 8)), sub.batches);
+
+        //Outstanding demand is met as soon as items arrive
+        sub.subscription.request(5);
+        publisher.submit(10);
+        assertEquals(List.of(range(0, 4), range(4, 8), range(8, 10), range(10, 11)), sub.batches);
+
+        publisher.close();
+        assertTrue(sub.complete);
+        assertEquals(0, publisher.getNumberOfSubscribers());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void overflowPolicies() {
+        BatchPublisher<Integer> publisher = new BatchPublisher<>(5, 100, BatchPublisher.OverflowPolicy.DROP_NEWEST, Runnable::run);
+        ManualSubscriber newest = new ManualSubscriber(), oldest = new ManualSubscriber(), conflate = new ManualSubscriber();
+        publisher.subscribe(newest);
+        publisher.subscribe(oldest, 5, BatchPublisher.OverflowPolicy.DROP_OLDEST);
+        publisher.subscribe(conflate, 5, BatchPublisher.OverflowPolicy.CONFLATE);
+
+        publisher.submitAll(range(0, 20));
+        newest.subscription.request(1);
+        oldest.subscription.request(1);
+        conflate.subscription.request(1);
+        assertEquals(List.of(range(0, 5)), newest.batches);
+        assertEquals(List.of(range(15, 20)), oldest.batches);
+        assertEquals(List.of(List.of(19)), conflate.batches);
+        assertEquals(15 + 15 + 19, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void misbehavingSubscriber() {
+        BatchPublisher<Integer> publisher = new BatchPublisher<>(5, 5, BatchPublisher.OverflowPolicy.DROP_OLDEST, Runnable::run);
+        ManualSubscriber sub = new ManualSubscriber();
+        publisher.subscribe(sub);
+        publisher.subscribe(sub);
+        assertTrue(sub.error instanceof IllegalStateException);
+
+        ManualSubscriber invalid = new ManualSubscriber();
+        publisher.subscribe(invalid);
+        invalid.subscription.request(0);
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+
+        //A subscriber that throws is cancelled without affecting the publisher
+        Flow.Subscriber<List<Integer>> throwing = new ManualSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<Integer> item) {
+                throw new RuntimeException("Subscriber failure");
+            }
+        };
+        publisher.subscribe(throwing);
+        assertEquals(2, publisher.getNumberOfSubscribers());
+        publisher.submit(1);
+        assertEquals(1, publisher.getNumberOfSubscribers());
+    }
+
+    @Test
+    public void defaultExecutor() throws InterruptedException {
+        BatchPublisher<Integer> publisher = new BatchPublisher<>(10, 10, BatchPublisher.OverflowPolicy.DROP_OLDEST);
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        publisher.subscribe(new ManualSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<Integer> item) {
+                thread.set(Thread.currentThread());
+                delivered.countDown();
+            }
+        });
+        publisher.submit(1);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        //Delivery stays off the common pool used by the sample consumers
+        assertTrue(thread.get().getName().startsWith("batch-publisher-"));
+        assertTrue(thread.get().isDaemon());
+        assertFalse(thread.get() instanceof ForkJoinWorkerThread);
+        publisher.close();
+    }
+}
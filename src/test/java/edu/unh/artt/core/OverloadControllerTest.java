@@ -0,0 +1,160 @@
+package edu.unh.artt.core;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.TimeErrorSample;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class OverloadControllerTest {
+
+    @Test
+    public void keepFraction() {
+        //A second between arrivals
+        AtomicLong clock = new AtomicLong(0);
+        OverloadController ctl = new OverloadController(10, 1, 0.1, () -> clock.addAndGet(1_000_000_000));
+        assertFalse(ctl.isShedding());
+        assertEquals(0, ctl.getSheddingRate(), 0);
+
+        //Backlog over the threshold
+        ctl.reportQueueDepth(40);
+        assertEquals(0.25, ctl.getKeepFraction(), 1e-12);
+        ctl.reportQueueDepth(1000);
+        assertEquals(0.1, ctl.getKeepFraction(), 1e-12);
+        ctl.reportQueueDepth(0);
+        assertEquals(1, ctl.getKeepFraction(), 0);
+
+        //Samples in flight count towards the backlog
+        for(int i = 0; i < 20; i++)
+            ctl.enter();
+        assertEquals(20, ctl.getQueueDepth());
+        assertEquals(0.5, ctl.getKeepFraction(), 1e-12);
+        for(int i = 0; i < 20; i++)
+            ctl.exit();
+        ctl.reportQueueDepth(0);
+        assertFalse(ctl.isShedding());
+
+        //A slow refit alone is not an overload
+        ctl.recordRefit(2_000_000);
+        assertFalse(ctl.isShedding());
+
+        try {
+            new OverloadController(10, 1, 0);
+            fail("Expected exception");
+        } catch(IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void utilization() {
+        AtomicLong clock = new AtomicLong(1);
+        OverloadController ctl = new OverloadController(1000, 1, 0.1, clock::get);
+        Runnable arrive = () -> {
+            ctl.enter();
+            ctl.exit();
+        };
+
+        //Refits of 1 ms while samples arrive every 0.5 ms
+        ctl.recordRefit(1_000_000);
+        for(int i = 0; i < 10; i++) {
+            clock.addAndGet(500_000);
+            arrive.run();
+        }
+        assertEquals(2, ctl.getUtilization(), 1e-9);
+        assertEquals(0.5, ctl.getKeepFraction(), 1e-9);
+
+        //Between the resume load and the threshold shedding continues at the last fraction
+        for(int i = 0; i < 30; i++) {
+            clock.addAndGet(1_100_000);
+            arrive.run();
+        }
+        assertTrue(ctl.getUtilization() > OverloadController.RESUME_LOAD && ctl.getUtilization() < 1);
+        assertTrue(ctl.isShedding());
+
+        //The same refits at a trickle of samples are not an overload
+        for(int i = 0; i < 30; i++) {
+            clock.addAndGet(100_000_000);
+            arrive.run();
+        }
+        assertTrue(ctl.getUtilization() < 0.1);
+        assertFalse(ctl.isShedding());
+    }
+
+    @Test
+    public void unbiasedWeights() {
+        OverloadController ctl = new OverloadController(1, 1, 0.01);
+        ctl.reportQueueDepth(3);
+
+        //Local samples are kept independently, the expected total weight is unchanged
+        long offered = 0, kept = 0, total = 0;
+        for(int i = 0; i < 100000; i++) {
+            OffsetGmSample s = ctl.admit(new OffsetGmSample(0, 2, i));
+            offered += 2;
+            if(s != null) {
+                kept++;
+                total += s.getWeight();
+                assertEquals(i, s.getSample(0), 0);
+            }
+        }
+        assertEquals(100000 / 3., kept, 1000);
+        assertEquals(offered, total, offered * 0.02);
+        assertEquals(100000 - kept, ctl.getShedCount());
+
+        //Received sets keep a third of the samples, in order, with the weight of the whole set
+        List<OffsetGmSample> set = new ArrayList<>();
+        for(int i = 0; i < 300; i++)
+            set.add(new OffsetGmSample(0, 5, i));
+        List<OffsetGmSample> reduced = ctl.reservoir(set);
+        assertEquals(100, reduced.size());
+        long setWeight = 0;
+        for(int i = 0; i < reduced.size(); i++) {
+            setWeight += reduced.get(i).getWeight();
+            if(i > 0)
+                assertTrue(reduced.get(i).getSample(0) > reduced.get(i - 1).getSample(0));
+        }
+        assertEquals(1500, setWeight, 0);
+
+        ctl.reportQueueDepth(0);
+        assertSame(set, ctl.reservoir(set));
+    }
+
+    @Test
+    public void reweightingUnsupported() {
+        //Sample type that relies on the default withWeight
+        class FixedSample implements TimeErrorSample {
+            final double value;
+
+            FixedSample(double v) {
+                value = v;
+            }
+
+            public double[] getSample() {return new double[] {value};}
+            public long getWeight() {return 1;}
+            public long getTimestamp() {return 0;}
+            public String getIdentifier() {return "fixed";}
+            public int getNumDimensions() {return 1;}
+            public List<FixedSample> parseSamples(List<double[]> sampleData) {return List.of();}
+        }
+        try {
+            new FixedSample(0).withWeight(2);
+            fail("Expected exception");
+        } catch(UnsupportedOperationException ignored) {}
+
+        OverloadController ctl = new OverloadController(1, 1, 0.01);
+        ctl.reportQueueDepth(100);
+        assertTrue(ctl.isShedding());
+        //Once a sample cannot be re-weighted, nothing more is shed
+        List<FixedSample> set = new ArrayList<>();
+        for(int i = 0; i < 300; i++)
+            set.add(new FixedSample(i));
+        assertSame(set, ctl.reservoir(set));
+        assertSame(set, ctl.reservoir(set));
+        long shed = ctl.getShedCount();
+        for(int i = 0; i < 1000; i++)
+            assertNotNull(ctl.admit(new FixedSample(i)));
+        assertEquals(shed, ctl.getShedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package edu.unh.artt.core.error_sample.processing;
+
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class LinkPartnerTableTest {
+
+    @Test
+    public void report() {
+        LinkPartnerTable table = new LinkPartnerTable(1, TimeUnit.HOURS);
+        int partnerA = ClockIdentityRegistry.shared().intern(0x0a0a0a0a0a0a0a01L);
+        int partnerB = ClockIdentityRegistry.shared().intern(0x0a0a0a0a0a0a0a02L);
+
+        assertNull(table.get(partnerA));
+        table.report(partnerA, 10, 0);
+        table.report(partnerB, 5, 0);
+        assertEquals(15, table.getTotalWeight());
+
+        //Replacing a partner's weight adjusts the running total
+        table.report(partnerA, 3, 100);
+        assertEquals(8, table.getTotalWeight());
+        assertEquals(2, table.get(partnerA).getAMTLVCount());
+        assertEquals(100, table.get(partnerA).getLastSeen());
+
+        //Only partners that have been silent for longer than the expiry period are removed
+        List<Integer> expired = new ArrayList<>();
+        table.onExpiry(p -> expired.add(p.clock_handle));
+        long expiry = TimeUnit.HOURS.toMillis(1);
+        assertEquals(1, table.expire(expiry + 50));
+        assertEquals(List.of(partnerB), expired);
+        assertEquals(0, table.expire(expiry + 51));
+        assertEquals(1, expired.size());
+        assertFalse(table.get(partnerB).isActive());
+        assertTrue(table.get(partnerA).isActive());
+        assertEquals(3, table.getTotalWeight());
+
+        //An expired partner rejoins when it is heard from again
+        table.report(partnerB, 7, expiry + 60);
+        assertEquals(10, table.getTotalWeight());
+        assertEquals(1, table.expire(expiry + 101));
+        assertEquals(7, table.getTotalWeight());
+        table.close();
+    }
+
+    @Test
+    public void concurrentReports() {
+        LinkPartnerTable table = new LinkPartnerTable(1, TimeUnit.HOURS);
+        int [] handles = IntStream.range(0, 200).map(
+                i -> ClockIdentityRegistry.shared().intern(0x0b00000000000000L + i)).toArray();
+        IntStream.range(0, 100000).parallel().forEach(i -> table.report(handles[i % handles.length], 1 + i % 3, 0));
+        long expected = IntStream.range(0, handles.length).mapToLong(h -> table.get(handles[h]).getWeight()).sum();
+        assertEquals(expected, table.getTotalWeight());
+        table.close();
+    }
+
+    @Test
+    public void observe() {
+        LinkPartnerTable table = new LinkPartnerTable(1, TimeUnit.HOURS);
+        int partner = ClockIdentityRegistry.shared().intern(0x0a0a0a0a0a0a0a03L);
+
+        //Single frame AMTLVs keep the 8 most recent fingerprints
+        for(long f = 1; f <= 9; f++)
+            assertTrue(table.observe(partner, f, 0, 0));
+        for(long f = 2; f <= 9; f++)
+            assertFalse(table.observe(partner, f, 0, 0));
+        assertEquals(8, table.get(partner).getDuplicateCount());
+        assertTrue(table.observe(partner, 1, 0, 0));
+        assertTrue(table.observe(partner, 2, 0, 0));
+
+        //Enough are kept to recognize every fragment of a repeated logical AMTLV, oldest evicted first
+        for(int frag = 0; frag < 100; frag++)
+            assertTrue(table.observe(partner, 1000 + frag, frag, 0));
+        for(int frag = 0; frag < 100; frag++)
+            assertFalse(table.observe(partner, 1000 + frag, frag, 0));
+        assertTrue(table.observe(partner, 5000, 0, 0));
+        assertTrue(table.observe(partner, 1, 0, 0));
+        table.close();
+    }
+}
@@ -1,14 +1,21 @@
 package edu.unh.artt.core.error_sample.processing;
 
 import edu.unh.artt.core.error_sample.representation.AMTLVData;
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
 import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.error_sample.representation.OffsetRecordList;
+import edu.unh.artt.core.error_sample.representation.OutlierSummary;
 import edu.unh.artt.core.error_sample.representation.PTPTimestamp;
+import edu.unh.artt.core.error_sample.representation.SampleDelta;
 import edu.unh.artt.core.error_sample.representation.SyncData;
 import org.junit.Test;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
@@ -113,6 +120,45 @@ public class OffsetSampleProcessorTest {
         }
     }
 
+    @Test
+    public void lazyAMTLVData() {
+        byte [] outlierId = new byte[]{0,(byte) 0xff,(byte) 0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 1};
+        byte [] amtlvId = new byte[]{0,(byte) 0x0e,(byte) 0x0e, (byte)0x0e, (byte)0x0e, (byte)0x0e, (byte)0x0e, 0};
+        List<OffsetGmSample> outliers = IntStream.range(0, 10).mapToObj(i -> new OffsetGmSample(0, 1, -i, outlierId)).collect(Collectors.toList());
+        double[][] samples = IntStream.range(0, 50).mapToObj(i -> new double[]{i + 0.5}).toArray(double[][]::new);
+
+        OffsetSampleProcessor processor = new OffsetSampleProcessor();
+        byte [] frame = processor.amtlvToBytes(processor.packageAMTLVData(4, outliers, samples), 1500).get(0);
+        AMTLVData<OffsetGmSample> amtlv = processor.processAMTLVData(7, amtlvId, frame);
+
+        //Records are decoded from a private copy of the data field
+        Arrays.fill(frame, (byte) 0);
+        assertEquals(50, amtlv.subnetwork_samples.size());
+        assertEquals(10, amtlv.subnetwork_outliers.size());
+        assertEquals(20.5, amtlv.subnetwork_samples.get(20).getSample()[0], 0);
+        assertEquals(ClockIdentityRegistry.shared().intern(amtlvId), amtlv.subnetwork_samples.get(49).getClockHandle());
+        assertEquals(-9, amtlv.subnetwork_outliers.get(9).getSample()[0], 0);
+        assertArrayEquals(outlierId, amtlv.subnetwork_outliers.get(3).getClockIdentity());
+        assertEquals(4, amtlv.subnetwork_outliers.get(0).getWeight());
+        try {
+            amtlv.subnetwork_samples.get(50);
+            fail("Read past the sample section");
+        } catch (IndexOutOfBoundsException ignored) {}
+
+        ByteBuffer buf = ByteBuffer.allocate(24).putLong(PTPTimestamp.toScaledNs(-2.25)).putLong(0x0102030405060708L)
+                .putLong(PTPTimestamp.toScaledNs(3));
+        OffsetRecordList outlierView = OffsetRecordList.ofOutliers(buf, 0, 1, 0, 1);
+        assertEquals(-2.25, outlierView.getOffset(0), 0);
+        assertEquals(ClockIdentityRegistry.shared().intern(0x0102030405060708L), outlierView.getClockHandle(0));
+        OffsetRecordList sampleView = OffsetRecordList.of(buf, 8, 2, 8, 0, 5, 0, 1);
+        assertEquals(3, sampleView.getOffset(1), 0);
+        assertEquals(5, sampleView.getClockHandle(0));
+        try {
+            OffsetRecordList.of(buf, 8, 3, 8, 0, 5, 0, 1);
+            fail("Created a view past the end of the buffer");
+        } catch (IllegalArgumentException ignored) {}
+    }
+
     @Test
     public void packageAMTLVData() {
         int numOutl = 100, numSamp = 1000, outlWeight = 1, smplWt = 1;
@@ -148,13 +194,330 @@ public class OffsetSampleProcessorTest {
         testAmtlvToBytesHelper(1, 182, Integer.MIN_VALUE, 2, -1, 1, outlierId);
 
         testAmtlvToBytesMultiHelper(1500, 1500, 1500, 0, 2, -1, 45, outlierId);
-        testAmtlvToBytesMultiHelper(32, 64, 64, 0, 2, 100L + Integer.MIN_VALUE, -1, outlierId);
+        testAmtlvToBytesMultiHelper(32, 64, 64, 0, 2, 100L + Integer.MIN_VALUE, Integer.MAX_VALUE, outlierId);
         testAmtlvToBytesMultiHelper(100, 800, 1, 0, Long.MIN_VALUE >> 16, 10, 0, outlierId);
         testAmtlvToBytesMultiHelper(100, 1, 1600, 0, Long.MAX_VALUE >> 16, -1, 0, outlierId);
     }
 
+    @Test
+    public void amtlvFieldWidths() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0a,(byte) 0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, 0};
+        OffsetSampleProcessor processor = new OffsetSampleProcessor();
+
+        //Weights are unsigned 32 bit values
+        long [] weights = new long[] {0, 1L << 31, AMTLVHeader.MAX_WEIGHT};
+        for(long weight : weights) {
+            AMTLVData<OffsetGmSample> amtlv = processor.packageAMTLVData(weight, List.of(), new double[][]{{1}});
+            byte [] frame = processor.amtlvToBytes(amtlv, 1500).get(0);
+            assertEquals(weight, processor.processAMTLVData(0, amtlvId, frame).weight);
+        }
+
+        for(long weight : new long[] {-1, AMTLVHeader.MAX_WEIGHT + 1}) {
+            try {
+                processor.amtlvToBytes(processor.packageAMTLVData(weight, List.of(), new double[][]{{1}}), 1500);
+                fail("Encoded a weight that does not fit in the weight field");
+            } catch (IllegalArgumentException ignored) {}
+        }
+
+        //Sections that would overflow a length field are split into multiple frames
+        int numSamp = 10000, numOutl = 5000;
+        byte [] outlierId = new byte[]{0,(byte) 0xff,(byte) 0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0};
+        List<OffsetGmSample> outliers = IntStream.range(0, numOutl).mapToObj(i -> new OffsetGmSample(0, 1, i, outlierId)).collect(Collectors.toList());
+        double[][] samples = IntStream.range(0, numSamp).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+        List<byte[]> frames = processor.amtlvToBytes(processor.packageAMTLVData(3, outliers, samples), 1 << 20);
+        assertTrue(frames.size() > 1);
+
+        int sampCount = 0, outlCount = 0;
+        for(byte [] frame : frames) {
+            AMTLVData<OffsetGmSample> data = processor.processAMTLVData(0, amtlvId, frame);
+            assertNotNull(data);
+            for(OffsetGmSample s : data.subnetwork_samples)
+                assertEquals(sampCount++, s.getSample()[0], 0);
+            for(OffsetGmSample s : data.subnetwork_outliers)
+                assertEquals(outlCount++, s.getSample()[0], 0);
+        }
+        assertEquals(numSamp, sampCount);
+        assertEquals(numOutl, outlCount);
+    }
+
+    @Test
+    public void reassembleAMTLVData() {
+        byte [] outlierId = new byte[]{0,(byte) 0xff,(byte) 0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0};
+        byte [] amtlvId = new byte[]{0,(byte) 0x0a,(byte) 0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, 0};
+        int numOutl = 40, numSamp = 500, smplWt = 7;
+        List<OffsetGmSample> outliers = IntStream.range(0, numOutl).mapToObj(i -> new OffsetGmSample(0, 1, -i, outlierId)).collect(Collectors.toList());
+        double[][] samples = IntStream.range(0, numSamp).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+
+        OffsetSampleProcessor sender = new OffsetSampleProcessor();
+        OffsetSampleProcessor receiver = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        receiver.onAMTLVReceipt(received::add);
+
+        AMTLVData<OffsetGmSample> first = sender.packageAMTLVData(smplWt, outliers, samples);
+        AMTLVData<OffsetGmSample> second = sender.packageAMTLVData(smplWt, outliers, samples);
+        assertNotEquals(first.sequence_id, second.sequence_id);
+        List<byte[]> frames = sender.amtlvToBytes(first, 1500);
+        List<byte[]> nextFrames = sender.amtlvToBytes(second, 1500);
+        assertTrue(frames.size() > 2);
+
+        //Partial AMTLVs are dropped once a newer one is seen
+        for(byte[] frame : frames.subList(0, frames.size() - 1))
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+        assertTrue(received.isEmpty());
+        for(byte[] frame : nextFrames)
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+        receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frames.get(frames.size() - 1)), 0, false);
+
+        assertEquals(1, received.size());
+        AMTLVData<OffsetGmSample> amtlv = received.get(0);
+        assertEquals(second.sequence_id, amtlv.sequence_id);
+        assertEquals(smplWt, amtlv.weight);
+        assertEquals(numSamp, amtlv.subnetwork_samples.size());
+        assertEquals(numOutl, amtlv.subnetwork_outliers.size());
+        for(int i = 0; i < numSamp; i++)
+            assertEquals(i, amtlv.subnetwork_samples.get(i).getSample()[0], 0);
+        for(int i = 0; i < numOutl; i++)
+            assertEquals(-i, amtlv.subnetwork_outliers.get(i).getSample()[0], 0);
+
+        //Lazy encoding produces the same frames
+        Iterator<byte[]> lazyFrames = sender.amtlvFrames(first, 1500);
+        for(byte[] frame : frames)
+            assertArrayEquals(frame, lazyFrames.next());
+        assertFalse(lazyFrames.hasNext());
+    }
+
+    @Test
+    public void duplicateAMTLVData() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0b,(byte) 0x0b, (byte)0x0b, (byte)0x0b, (byte)0x0b, (byte)0x0b, 0};
+        double[][] samples = IntStream.range(0, 20).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+
+        OffsetSampleProcessor sender = new OffsetSampleProcessor();
+        OffsetSampleProcessor receiver = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        receiver.onAMTLVReceipt(received::add);
+
+        byte [] frame = sender.amtlvToBytes(sender.packageAMTLVData(3, new LinkedList<>(), samples), 1500).get(0);
+        for(int i = 0; i < 5; i++)
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame.clone()), 0, false);
+        assertEquals(1, received.size());
+
+        //Same samples under a new sequence number is new data
+        byte [] next = sender.amtlvToBytes(sender.packageAMTLVData(3, new LinkedList<>(), samples), 1500).get(0);
+        receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, next), 0, false);
+        assertEquals(2, received.size());
+
+        LinkPartnerTable.LinkPartner partner =
+                receiver.getLinkPartners().get(ClockIdentityRegistry.shared().intern(amtlvId));
+        assertEquals(2, partner.getAMTLVCount());
+        assertEquals(4, partner.getDuplicateCount());
+        assertEquals(3, receiver.getNetworkRepresentation());
+    }
+
+    @Test
+    public void duplicateFragmentedAMTLVData() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0b,(byte) 0x0b, (byte)0x0b, (byte)0x0b, (byte)0x0b, (byte)0x0b, 1};
+        double[][] samples = IntStream.range(0, 300).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+
+        OffsetSampleProcessor sender = new OffsetSampleProcessor();
+        OffsetSampleProcessor receiver = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        receiver.onAMTLVReceipt(received::add);
+
+        //Far more fragments than the initial fingerprint memo holds
+        List<byte[]> frames = sender.amtlvToBytes(sender.packageAMTLVData(3, new LinkedList<>(), samples), 100);
+        assertTrue(frames.size() > 20);
+        for(int r = 0; r < 3; r++) {
+            for(byte [] frame : frames)
+                receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame.clone()), 0, false);
+        }
+        assertEquals(1, received.size());
+        assertEquals(300, received.get(0).subnetwork_samples.size());
+
+        LinkPartnerTable.LinkPartner partner =
+                receiver.getLinkPartners().get(ClockIdentityRegistry.shared().intern(amtlvId));
+        assertEquals(frames.size(), partner.getAMTLVCount());
+        assertEquals(2 * frames.size(), partner.getDuplicateCount());
+    }
+
+    @Test
+    public void parametricAMTLVData() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0c,(byte) 0x0c, (byte)0x0c, (byte)0x0c, (byte)0x0c, (byte)0x0c, 0};
+        byte [] outlierId = new byte[]{0,(byte) 0xff,(byte) 0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0};
+        GaussianMixture mixture = new GaussianMixture(new double[] {0.25, 0.75}, new double[][] {{-40.5}, {12}},
+                new double[][] {{9}, {2.5}});
+        List<OffsetGmSample> outliers = IntStream.range(0, 100).mapToObj(i -> new OffsetGmSample(0, 1, i, outlierId)).collect(Collectors.toList());
+
+        OffsetSampleProcessor processor = new OffsetSampleProcessor();
+        AMTLVData<OffsetGmSample> amtlv = processor.packageAMTLVData(5, outliers, mixture);
+        List<byte[]> frames = processor.amtlvToBytes(amtlv, 500);
+        assertTrue(frames.size() > 1);
+        assertEquals(2 * OffsetSampleProcessor.MIXTURE_RECORD_SIZE, new BigInteger(Arrays.copyOfRange(frames.get(0), 4, 6)).intValue());
+
+        AMTLVData<OffsetGmSample> first = processor.processAMTLVData(0, amtlvId, frames.get(0));
+        assertTrue(first.subnetwork_samples.isEmpty());
+        GaussianMixture parsed = first.subnetwork_mixture;
+        assertEquals(2, parsed.getNumComponents());
+        for(int k = 0; k < 2; k++) {
+            assertEquals(mixture.getWeight(k), parsed.getWeight(k), 0);
+            assertEquals(mixture.getMean(k, 0), parsed.getMean(k, 0), 0);
+            assertEquals(mixture.getVariance(k, 0), parsed.getVariance(k, 0), 0);
+        }
+
+        int outlCount = first.subnetwork_outliers.size();
+        for(byte [] frame : frames.subList(1, frames.size())) {
+            AMTLVData<OffsetGmSample> data = processor.processAMTLVData(0, amtlvId, frame);
+            assertNull(data.subnetwork_mixture);
+            outlCount += data.subnetwork_outliers.size();
+        }
+        assertEquals(outliers.size(), outlCount);
+
+        //Mixtures are not fragmented
+        try {
+            processor.amtlvToBytes(amtlv, OffsetSampleProcessor.HEADER_SIZE + OffsetSampleProcessor.MIXTURE_RECORD_SIZE);
+            fail("Fragmented a mixture");
+        } catch (IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void deltaAMTLVData() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0d,(byte) 0x0d, (byte)0x0d, (byte)0x0d, (byte)0x0d, (byte)0x0d, 0};
+        byte [] outlierId = new byte[]{0,(byte) 0xff,(byte) 0xff, (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0};
+        int numSamp = 400;
+        double[][] samples = IntStream.range(0, numSamp).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+        List<OffsetGmSample> outliers = List.of(new OffsetGmSample(0, 1, -5, outlierId));
+
+        OffsetSampleProcessor sender = new OffsetSampleProcessor();
+        OffsetSampleProcessor receiver = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        receiver.onAMTLVReceipt(received::add);
+
+        AMTLVData<OffsetGmSample> full = sender.packageAMTLVData(3, List.of(), samples);
+        for(byte[] frame : sender.amtlvToBytes(full, 1500))
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+
+        //Replacements large enough to be fragmented
+        int[] indices = IntStream.range(0, 200).map(i -> i * 2).toArray();
+        double[][] replacements = Arrays.stream(indices).mapToObj(i -> new double[]{-i}).toArray(double[][]::new);
+        AMTLVData<OffsetGmSample> delta = sender.packageAMTLVData(3, outliers,
+                new SampleDelta(full.sequence_id, numSamp, indices), replacements);
+        List<byte[]> frames = sender.amtlvToBytes(delta, 1500);
+        assertTrue(frames.size() > 1);
+        for(byte[] frame : frames)
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+
+        assertEquals(2, received.size());
+        AMTLVData<OffsetGmSample> amtlv = received.get(1);
+        assertArrayEquals(indices, amtlv.sample_delta.indices);
+        assertEquals(indices.length, amtlv.subnetwork_samples.size());
+        assertEquals(1, amtlv.subnetwork_outliers.size());
+
+        SampleSetCache<OffsetGmSample> sets = receiver.getPartnerSampleSets();
+        assertEquals(1, sets.getAppliedDeltaCount());
+        List<OffsetGmSample> current = sets.getSampleSet(ClockIdentityRegistry.shared().intern(amtlvId));
+        assertEquals(numSamp, current.size());
+        for(int i = 0; i < numSamp; i++)
+            assertEquals((i % 2 == 0) ? -i : i, current.get(i).getSample()[0], 0);
+
+        //A delta against a set the receiver does not hold only delivers its outliers
+        AMTLVData<OffsetGmSample> stale = sender.packageAMTLVData(3, outliers,
+                new SampleDelta(full.sequence_id, numSamp, new int[]{1}), new double[][]{{1000}});
+        for(byte[] frame : sender.amtlvToBytes(stale, 1500))
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+        assertEquals(3, received.size());
+        assertTrue(received.get(2).subnetwork_samples.isEmpty());
+        assertEquals(1, received.get(2).subnetwork_outliers.size());
+        assertEquals(1, sets.getDroppedDeltaCount());
+        assertEquals(1, current.get(1).getSample()[0], 0);
+    }
+
+    @Test
+    public void outlierSummaryAMTLVData() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0e,(byte) 0x0e, (byte)0x0e, (byte)0x0e, (byte)0x0e, (byte)0x0e, 0};
+        int numClocks = 60, perClock = 25, numSamp = 200;
+        double[][] samples = IntStream.range(0, numSamp).mapToObj(i -> new double[]{i}).toArray(double[][]::new);
+
+        //Each clock reports a run of outliers that is folded into one summary
+        List<OutlierSummary<OffsetGmSample>> summaries = IntStream.range(0, numClocks).mapToObj(c -> {
+            byte [] id = new byte[]{0, 0x11, 0x22, 0x33, 0x44, 0x55, (byte) c, 1};
+            OutlierSummary<OffsetGmSample> summary = null;
+            for(int i = 0; i < perClock; i++) {
+                OutlierSummary<OffsetGmSample> next = OutlierSummary.of(new OffsetGmSample(0, 1, 1000 * c + ((i * 7) % perClock), id));
+                summary = (summary == null) ? next : summary.combine(next);
+            }
+            return summary;
+        }).collect(Collectors.toList());
+        OutlierSummary<OffsetGmSample> expected = summaries.get(3);
+        assertEquals(perClock, expected.count);
+        assertEquals(3000, expected.min.getSample()[0], 0);
+        assertEquals(3000 + perClock - 1, expected.max.getSample()[0], 0);
+        assertEquals(3000 + ((perClock - 1) * 7) % perClock, expected.last.getSample()[0], 0);
+        assertEquals(3000 + (perClock - 1) / 2., expected.getMean(), 1e-9);
+
+        OffsetSampleProcessor sender = new OffsetSampleProcessor();
+        OffsetSampleProcessor receiver = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        receiver.onAMTLVReceipt(received::add);
+
+        AMTLVData<OffsetGmSample> base = sender.packageAMTLVData(4, List.of(), samples);
+        AMTLVData<OffsetGmSample> amtlv = new AMTLVData<>(base.timestamp, base.weight, base.clock_id,
+                base.subnetwork_samples, List.of(), summaries, null, null, base.sequence_id, 0, true);
+        List<byte[]> frames = sender.amtlvToBytes(amtlv, 1500);
+        assertTrue(frames.size() > 1);
+        ByteBuffer last = ByteBuffer.wrap(frames.get(frames.size() - 1));
+        assertNotEquals(0, last.getShort(10) & AMTLVHeader.OUTLIER_SUMMARY_FLAG);
+        int outlierLen = last.getShort(6) & 0xffff;
+        assertTrue(outlierLen > 0);
+        assertEquals(0, outlierLen % OffsetSampleProcessor.OUTLIER_SUMMARY_RECORD_SIZE);
+        for(byte[] frame : frames)
+            receiver.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId, frame), 0, false);
+
+        assertEquals(1, received.size());
+        AMTLVData<OffsetGmSample> parsed = received.get(0);
+        assertTrue(parsed.subnetwork_outliers.isEmpty());
+        assertEquals(numSamp, parsed.subnetwork_samples.size());
+        assertEquals(numClocks, parsed.subnetwork_outlier_summaries.size());
+        for(int c = 0; c < numClocks; c++) {
+            OutlierSummary<OffsetGmSample> want = summaries.get(c), got = parsed.subnetwork_outlier_summaries.get(c);
+            assertEquals(want.clock_handle, got.clock_handle);
+            assertEquals(want.count, got.count);
+            assertEquals(want.min.getSample()[0], got.min.getSample()[0], 0);
+            assertEquals(want.max.getSample()[0], got.max.getSample()[0], 0);
+            assertEquals(want.last.getSample()[0], got.last.getSample()[0], 0);
+            assertEquals(want.clock_handle, got.last.getClockHandle());
+            assertEquals(want.getMean(), got.getMean(), 1e-3);
+            assertEquals(want.getDeviation(), got.getDeviation(), 1e-3);
+        }
+
+        //Outliers and summaries cannot share an AMTLV
+        try {
+            new AMTLVData<>(base.timestamp, base.weight, base.clock_id, List.of(), List.of(summaries.get(0).last),
+                    summaries, null, null, base.sequence_id, 0, true);
+            fail("Built an AMTLV with both outliers and summaries");
+        } catch (IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void warmUp() {
+        byte [] amtlvId = new byte[]{0,(byte) 0x0f,(byte) 0x0f, (byte)0x0f, (byte)0x0f, (byte)0x0f, (byte)0x0f, 0};
+        List<OffsetGmSample> samples = IntStream.range(0, 300).mapToObj(i -> new OffsetGmSample(0, 1, i)).collect(Collectors.toList());
+        OffsetSampleProcessor processor = new OffsetSampleProcessor();
+        List<AMTLVData<OffsetGmSample>> received = new LinkedList<>();
+        processor.onAMTLVReceipt(received::add);
+
+        //Both sections are decoded, and no sequence number or partner state is used
+        long networkRep = processor.getNetworkRepresentation();
+        assertEquals(2 * 3 * (299 * 300 / 2.), processor.warmUp(samples, 1500, 3), 0);
+        assertTrue(received.isEmpty());
+        assertEquals(networkRep, processor.getNetworkRepresentation());
+        AMTLVData<OffsetGmSample> next = processor.packageAMTLVData(1, List.of(), new double[0][]);
+        assertEquals(1, next.sequence_id);
+        processor.receivedReverseSync(new SyncData(new PTPTimestamp(0), new PTPTimestamp(0), new byte[10], amtlvId,
+                processor.amtlvToBytes(next, 1500).get(0)), 0, false);
+        assertEquals(1, received.size());
+    }
+
     private List<byte[]> testAmtlvToBytesHelper(int numOutl, int numSamp, int outlWeight, long outlOff, long smplOff, int smplWt, byte [] outlierId) {
-        int totalSize = numOutl * 16 + numSamp * 8 + 8;
+        int totalSize = numOutl * 16 + numSamp * 8 + OffsetSampleProcessor.HEADER_SIZE;
         List<OffsetGmSample> outliers = IntStream.range(0, numOutl).mapToObj(i -> new OffsetGmSample(0, outlWeight, outlOff, outlierId)).collect(Collectors.toList());
         double[][] samples = IntStream.range(0, numSamp).mapToObj(i -> new double[]{smplOff}).toArray(double[][]::new);
 
@@ -172,11 +535,13 @@ public class OffsetSampleProcessorTest {
         //Check length parsing
         assertEquals(numSamp * 8, 0xffff&new BigInteger(Arrays.copyOfRange(data, 4, 6)).longValue());
         assertEquals(numOutl * 16, 0xffff&new BigInteger(Arrays.copyOfRange(data, 6, 8)).longValue());
+        assertEquals(amtlvData.sequence_id, 0xffff&new BigInteger(Arrays.copyOfRange(data, 8, 10)).longValue());
+        assertEquals(0x8000, 0xffff&new BigInteger(Arrays.copyOfRange(data, 10, 12)).longValue()); //Only fragment
 
-        for(int i = 8; i < numSamp * 8; i+= 8)
+        for(int i = OffsetSampleProcessor.HEADER_SIZE; i < numSamp * 8; i+= 8)
             assertEquals(smplOff, (long)PTPTimestamp.fromScaledNs(new BigInteger(Arrays.copyOfRange(data, i, i+8)).longValue()));
 
-        for(int i = numSamp * 8 + 8; i < totalSize; i+=16) {
+        for(int i = numSamp * 8 + OffsetSampleProcessor.HEADER_SIZE; i < totalSize; i+=16) {
             assertEquals(outlOff, (long)PTPTimestamp.fromScaledNs(new BigInteger(Arrays.copyOfRange(data, i, i+8)).longValue()));
             assertArrayEquals(outlierId, Arrays.copyOfRange(data, i+8, i+16));
         }
@@ -194,16 +559,22 @@ public class OffsetSampleProcessorTest {
         List<byte[]> networkData = processor.amtlvToBytes(amtlvData, maxFrameSize);
 
         assertTrue(networkData.stream().allMatch(b->b.length <= maxFrameSize));
-        assertEquals(outlSize + sampleSize + networkData.size()*8, networkData.stream().mapToLong(b->b.length).sum());
+        assertEquals(outlSize + sampleSize + networkData.size()*OffsetSampleProcessor.HEADER_SIZE, networkData.stream().mapToLong(b->b.length).sum());
         assertEquals(smplWt, networkData.stream().mapToLong(b->new BigInteger(Arrays.copyOfRange(b, 0, 4)).longValue()).distinct().sum());
         assertEquals(sampleSize, networkData.stream().mapToLong(b->new BigInteger(Arrays.copyOfRange(b, 4, 6)).longValue()).sum());
         assertEquals(outlSize, networkData.stream().mapToLong(b->new BigInteger(Arrays.copyOfRange(b, 6, 8)).longValue()).sum());
 
+        int fragment = 0;
         for(byte [] data : networkData) {
+            int fragField = 0xffff & new BigInteger(Arrays.copyOfRange(data, 10, 12)).intValue();
+            assertEquals(fragment++, fragField & 0x7fff);
+            assertEquals(fragment == networkData.size(), (fragField & 0x8000) != 0);
+            assertEquals(amtlvData.sequence_id, 0xffff & new BigInteger(Arrays.copyOfRange(data, 8, 10)).intValue());
+
             int smpls2Chk = new BigInteger(Arrays.copyOfRange(data, 4, 6)).intValue();
-            for (int i = 8; i < smpls2Chk; i += 8)
+            for (int i = OffsetSampleProcessor.HEADER_SIZE; i < smpls2Chk; i += 8)
                 assertEquals(smplOff, (long)PTPTimestamp.fromScaledNs(new BigInteger(Arrays.copyOfRange(data, i, i + 8)).longValue()));
-            int off = smpls2Chk + 8;
+            int off = smpls2Chk + OffsetSampleProcessor.HEADER_SIZE;
 
             int outls2Chck = new BigInteger(Arrays.copyOfRange(data, 6, 8)).intValue();
             for(int i = off; i < off + outls2Chck; i+=16) {
@@ -0,0 +1,74 @@
+package edu.unh.artt.core.error_sample.representation;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ClockIdentityRegistryTest {
+
+    @Test
+    public void intern() {
+        assertEquals(ClockIdentityRegistry.EMPTY_HANDLE, ClockIdentityRegistry.shared().intern(new byte[8]));
+
+        byte [] clockId = new byte[]{0,(byte) 0x0a,(byte) 0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, (byte)0x0a, (byte) 0xff};
+        int handle = ClockIdentityRegistry.shared().intern(clockId);
+        assertEquals(handle, ClockIdentityRegistry.shared().intern(clockId.clone()));
+        assertEquals(0x000a0a0a0a0a0affL, ClockIdentityRegistry.shared().getIdentity(handle));
+        assertArrayEquals(clockId, ClockIdentityRegistry.shared().toBytes(handle));
+        assertEquals("000a0a0a0a0a0aff", ClockIdentityRegistry.shared().toHexString(handle));
+        assertTrue(handle < ClockIdentityRegistry.shared().size());
+
+        //Concurrent registration of the same identities must produce a single handle for each
+        long base = 0x7f00000000000000L;
+        Set<Long> pairs = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 20000).parallel().forEach(i -> {
+            long id = base + (i % 5000);
+            pairs.add(((long) ClockIdentityRegistry.shared().intern(id) << 32) | (i % 5000));
+        });
+        assertEquals(5000, pairs.size());
+        for(long pair : pairs)
+            assertEquals(base + (pair & 0xffffffffL), ClockIdentityRegistry.shared().getIdentity((int) (pair >>> 32)));
+
+        try {
+            ClockIdentityRegistry.shared().getIdentity(ClockIdentityRegistry.shared().size());
+            fail("Resolved a handle that was never registered");
+        } catch (IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void maxIdentities() {
+        try {
+            new ClockIdentityRegistry(0);
+            fail("Created a registry that cannot hold the empty identity");
+        } catch (IllegalArgumentException ignored) {}
+
+        //Bounds are per registry, so a full registry does not affect the shared one
+        ClockIdentityRegistry registry = new ClockIdentityRegistry(11);
+        assertEquals(ClockIdentityRegistry.EMPTY_HANDLE, registry.intern(0));
+        int sharedSize = ClockIdentityRegistry.shared().size();
+        for(int i = 1; i <= 10; i++)
+            assertEquals(i, registry.intern(0x7e00000000000000L + i));
+        for(int i = 11; i <= 20; i++) {
+            try {
+                registry.intern(0x7e00000000000000L + i);
+                fail("Registered an identity beyond the bound");
+            } catch (IllegalStateException ignored) {}
+        }
+        assertEquals(11, registry.size());
+        assertEquals(10, registry.getRejectedCount());
+        assertEquals(sharedSize, ClockIdentityRegistry.shared().size());
+        assertEquals(0, ClockIdentityRegistry.shared().getRejectedCount());
+
+        //Identities registered before the bound was reached still resolve
+        assertEquals(3, registry.intern(0x7e00000000000003L));
+        assertEquals(0x7e0000000000000aL, registry.getIdentity(10));
+        try {
+            registry.getIdentity(11);
+            fail("Resolved a rejected identity");
+        } catch (IllegalArgumentException ignored) {}
+    }
+}
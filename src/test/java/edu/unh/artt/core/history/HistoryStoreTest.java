@@ -0,0 +1,132 @@
+package edu.unh.artt.core.history;
+
+import edu.unh.artt.core.error_sample.representation.ClockIdentityRegistry;
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class HistoryStoreTest {
+
+    @Test
+    public void recordAndQuery() throws Exception {
+        Path dir = Files.createTempDirectory("artt-history");
+        byte [] idA = new byte[]{0, 1, 2, 3, 4, 5, 6, 7}, idB = new byte[]{0, 1, 2, 3, 4, 5, 6, 8};
+        int numRecords = 1000;
+        //Small segments, so the records roll over into several files
+        long segmentBytes = ColumnarSegment.HEADER_SIZE + 8 * HistoryStore.OUTLIER_COLUMNS * 128;
+        try {
+            try(HistoryStore store = new HistoryStore(dir, 1, segmentBytes, 4096)) {
+                for(int i = 0; i < numRecords; i++)
+                    assertTrue(store.recordOutlier(new OffsetGmSample(i * 10, 1 + i % 3, -i, (i % 4 == 0) ? idA : idB)));
+                for(int i = 0; i < 20; i++) {
+                    assertTrue(store.recordSnapshot(new ModelSnapshot(i * 500, i, new double[]{i}, new double[]{2 * i},
+                            new double[]{3 * i}, new double[]{4 * i})));
+                }
+                store.flush();
+                assertTrue(store.getSegmentCount() > numRecords / 128);
+                assertEquals(0, store.getDroppedCount());
+
+                List<OutlierRecord> range = store.getOutliers(995, 2000);
+                assertEquals(101, range.size());
+                for(int i = 0; i < range.size(); i++) {
+                    OutlierRecord r = range.get(i);
+                    assertEquals((100 + i) * 10, r.timestamp);
+                    assertEquals(-(100 + i), r.offset, 0);
+                    assertEquals(1 + (100 + i) % 3, r.weight);
+                    assertEquals(r.timestamp, r.toSample().getTimestamp());
+                }
+
+                List<OutlierRecord> clockA = store.getOutliers(ClockIdentityRegistry.shared().intern(idA), 0,
+                        Long.MAX_VALUE);
+                assertEquals(numRecords / 4, clockA.size());
+                for(int i = 0; i < clockA.size(); i++) {
+                    assertEquals(i * 40, clockA.get(i).timestamp);
+                    assertArrayEquals(idA, clockA.get(i).getClockIdentity());
+                }
+                assertEquals(3, store.getOutliers(ClockIdentityRegistry.shared().intern(idB), 0, 40).size());
+
+                //Queries by identity do not register the identities they read
+                int registered = ClockIdentityRegistry.shared().size();
+                assertEquals(3, store.getOutliers(0x0001020304050608L, 0, 40).size());
+                assertEquals(0, store.getOutliers(0x0001020304050609L, 0, Long.MAX_VALUE).size());
+                assertEquals(registered, ClockIdentityRegistry.shared().size());
+
+                List<ModelSnapshot> snapshots = store.getSnapshots(1000, 2000);
+                assertEquals(3, snapshots.size());
+                assertEquals(2, snapshots.get(0).model_version);
+                assertEquals(6, snapshots.get(1).variance[0], 0);
+                assertEquals(16, snapshots.get(2).median_abs_deviation[0], 0);
+
+                try {
+                    store.recordSnapshot(new ModelSnapshot(0, 0, new double[2], new double[2], new double[2],
+                            new double[2]));
+                    fail("Recorded a snapshot of the wrong dimensionality");
+                } catch (IllegalArgumentException ignored) {}
+            }
+
+            //Segments are re-opened and appended to after a restart
+            try(HistoryStore store = new HistoryStore(dir, 1, segmentBytes, 16)) {
+                assertEquals(numRecords, store.getOutliers(Long.MIN_VALUE, Long.MAX_VALUE).size());
+                assertEquals(20, store.getSnapshots(Long.MIN_VALUE, Long.MAX_VALUE).size());
+                store.recordOutlier(new OffsetGmSample(5, 7, 1.5, idA));
+                store.flush();
+                List<OutlierRecord> early = store.getOutliers(ClockIdentityRegistry.shared().intern(idA), 0, 5);
+                assertEquals(2, early.size());
+                assertEquals(7, early.get(1).weight);
+                store.close();
+                assertFalse(store.recordOutlier(new OffsetGmSample(6, 1, 0, idA)));
+                assertEquals(1, store.getDroppedCount());
+            }
+        } finally {
+            try(Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException ignored) {}
+                });
+            }
+        }
+    }
+
+    @Test
+    public void writerStopped() throws Exception {
+        Path dir = Files.createTempDirectory("artt-history");
+        byte [] id = new byte[]{0, 1, 2, 3, 4, 5, 6, 9};
+        try {
+            AtomicReference<Thread> writer = new AtomicReference<>();
+            HistoryStore store = new HistoryStore(dir, 1, ColumnarSegment.HEADER_SIZE + 8 * 4 * 128, 4, task -> {
+                writer.set(new Thread(task, "history-writer"));
+                writer.get().setDaemon(true);
+                return writer.get();
+            });
+            writer.get().interrupt();
+            writer.get().join(5000);
+            assertFalse(writer.get().isAlive());
+
+            //Neither waits on a writer that is gone, whether or not the queue has room
+            store.recordOutlier(new OffsetGmSample(1, 1, 0, id));
+            store.flush();
+            while(store.recordOutlier(new OffsetGmSample(2, 1, 0, id)));
+            store.flush();
+            store.close();
+            assertFalse(store.recordOutlier(new OffsetGmSample(3, 1, 0, id)));
+        } finally {
+            try(Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                    try {
+                        Files.delete(p);
+                    } catch (IOException ignored) {}
+                });
+            }
+        }
+    }
+}
@@ -3,7 +3,11 @@ package edu.unh.artt.core.models;
 import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -67,4 +71,66 @@ public class ErrorModelTest {
 
         assertEquals(sampleSize, model.sample_window.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void seedFrom() {
+        int size = 500;
+        Random rand = new Random(7);
+        GaussianMixtureModel<OffsetGmSample> source = new GaussianMixtureModel<>(size, 1, 2);
+        for(int i = 0; i < size; i++)
+            source.addSample(new OffsetGmSample(i, 1, 10 + 2 * rand.nextGaussian()));
+        assertTrue(source.hasReachedMinSampleWindow());
+        int sinceSent = source.samples_since_last_sent.get();
+
+        //A larger window is filled with draws from the source distribution
+        GaussianMixtureModel<OffsetGmSample> larger = new GaussianMixtureModel<>(size + 300, 1, 2);
+        List<OffsetGmSample> window = larger.seedFrom(source);
+        assertEquals(size, window.size());
+        for(int i = 0; i < size; i++)
+            assertEquals(i, window.get(i).getTimestamp());
+        assertTrue(larger.hasReachedMinSampleWindow());
+        assertEquals(size + 300, larger.sample_window.size());
+        assertEquals(source.getMean()[0], larger.getMean()[0], 0.5);
+        assertSame(window.get(size - 1), larger.sample_window.getFirst());
+        assertEquals(sinceSent, source.samples_since_last_sent.get());
+
+        //A smaller window keeps the most recent samples
+        GaussianMixtureModel<OffsetGmSample> smaller = new GaussianMixtureModel<>(size / 2, 1, 2);
+        smaller.seedFrom(source);
+        assertTrue(smaller.hasReachedMinSampleWindow());
+        assertEquals(size / 2, smaller.sample_window.size());
+        assertEquals(size / 2, smaller.sample_window.getLast().getTimestamp());
+    }
+
+    @Test
+    public void warmUp() {
+        int size = 300;
+        GaussianMixtureModel<OffsetGmSample> model = new GaussianMixtureModel<>(size, 1, 2);
+        AtomicInteger refits = new AtomicInteger(0), probed = new AtomicInteger(0);
+        model.registerRefitCallback(m -> refits.incrementAndGet());
+        Random rand = new Random(3);
+        List<OffsetGmSample> synthetic = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            synthetic.add(new OffsetGmSample(0, 1, rand.nextGaussian()));
+
+        long version = model.getModelVersion();
+        model.warmUp(synthetic, 3, s -> probed.incrementAndGet());
+        assertEquals(0, refits.get());
+        assertEquals(3 * size, probed.get());
+        assertTrue(model.getModelVersion() > version);
+        assertTrue(model.getSamples().isEmpty());
+        assertFalse(model.hasReachedMinSampleWindow());
+
+        //Real samples still fit and notify as usual
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(i, 1, 5 + rand.nextGaussian()));
+        assertEquals(1, refits.get());
+        assertEquals(5, model.getMean()[0], 0.5);
+
+        try {
+            model.warmUp(synthetic, 1);
+            fail("Warmed up a model holding samples");
+        } catch (IllegalStateException ignored) {}
+        assertEquals(size, model.getSamples().size());
+    }
+}
@@ -0,0 +1,81 @@
+package edu.unh.artt.core.models;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class EstimateCacheTest {
+
+    @Test
+    public void quantizedLookup() {
+        EstimateCache cache = new EstimateCache(new double[]{0.5}, 64);
+        AtomicInteger computed = new AtomicInteger(0);
+        assertEquals(64, cache.getCapacity());
+
+        //Points that round to the same unit share the estimate of the rounded point
+        assertEquals(1.5, cache.estimate(new double[]{1.6}, 0, p -> {computed.incrementAndGet(); return p[0];}), 0);
+        assertEquals(1.5, cache.estimate(new double[]{1.4}, 0, p -> {computed.incrementAndGet(); return p[0];}), 0);
+        assertEquals(1, computed.get());
+        assertEquals(0.5, cache.getHitRate(), 0);
+
+        //A new model version misses
+        assertEquals(3, cache.estimate(new double[]{1.5}, 1, p -> {computed.incrementAndGet(); return 2 * p[0];}), 0);
+        assertEquals(2, computed.get());
+        assertEquals(2, cache.getMissCount());
+
+        //Capacity is bounded, with recently used entries kept over others
+        for(int i = 0; i < 1000; i++) {
+            cache.estimate(new double[]{1.5}, 1, p -> 0);
+            cache.estimate(new double[]{i + 10}, 1, p -> 0);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(3, cache.estimate(new double[]{1.5}, 1, p -> 0), 0);
+    }
+
+    @Test
+    public void modelCache() {
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(100, 1);
+        EstimateCache cache = model.enableEstimateCache(new double[]{1}, 256);
+        assertSame(cache, model.getEstimateCache());
+
+        List<OffsetGmSample> samples = IntStream.range(0, 100).mapToObj(i -> new OffsetGmSample(0, 1, i % 10, new byte[8]))
+                .collect(Collectors.toList());
+        model.addSamples(samples);
+        long version = model.getModelVersion();
+        OffsetGmSample point = new OffsetGmSample(0, 1, 5.2, new byte[8]);
+        assertEquals(0.1, model.estimate(point), 1e-9);
+        assertEquals(0.1, model.estimate(point), 1e-9);
+        assertEquals(1, cache.getHitCount());
+
+        //Cached estimates are kept across re-fits until an eighth of the window has been added
+        model.addSamples(IntStream.range(0, 11).mapToObj(i -> new OffsetGmSample(0, 1, 20, new byte[8]))
+                .collect(Collectors.toList()));
+        assertTrue(model.getModelVersion() > version);
+        assertEquals(0.1, model.estimate(point), 1e-9);
+        assertEquals(2, cache.getHitCount());
+        model.addSample(new OffsetGmSample(0, 1, 20, new byte[8]));
+        assertEquals(0.09, model.estimate(point), 1e-9);
+        assertEquals(2, cache.getMissCount());
+
+        model.addSamples(IntStream.range(0, 100).mapToObj(i -> new OffsetGmSample(0, 1, 20, new byte[8]))
+                .collect(Collectors.toList()));
+        assertEquals(0, model.estimate(point), 0);
+        assertEquals(3, cache.getMissCount());
+
+        //Or on every re-fit if requested
+        cache = model.enableEstimateCache(new double[]{1}, 256, 1);
+        assertEquals(0, model.estimate(point), 0);
+        model.addSample(new OffsetGmSample(0, 1, 5, new byte[8]));
+        assertEquals(0.01, model.estimate(point), 1e-9);
+        assertEquals(0, cache.getHitCount());
+
+        model.disableEstimateCache();
+        assertNull(model.getEstimateCache());
+    }
+}
@@ -0,0 +1,162 @@
+package edu.unh.artt.core.models;
+
+import edu.unh.artt.core.error_sample.representation.GaussianMixture;
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class GaussianMixtureModelTest {
+
+    @Test
+    public void computeMetrics() {
+        Random r = new Random(3);
+        int size = 2000;
+        GaussianMixtureModel<OffsetGmSample> model = new GaussianMixtureModel<>(size, 1, 4);
+        assertNull(model.getParameters());
+
+        List<OffsetGmSample> samples = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            samples.add(new OffsetGmSample(0, 1, (i % 4 == 0) ? 200 + r.nextGaussian() * 5 : r.nextGaussian() * 10));
+        model.addSamples(samples);
+
+        GaussianMixture fit = model.getParameters();
+        assertNotNull(fit);
+        assertTrue(fit.getNumComponents() <= 4);
+        assertEquals(50, model.getMean()[0], 2);
+        assertEquals(0.75 * 100 + 0.25 * 25 + 0.75 * 50 * 50 + 0.25 * 150 * 150, model.getVariance()[0], 400);
+
+        //Density should be concentrated on the two modes
+        double[] dens = model.estimate(new double[][] {{0}, {100}, {200}});
+        assertTrue(dens[0] > 10 * dens[1]);
+        assertTrue(dens[2] > 10 * dens[1]);
+        assertEquals(0.75 / Math.sqrt(2 * Math.PI * 100), dens[0], 0.005);
+
+        //Re-sampled data follows the mixture
+        double[][] resampled = model.resample(size);
+        long upper = 0;
+        for(double[] s : resampled)
+            upper += (s[0] > 100) ? 1 : 0;
+        assertEquals(size / 4., upper, size * 0.05);
+    }
+
+    @Test
+    public void parallelFit() {
+        Random r = new Random(5);
+        int size = 20000;
+        GaussianMixtureModel<OffsetGmSample> serial = new GaussianMixtureModel<>(size, 1, 3);
+        GaussianMixtureModel<OffsetGmSample> parallel = new GaussianMixtureModel<>(size, 1, 3);
+        parallel.enableParallelism(ForkJoinPool.commonPool(), 1000);
+
+        List<OffsetGmSample> samples = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            samples.add(new OffsetGmSample(0, 1, (i % 3 == 0) ? 100 + r.nextGaussian() * 5 : r.nextGaussian() * 10));
+        serial.addSamples(samples);
+        parallel.addSamples(samples);
+
+        //Splitting the window only changes the order the sums are added in
+        GaussianMixture a = serial.getParameters(), b = parallel.getParameters();
+        assertEquals(a.getNumComponents(), b.getNumComponents());
+        assertEquals(serial.getMean()[0], parallel.getMean()[0], 1e-6);
+        assertEquals(serial.getVariance()[0], parallel.getVariance()[0], 1e-4);
+
+        double[][] points = new double[5000][1];
+        for(int i = 0; i < points.length; i++)
+            points[i][0] = i * 0.05 - 50;
+        assertArrayEquals(serial.estimate(points), parallel.estimate(points), 1e-9);
+    }
+
+    @Test
+    public void mergeParameters() {
+        GaussianMixtureModel<OffsetGmSample> model = new GaussianMixtureModel<>(100, 1, 2);
+        GaussianMixture a = new GaussianMixture(new double[] {1}, new double[][] {{0}}, new double[][] {{1}});
+        GaussianMixture b = new GaussianMixture(new double[] {1}, new double[][] {{10}}, new double[][] {{4}});
+        GaussianMixture c = new GaussianMixture(new double[] {1}, new double[][] {{11}}, new double[][] {{4}});
+
+        assertTrue(model.mergeParameters(1, a, 1));
+        assertTrue(model.mergeParameters(2, b, 3));
+        assertEquals(7.5, model.getMean()[0], 1e-9);
+
+        //A newer mixture from the same node replaces the previous one
+        assertTrue(model.mergeParameters(2, c, 3));
+        assertEquals(8.25, model.getMean()[0], 1e-9);
+        assertEquals(2, model.getParameters().getNumComponents());
+
+        //Reducing to the component bound preserves the mean and variance
+        assertTrue(model.mergeParameters(3, b, 4));
+        GaussianMixture combined = model.getParameters();
+        assertEquals(2, combined.getNumComponents());
+        double mean = (0 + 3 * 11 + 4 * 10) / 8.;
+        double var = (1 * (1 + 0) + 3 * (4 + 121) + 4 * (4 + 100)) / 8. - mean * mean;
+        assertEquals(mean, combined.getMean()[0], 1e-9);
+        assertEquals(var, combined.getVariance()[0], 1e-9);
+
+        //Dropping a mixture removes its weight from the combination
+        assertTrue(model.removeParameters(3));
+        assertFalse(model.removeParameters(3));
+        assertEquals(8.25, model.getMean()[0], 1e-9);
+
+        model.clearData();
+        assertNull(model.getParameters());
+    }
+
+    @Test
+    public void combineOnExport() {
+        GaussianMixtureModel<OffsetGmSample> model = new GaussianMixtureModel<>(100, 1, 1);
+        GaussianMixture a = new GaussianMixture(new double[] {1}, new double[][] {{0}}, new double[][] {{1}});
+        GaussianMixture b = new GaussianMixture(new double[] {1}, new double[][] {{10}}, new double[][] {{1}});
+
+        //Only a node that was not already represented flags the model for resampling
+        assertTrue(model.mergeParameters(1, a, 1));
+        assertTrue(model.resampleFlag.getAndSet(false));
+        assertTrue(model.mergeParameters(1, b, 1));
+        assertFalse(model.resampleFlag.get());
+        assertTrue(model.mergeParameters(2, a, 1));
+        assertTrue(model.resampleFlag.getAndSet(false));
+        assertTrue(model.removeParameters(2));
+        assertTrue(model.resampleFlag.getAndSet(false));
+
+        //Remote mixtures are reduced to the bound, but the local fit is only reduced along with them on export
+        Random r = new Random(3);
+        List<OffsetGmSample> samples = new ArrayList<>();
+        for(int i = 0; i < 100; i++)
+            samples.add(new OffsetGmSample(0, 1, r.nextGaussian()));
+        model.addSamples(samples);
+        double[] at = model.estimate(new double[][] {{0}, {10}});
+        assertEquals(0.5 * b.density(new double[] {10}), at[1], 0.05);
+        assertTrue(at[0] > 0.1);
+        assertEquals(1, model.getParameters().getNumComponents());
+    }
+
+    @Test
+    public void incrementalFit() {
+        Random r = new Random(7);
+        int size = 1000;
+        GaussianMixtureModel<OffsetGmSample> model = new GaussianMixtureModel<>(size, 1, 2);
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, (i % 2 == 0) ? -50 + r.nextGaussian() : 50 + r.nextGaussian()));
+        assertEquals(0, model.getMean()[0], 1);
+
+        //Each new sample moves the fit without waiting for a batch re-fit of the window
+        for(int i = 0; i < size / 2; i++)
+            model.addSample(new OffsetGmSample(0, 1, 50 + r.nextGaussian()));
+        assertEquals(25, model.getMean()[0], 1);
+        GaussianMixture half = model.getParameters();
+        assertEquals(2, half.getNumComponents());
+        for(int k = 0; k < 2; k++) {
+            double expectedWeight = (half.getMean(k, 0) < 0) ? 0.25 : 0.75;
+            assertEquals(expectedWeight, half.getWeight(k), 0.02);
+        }
+
+        //Once the window has turned over, only the upper mode is left
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, 50 + r.nextGaussian()));
+        assertEquals(50, model.getMean()[0], 0.5);
+        assertEquals(1, model.getVariance()[0], 0.2);
+    }
+}
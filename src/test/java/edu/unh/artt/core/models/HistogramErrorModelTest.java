@@ -0,0 +1,114 @@
+package edu.unh.artt.core.models;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistogramErrorModelTest {
+
+    @Test
+    public void addAndEvict() {
+        int size = 1000;
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(size, 1);
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, i % 10));
+        assertTrue(model.hasReachedMinSampleWindow());
+        assertEquals(5, model.getMean()[0], 1e-9);
+        assertEquals(99. / 12 + 1. / 12, model.getVariance()[0], 1e-9);
+        assertEquals(0.1, model.estimate(new double[][] {{3.5}})[0], 1e-9);
+        assertEquals(0, model.estimate(new double[][] {{10.5}})[0], 0);
+
+        //Replace the whole window, the old values must be removed from the bins
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, 1000.25));
+        assertEquals(1000.5, model.getMean()[0], 1e-9);
+        assertEquals(1. / 12, model.getVariance()[0], 1e-9);
+        assertEquals(1, model.estimate(new double[][] {{1000.9}})[0], 1e-9);
+        assertEquals(0, model.estimate(new double[][] {{3.5}})[0], 0);
+
+        //Weights are respected
+        model.clearData();
+        List<OffsetGmSample> samples = new ArrayList<>();
+        for(int i = 0; i < size; i++)
+            samples.add(new OffsetGmSample(0, (i % 2 == 0) ? 3 : 1, (i % 2 == 0) ? -10 : 10));
+        model.addSamples(samples);
+        assertEquals(-4.5, model.getMean()[0], 1e-9);
+    }
+
+    @Test
+    public void widen() {
+        int size = 100;
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(size, 1, 1024);
+        for(int i = 0; i < size - 1; i++)
+            model.addSample(new OffsetGmSample(0, 1, 0));
+        model.addSample(new OffsetGmSample(0, 1, -500));
+        assertEquals(1, model.getBinWidth(), 0);
+        assertEquals(-5 + 0.5, model.getMean()[0], 1e-9);
+
+        //Exceeding the bin limit reduces the resolution, but every sample is still accounted for
+        model.addSample(new OffsetGmSample(0, 1, 1e6));
+        assertTrue(model.getBinWidth() >= 1e6 / 1024);
+        double[] dens = model.estimate(new double[][] {{0}, {-500}, {1e6}});
+        double width = model.getBinWidth();
+        assertEquals(98 / (100 * width), dens[0], 1e-12);
+        assertEquals(1 / (100 * width), dens[2], 1e-12);
+
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, 7));
+        assertEquals(1 / width, model.estimate(new double[][] {{7}})[0], 1e-12);
+    }
+
+    @Test
+    public void runningMoments() {
+        Random r = new Random(9);
+        int size = 500;
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(size, 1, 256);
+        for(int round = 0; round < 6; round++) {
+            //Windows far from 0 and wider than the bin limit, so the histogram is coarsened along the way
+            double center = 1e9 + round * 300;
+            for(int i = 0; i < size; i++)
+                model.addSample(new OffsetGmSample(0, 1 + i % 3, center + r.nextGaussian() * 40 * (round + 1)));
+
+            //The running moments must match the moments of the bin centers
+            double width = model.getBinWidth(), sum = 0, sumSq = 0, total = 0;
+            for(OffsetGmSample s : model.getSamples()) {
+                double c = (Math.floor(s.getSample(0) / width) + 0.5) * width;
+                sum += s.getWeight() * c;
+                total += s.getWeight();
+            }
+            double mean = sum / total;
+            for(OffsetGmSample s : model.getSamples()) {
+                double c = (Math.floor(s.getSample(0) / width) + 0.5) * width;
+                sumSq += s.getWeight() * (c - mean) * (c - mean);
+            }
+            assertEquals(mean, model.getMean()[0], 1e-6);
+            assertEquals(sumSq / total + width * width / 12, model.getVariance()[0], 1e-6 * model.getVariance()[0]);
+        }
+        assertTrue(model.getBinWidth() > 1);
+    }
+
+    @Test
+    public void resample() {
+        Random r = new Random(5);
+        int size = 5000;
+        HistogramErrorModel<OffsetGmSample> model = new HistogramErrorModel<>(size, 0.5);
+        for(int i = 0; i < size; i++)
+            model.addSample(new OffsetGmSample(0, 1, r.nextGaussian() * 20 + 100));
+
+        double[][] resampled = model.resample(size);
+        assertEquals(size, resampled.length);
+        double sum = 0, sumSq = 0;
+        for(double[] s : resampled) {
+            sum += s[0];
+            sumSq += s[0] * s[0];
+        }
+        double mean = sum / size;
+        assertEquals(model.getMean()[0], mean, 1.5);
+        assertEquals(model.getStandardDeviation()[0], Math.sqrt(sumSq / size - mean * mean), 1.5);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.unh.artt.core.models;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KDTreeDensityEvaluatorTest {
+
+    private static double bruteForce(double[][] samples, double[] bandwidths, double[] point) {
+        double sum = 0, norm = 1;
+        for(int dim = 0; dim < samples.length; dim++)
+            norm /= Math.sqrt(2 * Math.PI) * bandwidths[dim];
+        for(int i = 0; i < samples[0].length; i++) {
+            double dist = 0;
+            for(int dim = 0; dim < samples.length; dim++) {
+                double u = (samples[dim][i] - point[dim]) / bandwidths[dim];
+                dist += u * u;
+            }
+            sum += Math.exp(-0.5 * dist);
+        }
+        return sum * norm / samples[0].length;
+    }
+
+    @Test
+    public void estimate() {
+        Random r = new Random(7);
+        int [] sizes = new int[] {1, 15, 100, 8193};
+        for(int numDim = 1; numDim < 3; numDim++) {
+            for(int size : sizes) {
+                double[][] samples = new double[numDim][size];
+                for(int dim = 0; dim < numDim; dim++)
+                    for(int i = 0; i < size; i++)
+                        samples[dim][i] = 100 * dim + r.nextGaussian() * 5 + ((i % 2 == 0) ? 20 : 0);
+                double[] bandwidths = new double[numDim];
+                for(int dim = 0; dim < numDim; dim++)
+                    bandwidths[dim] = 5 * Math.pow(size, -1. / (numDim + 4));
+
+                double tolerance = 1e-3;
+                KDTreeDensityEvaluator tree = new KDTreeDensityEvaluator(samples, null, bandwidths, 8, tolerance);
+                assertEquals(size, tree.size());
+                for(int q = 0; q < 50; q++) {
+                    double[] point = new double[numDim];
+                    for(int dim = 0; dim < numDim; dim++)
+                        point[dim] = 100 * dim + r.nextGaussian() * 10 + 10;
+                    double exact = bruteForce(samples, bandwidths, point);
+                    double approx = tree.estimate(point);
+                    assertTrue(Math.abs(exact - approx) <= tolerance * exact + 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compactKernels() {
+        Random r = new Random(9);
+        for(int numDim = 1; numDim < 3; numDim++) {
+            int size = 3000;
+            double[][] samples = new double[numDim][size];
+            for(int dim = 0; dim < numDim; dim++)
+                for(int i = 0; i < size; i++)
+                    samples[dim][i] = r.nextGaussian() * 5;
+            double[] bandwidths = new double[numDim];
+            Arrays.fill(bandwidths, 1);
+
+            for(Kernel kernel : new Kernel[] {Kernel.TRUNCATED_GAUSSIAN, Kernel.EPANECHNIKOV, Kernel.TRIWEIGHT}) {
+                double radius = 2.5;
+                KDTreeDensityEvaluator tree = new KDTreeDensityEvaluator(samples, null, bandwidths, kernel, radius, 0);
+
+                //Each kernel integrates to 1, so does the density
+                double step = 0.1, integral = 0;
+                double[] point = new double[numDim];
+                if(numDim == 1) {
+                    for(point[0] = -30; point[0] < 30; point[0] += step)
+                        integral += tree.estimate(point) * step;
+                } else {
+                    for(point[0] = -30; point[0] < 30; point[0] += step * 2)
+                        for(point[1] = -30; point[1] < 30; point[1] += step * 2)
+                            integral += tree.estimate(point) * step * step * 4;
+                }
+                assertEquals(1, integral, 0.01);
+
+                //Matches the sum over every sample in the window
+                double norm = kernel.normalization(numDim, radius);
+                for(int q = 0; q < 20; q++) {
+                    for(int dim = 0; dim < numDim; dim++)
+                        point[dim] = r.nextGaussian() * 5;
+                    double exact = 0;
+                    for(int i = 0; i < size; i++) {
+                        double dist = 0;
+                        for(int dim = 0; dim < numDim; dim++)
+                            dist += (samples[dim][i] - point[dim]) * (samples[dim][i] - point[dim]);
+                        exact += kernel.profile(dist, radius * radius);
+                    }
+                    assertEquals(exact * norm / size, tree.estimate(point), 1e-12);
+                }
+            }
+        }
+        assertEquals(0.6826894921370859, Kernel.regularizedGammaP(0.5, 0.5), 1e-12);
+        assertEquals(1 - Math.exp(-3), Kernel.regularizedGammaP(1, 3), 1e-12);
+        assertEquals(1, Kernel.regularizedGammaP(1.5, 1000), 0);
+    }
+
+    @Test
+    public void cutoff() {
+        double[][] samples = new double[][] {{0, 0, 0, 10}};
+        KDTreeDensityEvaluator tree = new KDTreeDensityEvaluator(samples, null, new double[]{1}, 3, 0);
+        assertEquals(0, tree.estimate(new double[]{5}), 0);
+        assertEquals(0.75 / Math.sqrt(2 * Math.PI), tree.estimate(new double[]{0}), 1e-12);
+        assertEquals(0, tree.estimate(new double[][]{{-1000}})[0], 0);
+    }
+}
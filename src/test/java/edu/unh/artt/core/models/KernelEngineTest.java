@@ -0,0 +1,77 @@
+package edu.unh.artt.core.models;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KernelEngineTest {
+
+    @Test
+    public void fastExp() {
+        for(double x = -708; x <= 709; x += 0.0137) {
+            double exact = Math.exp(x);
+            assertEquals(exact, KernelEngine.fastExp(x), exact * 1e-13);
+        }
+        assertEquals(1, KernelEngine.fastExp(0), 0);
+        assertEquals(0, KernelEngine.fastExp(-1000), 0);
+        assertEquals(0, KernelEngine.fastExp(Double.NEGATIVE_INFINITY), 0);
+        assertEquals(Double.POSITIVE_INFINITY, KernelEngine.fastExp(1000), 0);
+        assertTrue(Double.isNaN(KernelEngine.fastExp(Double.NaN)));
+    }
+
+    @Test
+    public void gaussianSum() {
+        Random r = new Random(13);
+        KernelEngine scalar = new ScalarKernelEngine(), selected = KernelEngine.getInstance();
+        for(int numDim = 1; numDim <= 3; numDim++) {
+            int size = 1001;
+            double[][] columns = new double[numDim][size];
+            double[] weights = new double[size], invBandwidths = new double[numDim], point = new double[numDim];
+            for(int dim = 0; dim < numDim; dim++) {
+                for(int i = 0; i < size; i++)
+                    columns[dim][i] = r.nextGaussian() * 10;
+                invBandwidths[dim] = 0.5;
+            }
+            for(int i = 0; i < size; i++)
+                weights[i] = 1 + r.nextInt(5);
+
+            //Blocks that do and do not fill whole vectors, with and without a cutoff
+            for(int[] block : new int[][] {{0, size}, {3, 10}, {17, 17}, {500, 533}}) {
+                for(double cutoff : new double[] {Double.POSITIVE_INFINITY, 9}) {
+                    double exact = 0;
+                    for(int i = block[0]; i < block[1]; i++) {
+                        double dist = 0;
+                        for(int dim = 0; dim < numDim; dim++) {
+                            double u = (columns[dim][i] - point[dim]) * invBandwidths[dim];
+                            dist += u * u;
+                        }
+                        exact += (dist <= cutoff) ? weights[i] * Math.exp(-0.5 * dist) : 0;
+                    }
+                    assertEquals(exact, scalar.gaussianSum(columns, weights, block[0], block[1], point,
+                            invBandwidths, cutoff), exact * 1e-12);
+                    assertEquals(exact, selected.gaussianSum(columns, weights, block[0], block[1], point,
+                            invBandwidths, cutoff), exact * 1e-12);
+                }
+
+                for(int power : new int[] {1, 3}) {
+                    Kernel kernel = (power == 1) ? Kernel.EPANECHNIKOV : Kernel.TRIWEIGHT;
+                    double exact = 0;
+                    for(int i = block[0]; i < block[1]; i++) {
+                        double dist = 0;
+                        for(int dim = 0; dim < numDim; dim++) {
+                            double u = (columns[dim][i] - point[dim]) * invBandwidths[dim];
+                            dist += u * u;
+                        }
+                        exact += weights[i] * kernel.profile(dist, 9);
+                    }
+                    assertEquals(exact, scalar.polynomialSum(columns, weights, block[0], block[1], point,
+                            invBandwidths, 9, power), exact * 1e-12);
+                    assertEquals(exact, selected.polynomialSum(columns, weights, block[0], block[1], point,
+                            invBandwidths, 9, power), exact * 1e-12);
+                }
+            }
+        }
+    }
+}
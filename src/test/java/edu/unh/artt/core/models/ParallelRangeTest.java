@@ -0,0 +1,80 @@
+package edu.unh.artt.core.models;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelRangeTest {
+
+    @Test
+    public void reduce() {
+        int size = 100000;
+        long[] values = new long[size];
+        for(int i = 0; i < size; i++)
+            values[i] = i;
+        ParallelRange.RangeFunction<Long> sum = (from, to) -> {
+            long s = 0;
+            for(int i = from; i < to; i++)
+                s += values[i];
+            return s;
+        };
+        long expected = (long) size * (size - 1) / 2;
+        assertEquals(expected, (long) ParallelRange.reduce(null, size, 1000, sum, Long::sum));
+        assertEquals(expected, (long) ParallelRange.reduce(ForkJoinPool.commonPool(), size, 1000, sum, Long::sum));
+        assertEquals(0L, (long) ParallelRange.reduce(ForkJoinPool.commonPool(), 0, 1000, sum, Long::sum));
+
+        //Every index is visited exactly once
+        int[] visits = new int[size];
+        ParallelRange.forEach(ForkJoinPool.commonPool(), size, 7, (from, to) -> {
+            for(int i = from; i < to; i++)
+                visits[i]++;
+        });
+        for(int v : visits)
+            assertEquals(1, v);
+
+        try {
+            ParallelRange.reduce(null, size, 0, sum, Long::sum);
+            fail("Expected exception");
+        } catch(IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void moments() {
+        Random r = new Random(11);
+        double[][] points = new double[10001][2];
+        for(double[] p : points) {
+            p[0] = 1e6 + r.nextGaussian();
+            p[1] = r.nextGaussian() * 100;
+        }
+
+        Moments direct = new Moments(2);
+        for(double[] p : points)
+            direct.add(p);
+        Moments split = ParallelRange.reduce(ForkJoinPool.commonPool(), points.length, 100, (from, to) -> {
+            Moments m = new Moments(2);
+            for(int i = from; i < to; i++)
+                m.add(points[i]);
+            return m;
+        }, Moments::combine);
+
+        double[] mean = new double[2], var = new double[2];
+        for(double[] p : points) {
+            mean[0] += p[0] / points.length;
+            mean[1] += p[1] / points.length;
+        }
+        for(double[] p : points) {
+            var[0] += (p[0] - mean[0]) * (p[0] - mean[0]) / (points.length - 1);
+            var[1] += (p[1] - mean[1]) * (p[1] - mean[1]) / (points.length - 1);
+        }
+
+        assertEquals(points.length, split.getCount());
+        assertArrayEquals(mean, direct.getMean(), 1e-6);
+        assertArrayEquals(mean, split.getMean(), 1e-6);
+        assertArrayEquals(var, direct.getVariance(), 1e-6);
+        assertArrayEquals(var, split.getVariance(), 1e-6);
+        assertArrayEquals(new double[2], new Moments(2).getVariance(), 0);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.models.ErrorModel;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CascadeOutlierDetectorTest {
+
+    @Test
+    public void robustZScore() {
+        ErrorModel<OffsetGmSample> model = new NormalErrorModel(100, 5, 5000, 3);
+        assertEquals(100, model.getMedian()[0], 0.5);
+        assertEquals(5 / RobustZScoreOutlierDetector.MAD_SCALE, model.getMedianAbsoluteDeviation()[0], 0.5);
+
+        RobustZScoreOutlierDetector<OffsetGmSample> detector = new RobustZScoreOutlierDetector<>(model, 2, 5);
+        assertEquals(ScreeningOutlierDetector.Verdict.INLIER, detector.classify(new OffsetGmSample(0, 1, 105)));
+        assertEquals(ScreeningOutlierDetector.Verdict.BORDERLINE, detector.classify(new OffsetGmSample(0, 1, 85)));
+        assertEquals(ScreeningOutlierDetector.Verdict.OUTLIER, detector.classify(new OffsetGmSample(0, 1, 200)));
+        assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, 85)));
+        assertTrue(detector.isOutlier(new OffsetGmSample(0, 1, Integer.MIN_VALUE)));
+    }
+
+    @Test
+    public void robustZScoreDrift() {
+        ErrorModel<OffsetGmSample> model = new NormalErrorModel(0, 5, 1000, 3);
+        RobustZScoreOutlierDetector<OffsetGmSample> detector = new RobustZScoreOutlierDetector<>(model, 2, 5);
+        assertEquals(ScreeningOutlierDetector.Verdict.OUTLIER, detector.classify(new OffsetGmSample(0, 1, 500)));
+
+        //Shift the window entirely, the statistics of the old samples must not be used any more
+        Random r = new Random(5);
+        for(int i = 0; i < 1000; i++)
+            model.addSample(new OffsetGmSample(0, 1, 500 + r.nextGaussian() * 5));
+        assertEquals(500, model.getMedian()[0], 0.5);
+        assertEquals(5 / RobustZScoreOutlierDetector.MAD_SCALE, model.getMedianAbsoluteDeviation()[0], 0.5);
+        assertEquals(ScreeningOutlierDetector.Verdict.INLIER, detector.classify(new OffsetGmSample(0, 1, 500)));
+        assertEquals(ScreeningOutlierDetector.Verdict.OUTLIER, detector.classify(new OffsetGmSample(0, 1, 0)));
+
+        //The statistics are only re-computed once an eighth of the window has been replaced
+        double median = model.getMedian()[0];
+        for(int i = 0; i < 1000 / 8 - 1; i++)
+            model.addSample(new OffsetGmSample(0, 1, -500 + r.nextGaussian() * 5));
+        assertEquals(median, model.getMedian()[0], 0);
+        model.addSample(new OffsetGmSample(0, 1, -500 + r.nextGaussian() * 5));
+        assertTrue(model.getMedian()[0] < median);
+
+        //Half way through a shift the median sits between the two levels
+        for(int i = 0; i < 500 - 1000 / 8; i++)
+            model.addSample(new OffsetGmSample(0, 1, -500 + r.nextGaussian() * 5));
+        assertTrue(Math.abs(model.getMedian()[0]) < 500);
+        model.clearData();
+        assertTrue(Double.isNaN(model.getMedian()[0]));
+    }
+
+    @Test
+    public void mahalanobis() {
+        ErrorModel<OffsetGmSample> model = new NormalErrorModel(-50, 2, 100, 3);
+        MahalanobisOutlierDetector<OffsetGmSample> detector = new MahalanobisOutlierDetector<>(model, 1, 3);
+        assertEquals(0, detector.score(new OffsetGmSample(0, 1, -50)), 0);
+        assertEquals(2, detector.score(new OffsetGmSample(0, 1, -46)), 1e-9);
+        assertEquals(ScreeningOutlierDetector.Verdict.BORDERLINE, detector.classify(new OffsetGmSample(0, 1, -46)));
+        assertTrue(detector.isOutlier(new OffsetGmSample(0, 1, -40)));
+        assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, -51)));
+    }
+
+    @Test
+    public void isOutlier() {
+        ErrorModel<OffsetGmSample> model = new NormalErrorModel(0, 1, 100, 3);
+        List<OffsetGmSample> escalated = new LinkedList<>();
+        OutlierDetector<OffsetGmSample> secondStage = new OutlierDetector<>(model) {
+            @Override
+            public boolean isOutlier(OffsetGmSample sample) {
+                escalated.add(sample);
+                return true;
+            }
+        };
+        CascadeOutlierDetector<OffsetGmSample> cascade = new CascadeOutlierDetector<>(
+                new MahalanobisOutlierDetector<>(model, 1, 3), secondStage);
+
+        assertFalse(cascade.isOutlier(new OffsetGmSample(0, 1, 0.5)));
+        assertTrue(cascade.isOutlier(new OffsetGmSample(0, 1, 10)));
+        assertTrue(escalated.isEmpty());
+        assertTrue(cascade.isOutlier(new OffsetGmSample(0, 1, -2)));
+        assertEquals(1, escalated.size());
+        assertEquals(3, cascade.getScreenedCount());
+        assertEquals(1, cascade.getEscalatedCount());
+    }
+}
@@ -0,0 +1,61 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.models.ErrorModel;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * One dimensional model with an analytic normal pdf and fixed moments, so the results of the detectors built on it are
+ * known. The window is filled with samples drawn from the same distribution.
+ */
+class NormalErrorModel extends ErrorModel<OffsetGmSample> {
+    private final double mean, stdev;
+
+    /**
+     * @param mean Mean of the distribution
+     * @param stdev Standard deviation of the distribution
+     * @param size Size of the window, which is filled right away
+     * @param seed Seed of the random samples filling the window
+     */
+    NormalErrorModel(double mean, double stdev, int size, long seed) {
+        super(size, 1);
+        this.mean = mean;
+        this.stdev = stdev;
+        Random r = new Random(seed);
+        List<OffsetGmSample> samples = IntStream.range(0, size).mapToObj(
+                i -> new OffsetGmSample(0, 1, mean + r.nextGaussian() * stdev)).collect(Collectors.toList());
+        addSamples(samples);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public void computeMetrics(LinkedList<OffsetGmSample> sampleIterator) {}
+
+    @Override
+    protected double[][] resampleImpl(int newWindow) {return new double[0][]; }
+
+    @Override
+    public double[] estimate(double[][] pointWindow) {
+        return Arrays.stream(pointWindow).mapToDouble(p -> {
+            double z = (p[0] - mean) / stdev;
+            return Math.exp(-0.5 * z * z) / (stdev * Math.sqrt(2 * Math.PI));
+        }).toArray();
+    }
+
+    @Override
+    public double[] getMean() {return new double[]{mean}; }
+
+    @Override
+    public double[] getVariance() {return new double[]{stdev * stdev};}
+
+    @Override
+    public double[] getStandardDeviation() {return new double[]{stdev};}
+}
@@ -0,0 +1,66 @@
+package edu.unh.artt.core.outlier;
+
+import edu.unh.artt.core.error_sample.representation.OffsetGmSample;
+import edu.unh.artt.core.models.ErrorModel;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TailProbabilityOutlierDetectorTest {
+
+    @Test
+    public void isOutlier() {
+        double [] stdevs = new double[] {0.5, 20, 1e6};
+        double [] means = new double[] {0, -500, Integer.MAX_VALUE};
+        int [] sizes = new int[] {100, 8193};
+        for(double stdev : stdevs) {
+            for(double mean : means) {
+                for(int size : sizes) {
+                    ErrorModel<OffsetGmSample> model = new NormalErrorModel(mean, stdev, size, 11);
+                    TailProbabilityOutlierDetector<OffsetGmSample> detector =
+                            new TailProbabilityOutlierDetector<>(model, 0.01, 1024);
+
+                    //Two-sided tail of the standard normal at 1 and 2 standard deviations
+                    assertEquals(1, detector.tailProbability(new OffsetGmSample(0, 1, mean)), 0.01);
+                    assertEquals(0.3173, detector.tailProbability(new OffsetGmSample(0, 1, mean + stdev)), 0.01);
+                    assertEquals(0.0455, detector.tailProbability(new OffsetGmSample(0, 1, mean - 2 * stdev)), 0.01);
+
+                    assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, mean)));
+                    assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, mean + 2 * stdev)));
+                    assertTrue(detector.isOutlier(new OffsetGmSample(0, 1, mean + 4 * stdev)));
+                    assertTrue(detector.isOutlier(new OffsetGmSample(0, 1, mean - 1000 * stdev)));
+                    assertTrue(detector.isOutlier(new OffsetGmSample(0, 1, Long.MIN_VALUE >> 16)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rebuildInterval() {
+        AtomicInteger builds = new AtomicInteger(0);
+        ErrorModel<OffsetGmSample> model = new NormalErrorModel(0, 1, 80, 11) {
+            @Override
+            public double[] estimate(double[][] pointWindow) {
+                builds.incrementAndGet();
+                return super.estimate(pointWindow);
+            }
+        };
+        TailProbabilityOutlierDetector<OffsetGmSample> detector = new TailProbabilityOutlierDetector<>(model, 0.01, 64);
+        assertEquals(0, builds.get());
+        assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, 0)));
+        assertEquals(1, builds.get());
+
+        //Re-fits alone never build the table, and checks only rebuild it once the model has changed 80 / 8 times
+        for(int i = 0; i < 9; i++)
+            model.addSample(new OffsetGmSample(0, 1, 0));
+        assertEquals(1, builds.get());
+        assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, 0)));
+        assertEquals(1, builds.get());
+        model.addSample(new OffsetGmSample(0, 1, 0));
+        assertEquals(1, builds.get());
+        assertFalse(detector.isOutlier(new OffsetGmSample(0, 1, 0)));
+        assertEquals(2, builds.get());
+    }
+}
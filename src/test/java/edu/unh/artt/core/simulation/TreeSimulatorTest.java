@@ -0,0 +1,37 @@
+package edu.unh.artt.core.simulation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TreeSimulatorTest {
+
+    @Test
+    public void run() {
+        TreeSimulator.Config cfg = new TreeSimulator.Config();
+        cfg.depth = 2;
+        cfg.fan_out = 3;
+        cfg.local_window = 32;
+        cfg.network_window = 32;
+        cfg.faulty_fraction = 0.25;
+        cfg.fault_onset_round = 150;
+        cfg.rounds = 200;
+
+        TreeSimulator.Report report = new TreeSimulator(cfg).run();
+        assertEquals(3, report.levels.size());
+        assertEquals(1, report.levels.get(0).num_nodes);
+        assertEquals(9, report.levels.get(2).num_nodes);
+
+        //Leaves send no AMTLVs, every other level sends at least a header per Sync
+        assertEquals(0, report.levels.get(2).bytes_sent);
+        assertTrue(report.levels.get(1).bytes_sent >= 3L * cfg.rounds * 8);
+        assertTrue(report.levels.get(1).bytes_per_second > 0);
+        assertTrue(report.levels.get(1).cpu_ns > 0);
+
+        //Faults are detected at the root within a few Sync intervals, whether the node is a child of the root or not
+        assertEquals(3, report.num_faulty);
+        assertEquals(report.num_faulty, report.detection_latency_ns.size());
+        for(long latency : report.detection_latency_ns.values())
+            assertTrue(latency <= 5 * cfg.sync_interval_ns);
+    }
+}